@@ -0,0 +1,124 @@
+package com.octopus.teamcity.opentelemetry.agent;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+
+// Samples the processes the build started - everything below the agent's own process. CPU time comes from
+// ProcessHandle, so works everywhere; rss and disk io come from /proc/<pid>/status and /proc/<pid>/io, and network
+// io from /proc/net/dev, so are only there on Linux (and network io covers the whole machine, or container).
+// Per process totals are remembered between samples so that a process exiting doesn't make the totals go down;
+// whatever it used after the previous sample is lost, which at a few seconds apart hardly matters.
+public class ProcessTreeSampler {
+    private final Path procRoot;
+    private final ProcessHandle root;
+    private final boolean hasProc;
+
+    private Map<Long, long[]> previousByPid = new HashMap<>();
+    private long[] previousNetwork;
+
+    public ProcessTreeSampler() {
+        this(Paths.get("/proc"), ProcessHandle.current());
+    }
+
+    ProcessTreeSampler(Path procRoot, ProcessHandle root) {
+        this.procRoot = procRoot;
+        this.root = root;
+        this.hasProc = Files.isDirectory(procRoot);
+        // the first sample should only count what was used after we started
+        sample(System.currentTimeMillis());
+    }
+
+    public ResourceSample sample(long nowMs) {
+        long cpuMs = 0, rssBytes = 0, readBytes = 0, writeBytes = 0;
+        var currentByPid = new HashMap<Long, long[]>();
+        var descendants = root.descendants().iterator();
+        while (descendants.hasNext()) {
+            var process = descendants.next();
+            var pid = process.pid();
+            var cpu = process.info().totalCpuDuration().map(d -> d.toMillis()).orElse(0L);
+            var io = hasProc ? readIo(pid) : null;
+            var totals = new long[] { cpu, io == null ? 0 : io[0], io == null ? 0 : io[1] };
+            currentByPid.put(pid, totals);
+
+            var previous = previousByPid.get(pid);
+            cpuMs += delta(totals[0], previous == null ? 0 : previous[0]);
+            readBytes += delta(totals[1], previous == null ? 0 : previous[1]);
+            writeBytes += delta(totals[2], previous == null ? 0 : previous[2]);
+            if (hasProc) rssBytes += readRssBytes(pid);
+        }
+        previousByPid = currentByPid;
+
+        long receiveBytes = 0, transmitBytes = 0;
+        var network = hasProc ? readNetwork() : null;
+        if (network != null) {
+            if (previousNetwork != null) {
+                receiveBytes = delta(network[0], previousNetwork[0]);
+                transmitBytes = delta(network[1], previousNetwork[1]);
+            }
+            previousNetwork = network;
+        }
+        return new ResourceSample(nowMs, cpuMs, rssBytes, readBytes, writeBytes, receiveBytes, transmitBytes);
+    }
+
+    private static long delta(long current, long previous) {
+        // pids get reused, so a "previous" can belong to another process
+        return current >= previous ? current - previous : current;
+    }
+
+    private long readRssBytes(long pid) {
+        try {
+            for (String line : Files.readAllLines(procRoot.resolve(pid + "/status"))) {
+                if (line.startsWith("VmRSS:")) {
+                    return parseFirstNumber(line.substring("VmRSS:".length())) * 1024;
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            // the process has exited, or isn't ours to look at
+        }
+        return 0;
+    }
+
+    // read_bytes and write_bytes - what actually went to or from the disk, rather than the page cache
+    @Nullable
+    private long[] readIo(long pid) {
+        try {
+            long read = 0, write = 0;
+            for (String line : Files.readAllLines(procRoot.resolve(pid + "/io"))) {
+                if (line.startsWith("read_bytes:")) read = parseFirstNumber(line.substring("read_bytes:".length()));
+                else if (line.startsWith("write_bytes:")) write = parseFirstNumber(line.substring("write_bytes:".length()));
+            }
+            return new long[] { read, write };
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    @Nullable
+    private long[] readNetwork() {
+        try {
+            long receive = 0, transmit = 0;
+            for (String line : Files.readAllLines(procRoot.resolve("net/dev"))) {
+                var colon = line.indexOf(':');
+                if (colon < 0) continue; // the two header lines
+                if (line.substring(0, colon).trim().equals("lo")) continue;
+                var fields = line.substring(colon + 1).trim().split("\\s+");
+                if (fields.length < 9) continue;
+                receive += Long.parseLong(fields[0]);
+                transmit += Long.parseLong(fields[8]);
+            }
+            return new long[] { receive, transmit };
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    private static long parseFirstNumber(String text) {
+        return Long.parseLong(text.trim().split("\\s+")[0]);
+    }
+}
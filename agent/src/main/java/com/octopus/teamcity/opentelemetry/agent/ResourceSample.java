@@ -0,0 +1,61 @@
+package com.octopus.teamcity.opentelemetry.agent;
+
+// What the build's processes used since the previous sample. Only rss is a level rather than a change.
+public final class ResourceSample {
+    private final long timestampMs;
+    private final long cpuMs;
+    private final long rssBytes;
+    private final long diskReadBytes;
+    private final long diskWriteBytes;
+    private final long networkReceiveBytes;
+    private final long networkTransmitBytes;
+
+    public ResourceSample(long timestampMs, long cpuMs, long rssBytes, long diskReadBytes, long diskWriteBytes, long networkReceiveBytes, long networkTransmitBytes) {
+        this.timestampMs = timestampMs;
+        this.cpuMs = cpuMs;
+        this.rssBytes = rssBytes;
+        this.diskReadBytes = diskReadBytes;
+        this.diskWriteBytes = diskWriteBytes;
+        this.networkReceiveBytes = networkReceiveBytes;
+        this.networkTransmitBytes = networkTransmitBytes;
+    }
+
+    public long getTimestampMs() {
+        return timestampMs;
+    }
+
+    public long getCpuMs() {
+        return cpuMs;
+    }
+
+    public long getRssBytes() {
+        return rssBytes;
+    }
+
+    public long getDiskReadBytes() {
+        return diskReadBytes;
+    }
+
+    public long getDiskWriteBytes() {
+        return diskWriteBytes;
+    }
+
+    public long getNetworkReceiveBytes() {
+        return networkReceiveBytes;
+    }
+
+    public long getNetworkTransmitBytes() {
+        return networkTransmitBytes;
+    }
+
+    // One line of the format described alongside PluginConstants.RESOURCE_SAMPLES_PATH.
+    public void appendTo(StringBuilder line) {
+        line.append(timestampMs).append(' ')
+                .append(cpuMs).append(' ')
+                .append(rssBytes).append(' ')
+                .append(diskReadBytes).append(' ')
+                .append(diskWriteBytes).append(' ')
+                .append(networkReceiveBytes).append(' ')
+                .append(networkTransmitBytes).append('\n');
+    }
+}
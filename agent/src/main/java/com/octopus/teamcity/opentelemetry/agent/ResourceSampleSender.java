@@ -0,0 +1,54 @@
+package com.octopus.teamcity.opentelemetry.agent;
+
+import com.octopus.teamcity.opentelemetry.common.PluginConstants;
+import org.apache.log4j.Logger;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+
+// Posts a batch of samples to the server. Samples are nice to have, so a batch that can't be sent is dropped
+// rather than retried - the build shouldn't wait on us.
+public class ResourceSampleSender {
+    static Logger LOG = Logger.getLogger(ResourceSampleSender.class.getName());
+    private static final Duration TIMEOUT = Duration.ofSeconds(5);
+
+    private final HttpClient httpClient;
+    private final String serverUrl;
+
+    public ResourceSampleSender(String serverUrl) {
+        this.serverUrl = serverUrl.endsWith("/") ? serverUrl.substring(0, serverUrl.length() - 1) : serverUrl;
+        this.httpClient = HttpClient.newBuilder()
+                .connectTimeout(TIMEOUT)
+                .build();
+    }
+
+    public boolean send(long buildId, String token, List<ResourceSample> samples) {
+        if (samples.isEmpty()) return true;
+        var body = new StringBuilder(samples.size() * 48);
+        for (ResourceSample sample : samples) sample.appendTo(body);
+
+        var uri = URI.create(serverUrl + PluginConstants.RESOURCE_SAMPLES_PATH + "?buildId=" + buildId);
+        var request = HttpRequest.newBuilder(uri)
+                .timeout(TIMEOUT)
+                .header("Content-Type", "text/plain; charset=UTF-8")
+                .header(PluginConstants.RESOURCE_SAMPLES_TOKEN_HEADER, token)
+                .header(PluginConstants.RESOURCE_SAMPLES_SENT_AT_HEADER, String.valueOf(System.currentTimeMillis()))
+                .POST(HttpRequest.BodyPublishers.ofString(body.toString(), StandardCharsets.UTF_8))
+                .build();
+        try {
+            var response = httpClient.send(request, HttpResponse.BodyHandlers.discarding());
+            if (response.statusCode() / 100 == 2) return true;
+            LOG.warn(String.format("Server rejected %d resource samples for build %d with status %d.", samples.size(), buildId, response.statusCode()));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            LOG.warn(String.format("Unable to send %d resource samples for build %d: %s", samples.size(), buildId, e.getMessage()));
+        }
+        return false;
+    }
+}
@@ -0,0 +1,89 @@
+package com.octopus.teamcity.opentelemetry.agent;
+
+import com.octopus.teamcity.opentelemetry.common.PluginConstants;
+import jetbrains.buildServer.agent.*;
+import jetbrains.buildServer.util.EventDispatcher;
+import org.apache.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+// Samples the resources used by each build step, for builds the server has asked to sample (it passes a token in
+// the build's configuration parameters when it does), and sends them to the server to add to the step's span.
+public class ResourceSamplingListener extends AgentLifeCycleAdapter {
+    static Logger LOG = Logger.getLogger(ResourceSamplingListener.class.getName());
+    private static final int DEFAULT_INTERVAL_SECONDS = 5;
+
+    private final BuildAgentConfiguration agentConfiguration;
+    private final ScheduledExecutorService executorService;
+    private StepSampling current;
+
+    public ResourceSamplingListener(
+            @NotNull EventDispatcher<AgentLifeCycleListener> agentEvents,
+            @NotNull BuildAgentConfiguration agentConfiguration) {
+        this.agentConfiguration = agentConfiguration;
+        this.executorService = Executors.newSingleThreadScheduledExecutor(r -> {
+            var thread = new Thread(r, "OpenTelemetry resource sampler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        agentEvents.addListener(this);
+    }
+
+    @Override
+    public synchronized void beforeRunnerStart(@NotNull BuildRunnerContext runner) {
+        finishCurrent();
+        var build = runner.getBuild();
+        var parameters = build.getSharedConfigParameters();
+        var token = parameters.get(PluginConstants.PARAMETER_RESOURCE_SAMPLING_TOKEN);
+        if (token == null || token.isEmpty()) return;
+
+        try {
+            var sender = new ResourceSampleSender(agentConfiguration.getServerUrl());
+            current = new StepSampling(sender, new ProcessTreeSampler(), executorService, build.getBuildId(), token);
+            current.start(getIntervalSeconds(parameters.get(PluginConstants.PARAMETER_RESOURCE_SAMPLING_INTERVAL)));
+        } catch (Exception e) {
+            LOG.warn(String.format("Unable to start sampling resources for step '%s' of build %d: %s", runner.getName(), build.getBuildId(), e.getMessage()));
+            current = null;
+        }
+    }
+
+    @Override
+    public synchronized void runnerFinished(@NotNull BuildRunnerContext runner, @NotNull BuildFinishedStatus status) {
+        finishCurrent();
+    }
+
+    @Override
+    public synchronized void buildFinished(@NotNull AgentRunningBuild build, @NotNull BuildFinishedStatus buildStatus) {
+        // runnerFinished isn't called for a step that was interrupted
+        finishCurrent();
+    }
+
+    @Override
+    public void agentShutdown() {
+        synchronized (this) {
+            finishCurrent();
+        }
+        // lets the last batch go, but no more samples are taken
+        executorService.shutdown();
+    }
+
+    private void finishCurrent() {
+        if (current == null) return;
+        try {
+            current.finish();
+        } catch (Exception e) {
+            LOG.warn("Unable to finish sampling resources: " + e.getMessage());
+        }
+        current = null;
+    }
+
+    static int getIntervalSeconds(String value) {
+        try {
+            return value == null ? DEFAULT_INTERVAL_SECONDS : Math.max(1, Integer.parseInt(value.trim()));
+        } catch (NumberFormatException e) {
+            return DEFAULT_INTERVAL_SECONDS;
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package com.octopus.teamcity.opentelemetry.agent;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+// Sampling for one build step: a sample every interval, sent to the server in batches, and whatever's left when
+// the step finishes. The server matches samples to steps by time, so they don't need to say which step they're for.
+// Samples are taken and sent on the executor's thread only, so the build never waits on the server.
+public class StepSampling {
+    static final int BATCH_SIZE = 60;
+
+    private final ResourceSampleSender sender;
+    private final ProcessTreeSampler sampler;
+    private final ScheduledExecutorService executor;
+    private final long buildId;
+    private final String token;
+    private final List<ResourceSample> pending = new ArrayList<>();
+    private ScheduledFuture<?> scheduled;
+
+    public StepSampling(ResourceSampleSender sender, ProcessTreeSampler sampler, ScheduledExecutorService executor, long buildId, String token) {
+        this.sender = sender;
+        this.sampler = sampler;
+        this.executor = executor;
+        this.buildId = buildId;
+        this.token = token;
+    }
+
+    public synchronized void start(int intervalSeconds) {
+        scheduled = executor.scheduleAtFixedRate(this::sampleNow, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    public void sampleNow() {
+        List<ResourceSample> batch = null;
+        synchronized (this) {
+            pending.add(sampler.sample(System.currentTimeMillis()));
+            if (pending.size() >= BATCH_SIZE) batch = takePending();
+        }
+        if (batch != null) sender.send(buildId, token, batch);
+    }
+
+    // Returns straight away; the last sample is taken and sent after any sample already under way.
+    public void finish() {
+        synchronized (this) {
+            if (scheduled != null) scheduled.cancel(false);
+        }
+        executor.execute(() -> {
+            sampleNow();
+            List<ResourceSample> batch;
+            synchronized (this) {
+                batch = takePending();
+            }
+            sender.send(buildId, token, batch);
+        });
+    }
+
+    private List<ResourceSample> takePending() {
+        var batch = new ArrayList<>(pending);
+        pending.clear();
+        return batch;
+    }
+}
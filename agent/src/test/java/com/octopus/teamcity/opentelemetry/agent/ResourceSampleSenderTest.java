@@ -0,0 +1,113 @@
+package com.octopus.teamcity.opentelemetry.agent;
+
+import com.octopus.teamcity.opentelemetry.common.PluginConstants;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Sends samples to a stand in for the server's resource samples endpoint.
+class ResourceSampleSenderTest {
+    private HttpServer server;
+    private final List<String> requests = new CopyOnWriteArrayList<>();
+    private volatile int status = 204;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext(PluginConstants.RESOURCE_SAMPLES_PATH, exchange -> {
+            var body = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+            requests.add(exchange.getRequestMethod() + " " + exchange.getRequestURI().getQuery() + " "
+                    + exchange.getRequestHeaders().getFirst(PluginConstants.RESOURCE_SAMPLES_TOKEN_HEADER) + "\n" + body);
+            exchange.sendResponseHeaders(status, -1);
+            exchange.close();
+        });
+        server.start();
+    }
+
+    @AfterEach
+    void tearDown() {
+        server.stop(0);
+    }
+
+    private String serverUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/";
+    }
+
+    @Test
+    void postsSamplesOnePerLineWithTheBuildsToken() {
+        var sender = new ResourceSampleSender(serverUrl());
+
+        var sent = sender.send(42, "secret", List.of(
+                new ResourceSample(1000, 10, 2048, 1, 2, 3, 4),
+                new ResourceSample(6000, 20, 4096, 5, 6, 7, 8)));
+
+        assertTrue(sent);
+        assertEquals(List.of("POST buildId=42 secret\n1000 10 2048 1 2 3 4\n6000 20 4096 5 6 7 8\n"), requests);
+    }
+
+    @Test
+    void reportsWhenTheServerRejectsTheSamples() {
+        status = 403;
+        var sender = new ResourceSampleSender(serverUrl());
+
+        assertFalse(sender.send(42, "wrong", List.of(new ResourceSample(1000, 10, 2048, 1, 2, 3, 4))));
+    }
+
+    @Test
+    void stepSamplingSendsWhatsLeftWhenTheStepFinishes() throws InterruptedException {
+        var executor = Executors.newSingleThreadScheduledExecutor();
+        var sampling = new StepSampling(new ResourceSampleSender(serverUrl()), new ProcessTreeSampler(), executor, 7, "token");
+
+        sampling.sampleNow();
+        assertTrue(requests.isEmpty());
+        sampling.finish();
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+
+        assertEquals(1, requests.size());
+        var lines = requests.get(0).split("\n");
+        assertEquals("POST buildId=7 token", lines[0]);
+        assertEquals(3, lines.length);
+        for (int i = 1; i < lines.length; i++) assertEquals(7, lines[i].split(" ").length);
+    }
+
+    @Test
+    void finishingAStepDoesntWaitForTheServer() throws InterruptedException {
+        var sending = new CountDownLatch(1);
+        var release = new CountDownLatch(1);
+        var sender = new ResourceSampleSender(serverUrl()) {
+            @Override
+            public boolean send(long buildId, String token, List<ResourceSample> samples) {
+                sending.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return true;
+            }
+        };
+        var executor = Executors.newSingleThreadScheduledExecutor();
+        var sampling = new StepSampling(sender, new ProcessTreeSampler(), executor, 7, "token");
+
+        sampling.finish();
+        assertTrue(sending.await(10, TimeUnit.SECONDS));
+        // the sender is stuck, and finishing still returns straight away
+        sampling.finish();
+        release.countDown();
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+    }
+}
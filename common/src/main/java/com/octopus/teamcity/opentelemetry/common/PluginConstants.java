@@ -16,6 +16,12 @@ public class PluginConstants {
     public static final String PROPERTY_KEY_HONEYCOMB_DATASET = "octopus.teamcity.opentelemetry.plugin.honeycomb.dataset";
     public static final String PROPERTY_KEY_HONEYCOMB_APIKEY = "octopus.teamcity.opentelemetry.plugin.honeycomb.apikey";
     public static final String PROPERTY_KEY_HONEYCOMB_METRICS_ENABLED = "octopus.teamcity.opentelemetry.plugin.honeycomb.metrics.enabled";
+    public static final String PROPERTY_KEY_LIMIT_ATTRIBUTE_LENGTH = "octopus.teamcity.opentelemetry.plugin.limits.attribute_length";
+    public static final String PROPERTY_KEY_LIMIT_ATTRIBUTES_PER_SPAN = "octopus.teamcity.opentelemetry.plugin.limits.attributes_per_span";
+    public static final String PROPERTY_KEY_LIMIT_EVENTS_PER_SPAN = "octopus.teamcity.opentelemetry.plugin.limits.events_per_span";
+    public static final String PROPERTY_KEY_LIMIT_TRACE_KILOBYTES = "octopus.teamcity.opentelemetry.plugin.limits.trace_kilobytes";
+    public static final String PROPERTY_KEY_LIMIT_SPANS_PER_SECOND = "octopus.teamcity.opentelemetry.plugin.limits.spans_per_second";
+    public static final String PROPERTY_KEY_LIMIT_SPANS_PER_DAY = "octopus.teamcity.opentelemetry.plugin.limits.spans_per_day";
 
     public static final int BATCH_SPAN_PROCESSOR_MAX_QUEUE_SIZE = 32768; // Default is 2048. Increasing it to limit dropped spans.
     public static final Duration BATCH_SPAN_PROCESSOR_MAX_SCHEDULE_DELAY = Duration.ofSeconds(5); // Default is 5s. This is another lever we can tweak.
@@ -34,6 +40,10 @@ public class PluginConstants {
     public static final String ATTRIBUTE_TEST_MUTED_FLAG = TRACER_INSTRUMENTATION_NAME + ".test_muted";
     public static final String ATTRIBUTE_TEST_IGNORED_FLAG = TRACER_INSTRUMENTATION_NAME + ".test_ignored";
     public static final String ATTRIBUTE_TEST_OUTPUT = TRACER_INSTRUMENTATION_NAME + ".test_output";
+    public static final String ATTRIBUTE_TEST_BASELINE_DURATION = TRACER_INSTRUMENTATION_NAME + ".test_baseline_duration_ms";
+    public static final String ATTRIBUTE_TEST_DURATION_DEVIATION = TRACER_INSTRUMENTATION_NAME + ".test_duration_deviation";
+    public static final String ATTRIBUTE_TEST_REGRESSED_FLAG = TRACER_INSTRUMENTATION_NAME + ".test_regressed";
+    public static final String ATTRIBUTE_TEST_FLAKY_SCORE = TRACER_INSTRUMENTATION_NAME + ".test_flaky_score";
     public static final String ATTRIBUTE_PROJECT_NAME = TRACER_INSTRUMENTATION_NAME + ".project_name";
     public static final String ATTRIBUTE_PROJECT_ID = TRACER_INSTRUMENTATION_NAME + ".project_id";
     public static final String ATTRIBUTE_AGENT_NAME = TRACER_INSTRUMENTATION_NAME + ".agent_name";
@@ -44,14 +54,87 @@ public class PluginConstants {
     public static final String ATTRIBUTE_SUCCESS_STATUS = TRACER_INSTRUMENTATION_NAME + ".success_status";
     public static final String ATTRIBUTE_FAILED_TEST_COUNT = TRACER_INSTRUMENTATION_NAME + ".failed_test_count";
     public static final String ATTRIBUTE_BUILD_PROBLEMS_COUNT = TRACER_INSTRUMENTATION_NAME + ".build_problems_count";
+    public static final String ATTRIBUTE_REGRESSED_TEST_COUNT = TRACER_INSTRUMENTATION_NAME + ".regressed_test_count";
+    public static final String ATTRIBUTE_FLAKY_FAILURE_COUNT = TRACER_INSTRUMENTATION_NAME + ".flaky_failure_count";
+    public static final String ATTRIBUTE_OMITTED_SPAN_COUNT = TRACER_INSTRUMENTATION_NAME + ".omitted_span_count";
+    public static final String ATTRIBUTE_OMITTED_ERROR_SPAN_COUNT = TRACER_INSTRUMENTATION_NAME + ".omitted_error_span_count";
+    public static final String ATTRIBUTE_OMITTED_SPAN_DURATION = TRACER_INSTRUMENTATION_NAME + ".omitted_span_duration_ms";
+    public static final String ATTRIBUTE_DETAIL_SPANS_SKIPPED = TRACER_INSTRUMENTATION_NAME + ".detail_spans_skipped";
+    public static final String ATTRIBUTE_OMITTED_TEST_COUNT = TRACER_INSTRUMENTATION_NAME + ".omitted_test_count";
+    public static final String ATTRIBUTE_FINISH_HANDLER_TIME = TRACER_INSTRUMENTATION_NAME + ".finish_handler_time_ms";
+    public static final String ATTRIBUTE_FINISH_HANDLER_PHASE_TIME_PREFIX = TRACER_INSTRUMENTATION_NAME + ".finish_handler_phase_time_ms.";
+    public static final String ATTRIBUTE_FINISH_HANDLER_SKIPPED_PHASES = TRACER_INSTRUMENTATION_NAME + ".finish_handler_skipped_phases";
+    public static final String ATTRIBUTE_FINISH_HANDLER_CUT_SHORT_PHASES = TRACER_INSTRUMENTATION_NAME + ".finish_handler_cut_short_phases";
+    public static final String ATTRIBUTE_REUSED_TRACE_ID = TRACER_INSTRUMENTATION_NAME + ".reused_trace_id";
+    public static final String ATTRIBUTE_CRITICAL_PATH_FLAG = TRACER_INSTRUMENTATION_NAME + ".on_critical_path";
+    public static final String ATTRIBUTE_SLACK_TIME = TRACER_INSTRUMENTATION_NAME + ".slack_time_ms";
+    public static final String ATTRIBUTE_CRITICAL_PATH = TRACER_INSTRUMENTATION_NAME + ".critical_path";
+    public static final String ATTRIBUTE_CRITICAL_PATH_BUILD_COUNT = TRACER_INSTRUMENTATION_NAME + ".critical_path_build_count";
+    public static final String ATTRIBUTE_CRITICAL_PATH_QUEUE_TIME = TRACER_INSTRUMENTATION_NAME + ".critical_path_queue_time_ms";
+    public static final String ATTRIBUTE_STEP_CPU_TIME = TRACER_INSTRUMENTATION_NAME + ".step_cpu_time_ms";
+    public static final String ATTRIBUTE_STEP_PEAK_RSS = TRACER_INSTRUMENTATION_NAME + ".step_peak_rss_bytes";
+    public static final String ATTRIBUTE_STEP_DISK_READ = TRACER_INSTRUMENTATION_NAME + ".step_disk_read_bytes";
+    public static final String ATTRIBUTE_STEP_DISK_WRITE = TRACER_INSTRUMENTATION_NAME + ".step_disk_write_bytes";
+    public static final String ATTRIBUTE_STEP_NETWORK_RECEIVE = TRACER_INSTRUMENTATION_NAME + ".step_network_receive_bytes";
+    public static final String ATTRIBUTE_STEP_NETWORK_TRANSMIT = TRACER_INSTRUMENTATION_NAME + ".step_network_transmit_bytes";
     public static final String ATTRIBUTE_TOTAL_ARTIFACT_SIZE = TRACER_INSTRUMENTATION_NAME + ".build_artifacts.total_size";
     public static final String ATTRIBUTE_BUILD_CHECKOUT_TIME = TRACER_INSTRUMENTATION_NAME + ".build_checkout_time_ms";
+    public static final String ATTRIBUTE_BUILD_STATISTIC_PREFIX = TRACER_INSTRUMENTATION_NAME + ".build_statistic.";
+
+    public static final String METRIC_QUEUE_LENGTH = "teamcity.queue.length";
+    public static final String METRIC_QUEUE_WAIT_TIME = "teamcity.queue.wait_time";
+    public static final String METRIC_AGENTS = "teamcity.agents";
+    public static final String METRIC_QUEUE_WAIT_REASON_DURATION = "teamcity.queue.wait_reason.duration";
+    public static final String METRIC_BUILD_STATISTIC = "teamcity.build.statistic";
+    public static final String METRIC_BUILD_REGRESSED_TESTS = "teamcity.build.regressed_tests";
+    public static final String METRIC_BUILDS_WITH_FLAKY_FAILURES = "teamcity.builds.with_flaky_failures";
+    public static final String METRIC_SPANS_OMITTED = "teamcity.opentelemetry.spans_omitted";
+    public static final String METRIC_SPAN_ATTRIBUTES_DROPPED = "teamcity.opentelemetry.span_attributes_dropped";
+    public static final String METRIC_SPAN_ATTRIBUTES_POSSIBLY_TRUNCATED = "teamcity.opentelemetry.span_attributes_possibly_truncated";
+    public static final String METRIC_SPAN_EVENTS_DROPPED = "teamcity.opentelemetry.span_events_dropped";
+    public static final String METRIC_ATTRIBUTE_AGENT_POOL = "agent_pool";
+    public static final String METRIC_ATTRIBUTE_AGENT_STATE = "agent_state";
+    public static final String METRIC_ATTRIBUTE_QUANTILE = "quantile";
+    public static final String METRIC_ATTRIBUTE_WAIT_REASON = "wait_reason";
+    public static final String METRIC_ATTRIBUTE_STATISTIC = "statistic";
+    public static final String METRIC_ATTRIBUTE_BUILD_TYPE = "build_type";
+    public static final String METRIC_ATTRIBUTE_BRANCH = "branch";
+    public static final String METRIC_ATTRIBUTE_PROJECT = "project";
 
     public static final String EVENT_STARTED = "Build Started";
     public static final String EVENT_FINISHED = "Build Finished";
+    public static final String EVENT_RESOURCE_SAMPLE = "Resource Sample";
 
     public static final String EXCEPTION_ERROR_MESSAGE_DURING_BUILD_START = "Error during build start process";
     public static final String EXCEPTION_ERROR_MESSAGE_DURING_BUILD_FINISH = "Error during build finish process";
+    public static final String EXCEPTION_ERROR_MESSAGE_SERVER_SHUTDOWN = "Interrupted by server shutdown";
 
     public final static String PLUGIN_NAME = "teamcity-opentelemetry";
+
+    // Agent resource sampling. The server hands each build a token (and the interval) as configuration parameters
+    // when it starts, and the agent posts its samples back with the token, as text, one sample per line:
+    //   <timestamp ms> <cpu ms> <rss bytes> <disk read bytes> <disk write bytes> <network rx bytes> <network tx bytes>
+    // where everything but the timestamp and rss is the change since the previous sample. Timestamps are by the
+    // agent's clock; the agent also sends the time by its clock as it posts, so the server can allow for the offset.
+    public static final String PARAMETER_RESOURCE_SAMPLING_TOKEN = "teamcity.opentelemetry.resourceSampling.token";
+    public static final String PARAMETER_RESOURCE_SAMPLING_INTERVAL = "teamcity.opentelemetry.resourceSampling.intervalSeconds";
+    public static final String RESOURCE_SAMPLES_TOKEN_HEADER = "X-OpenTelemetry-Sampling-Token";
+    public static final String RESOURCE_SAMPLES_SENT_AT_HEADER = "X-OpenTelemetry-Sampling-Sent-At";
+    public static final String RESOURCE_SAMPLES_PATH = "/" + PLUGIN_NAME + "/resourceSamples.html";
+
+    // The build span's W3C trace context, handed to the build so tools it runs can add their own spans under it.
+    // The environment variables are the names OpenTelemetry's environment variable carriers look for.
+    public static final String PARAMETER_TRACEPARENT = "teamcity.opentelemetry.traceparent";
+    public static final String PARAMETER_TRACESTATE = "teamcity.opentelemetry.tracestate";
+    public static final String ENV_TRACEPARENT = "env.TRACEPARENT";
+    public static final String ENV_TRACESTATE = "env.TRACESTATE";
+
+    // The server's OTLP/HTTP traces endpoint for tools running in builds, and the per build token it needs.
+    public static final String OTLP_TRACES_PATH = "/" + PLUGIN_NAME + "/otlpTraces.html";
+    public static final String OTLP_TOKEN_HEADER = "X-OpenTelemetry-Build-Token";
+    public static final String PARAMETER_OTLP_TRACES_ENDPOINT = "teamcity.opentelemetry.otlp.tracesEndpoint";
+    public static final String PARAMETER_OTLP_TRACES_HEADERS = "teamcity.opentelemetry.otlp.tracesHeaders";
+    public static final String ENV_OTLP_TRACES_ENDPOINT = "env.OTEL_EXPORTER_OTLP_TRACES_ENDPOINT";
+    public static final String ENV_OTLP_TRACES_HEADERS = "env.OTEL_EXPORTER_OTLP_TRACES_HEADERS";
+    public static final String ENV_OTLP_TRACES_PROTOCOL = "env.OTEL_EXPORTER_OTLP_TRACES_PROTOCOL";
 }
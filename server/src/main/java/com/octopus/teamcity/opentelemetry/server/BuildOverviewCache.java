@@ -0,0 +1,76 @@
+package com.octopus.teamcity.opentelemetry.server;
+
+import jetbrains.buildServer.serverSide.BuildServerAdapter;
+import jetbrains.buildServer.serverSide.BuildServerListener;
+import jetbrains.buildServer.serverSide.TeamCityProperties;
+import jetbrains.buildServer.util.EventDispatcher;
+import org.apache.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+import org.springframework.web.servlet.ModelAndView;
+
+import javax.annotation.Nullable;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// The build overview of a finished build only changes if the project's settings do, so we keep the view and model
+// we rendered for recently viewed builds. Settings are inherited, so any project change clears the lot.
+public class BuildOverviewCache extends BuildServerAdapter {
+    static Logger LOG = Logger.getLogger(BuildOverviewCache.class.getName());
+    private static final String PROPERTY_CACHE_SIZE = "teamcity.opentelemetry.buildOverviewCache.size";
+    private static final int DEFAULT_CACHE_SIZE = 1000;
+
+    private static final class Entry {
+        final String viewName;
+        final Map<String, Object> model;
+
+        Entry(String viewName, Map<String, Object> model) {
+            this.viewName = viewName;
+            this.model = model;
+        }
+    }
+
+    private final Map<Long, Entry> entries;
+
+    public BuildOverviewCache(@NotNull EventDispatcher<BuildServerListener> buildServerListenerEventDispatcher) {
+        var cacheSize = Math.max(0, TeamCityProperties.getInteger(PROPERTY_CACHE_SIZE, DEFAULT_CACHE_SIZE));
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Entry> eldest) {
+                return size() > cacheSize;
+            }
+        };
+        buildServerListenerEventDispatcher.addListener(this);
+    }
+
+    @Nullable
+    public synchronized ModelAndView get(long buildId) {
+        var entry = entries.get(buildId);
+        if (entry == null) return null;
+        return new ModelAndView(entry.viewName, new HashMap<>(entry.model));
+    }
+
+    public synchronized void put(long buildId, ModelAndView modelAndView) {
+        entries.put(buildId, new Entry(modelAndView.getViewName(), new HashMap<>(modelAndView.getModel())));
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    @Override
+    public void projectPersisted(@NotNull String projectId) {
+        LOG.debug(String.format("Project %s was saved, clearing cached build overviews.", projectId));
+        clear();
+    }
+
+    @Override
+    public void projectRestored(@NotNull String projectId) {
+        clear();
+    }
+
+    @Override
+    public void projectRemoved(@NotNull String projectId) {
+        clear();
+    }
+}
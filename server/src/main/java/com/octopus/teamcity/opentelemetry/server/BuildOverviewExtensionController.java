@@ -6,6 +6,7 @@ import jetbrains.buildServer.serverSide.ProjectManager;
 import jetbrains.buildServer.serverSide.SBuild;
 import jetbrains.buildServer.serverSide.SBuildServer;
 import jetbrains.buildServer.serverSide.SProject;
+import jetbrains.buildServer.serverSide.TeamCityProperties;
 import jetbrains.buildServer.web.openapi.*;
 import jetbrains.buildServer.web.util.WebUtil;
 import org.apache.logging.log4j.CloseableThreadContext;
@@ -26,6 +27,12 @@ public class BuildOverviewExtensionController extends BaseController
     private final BuildStorageManager buildStorageManager;
     @NotNull
     private final OTELEndpointFactory otelEndpointFactory;
+    private final BuildOverviewCache buildOverviewCache;
+    private static final String PROPERTY_RETRY_AFTER_SECONDS = "teamcity.opentelemetry.buildOverview.retryAfterSeconds";
+    private static final int DEFAULT_RETRY_AFTER_SECONDS = 10;
+    private static final int FINISHED_BUILD_MAX_AGE_SECONDS = 300;
+    // how long after a build finishes we wait for its trace to turn up, eg, while its last spans are being exported
+    private static final int FINISHED_BUILD_PENDING_SECONDS = 60;
 
     public BuildOverviewExtensionController(
             @NotNull PagePlaces pagePlaces,
@@ -34,7 +41,8 @@ public class BuildOverviewExtensionController extends BaseController
             @NotNull PluginDescriptor pluginDescriptor,
             @NotNull WebControllerManager controllerManager,
             @NotNull BuildStorageManager buildStorageManager,
-            @NotNull OTELEndpointFactory otelEndpointFactory)
+            @NotNull OTELEndpointFactory otelEndpointFactory,
+            @NotNull BuildOverviewCache buildOverviewCache)
     {
         this.sBuildServer = sBuildServer;
         this.projectManager = projectManager;
@@ -42,6 +50,7 @@ public class BuildOverviewExtensionController extends BaseController
         this.pluginDescriptor = pluginDescriptor;
         this.buildStorageManager = buildStorageManager;
         this.otelEndpointFactory = otelEndpointFactory;
+        this.buildOverviewCache = buildOverviewCache;
 
         String url = "/otel-trace-url.html";
 
@@ -69,9 +78,6 @@ public class BuildOverviewExtensionController extends BaseController
     @Nullable
     @Override
     protected ModelAndView doHandle(@NotNull HttpServletRequest request, @NotNull HttpServletResponse response) {
-
-        //todo: I think we need to do some auto-refreshes until we have data?
-
         Long buildId = WebUtil.sakuraUIOpened(request)
             ? PluginUIContext.getFromRequest(request).getBuildId()
             : Long.parseLong(request.getParameter("buildId"));
@@ -79,33 +85,80 @@ public class BuildOverviewExtensionController extends BaseController
         if (buildId != null) {
             try (var ignored1 = CloseableThreadContext.put("teamcity.build.id", String.valueOf(buildId))) {
 
-                final SBuild build = sBuildServer.findBuildInstanceById(buildId);
-                if (build == null) //if it's queued, we won't get it
-                    return getEmptyState();
-
-                final SProject project = projectManager.findProjectByExternalId(build.getProjectExternalId());
-
-                var features = project.getAvailableFeaturesOfType(PLUGIN_NAME);
-                if (!features.isEmpty()) {
-                    var feature = features.stream().findFirst().get();
-                    var params = feature.getParameters();
+                var cached = buildOverviewCache.get(buildId);
+                if (cached != null) {
+                    setCacheable(response);
+                    return cached;
+                }
 
-                    if (!params.get(PROPERTY_KEY_ENABLED).equals("true"))
-                        return getEmptyState();
+                final SBuild build = sBuildServer.findBuildInstanceById(buildId);
+                if (build == null) //if it's queued, we won't get it until it starts
+                    return getPendingState(response, buildId);
 
-                    var traceId = buildStorageManager.getTraceId(build);
-                    if (traceId == null)
-                        return getEmptyState();
+                var modelAndView = getModelAndView(build);
+                if (modelAndView == null && !finishedLongAgo(build))
+                    return getPendingState(response, buildId);
+                if (modelAndView == null) //not cached, as it could still turn up (eg, a chain's spans wait for the chain)
+                    return getEmptyState();
 
-                    var service = otelEndpointFactory.getOTELEndpointHandler(params.get(PROPERTY_KEY_SERVICE));
-                    return service.getBuildOverviewModelAndView(build, params, traceId);
+                if (build.isFinished()) {
+                    buildOverviewCache.put(buildId, modelAndView);
+                    setCacheable(response);
                 }
+                return modelAndView;
             }
         }
 
         return getEmptyState();
     }
 
+    // null if there's no trace (yet)
+    @Nullable
+    private ModelAndView getModelAndView(SBuild build) {
+        final SProject project = projectManager.findProjectByExternalId(build.getProjectExternalId());
+        if (project == null)
+            return getEmptyState();
+
+        var features = project.getAvailableFeaturesOfType(PLUGIN_NAME);
+        if (features.isEmpty())
+            return getEmptyState();
+
+        var feature = features.stream().findFirst().get();
+        var params = feature.getParameters();
+
+        if (!params.get(PROPERTY_KEY_ENABLED).equals("true"))
+            return getEmptyState();
+
+        var traceId = buildStorageManager.getTraceId(build);
+        if (traceId == null)
+            return null;
+
+        var service = otelEndpointFactory.getOTELEndpointHandler(params.get(PROPERTY_KEY_SERVICE));
+        return service.getBuildOverviewModelAndView(build, params, traceId);
+    }
+
+    private static boolean finishedLongAgo(SBuild build) {
+        var finishDate = build.getFinishDate();
+        return build.isFinished() && finishDate != null
+                && System.currentTimeMillis() - finishDate.getTime() > FINISHED_BUILD_PENDING_SECONDS * 1000L;
+    }
+
+    private static void setCacheable(HttpServletResponse response) {
+        response.setHeader("Cache-Control", "private, max-age=" + FINISHED_BUILD_MAX_AGE_SECONDS);
+    }
+
+    // the build hasn't got a trace yet, but it probably will soon; the page asks again after a little while
+    @NotNull
+    private ModelAndView getPendingState(HttpServletResponse response, long buildId) {
+        var retryAfterSeconds = Math.max(1, TeamCityProperties.getInteger(PROPERTY_RETRY_AFTER_SECONDS, DEFAULT_RETRY_AFTER_SECONDS));
+        response.setHeader("Cache-Control", "no-store");
+        response.setHeader("Retry-After", String.valueOf(retryAfterSeconds));
+        var modelAndView = new ModelAndView(pluginDescriptor.getPluginResourcesPath("buildOverviewPending.jsp"));
+        modelAndView.getModel().put("buildId", buildId);
+        modelAndView.getModel().put("retryAfterSeconds", retryAfterSeconds);
+        return modelAndView;
+    }
+
     @NotNull
     private ModelAndView getEmptyState() {
         return new ModelAndView(pluginDescriptor.getPluginResourcesPath("buildOverviewEmpty.jsp"));
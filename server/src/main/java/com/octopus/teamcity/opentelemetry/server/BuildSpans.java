@@ -0,0 +1,388 @@
+package com.octopus.teamcity.opentelemetry.server;
+
+import com.octopus.teamcity.opentelemetry.common.PluginConstants;
+import com.octopus.teamcity.opentelemetry.server.agent.ResourceSamples;
+import com.octopus.teamcity.opentelemetry.server.helpers.OmittedSpans;
+import com.octopus.teamcity.opentelemetry.server.helpers.ProjectSpanLimiter;
+import com.octopus.teamcity.opentelemetry.server.helpers.ProjectSpanQuotas;
+import com.octopus.teamcity.opentelemetry.server.queue.QueueWaitTracker;
+import com.octopus.teamcity.opentelemetry.server.queue.QueuedBuildTimeline;
+import com.octopus.teamcity.opentelemetry.server.tests.FlakyTestHistory;
+import com.octopus.teamcity.opentelemetry.server.tests.TestBlockTimes;
+import com.octopus.teamcity.opentelemetry.server.tests.TestDurationBaselines;
+import com.octopus.teamcity.opentelemetry.server.tests.TestFailureDetails;
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.api.trace.StatusCode;
+import jetbrains.buildServer.messages.DefaultMessagesInfo;
+import jetbrains.buildServer.messages.Status;
+import jetbrains.buildServer.serverSide.BuildStatisticsOptions;
+import jetbrains.buildServer.serverSide.SBuild;
+import jetbrains.buildServer.serverSide.STestRun;
+import jetbrains.buildServer.serverSide.buildLog.BlockLogMessage;
+import jetbrains.buildServer.serverSide.buildLog.LogMessage;
+import jetbrains.buildServer.serverSide.buildLog.LogMessageFilter;
+import org.apache.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.math.BigDecimal;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+// The spans under a build's span - its queue wait reasons, its steps (the blocks of its build log) and its tests -
+// and the attributes every span of a build gets. TeamCityBuildListener makes these as each build finishes, and the
+// backfill makes them for builds that finished long ago; only how a span is started differs between the two, which
+// is up to the SpanStarter each passes in.
+public class BuildSpans {
+    static Logger LOG = Logger.getLogger(BuildSpans.class.getName());
+    private static final String QUEUE_WAIT_REASON_PREFIX = "queueWaitReason:";
+
+    // Starts a span under parent. kind and key say which of the build's spans it is, for starters that derive the
+    // span id from them.
+    public interface SpanStarter {
+        @NotNull
+        Span start(@NotNull String name, @NotNull Span parent, long startTimeMs, @NotNull String kind, @NotNull String... key);
+    }
+
+    private final QueueWaitTracker queueWaitTracker;
+    private final TestDurationBaselines testDurationBaselines;
+    private final FlakyTestHistory flakyTestHistory;
+    private final ProjectSpanQuotas projectSpanQuotas;
+
+    public BuildSpans(
+            @NotNull QueueWaitTracker queueWaitTracker,
+            @NotNull TestDurationBaselines testDurationBaselines,
+            @NotNull FlakyTestHistory flakyTestHistory,
+            @NotNull ProjectSpanQuotas projectSpanQuotas) {
+        this.queueWaitTracker = queueWaitTracker;
+        this.testDurationBaselines = testDurationBaselines;
+        this.flakyTestHistory = flakyTestHistory;
+        this.projectSpanQuotas = projectSpanQuotas;
+    }
+
+    @NotNull
+    public static String getBuildName(@NotNull SBuild build) {
+        return build.getBuildType() != null ? build.getBuildType().getName() : "unknown_build_name";
+    }
+
+    public static void setBuildAttributes(@NotNull Span span, @NotNull SBuild build, String spanName, String serviceName) {
+        if (build.getBuildType() != null) {
+            setAttribute(span, PluginConstants.ATTRIBUTE_PROJECT_NAME, build.getBuildType().getProject().getName());
+        }
+        if (build.getBranch() != null) {
+            setAttribute(span, PluginConstants.ATTRIBUTE_BRANCH, build.getBranch().getName());
+        }
+        if (!build.getRevisions().isEmpty()) {
+            setAttribute(span, PluginConstants.ATTRIBUTE_COMMIT, build.getRevisions().iterator().next().getRevisionDisplayName());
+        }
+        if (build.getProjectExternalId() != null) {
+            setAttribute(span, PluginConstants.ATTRIBUTE_PROJECT_ID, build.getProjectExternalId());
+        }
+        setAttribute(span, PluginConstants.ATTRIBUTE_BUILD_TYPE_ID, build.getBuildTypeId());
+        setAttribute(span, PluginConstants.ATTRIBUTE_BUILD_TYPE_EXTERNAL_ID, build.getBuildTypeExternalId());
+        setAttribute(span, PluginConstants.ATTRIBUTE_AGENT_NAME, build.getAgentName());
+        setAttribute(span, PluginConstants.ATTRIBUTE_AGENT_TYPE, build.getAgent().getAgentTypeId());
+        setAttribute(span, PluginConstants.ATTRIBUTE_BUILD_NUMBER, build.getBuildNumber());
+        setAttribute(span, PluginConstants.ATTRIBUTE_SERVICE_NAME, serviceName);
+        setAttribute(span, PluginConstants.ATTRIBUTE_NAME, spanName);
+        setAttribute(span, PluginConstants.ATTRIBUTE_BUILD_ID, build.getBuildId());
+        setAttribute(span, PluginConstants.ATTRIBUTE_BUILD_IS_COMPOSITE, build.getBuildPromotion().isCompositeBuild());
+    }
+
+    // How the build turned out, for the build's own span.
+    public static void setResultAttributes(@NotNull Span span, @NotNull SBuild build) {
+        var buildStatistics = build.getBuildStatistics(BuildStatisticsOptions.ALL_TESTS_NO_DETAILS);
+        setAttribute(span, PluginConstants.ATTRIBUTE_SUCCESS_STATUS, build.getBuildStatus().isSuccessful());
+        setAttribute(span, PluginConstants.ATTRIBUTE_FAILED_TEST_COUNT, buildStatistics.getFailedTestCount());
+        setAttribute(span, PluginConstants.ATTRIBUTE_BUILD_PROBLEMS_COUNT, buildStatistics.getCompilationErrorsCount());
+    }
+
+    // The build's time in the queue, one span per wait reason. From the timeline of what it waited for, if we watched
+    // it while it was queued; otherwise from the totals TeamCity reports per wait reason, laid end to end. Returns the
+    // number of spans made.
+    public int createQueuedEventsSpans(@NotNull SBuild build, @NotNull Span buildSpan, @Nullable QueuedBuildTimeline timeline, @NotNull SpanStarter spanStarter) {
+        if (timeline != null && timeline.getSegmentCount() > 0) {
+            for (int i = 0; i < timeline.getSegmentCount(); i++) {
+                var waitReason = queueWaitTracker.getWaitReason(timeline.getSegmentReasonId(i));
+                var childSpan = spanStarter.start(QUEUE_WAIT_REASON_PREFIX + waitReason, buildSpan, timeline.getSegmentStart(i), "queue", waitReason, String.valueOf(i));
+                setBuildAttributes(childSpan, build, waitReason, "queueWaitReason");
+                childSpan.end(timeline.getSegmentEnd(i), TimeUnit.MILLISECONDS);
+            }
+            return timeline.getSegmentCount();
+        }
+
+        var count = 0;
+        long startDateTime = build.getQueuedDate().getTime();
+        Map<String, BigDecimal> reportedStatics = new TreeMap<>(build.getStatisticValues());
+        for (Map.Entry<String, BigDecimal> entry : reportedStatics.entrySet()) {
+            String key = entry.getKey();
+            if (!key.startsWith(QUEUE_WAIT_REASON_PREFIX)) continue;
+            var duration = entry.getValue().longValue();
+            var childSpan = spanStarter.start(key, buildSpan, startDateTime, "queue", key);
+            setBuildAttributes(childSpan, build, key.substring(QUEUE_WAIT_REASON_PREFIX.length()), "queueWaitReason");
+            childSpan.end(startDateTime + duration, TimeUnit.MILLISECONDS);
+            startDateTime += duration;
+            count++;
+        }
+        return count;
+    }
+
+    // A span per block of the build log, nested as the blocks are, with the resource samples (if we have any) on the
+    // top level ones - the steps. Test blocks don't get spans here; their times go in testBlockTimes, for
+    // createTestExecutionSpans. Returns the number of spans made.
+    public int createBuildStepSpans(@NotNull SBuild build, @NotNull Span buildSpan, @Nullable ResourceSamples resourceSamples,
+                                    @NotNull TestBlockTimes testBlockTimes, @NotNull FinishBudget budget, @NotNull SpanStarter spanStarter) {
+        if (build.isCompositeBuild()) return 0;
+        var blocks = new BlockSpans(build, buildSpan, resourceSamples, projectSpanQuotas.forProject(build.getProjectExternalId()), spanStarter);
+        try {
+            for (LogMessage logMessage : getBuildBlockLogs(build)) {
+                if (budget.isExhausted()) {
+                    budget.cutShort(FinishBudget.PHASE_STEPS);
+                    break;
+                }
+                BlockLogMessage blockLogMessage = (BlockLogMessage) logMessage;
+                if (blockLogMessage.getBlockType().equals(TestBlockTimes.TEST_BLOCK_TYPE)) {
+                    //we create the spans for these when we publish tests (in createTestExecutionSpans)
+                    var finishDate = blockLogMessage.getFinishDate();
+                    if (finishDate != null)
+                        testBlockTimes.add(blockLogMessage.getText(), blockLogMessage.getTimestamp().getTime(), finishDate.getTime());
+                    continue;
+                }
+                blocks.add(blockLogMessage);
+            }
+        } finally {
+            blocks.omittedSpans.addTo(buildSpan);
+        }
+        return blocks.count;
+    }
+
+    private static final class BlockSpans {
+        final SBuild build;
+        final Span buildSpan;
+        @Nullable
+        final ResourceSamples resourceSamples;
+        final ProjectSpanLimiter limiter;
+        final SpanStarter spanStarter;
+        final Map<String, Span> blockMessageSpanMap = new HashMap<>();
+        final Set<String> omittedBlocks = new HashSet<>();
+        final OmittedSpans omittedSpans = new OmittedSpans();
+        int count;
+
+        BlockSpans(SBuild build, Span buildSpan, @Nullable ResourceSamples resourceSamples, ProjectSpanLimiter limiter, SpanStarter spanStarter) {
+            this.build = build;
+            this.buildSpan = buildSpan;
+            this.resourceSamples = resourceSamples;
+            this.limiter = limiter;
+            this.spanStarter = spanStarter;
+        }
+
+        void add(BlockLogMessage blockLogMessage) {
+            Date blockMessageFinishDate = blockLogMessage.getFinishDate();
+            // This filters out creating duplicate spans for Builds from their build blockMessages
+            if (blockMessageFinishDate == null) return;
+            String blockMessageStepName = blockLogMessage.getText() + " " + blockMessageFinishDate;
+            BlockLogMessage parentBlockMessage = blockLogMessage.getParent();
+            Span parentSpan = buildSpan;
+            if (parentBlockMessage != null && !parentBlockMessage.getBlockType().equals(DefaultMessagesInfo.BLOCK_TYPE_BUILD)) {
+                var parentBlockMessageKey = parentBlockMessage.getText() + " " + parentBlockMessage.getFinishDate();
+                if (omittedBlocks.contains(parentBlockMessageKey)) {
+                    // leave it out along with its parent, rather than have it turn up under the build
+                    omit(blockLogMessage, blockMessageStepName);
+                    return;
+                }
+                parentSpan = blockMessageSpanMap.get(parentBlockMessageKey);
+                if (parentSpan == null) {
+                    LOG.warn("Attempted to find span in map using key '" + parentBlockMessageKey + "', but it was not found; using buildspan instead");
+                    parentSpan = buildSpan;
+                }
+            }
+            if (blockLogMessage.getBlockType().equals("checkout")) {
+                setCheckoutTime(blockLogMessage);
+            }
+            if (!limiter.tryAcquire()) {
+                omit(blockLogMessage, blockMessageStepName);
+                return;
+            }
+            var startTime = blockLogMessage.getTimestamp().getTime();
+            Span childSpan = spanStarter.start(blockMessageStepName, parentSpan, startTime, "block", blockMessageStepName, String.valueOf(startTime));
+            setAttribute(childSpan, PluginConstants.ATTRIBUTE_BUILD_STEP_STATUS, blockLogMessage.getStatus());
+            blockMessageSpanMap.put(blockMessageStepName, childSpan);
+            String spanName;
+            if (blockLogMessage.getBlockDescription() != null) {
+                // Only the Build Step Types "teamcity-build-step-type" has blockDescriptions
+                spanName = blockLogMessage.getText() + ": " + blockLogMessage.getBlockDescription();
+            } else {
+                spanName = blockLogMessage.getText();
+            }
+            setBuildAttributes(childSpan, build, spanName, blockLogMessage.getBlockType());
+            // the agent samples the whole process tree, so only the top level blocks (the steps) get the samples
+            if (resourceSamples != null && parentSpan == buildSpan) {
+                resourceSamples.attachTo(childSpan, startTime, blockMessageFinishDate.getTime());
+            }
+            childSpan.end(blockMessageFinishDate.getTime(), TimeUnit.MILLISECONDS);
+            count++;
+        }
+
+        private void omit(BlockLogMessage blockLogMessage, String blockMessageStepName) {
+            omittedBlocks.add(blockMessageStepName);
+            var finishDate = Objects.requireNonNull(blockLogMessage.getFinishDate());
+            omittedSpans.add(blockLogMessage.getStatus().isFailed(), finishDate.getTime() - blockLogMessage.getTimestamp().getTime());
+        }
+
+        private void setCheckoutTime(BlockLogMessage blockLogMessage) {
+            var description = blockLogMessage.getBlockDescription();
+            var checkoutEndDate = blockLogMessage.getFinishDate();
+            if (description == null || !description.contains("checkout") || checkoutEndDate == null) return;
+            var checkoutTime = Math.abs(checkoutEndDate.getTime() - blockLogMessage.getTimestamp().getTime());
+            setAttribute(buildSpan, PluginConstants.ATTRIBUTE_BUILD_CHECKOUT_TIME, checkoutTime);
+        }
+    }
+
+    // A "Tests" span with a span per test under it, each timed from its block in the build log if there was one (and
+    // from the start of the Tests span if not - see TestBlockTimes.getTestsStartMs). When learning, the tests'
+    // durations and outcomes go into the baselines and flaky test history; a build that finished long ago only reads
+    // the baselines, as its outcomes are already history. Returns the number of spans made.
+    public int createTestExecutionSpans(@NotNull SBuild build, @NotNull Span buildSpan, long defaultStartMs, @NotNull TestBlockTimes testBlockTimes,
+                                        @NotNull FinishBudget budget, boolean learn, @NotNull SpanStarter spanStarter) {
+        if (build.isCompositeBuild()) return 0;
+
+        var tests = build.getBuildStatistics(BuildStatisticsOptions.ALL_TESTS_NO_DETAILS).getAllTests();
+        if (tests.isEmpty()) return 0;
+
+        var startTime = testBlockTimes.getTestsStartMs(defaultStartMs);
+        var spanName = "Tests";
+        var parentSpanName = getBuildName(build);
+        LOG.info("Creating child span '" + spanName + "' under parent " + parentSpanName);
+
+        var testsSpan = spanStarter.start(spanName, buildSpan, startTime, "tests");
+        setBuildAttributes(testsSpan, build, spanName, "tests-execution");
+
+        var testRunCounts = new TestRunCounts();
+        var omittedTests = new OmittedSpans();
+        var processed = 0;
+        try {
+            LOG.info("Creating " + tests.size() + " test spans under '" + parentSpanName + "' > '" + spanName + "'");
+            var failureDetails = TestFailureDetails.forBuild(projectSpanQuotas.getSettings(build.getProjectExternalId()).getAttributeLength());
+            var limiter = projectSpanQuotas.forProject(build.getProjectExternalId());
+            for (var test : tests) {
+                if (budget.isExhausted()) {
+                    // out of time - the counts of the rest are on the build span already
+                    budget.cutShort(FinishBudget.PHASE_TESTS);
+                    setAttribute(testsSpan, PluginConstants.ATTRIBUTE_OMITTED_TEST_COUNT, tests.size() - processed);
+                    break;
+                }
+                processed++;
+                if (!limiter.tryAcquire()) {
+                    omittedTests.add(test.getStatus().isFailed(), test.getDuration());
+                    continue;
+                }
+                createTestExecutionSpan(build, test, testsSpan, startTime, testBlockTimes, testRunCounts, failureDetails, learn, spanStarter);
+            }
+            omittedTests.addTo(testsSpan);
+            LOG.info("Created " + (processed - omittedTests.getCount()) + " test spans under '" + parentSpanName + "' > '" + spanName + "'");
+            setAttribute(testsSpan, PluginConstants.ATTRIBUTE_REGRESSED_TEST_COUNT, testRunCounts.regressed);
+            if (learn) {
+                setAttribute(testsSpan, PluginConstants.ATTRIBUTE_FLAKY_FAILURE_COUNT, testRunCounts.flakyFailures);
+                testDurationBaselines.recordRegressedTests(build, testRunCounts.regressed);
+                if (testRunCounts.flakyFailures > 0)
+                    flakyTestHistory.recordBuildWithFlakyFailures(build);
+            }
+        } finally {
+            var finishDate = build.getFinishDate();
+            if (finishDate != null) {
+                testsSpan.end(finishDate.toInstant());
+            } else {
+                testsSpan.end();
+            }
+        }
+        return 1 + processed - (int) omittedTests.getCount();
+    }
+
+    private void createTestExecutionSpan(SBuild build, STestRun test, Span parentSpan, long startTime, TestBlockTimes testBlockTimes,
+                                         TestRunCounts testRunCounts, TestFailureDetails failureDetails, boolean learn, SpanStarter spanStarter) {
+        var durationMs = test.getDuration(); // milliseconds
+        var testName = test.getTest().getName().getAsString();
+        // STestRun doesn't know when the test ran, so take it from the test's block in the build log. Without one, all
+        // we can do is start the test along with its parent.
+        var interval = testBlockTimes.timeOf(startTime, durationMs, testName, test.getTest().getName().getNameWithoutSuite());
+        startTime = interval.getStartMs();
+        var endTime = interval.getEndMs();
+        var failed = test.getStatus().isFailed();
+        var passed = test.getStatus() == Status.NORMAL;
+        var muted = test.isMuted();
+        var ignored = test.isIgnored();
+        var testNameId = test.getTest().getTestNameId();
+
+        var humanReadableStatus = "unknown";
+
+        if (muted && failed) {
+            humanReadableStatus = "muted failure";
+        }
+        else if (failed) {
+            humanReadableStatus = "failed";
+        }
+        else if (passed) {
+            humanReadableStatus = "passed";
+        }
+        else if (ignored) {
+            humanReadableStatus = "ignored";
+        }
+
+        Span childSpan = spanStarter.start(testName, parentSpan, startTime, "test", String.valueOf(test.getTestRunId()));
+        setAttribute(childSpan, PluginConstants.ATTRIBUTE_TEST_STATUS, humanReadableStatus);
+        setAttribute(childSpan, PluginConstants.ATTRIBUTE_TEST_PASSED_FLAG, passed);
+        setAttribute(childSpan, PluginConstants.ATTRIBUTE_TEST_FAILED_FLAG, failed);
+        setAttribute(childSpan, PluginConstants.ATTRIBUTE_TEST_IGNORED_FLAG, ignored);
+        setAttribute(childSpan, PluginConstants.ATTRIBUTE_TEST_MUTED_FLAG, muted);
+        setBuildAttributes(childSpan, build, testName, "test-execution");
+
+        // only passing runs feed the baseline - failures tend to bail out early (or hang), which would skew it
+        var regressed = false;
+        var baseline = testDurationBaselines.getAndUpdate(testNameId, durationMs, learn && passed);
+        if (baseline != null) {
+            regressed = passed && baseline.isRegression(durationMs);
+            setAttribute(childSpan, PluginConstants.ATTRIBUTE_TEST_BASELINE_DURATION, Math.round(baseline.getMeanMs()));
+            setAttribute(childSpan, PluginConstants.ATTRIBUTE_TEST_DURATION_DEVIATION, String.format(Locale.ROOT, "%.2f", baseline.getDeviation(durationMs)));
+            setAttribute(childSpan, PluginConstants.ATTRIBUTE_TEST_REGRESSED_FLAG, regressed);
+        }
+        if (regressed) testRunCounts.regressed++;
+
+        // the history is of outcomes in the order they happened, so only builds finishing now add to it
+        if (learn && (passed || failed)) {
+            var history = flakyTestHistory.record(testNameId, failed);
+            var flakyScore = FlakyTestHistory.getFlakyScore(history);
+            if (flakyScore >= 0) {
+                setAttribute(childSpan, PluginConstants.ATTRIBUTE_TEST_FLAKY_SCORE, String.format(Locale.ROOT, "%.2f", flakyScore));
+            }
+            if (failed && FlakyTestHistory.isFlaky(history)) testRunCounts.flakyFailures++;
+        }
+
+        if (failed) {
+            childSpan.setStatus(StatusCode.ERROR);
+            // muted failures are known about already, so don't spend the budget on them
+            if (!muted) failureDetails.addTo(childSpan, test, endTime);
+        }
+        childSpan.end(endTime, TimeUnit.MILLISECONDS);
+    }
+
+    private static final class TestRunCounts {
+        int regressed;
+        int flakyFailures;
+    }
+
+    private static List<LogMessage> getBuildBlockLogs(SBuild build) {
+        List<LogMessage> buildLogs = build.getBuildLog().getFilteredMessages(new LogMessageFilter() {
+            @Override
+            public boolean acceptMessage(@NotNull LogMessage message, boolean lastMessageInParent) {
+                return message instanceof BlockLogMessage;
+            }
+        });
+        buildLogs.removeIf(logMessage -> !(logMessage instanceof BlockLogMessage));
+        return buildLogs;
+    }
+
+    // Attributes go out as strings, the way the plugin always has; a value TeamCity doesn't have is left off.
+    private static void setAttribute(Span span, String attributeName, @Nullable Object attributeValue) {
+        if (attributeValue != null) span.setAttribute(attributeName, attributeValue.toString());
+    }
+}
@@ -9,5 +9,12 @@ public interface BuildStorageManager {
     @Nullable
     String getTraceId(SBuild build);
 
-    void saveTraceId(SRunningBuild build, String traceId);
+    // The id of the build's own span, so that other traces (eg, chains that reuse the build) can link to it.
+    @Nullable
+    String getSpanId(SBuild build);
+
+    void saveTraceId(SRunningBuild build, String traceId, String spanId);
+
+    // Goes up whenever a build's trace id is saved, so callers can tell that a trace id they looked up may have changed.
+    long getTraceIdVersion();
 }
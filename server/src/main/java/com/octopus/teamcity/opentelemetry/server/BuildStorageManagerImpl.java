@@ -3,25 +3,92 @@ package com.octopus.teamcity.opentelemetry.server;
 import jetbrains.buildServer.serverSide.IOGuard;
 import jetbrains.buildServer.serverSide.SBuild;
 import jetbrains.buildServer.serverSide.SRunningBuild;
+import jetbrains.buildServer.serverSide.TeamCityProperties;
 import jetbrains.buildServer.log.Loggers;
 import org.apache.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
 
 import javax.annotation.Nullable;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Scanner;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class BuildStorageManagerImpl implements BuildStorageManager {
     static Logger LOG = Logger.getLogger(BuildStorageManagerImpl.class.getName());
     public static final String OTEL_TRACE_ID_FILENAME = "otel-trace-id";
+    private static final String PROPERTY_CACHE_SIZE = "teamcity.opentelemetry.traceIdCache.size";
+    private static final int DEFAULT_CACHE_SIZE = 10000;
+    // cached for finished builds that were never traced, so we don't keep looking for the file
+    private static final String NO_TRACE_ID = "";
+
+    // trace ids are looked up far more often than they're written (the build overview, the trace lookup api),
+    // so keep the most recently used ones in memory rather than reading the artifact file every time
+    private final Map<Long, String> cache;
+    private final AtomicLong traceIdVersion = new AtomicLong();
+
+    @Autowired
+    public BuildStorageManagerImpl() {
+        this(TeamCityProperties.getInteger(PROPERTY_CACHE_SIZE, DEFAULT_CACHE_SIZE));
+    }
+
+    public BuildStorageManagerImpl(int maxCachedBuilds) {
+        var cacheSize = Math.max(0, maxCachedBuilds);
+        this.cache = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, String> eldest) {
+                return size() > cacheSize;
+            }
+        };
+    }
 
     @Override
     @Nullable
     public String getTraceId(SBuild build) {
+        String cached;
+        synchronized (cache) {
+            cached = cache.get(build.getBuildId());
+        }
+        if (cached != null) return cached.equals(NO_TRACE_ID) ? null : cached;
+
+        var traceId = readTraceId(build);
+        // a running build may not have got as far as saving its trace id yet
+        if (traceId != null || build.isFinished()) {
+            synchronized (cache) {
+                cache.put(build.getBuildId(), traceId == null ? NO_TRACE_ID : traceId);
+            }
+        }
+        return traceId;
+    }
+
+    @Override
+    @Nullable
+    public String getSpanId(SBuild build) {
+        // only needed when a chain reuses the build, so not worth caching
+        File pluginFile = getPluginFile(build);
+        if (!pluginFile.exists()) return null;
+        try (Scanner fileReader = new Scanner(pluginFile)) {
+            fileReader.nextLine();
+            // written by older versions of the plugin with just the trace id
+            return fileReader.hasNextLine() ? fileReader.nextLine() : null;
+        } catch (FileNotFoundException | NoSuchElementException e) {
+            return null;
+        }
+    }
+
+    private static File getPluginFile(SBuild build) {
         File artifactsDir = build.getArtifactsDirectory();
-        File pluginFile = new File(artifactsDir, jetbrains.buildServer.ArtifactsConstants.TEAMCITY_ARTIFACTS_DIR + File.separatorChar + OTEL_TRACE_ID_FILENAME);
+        return new File(artifactsDir, jetbrains.buildServer.ArtifactsConstants.TEAMCITY_ARTIFACTS_DIR + File.separatorChar + OTEL_TRACE_ID_FILENAME);
+    }
+
+    @Nullable
+    private String readTraceId(SBuild build) {
+        File pluginFile = getPluginFile(build);
 
         LOG.debug(String.format("Reading trace id for build %d.", build.getBuildId()));
 
@@ -42,13 +109,21 @@ public class BuildStorageManagerImpl implements BuildStorageManager {
     }
 
     @Override
-    public void saveTraceId(SRunningBuild build, String traceId) {
+    public long getTraceIdVersion() {
+        return traceIdVersion.get();
+    }
+
+    @Override
+    public void saveTraceId(SRunningBuild build, String traceId, String spanId) {
+        synchronized (cache) {
+            cache.put(build.getBuildId(), traceId);
+        }
+        traceIdVersion.incrementAndGet();
         IOGuard.allowDiskWrite(() -> {
-            File artifactsDir = build.getArtifactsDirectory();
-            File pluginFile = new File(artifactsDir, jetbrains.buildServer.ArtifactsConstants.TEAMCITY_ARTIFACTS_DIR + File.separatorChar + OTEL_TRACE_ID_FILENAME);
+            File pluginFile = getPluginFile(build);
             LOG.debug(String.format("Saving trace id %s to %s for build %d.", traceId, OTEL_TRACE_ID_FILENAME, build.getBuildId()));
             try (FileWriter fileWriter = new FileWriter(pluginFile)) {
-                fileWriter.write(traceId);
+                fileWriter.write(traceId + "\n" + spanId);
             } catch (IOException e) {
                 LOG.warn(String.format("Error trying to save trace id for build %d.", build.getBuildId()));
             }
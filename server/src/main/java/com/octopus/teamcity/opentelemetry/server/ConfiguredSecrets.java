@@ -0,0 +1,68 @@
+package com.octopus.teamcity.opentelemetry.server;
+
+import com.octopus.teamcity.opentelemetry.server.helpers.SecretMatcher;
+import jetbrains.buildServer.serverSide.BuildServerAdapter;
+import jetbrains.buildServer.serverSide.BuildServerListener;
+import jetbrains.buildServer.serverSide.ProjectManager;
+import jetbrains.buildServer.serverSide.SProject;
+import jetbrains.buildServer.serverSide.crypt.EncryptUtil;
+import jetbrains.buildServer.util.EventDispatcher;
+import org.apache.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.HashSet;
+
+import static com.octopus.teamcity.opentelemetry.common.PluginConstants.PLUGIN_NAME;
+
+// Keeps LogMasker up to date with the secrets configured in our project features - the Honeycomb api key and any
+// custom headers saved as passwords. They're collected across every project (a child project can override its
+// parent's key), and recollected whenever a project is saved.
+public class ConfiguredSecrets extends BuildServerAdapter {
+    static Logger LOG = Logger.getLogger(ConfiguredSecrets.class.getName());
+    // shorter than this, and we'd mask far more than the secret
+    private static final int MIN_SECRET_LENGTH = 6;
+
+    private final ProjectManager projectManager;
+
+    public ConfiguredSecrets(
+            @NotNull EventDispatcher<BuildServerListener> buildServerListenerEventDispatcher,
+            @NotNull ProjectManager projectManager) {
+        this.projectManager = projectManager;
+        buildServerListenerEventDispatcher.addListener(this);
+    }
+
+    @Override
+    public void serverStartup() {
+        refresh();
+    }
+
+    @Override
+    public void projectPersisted(@NotNull String projectId) {
+        refresh();
+    }
+
+    @Override
+    public void projectRestored(@NotNull String projectId) {
+        refresh();
+    }
+
+    @Override
+    public void projectRemoved(@NotNull String projectId) {
+        refresh();
+    }
+
+    public synchronized void refresh() {
+        var secrets = new HashSet<String>();
+        for (SProject project : projectManager.getProjects()) {
+            for (var feature : project.getOwnFeaturesOfType(PLUGIN_NAME)) {
+                feature.getParameters().forEach((key, value) -> {
+                    if (value == null || !EncryptUtil.isScrambled(value)) return;
+                    var secret = EncryptUtil.unscramble(value);
+                    if (secret.length() >= MIN_SECRET_LENGTH) secrets.add(secret);
+                });
+            }
+        }
+        LogMasker.setSecrets(SecretMatcher.of(secrets));
+        LOG.debug(String.format("Masking %d configured secrets.", secrets.size()));
+    }
+}
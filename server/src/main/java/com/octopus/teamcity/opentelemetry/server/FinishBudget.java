@@ -0,0 +1,102 @@
+package com.octopus.teamcity.opentelemetry.server;
+
+import com.octopus.teamcity.opentelemetry.common.PluginConstants;
+import io.opentelemetry.api.trace.Span;
+import jetbrains.buildServer.serverSide.TeamCityProperties;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+// How long the build listener gets to turn a finished build into spans. The phases run in priority order and each
+// only starts if there's time left; the ones that loop over a lot (build log blocks, tests, artifacts) also check as
+// they go, and stop early. What each phase took, and which were skipped or cut short, goes on the build span.
+public final class FinishBudget {
+    public static final String PROPERTY_BUDGET_MILLISECONDS = "teamcity.opentelemetry.finishBudget.milliseconds";
+    private static final int DEFAULT_BUDGET_MILLISECONDS = 10_000;
+
+    public static final String PHASE_QUEUE = "queue";
+    public static final String PHASE_STEPS = "steps";
+    public static final String PHASE_TESTS = "tests";
+    public static final String PHASE_ARTIFACTS = "artifacts";
+
+    private final LongSupplier nanoClock;
+    private final long startNanos;
+    private final long budgetNanos;
+    private final Map<String, Long> phaseMs = new LinkedHashMap<>();
+    private final List<String> skipped = new ArrayList<>();
+    private final List<String> cutShort = new ArrayList<>();
+
+    public FinishBudget(long budgetMs, @NotNull LongSupplier nanoClock) {
+        this.nanoClock = nanoClock;
+        this.startNanos = nanoClock.getAsLong();
+        // 0 (or less) means no limit
+        this.budgetNanos = budgetMs > 0 ? TimeUnit.MILLISECONDS.toNanos(budgetMs) : Long.MAX_VALUE;
+    }
+
+    @NotNull
+    public static FinishBudget start() {
+        return new FinishBudget(TeamCityProperties.getInteger(PROPERTY_BUDGET_MILLISECONDS, DEFAULT_BUDGET_MILLISECONDS), System::nanoTime);
+    }
+
+    public boolean isExhausted() {
+        return nanoClock.getAsLong() - startNanos >= budgetNanos;
+    }
+
+    // Runs the phase if there's time left, returning whether it ran.
+    public boolean run(@NotNull String phase, @NotNull Runnable action) {
+        if (isExhausted()) {
+            skip(phase);
+            return false;
+        }
+        var phaseStartNanos = nanoClock.getAsLong();
+        try {
+            action.run();
+        } finally {
+            phaseMs.put(phase, TimeUnit.NANOSECONDS.toMillis(nanoClock.getAsLong() - phaseStartNanos));
+        }
+        return true;
+    }
+
+    // For phases skipped for some other reason than time, so they show up alongside the rest.
+    public void skip(@NotNull String phase) {
+        skipped.add(phase);
+    }
+
+    // The phase stopped before doing everything it had to, as the time ran out.
+    public void cutShort(@NotNull String phase) {
+        if (!cutShort.contains(phase)) cutShort.add(phase);
+    }
+
+    public long getElapsedMs() {
+        return TimeUnit.NANOSECONDS.toMillis(nanoClock.getAsLong() - startNanos);
+    }
+
+    @NotNull
+    public Map<String, Long> getPhaseMs() {
+        return phaseMs;
+    }
+
+    @NotNull
+    public List<String> getSkipped() {
+        return skipped;
+    }
+
+    @NotNull
+    public List<String> getCutShort() {
+        return cutShort;
+    }
+
+    public void addTo(@NotNull Span span) {
+        span.setAttribute(PluginConstants.ATTRIBUTE_FINISH_HANDLER_TIME, getElapsedMs());
+        phaseMs.forEach((phase, ms) -> span.setAttribute(PluginConstants.ATTRIBUTE_FINISH_HANDLER_PHASE_TIME_PREFIX + phase, ms));
+        if (!skipped.isEmpty())
+            span.setAttribute(PluginConstants.ATTRIBUTE_FINISH_HANDLER_SKIPPED_PHASES, String.join(",", skipped));
+        if (!cutShort.isEmpty())
+            span.setAttribute(PluginConstants.ATTRIBUTE_FINISH_HANDLER_CUT_SHORT_PHASES, String.join(",", cutShort));
+    }
+}
@@ -1,26 +1,95 @@
 package com.octopus.teamcity.opentelemetry.server;
 
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import com.octopus.teamcity.opentelemetry.server.helpers.SecretMatcher;
 
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.Arrays;
+
+// Masks secrets in anything we log or export: the secrets configured in any project (see ConfiguredSecrets), and (in
+// log messages) anything shaped like a Honeycomb api key - 31 lower case letters or digits. Both are found in a single
+// pass over the message, and when nothing matches we hand back the message we were given.
 public class LogMasker {
 
     public static final String API_KEY_REPLACEMENT_REGEX = "XXXXXXXXXXXXXXXX";
+    private static final int HONEYCOMB_API_KEY_LENGTH = 31;
+
+    private static volatile SecretMatcher secrets = SecretMatcher.EMPTY;
 
     private LogMasker() {
         throw new IllegalStateException("Utility class LogMasker should not be instantiated ");
     }
 
+    public static void setSecrets(SecretMatcher secretMatcher) {
+        secrets = secretMatcher;
+    }
+
     public static String mask(String message) {
-        final String HONEYCOMB_API_KEY_REGEX = "([a-z0-9]{31})";
-        final Pattern apikeyPattern = Pattern.compile(HONEYCOMB_API_KEY_REGEX);
-        StringBuffer buffer = new StringBuffer();
+        return mask(message, true);
+    }
+
+    // The exception's stack trace, causes and all, masked. Log this rather than handing the exception to log4j, which
+    // would print its message (and its causes' messages) as they are.
+    public static String maskStackTrace(Throwable e) {
+        var writer = new StringWriter();
+        e.printStackTrace(new PrintWriter(writer));
+        return mask(writer.toString());
+    }
+
+    // Only the configured secrets - for span data, where commit hashes, trace ids and long lower case test names
+    // would all look like api keys.
+    public static String maskSecrets(String message) {
+        return mask(message, false);
+    }
+
+    private static String mask(String message, boolean maskApiKeyShapes) {
+        if (message == null || message.isEmpty()) return message;
+        var matcher = secrets;
+        if (matcher.isEmpty() && !maskApiKeyShapes) return message;
+
+        // masked ranges as [start, end) pairs, only allocated once we find something
+        int[] ranges = null;
+        var rangeCount = 0;
+        var state = 0;
+        var runStart = 0;
+        for (int i = 0; i < message.length(); i++) {
+            var c = message.charAt(i);
+            var start = Integer.MAX_VALUE;
+
+            state = matcher.next(state, c);
+            var matchLength = matcher.matchLength(state);
+            if (matchLength > 0) start = i + 1 - matchLength;
+
+            if (maskApiKeyShapes) {
+                if ((c >= 'a' && c <= 'z') || (c >= '0' && c <= '9')) {
+                    if (i + 1 - runStart == HONEYCOMB_API_KEY_LENGTH) {
+                        start = Math.min(start, runStart);
+                        runStart = i + 1;
+                    }
+                } else {
+                    runStart = i + 1;
+                }
+            }
+
+            if (start == Integer.MAX_VALUE) continue;
+            if (ranges == null) ranges = new int[8];
+            // matches are found in order of where they end, but a longer one can reach back over earlier ones
+            while (rangeCount > 0 && start <= ranges[rangeCount - 1]) {
+                start = Math.min(start, ranges[rangeCount - 2]);
+                rangeCount -= 2;
+            }
+            if (rangeCount == ranges.length) ranges = Arrays.copyOf(ranges, ranges.length * 2);
+            ranges[rangeCount++] = start;
+            ranges[rangeCount++] = i + 1;
+        }
+        if (ranges == null) return message;
 
-        Matcher matcher = apikeyPattern.matcher(message);
-        while (matcher.find()) {
-            matcher.appendReplacement(buffer, API_KEY_REPLACEMENT_REGEX);
+        var result = new StringBuilder(message.length());
+        var position = 0;
+        for (int r = 0; r < rangeCount; r += 2) {
+            result.append(message, position, ranges[r]).append(API_KEY_REPLACEMENT_REGEX);
+            position = ranges[r + 1];
         }
-        matcher.appendTail(buffer);
-        return buffer.toString();
+        return result.append(message, position, message.length()).toString();
     }
 }
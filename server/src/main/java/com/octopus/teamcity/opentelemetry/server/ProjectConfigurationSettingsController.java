@@ -51,7 +51,14 @@ public class ProjectConfigurationSettingsController extends BaseFormXmlControlle
             return;
         }
 
-        var settingsRequest = mapRequest(request);
+        var otelHandler = otelEndpointFactory.findOTELEndpointHandler(request.getParameter("service"));
+        if (otelHandler == null) {
+            errors.addError("service", "Service must be set to one of " + otelEndpointFactory.readableJoin());
+            errors.serialize(xmlResponse);
+            return;
+        }
+
+        var settingsRequest = otelHandler.getSetProjectConfigurationSettingsRequest(request);
         if (!settingsRequest.validate(errors)) {
             errors.serialize(xmlResponse);
             return;
@@ -86,10 +93,5 @@ public class ProjectConfigurationSettingsController extends BaseFormXmlControlle
             ActionMessages.getOrCreateMessages(request).addMessage("featureUpdated", "Feature was updated.");
         }
     }
-
-    private SetProjectConfigurationSettingsRequest mapRequest(HttpServletRequest request) {
-        var otelHandler = otelEndpointFactory.getOTELEndpointHandler(request.getParameter("service"));
-        return otelHandler.getSetProjectConfigurationSettingsRequest(request);
-    }
 }
 
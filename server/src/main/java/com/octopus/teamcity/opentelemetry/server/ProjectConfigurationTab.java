@@ -1,6 +1,8 @@
 package com.octopus.teamcity.opentelemetry.server;
 
 import com.octopus.teamcity.opentelemetry.server.endpoints.OTELEndpointFactory;
+import com.octopus.teamcity.opentelemetry.server.helpers.ExporterCircuitBreakers;
+import com.octopus.teamcity.opentelemetry.server.helpers.ProjectSpanQuotas;
 import jetbrains.buildServer.controllers.admin.projects.EditProjectTab;
 import jetbrains.buildServer.serverSide.ProjectManager;
 import jetbrains.buildServer.serverSide.SProject;
@@ -11,6 +13,7 @@ import org.jetbrains.annotations.NotNull;
 
 import javax.servlet.http.HttpServletRequest;
 import java.util.Arrays;
+import java.util.Date;
 import java.util.List;
 import java.util.Map;
 
@@ -23,17 +26,25 @@ public class ProjectConfigurationTab extends EditProjectTab {
     private final ProjectManager projectManager;
     @NotNull
     private final OTELEndpointFactory otelEndpointFactory;
+    @NotNull
+    private final ExporterCircuitBreakers circuitBreakers;
+    @NotNull
+    private final ProjectSpanQuotas projectSpanQuotas;
 
     public ProjectConfigurationTab(
             @NotNull PagePlaces pagePlaces,
             @NotNull PluginDescriptor pluginDescriptor,
             @NotNull ProjectManager projectManager,
-            @NotNull OTELEndpointFactory otelEndpointFactory
+            @NotNull OTELEndpointFactory otelEndpointFactory,
+            @NotNull ExporterCircuitBreakers circuitBreakers,
+            @NotNull ProjectSpanQuotas projectSpanQuotas
         ) {
         super(pagePlaces, "Octopus.TeamCity.OpenTelemetry", "projectConfigurationSettings.jsp", "OpenTelemetry");
         this.pluginDescriptor = pluginDescriptor;
         this.projectManager = projectManager;
         this.otelEndpointFactory = otelEndpointFactory;
+        this.circuitBreakers = circuitBreakers;
+        this.projectSpanQuotas = projectSpanQuotas;
 
         register();
     }
@@ -46,6 +57,7 @@ public class ProjectConfigurationTab extends EditProjectTab {
 
         var features = project.getAvailableFeaturesOfType(PLUGIN_NAME);
         model.put("publicKey", RSACipher.getHexEncodedPublicKey());
+        model.put("otelServices", otelEndpointFactory.getOTELEndpointHandlers());
 
         if ((long) features.size() == 0) {
             model.put("isEnabled", false);
@@ -74,8 +86,32 @@ public class ProjectConfigurationTab extends EditProjectTab {
 
             model.put("otelEnabled", params.get(PROPERTY_KEY_ENABLED));
             model.put("otelService", params.get(PROPERTY_KEY_SERVICE));
+            model.put("otelLimitAttributeLength", params.get(PROPERTY_KEY_LIMIT_ATTRIBUTE_LENGTH));
+            model.put("otelLimitAttributesPerSpan", params.get(PROPERTY_KEY_LIMIT_ATTRIBUTES_PER_SPAN));
+            model.put("otelLimitEventsPerSpan", params.get(PROPERTY_KEY_LIMIT_EVENTS_PER_SPAN));
+            model.put("otelLimitTraceKilobytes", params.get(PROPERTY_KEY_LIMIT_TRACE_KILOBYTES));
+            model.put("otelLimitSpansPerSecond", params.get(PROPERTY_KEY_LIMIT_SPANS_PER_SECOND));
+            model.put("otelLimitSpansPerDay", params.get(PROPERTY_KEY_LIMIT_SPANS_PER_DAY));
 
             service.mapParamsToModel(params, model);
+
+            var circuitBreaker = circuitBreakers.find(params);
+            if (circuitBreaker != null) {
+                model.put("exporterState", circuitBreaker.getState().name());
+                model.put("exporterStateSince", new Date(circuitBreaker.getStateChangedAtMs()));
+                model.put("exporterConsecutiveFailures", circuitBreaker.getConsecutiveFailures());
+                model.put("exporterDroppedSpanCount", circuitBreaker.getDroppedSpanCount());
+                model.put("exporterLastError", circuitBreaker.getLastError());
+            }
+
+            var limiter = projectSpanQuotas.find(project.getExternalId());
+            if (limiter != null) {
+                var usage = limiter.getToday();
+                model.put("spanUsageCreated", usage.getCreated());
+                model.put("spanUsageRateLimited", usage.getRateLimited());
+                model.put("spanUsageOverQuota", usage.getOverQuota());
+                model.put("spanUsageQuota", limiter.getSpansPerDay());
+            }
         }
     }
 
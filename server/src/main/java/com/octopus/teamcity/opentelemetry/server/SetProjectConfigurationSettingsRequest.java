@@ -15,18 +15,27 @@ import static com.octopus.teamcity.opentelemetry.common.PluginConstants.*;
 
 public abstract class SetProjectConfigurationSettingsRequest {
     private final String enabled;
-    private final Optional<OTELService> service;
+    private final String service;
     private final String endpoint;
     final Optional<SaveMode> mode;
+    private final HashMap<String, String> limits;
 
     private final ArrayList<HeaderDto> headers;
 
     public SetProjectConfigurationSettingsRequest(HttpServletRequest request) {
         this.enabled = request.getParameter("enabled");
-        this.service = OTELService.get(request.getParameter("service"));
+        this.service = request.getParameter("service");
         this.endpoint = request.getParameter("endpoint");
         this.mode = SaveMode.get(request.getParameter("mode"));
 
+        limits = new HashMap<>();
+        limits.put(PROPERTY_KEY_LIMIT_ATTRIBUTE_LENGTH, request.getParameter("limitAttributeLength"));
+        limits.put(PROPERTY_KEY_LIMIT_ATTRIBUTES_PER_SPAN, request.getParameter("limitAttributesPerSpan"));
+        limits.put(PROPERTY_KEY_LIMIT_EVENTS_PER_SPAN, request.getParameter("limitEventsPerSpan"));
+        limits.put(PROPERTY_KEY_LIMIT_TRACE_KILOBYTES, request.getParameter("limitTraceKilobytes"));
+        limits.put(PROPERTY_KEY_LIMIT_SPANS_PER_SECOND, request.getParameter("limitSpansPerSecond"));
+        limits.put(PROPERTY_KEY_LIMIT_SPANS_PER_DAY, request.getParameter("limitSpansPerDay"));
+
         headers = new ArrayList<>();
 
         request.getParameterMap().forEach((headerName, headerValue) -> {
@@ -53,17 +62,13 @@ public abstract class SetProjectConfigurationSettingsRequest {
                 return true; //short circuit the rest of the validation - all related to "save"
         }
 
-        if (!this.service.isPresent())
-            errors.addError("service", "Service must be set to one of " + OTELService.readableJoin());
-        else {
-            serviceSpecificValidate(errors);
-        }
+        // the controller only makes a request for a service that has a handler, so there's no more to check here
+        serviceSpecificValidate(errors);
 
         if (StringUtil.isEmptyOrSpaces(this.endpoint)) {
             errors.addError("endpoint", "Endpoint must be set!");
         } else {
-            if (!this.endpoint.startsWith("https://") && !this.endpoint.startsWith("http://"))
-                errors.addError("endpoint", "Endpoint must be a valid url!");
+            validateEndpoint(errors, this.endpoint);
         }
         if (!StringUtil.isEmptyOrSpaces(enabled) && !enabled.equals("true") && !enabled.equals("false"))
             errors.addError("enabled", String.format("Enabled value %s was not set to true or false!", enabled));
@@ -71,6 +76,12 @@ public abstract class SetProjectConfigurationSettingsRequest {
             errors.addError("headers", "One or more header keys are empty!");
         if (headers.stream().anyMatch(x -> StringUtil.isEmptyOrSpaces(x.getValue())))
             errors.addError("headers", "One or more header values are empty!");
+        validateLimit(errors, "limitAttributeLength", PROPERTY_KEY_LIMIT_ATTRIBUTE_LENGTH, "Attribute length");
+        validateLimit(errors, "limitAttributesPerSpan", PROPERTY_KEY_LIMIT_ATTRIBUTES_PER_SPAN, "Attributes per span");
+        validateLimit(errors, "limitEventsPerSpan", PROPERTY_KEY_LIMIT_EVENTS_PER_SPAN, "Events per span");
+        validateLimit(errors, "limitTraceKilobytes", PROPERTY_KEY_LIMIT_TRACE_KILOBYTES, "Trace size");
+        validateLimit(errors, "limitSpansPerSecond", PROPERTY_KEY_LIMIT_SPANS_PER_SECOND, "Spans per second");
+        validateLimit(errors, "limitSpansPerDay", PROPERTY_KEY_LIMIT_SPANS_PER_DAY, "Spans per day");
 
         return errors.hasNoErrors();
     }
@@ -78,18 +89,41 @@ public abstract class SetProjectConfigurationSettingsRequest {
     public HashMap<String, String> AsParams() {
         var params = new HashMap<String, String>();
         params.put(PROPERTY_KEY_ENABLED, enabled);
-        if (service.isPresent())
-            params.put(PROPERTY_KEY_SERVICE, service.get().getValue());
+        if (!StringUtil.isEmptyOrSpaces(service))
+            params.put(PROPERTY_KEY_SERVICE, service);
         else
             params.put(PROPERTY_KEY_SERVICE, OTELService.getDefault().getValue());
 
         params.put(PROPERTY_KEY_ENDPOINT, endpoint);
 
+        limits.forEach((key, value) -> {
+            if (!StringUtil.isEmptyOrSpaces(value))
+                params.put(key, value.trim());
+        });
+
         mapServiceSpecificParams(params, headers);
 
         return params;
     }
 
+    private void validateLimit(ActionErrors errors, String field, String key, String description) {
+        var value = limits.get(key);
+        if (StringUtil.isEmptyOrSpaces(value))
+            return;
+        try {
+            if (Integer.parseInt(value.trim()) <= 0)
+                errors.addError(field, description + " must be greater than zero!");
+        } catch (NumberFormatException e) {
+            errors.addError(field, description + " must be a whole number!");
+        }
+    }
+
+    // Most services send to a url; those that don't can check the endpoint their own way.
+    protected void validateEndpoint(ActionErrors errors, String endpoint) {
+        if (!endpoint.startsWith("https://") && !endpoint.startsWith("http://"))
+            errors.addError("endpoint", "Endpoint must be a valid url!");
+    }
+
     protected abstract void serviceSpecificValidate(ActionErrors errors);
 
     protected abstract void mapServiceSpecificParams(HashMap<String, String> params, ArrayList<HeaderDto> headers);
@@ -1,42 +1,57 @@
 package com.octopus.teamcity.opentelemetry.server;
 
 import com.octopus.teamcity.opentelemetry.common.PluginConstants;
+import com.octopus.teamcity.opentelemetry.server.agent.ResourceSampleStore;
+import com.octopus.teamcity.opentelemetry.server.chain.ChainGraph;
+import com.octopus.teamcity.opentelemetry.server.chain.CriticalPath;
+import com.octopus.teamcity.opentelemetry.server.chain.DeferredBuildSpans;
 import com.octopus.teamcity.opentelemetry.server.helpers.OTELHelper;
 import com.octopus.teamcity.opentelemetry.server.helpers.OTELHelperFactory;
+import com.octopus.teamcity.opentelemetry.server.metrics.BuildStatisticsPublisher;
+import com.octopus.teamcity.opentelemetry.server.queue.QueueWaitTracker;
+import com.octopus.teamcity.opentelemetry.server.tests.TestBlockTimes;
 import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.api.trace.SpanContext;
 import io.opentelemetry.api.trace.StatusCode;
+import io.opentelemetry.api.trace.TraceFlags;
+import io.opentelemetry.api.trace.TraceState;
 import io.opentelemetry.context.Scope;
 
-import jetbrains.buildServer.messages.DefaultMessagesInfo;
-import jetbrains.buildServer.messages.Status;
 import jetbrains.buildServer.serverSide.*;
 import jetbrains.buildServer.serverSide.artifacts.BuildArtifacts;
 import jetbrains.buildServer.serverSide.artifacts.BuildArtifactsViewMode;
-import jetbrains.buildServer.serverSide.buildLog.BlockLogMessage;
-import jetbrains.buildServer.serverSide.buildLog.LogMessage;
-import jetbrains.buildServer.serverSide.buildLog.LogMessageFilter;
+import jetbrains.buildServer.users.User;
 import jetbrains.buildServer.util.EventDispatcher;
 import org.apache.log4j.Logger;
 import org.apache.logging.log4j.CloseableThreadContext;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.springframework.beans.factory.annotation.Autowired;
 
 import java.math.BigDecimal;
-import java.time.Duration;
+import java.time.Instant;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
-import java.util.regex.Pattern;
 
 public class TeamCityBuildListener extends BuildServerAdapter {
 
     public static final String BUILD_SERVICE_NAME = "teamcity-build";
+    public static final String REUSED_BUILD_SERVICE_NAME = "teamcity-reused-build";
+    public static final String PROPERTY_CRITICAL_PATH_ENABLED = "teamcity.opentelemetry.criticalPath.enabled";
+    public static final String PROPERTY_CRITICAL_PATH_MAX_HOLD_HOURS = "teamcity.opentelemetry.criticalPath.maxHoldHours";
+    private static final int DEFAULT_CRITICAL_PATH_MAX_HOLD_HOURS = 24;
     static Logger LOG = Logger.getLogger(TeamCityBuildListener.class.getName());
-    private final ConcurrentHashMap<String, Long> checkoutTimeMap;
     private final OTELHelperFactory otelHelperFactory;
     private final BuildStorageManager buildStorageManager;
     private final TeamCityNodes nodesService;
+    private final QueueWaitTracker queueWaitTracker;
+    private final BuildStatisticsPublisher buildStatisticsPublisher;
+    private final ResourceSampleStore resourceSampleStore;
+    private final BuildSpans buildSpans;
+    private final DeferredBuildSpans deferredBuildSpans;
+    private final ConcurrentHashMap<Long, ChainGraph> chainGraphs;
 
     @Autowired
     @SuppressWarnings("SpringJavaInjectionPointsAutowiringInspection")
@@ -44,12 +59,21 @@ public class TeamCityBuildListener extends BuildServerAdapter {
         @NotNull EventDispatcher<BuildServerListener> buildServerListenerEventDispatcher,
         @NotNull OTELHelperFactory otelHelperFactory,
         @NotNull BuildStorageManager buildStorageManager,
-        @NotNull TeamCityNodes nodesService)
+        @NotNull TeamCityNodes nodesService,
+        @NotNull QueueWaitTracker queueWaitTracker,
+        @NotNull BuildStatisticsPublisher buildStatisticsPublisher,
+        @NotNull ResourceSampleStore resourceSampleStore,
+        @NotNull BuildSpans buildSpans)
     {
         this.otelHelperFactory = otelHelperFactory;
         this.buildStorageManager = buildStorageManager;
         this.nodesService = nodesService;
-        this.checkoutTimeMap = new ConcurrentHashMap<>();
+        this.queueWaitTracker = queueWaitTracker;
+        this.buildStatisticsPublisher = buildStatisticsPublisher;
+        this.resourceSampleStore = resourceSampleStore;
+        this.buildSpans = buildSpans;
+        this.deferredBuildSpans = new DeferredBuildSpans();
+        this.chainGraphs = new ConcurrentHashMap<>();
         buildServerListenerEventDispatcher.addListener(this);
         LOG.info("BuildListener registered.");
     }
@@ -71,18 +95,21 @@ public class TeamCityBuildListener extends BuildServerAdapter {
                         LOG.debug(String.format("Root build of build id %d is %d", build.getBuildId(), rootBuildInChainId));
 
                         Span rootSpan = otelHelper.getOrCreateParentSpan(String.valueOf(rootBuildInChainId));
-                        buildStorageManager.saveTraceId(build, rootSpan.getSpanContext().getTraceId());
+                        var traceId = rootSpan.getSpanContext().getTraceId();
 
-                        var span = ensureSpansExistLinkingToRoot(otelHelper, build.getBuildPromotion(), rootBuildInChain);
+                        var chain = chainGraphs.computeIfAbsent(rootBuildInChainId, key -> ChainGraph.of(rootBuildInChain));
+                        var span = ensureSpansExistLinkingToRoot(otelHelper, build.getBuildPromotion(), rootBuildInChain, chain);
+                        buildStorageManager.saveTraceId(build, traceId, span.getSpanContext().getSpanId());
 
                         try (Scope ignored3 = rootSpan.makeCurrent()) {
-                            setSpanBuildAttributes(otelHelper, build, span, getBuildName(build), BUILD_SERVICE_NAME);
+                            BuildSpans.setBuildAttributes(span, build, getBuildName(build), BUILD_SERVICE_NAME);
+                            createReusedBuildSpans(otelHelper, build, span, chain, traceId);
                             span.addEvent(PluginConstants.EVENT_STARTED);
                             LOG.debug(String.format("%s event added to span for build '%s', id %d", PluginConstants.EVENT_STARTED, getBuildName(build), build.getBuildId()));
                         } catch (Exception e) {
-                            LOG.error("Exception in Build Start caused by: " + e + e.getCause() +
+                            LOG.error(LogMasker.mask("Exception in Build Start caused by: " + e + e.getCause() +
                                     ", with message: " + e.getMessage() +
-                                    ", and stacktrace: " + Arrays.toString(e.getStackTrace()));
+                                    ", and stacktrace: " + Arrays.toString(e.getStackTrace())));
                             if (span != null) {
                                 span.setStatus(StatusCode.ERROR, PluginConstants.EXCEPTION_ERROR_MESSAGE_DURING_BUILD_START + ": " + e.getMessage());
                             }
@@ -93,31 +120,94 @@ public class TeamCityBuildListener extends BuildServerAdapter {
                 }
             }
         } catch (Exception e) {
-            LOG.error("Exception in buildStarted caused by: " + e.getMessage(), e);
+            LOG.error("Exception in buildStarted caused by: " + LogMasker.maskStackTrace(e));
         }
     }
 
-    private Span ensureSpansExistLinkingToRoot(OTELHelper otelHelper, BuildPromotion buildPromotion, BuildPromotion rootBuildInChain) {
-        var parents = buildPromotion.getDependedOnMe();
-        for (var parent : parents) {
-            LOG.debug(String.format("Parents of build %d includes %d", buildPromotion.getId(), parent.getDependent().getId()));
+    // The span of a build that's starting, so its context can be handed to the build. buildStarted may not have
+    // run yet, so this creates the span (and those between it and the root) if need be; buildStarted then finds it.
+    // Null if the build isn't traced.
+    @Nullable
+    public SpanContext getBuildSpanContext(@NotNull SRunningBuild build) {
+        if (!nodesService.getCurrentNode().isMainNode()) return null;
+        var rootBuildInChain = getRootBuildInChain(build);
+        var otelHelper = otelHelperFactory.getOTELHelper(rootBuildInChain);
+        if (!otelHelper.isReady()) return null;
+        var chain = chainGraphs.computeIfAbsent(rootBuildInChain.getId(), key -> ChainGraph.of(rootBuildInChain));
+        return ensureSpansExistLinkingToRoot(otelHelper, build.getBuildPromotion(), rootBuildInChain, chain).getSpanContext();
+    }
+
+    private Span ensureSpansExistLinkingToRoot(OTELHelper otelHelper, BuildPromotion buildPromotion, BuildPromotion rootBuildInChain, ChainGraph chain) {
+        // once a build has a span, so do all the builds between it and the root - no need to walk up again
+        var existingSpan = otelHelper.getSpan(String.valueOf(buildPromotion.getId()));
+        if (existingSpan != null) return existingSpan;
+
+        var parents = new ArrayList<BuildPromotion>();
+        for (var dependedOnMe : buildPromotion.getDependedOnMe()) {
+            var parent = dependedOnMe.getDependent();
+            // builds in other chains that depend on this build have their own traces
+            if (!chain.contains(parent.getId())) continue;
+            LOG.debug(String.format("Parents of build %d includes %d", buildPromotion.getId(), parent.getId()));
+            parents.add(parent);
         }
 
-        if ((long) parents.size() == 0) {
+        if (parents.isEmpty()) {
             LOG.debug(String.format("Build %d has no parent, meaning we it's the root; creating span if needed", buildPromotion.getId()));
             return otelHelper.getOrCreateParentSpan(String.valueOf(rootBuildInChain.getId()));
         }
 
         //get the last one
-        var immediateParentBuild = parents.stream()
-                .reduce((first, second) -> second)
-                .orElseThrow()
-                .getDependent();
+        var immediateParentBuild = parents.get(parents.size() - 1);
         LOG.debug(String.format("Parent of build %d is %d", buildPromotion.getId(), immediateParentBuild.getId()));
-        var parentSpan = ensureSpansExistLinkingToRoot(otelHelper, immediateParentBuild, rootBuildInChain);
+        var parentSpan = ensureSpansExistLinkingToRoot(otelHelper, immediateParentBuild, rootBuildInChain, chain);
         var parentSpanName = String.valueOf(immediateParentBuild.getId());
         LOG.debug(String.format("Creating span for build %d, with parent id %d", buildPromotion.getId(), immediateParentBuild.getId()));
-        return otelHelper.createSpan(String.valueOf(buildPromotion.getId()), parentSpan, parentSpanName);
+        var span = otelHelper.createSpan(String.valueOf(buildPromotion.getId()), parentSpan, parentSpanName);
+
+        // a span only has the one parent, so the others are linked to
+        for (int i = 0; i < parents.size() - 1; i++) {
+            span.addLink(ensureSpansExistLinkingToRoot(otelHelper, parents.get(i), rootBuildInChain, chain).getSpanContext());
+        }
+        return span;
+    }
+
+    // A snapshot dependency that finished in an earlier chain is reused rather than run again, so it's in another
+    // trace (if it was traced at all). Stand in for it with a span linking to the original, so this trace still shows
+    // the whole chain. Whether it was reused comes from the chain, not the trace id: a build of this chain that
+    // hasn't saved its trace id yet (say, one side of a diamond) isn't reused.
+    private void createReusedBuildSpans(OTELHelper otelHelper, SRunningBuild build, Span span, ChainGraph chain, String traceId) {
+        for (var dependency : build.getBuildPromotion().getDependencies()) {
+            var dependOn = dependency.getDependOn();
+            if (!chain.isReused(dependOn)) continue;
+            var reusedBuild = dependOn.getAssociatedBuild();
+            if (reusedBuild == null || reusedBuild.getStartDate() == null) continue;
+            var originalTraceId = buildStorageManager.getTraceId(reusedBuild);
+            if (traceId.equals(originalTraceId)) continue;
+
+            var reusedBuildSpan = chain.getReusedBuildSpan(dependOn.getId());
+            if (reusedBuildSpan != null) {
+                span.addLink(reusedBuildSpan);
+                continue;
+            }
+            var name = reusedBuild.getBuildType() != null ? reusedBuild.getBuildType().getName() : "unknown_build_name";
+            var reusedSpan = otelHelper.createTransientSpan(name + " (reused)", span, reusedBuild.getStartDate().getTime());
+            otelHelper.addAttributeToSpan(reusedSpan, PluginConstants.ATTRIBUTE_SERVICE_NAME, REUSED_BUILD_SERVICE_NAME);
+            otelHelper.addAttributeToSpan(reusedSpan, PluginConstants.ATTRIBUTE_NAME, name);
+            otelHelper.addAttributeToSpan(reusedSpan, PluginConstants.ATTRIBUTE_BUILD_ID, reusedBuild.getBuildId());
+            otelHelper.addAttributeToSpan(reusedSpan, PluginConstants.ATTRIBUTE_BUILD_TYPE_ID, reusedBuild.getBuildTypeId());
+            otelHelper.addAttributeToSpan(reusedSpan, PluginConstants.ATTRIBUTE_BUILD_TYPE_EXTERNAL_ID, reusedBuild.getBuildTypeExternalId());
+            otelHelper.addAttributeToSpan(reusedSpan, PluginConstants.ATTRIBUTE_BUILD_NUMBER, reusedBuild.getBuildNumber());
+            if (originalTraceId != null) {
+                otelHelper.addAttributeToSpan(reusedSpan, PluginConstants.ATTRIBUTE_REUSED_TRACE_ID, originalTraceId);
+                var originalSpanId = buildStorageManager.getSpanId(reusedBuild);
+                if (originalSpanId != null)
+                    reusedSpan.addLink(SpanContext.createFromRemoteParent(originalTraceId, originalSpanId, TraceFlags.getSampled(), TraceState.getDefault()));
+            }
+            var finishDate = reusedBuild.getFinishDate();
+            if (finishDate != null) reusedSpan.end(finishDate.toInstant());
+            else reusedSpan.end();
+            chain.putReusedBuildSpan(dependOn.getId(), reusedSpan.getSpanContext());
+        }
     }
 
     private String getBuildId(SRunningBuild build) {
@@ -125,7 +215,7 @@ public class TeamCityBuildListener extends BuildServerAdapter {
     }
 
     private String getBuildName(SRunningBuild build) {
-        return build.getBuildType() != null ? build.getBuildType().getName() : "unknown_build_name";
+        return BuildSpans.getBuildName(build);
     }
 
     private BuildPromotion getRootBuildInChain(SRunningBuild build) {
@@ -133,30 +223,6 @@ public class TeamCityBuildListener extends BuildServerAdapter {
         return parentBuilds[0];
     }
 
-    private void setSpanBuildAttributes(OTELHelper otelHelper, SRunningBuild build, Span span, String spanName, String serviceName) {
-        if (build.getBuildType() != null) {
-            otelHelper.addAttributeToSpan(span, PluginConstants.ATTRIBUTE_PROJECT_NAME, build.getBuildType().getProject().getName());
-        }
-        if (build.getBranch() != null ) {
-            otelHelper.addAttributeToSpan(span, PluginConstants.ATTRIBUTE_BRANCH,  build.getBranch().getName());
-        }
-        if (!build.getRevisions().isEmpty()) {
-            otelHelper.addAttributeToSpan(span, PluginConstants.ATTRIBUTE_COMMIT,  build.getRevisions().iterator().next().getRevisionDisplayName());
-        }
-        if (build.getProjectExternalId() != null ) {
-            otelHelper.addAttributeToSpan(span, PluginConstants.ATTRIBUTE_PROJECT_ID, build.getProjectExternalId());
-        }
-        otelHelper.addAttributeToSpan(span, PluginConstants.ATTRIBUTE_BUILD_TYPE_ID, build.getBuildTypeId());
-        otelHelper.addAttributeToSpan(span, PluginConstants.ATTRIBUTE_BUILD_TYPE_EXTERNAL_ID, build.getBuildTypeExternalId());
-        otelHelper.addAttributeToSpan(span, PluginConstants.ATTRIBUTE_AGENT_NAME, build.getAgentName());
-        otelHelper.addAttributeToSpan(span, PluginConstants.ATTRIBUTE_AGENT_TYPE, build.getAgent().getAgentTypeId());
-        otelHelper.addAttributeToSpan(span, PluginConstants.ATTRIBUTE_BUILD_NUMBER, build.getBuildNumber());
-        otelHelper.addAttributeToSpan(span, PluginConstants.ATTRIBUTE_SERVICE_NAME,  serviceName);
-        otelHelper.addAttributeToSpan(span, PluginConstants.ATTRIBUTE_NAME, spanName);
-        otelHelper.addAttributeToSpan(span, PluginConstants.ATTRIBUTE_BUILD_ID, build.getBuildId());
-        otelHelper.addAttributeToSpan(span, PluginConstants.ATTRIBUTE_BUILD_IS_COMPOSITE, build.getBuildPromotion().isCompositeBuild());
-    }
-
     @Override
     public void buildFinished(@NotNull SRunningBuild build) {
         try {
@@ -166,7 +232,7 @@ public class TeamCityBuildListener extends BuildServerAdapter {
                 buildFinishedOrInterrupted(build);
             }
         } catch (Exception e) {
-            LOG.error("Exception in buildFinished caused by: " + e.getMessage(), e);
+            LOG.error("Exception in buildFinished caused by: " + LogMasker.maskStackTrace(e));
         }
     }
 
@@ -179,15 +245,13 @@ public class TeamCityBuildListener extends BuildServerAdapter {
                 buildFinishedOrInterrupted(build);
             }
         } catch (Exception e) {
-            LOG.error("Exception in buildInterrupted caused by: " + e.getMessage(), e);
+            LOG.error("Exception in buildInterrupted caused by: " + LogMasker.maskStackTrace(e));
         }
     }
 
     private void buildFinishedOrInterrupted (SRunningBuild build) {
         if (!nodesService.getCurrentNode().isMainNode()) return;
 
-        BuildStatistics buildStatistics = build.getBuildStatistics(BuildStatisticsOptions.ALL_TESTS_NO_DETAILS);
-
         var rootBuildInChain = getRootBuildInChain(build);
 
         try (var ignored2 = CloseableThreadContext.put("teamcity.root.build.id", String.valueOf(rootBuildInChain.getId()))) {
@@ -196,31 +260,55 @@ public class TeamCityBuildListener extends BuildServerAdapter {
                 var span = otelHelper.getSpan(getBuildId(build));
                 if (span != null) {
                     LOG.debug("Build finished and span found for '" + getBuildName(build) + "'");
+                    var budget = FinishBudget.start();
+                    BuildSpans.SpanStarter spanStarter = (name, parent, startTimeMs, kind, key) -> otelHelper.createTransientSpan(name, parent, startTimeMs);
                     try (Scope ignored3 = span.makeCurrent()) {
-                        createQueuedEventsSpans(build, span);
-                        createBuildStepSpans(build, span);
-                        createTestExecutionSpans(build, span, getBuildName(build));
-                        setArtifactAttributes(build, span);
-
-                        otelHelper.addAttributeToSpan(span, PluginConstants.ATTRIBUTE_SUCCESS_STATUS, build.getBuildStatus().isSuccessful());
-                        otelHelper.addAttributeToSpan(span, PluginConstants.ATTRIBUTE_FAILED_TEST_COUNT, buildStatistics.getFailedTestCount());
-                        otelHelper.addAttributeToSpan(span, PluginConstants.ATTRIBUTE_BUILD_PROBLEMS_COUNT, buildStatistics.getCompilationErrorsCount());
-                        if (this.checkoutTimeMap.containsKey(span.getSpanContext().getSpanId())) {
-                            otelHelper.addAttributeToSpan(span, PluginConstants.ATTRIBUTE_BUILD_CHECKOUT_TIME, this.checkoutTimeMap.get(span.getSpanContext().getSpanId()));
-                            this.checkoutTimeMap.remove(span.getSpanContext().getSpanId());
+                        budget.run(FinishBudget.PHASE_QUEUE, () ->
+                                buildSpans.createQueuedEventsSpans(build, span, queueWaitTracker.take(build.getBuildPromotion().getId()), spanStarter));
+                        if (otelHelper.isDestinationHealthy()) {
+                            var testBlockTimes = new TestBlockTimes();
+                            if (!budget.run(FinishBudget.PHASE_STEPS, () ->
+                                    buildSpans.createBuildStepSpans(build, span, resourceSampleStore.take(build.getBuildId()), testBlockTimes, budget, spanStarter)))
+                                resourceSampleStore.take(build.getBuildId());
+                            budget.run(FinishBudget.PHASE_TESTS, () ->
+                                    buildSpans.createTestExecutionSpans(build, span, getTestsStartMs(build), testBlockTimes, budget, true, spanStarter));
+                        } else {
+                            // exports are failing, so reading the build log and tests would only make spans to drop
+                            resourceSampleStore.take(build.getBuildId());
+                            otelHelper.addAttributeToSpan(span, PluginConstants.ATTRIBUTE_DETAIL_SPANS_SKIPPED, true);
+                            budget.skip(FinishBudget.PHASE_STEPS);
+                            budget.skip(FinishBudget.PHASE_TESTS);
                         }
+                        budget.run(FinishBudget.PHASE_ARTIFACTS, () -> setArtifactAttributes(build, span, budget));
+                        publishBuildStatistics(otelHelper, build, span);
+
+                        BuildSpans.setResultAttributes(span, build);
                         span.addEvent(PluginConstants.EVENT_FINISHED);
                         LOG.debug(PluginConstants.EVENT_FINISHED + " event added to span for build '" + getBuildName(build) + "' id " + build.getBuildId());
                     } catch (Exception e) {
-                        LOG.error("Exception in Build Finish caused by: " + e + e.getCause() +
+                        LOG.error(LogMasker.mask("Exception in Build Finish caused by: " + e + e.getCause() +
                                 ", with message: " + e.getMessage() +
-                                ", and stacktrace: " + Arrays.toString(e.getStackTrace()));
+                                ", and stacktrace: " + Arrays.toString(e.getStackTrace())));
                         span.setStatus(StatusCode.ERROR, PluginConstants.EXCEPTION_ERROR_MESSAGE_DURING_BUILD_FINISH + ": " + e.getMessage());
                     } finally {
-                        span.end();
+                        budget.addTo(span);
                         var buildId = getBuildId(build);
+                        var isRoot = buildId.equals(String.valueOf(rootBuildInChain.getId()));
+                        var finishTime = getFinishTime(build);
+                        if (isRoot) {
+                            chainGraphs.remove(rootBuildInChain.getId());
+                            endChain(rootBuildInChain, span, finishTime);
+                            span.end();
+                        } else if (TeamCityProperties.getBooleanOrTrue(PROPERTY_CRITICAL_PATH_ENABLED)) {
+                            var rootBuildType = rootBuildInChain.getBuildType();
+                            deferredBuildSpans.defer(rootBuildInChain.getId(), rootBuildType == null ? null : rootBuildType.getProjectId(),
+                                    build.getBuildPromotion().getId(), span, finishTime);
+                        } else {
+                            span.end();
+                        }
+                        endChainsHeldTooLong();
                         otelHelper.removeSpan(buildId);
-                        if (buildId.equals(String.valueOf(getRootBuildInChain(build).getId())))
+                        if (isRoot)
                             otelHelperFactory.release(build.getBuildId());
                     }
                 } else {
@@ -232,191 +320,99 @@ public class TeamCityBuildListener extends BuildServerAdapter {
         }
     }
 
-    private void createTestExecutionSpans(SRunningBuild build, Span parentSpan, String parentSpanName) {
-        if (build.isCompositeBuild()) return;
-
-        var buildStatistics = build.getBuildStatistics(
-                BuildStatisticsOptions.ALL_TESTS_NO_DETAILS);
-
-        var tests = buildStatistics.getAllTests();
-        var otelHelper = otelHelperFactory.getOTELHelper(getRootBuildInChain(build));
-
-        if (!tests.isEmpty()) {
-            var startTime = build.convertToServerTime(Objects.requireNonNull(build.getClientStartDate())).getTime(); // epoch milliseconds
-            var spanName = "Tests";
-            LOG.info("Creating child span '" + spanName + "' under parent " + parentSpanName);
-
-            var testsSpan = otelHelper.createTransientSpan(spanName, parentSpan, startTime);
-            setSpanBuildAttributes(otelHelper, build, testsSpan, spanName, "tests-execution");
-
-            try {
-                LOG.info("Creating " + tests.size() + " test spans under '" + parentSpanName + "' > '" + spanName + "'");
-                for (var test : tests) {
-                    createTestExecutionSpan(otelHelper, build, test, testsSpan, startTime);
-                }
-                LOG.info("Created " + tests.size() + " test spans under '" + parentSpanName + "' > '" + spanName + "'");
-            } finally {
-                var finishDate = build.getFinishDate();
-                if (finishDate != null) {
-                    var endTime = Objects.requireNonNull(finishDate).toInstant();
-                    testsSpan.end(endTime);
-                } else {
-                    testsSpan.end();
-                }
-            }
+    // Works out the critical path once the whole chain has finished, and ends the build spans held open for it.
+    private void endChain(BuildPromotion rootBuildInChain, Span rootSpan, Instant rootFinishTime) {
+        if (!deferredBuildSpans.has(rootBuildInChain.getId())) return;
+        CriticalPath criticalPath = null;
+        try {
+            criticalPath = CriticalPath.of(rootBuildInChain, rootFinishTime.toEpochMilli());
+            rootSpan.setAttribute(PluginConstants.ATTRIBUTE_CRITICAL_PATH, criticalPath.describe());
+            rootSpan.setAttribute(PluginConstants.ATTRIBUTE_CRITICAL_PATH_BUILD_COUNT, criticalPath.getPath().size());
+            rootSpan.setAttribute(PluginConstants.ATTRIBUTE_CRITICAL_PATH_QUEUE_TIME, criticalPath.getQueueTimeMs());
+        } catch (Exception e) {
+            LOG.warn(LogMasker.mask(String.format("Unable to work out the critical path of build chain %d: %s", rootBuildInChain.getId(), e.getMessage())));
         }
-
+        deferredBuildSpans.endAll(rootBuildInChain.getId(), criticalPath);
     }
 
-    private void createTestExecutionSpan(OTELHelper otelHelper, SRunningBuild build, STestRun test, Span parentSpan, long startTime) {
-        var durationMs = test.getDuration(); // milliseconds
-        // For now, we are starting all tests in sync with their parent build. This isn't ideal, however the SDK doesn't expose test start/finish times here.
-        var endTime = startTime + durationMs;
-        var failed = test.getStatus().isFailed();
-        var passed = test.getStatus() == Status.NORMAL;
-        var muted = test.isMuted();
-        var ignored = test.isIgnored();
-        var testName = test.getTest().getName().getAsString();
-
-        var humanReadableStatus = "unknown";
-
-        if (muted && failed) {
-            humanReadableStatus = "muted failure";
-        }
-        else if (failed) {
-            humanReadableStatus = "failed";
-        }
-        else if (passed) {
-            humanReadableStatus = "passed";
-        }
-        else if (ignored) {
-            humanReadableStatus = "ignored";
-        }
-
-        Span childSpan = otelHelper.createTransientSpan(testName, parentSpan, startTime);
-        otelHelper.addAttributeToSpan(childSpan, PluginConstants.ATTRIBUTE_TEST_STATUS, humanReadableStatus);
-        otelHelper.addAttributeToSpan(childSpan, PluginConstants.ATTRIBUTE_TEST_PASSED_FLAG, passed);
-        otelHelper.addAttributeToSpan(childSpan, PluginConstants.ATTRIBUTE_TEST_FAILED_FLAG, failed);
-        otelHelper.addAttributeToSpan(childSpan, PluginConstants.ATTRIBUTE_TEST_IGNORED_FLAG, ignored);
-        otelHelper.addAttributeToSpan(childSpan, PluginConstants.ATTRIBUTE_TEST_MUTED_FLAG, muted);
-        setSpanBuildAttributes(otelHelper, build, childSpan, testName, "test-execution");
-
-        if (failed) {
-            childSpan.setStatus(StatusCode.ERROR);
+    // A root that's still running after all this time may never finish (eg, it was lost when its agent went away),
+    // so send what its chain has been holding rather than keeping it forever. Should the root finish after all,
+    // it gets its critical path, but its dependencies don't.
+    private void endChainsHeldTooLong() {
+        var maxHoldHours = Math.max(1, TeamCityProperties.getInteger(PROPERTY_CRITICAL_PATH_MAX_HOLD_HOURS, DEFAULT_CRITICAL_PATH_MAX_HOLD_HOURS));
+        for (var rootBuildPromotionId : deferredBuildSpans.endHeldLongerThan(TimeUnit.HOURS.toMillis(maxHoldHours))) {
+            LOG.warn(String.format("Build chain %d has been waiting on its root for over %d hours; sending its build spans without a critical path.", rootBuildPromotionId, maxHoldHours));
         }
-        childSpan.end(endTime, TimeUnit.MILLISECONDS);
     }
 
-    private void createQueuedEventsSpans(SRunningBuild build, Span buildSpan) {
-        long startDateTime = build.getQueuedDate().getTime();
-        Map<String, BigDecimal> reportedStatics = build.getStatisticValues();
-
-        for (Map.Entry<String,BigDecimal> entry : reportedStatics.entrySet()) {
-            String key = entry.getKey();
-            if (key.contains("queueWaitReason:")) {
-                BigDecimal value = entry.getValue();
-                var otelHelper = otelHelperFactory.getOTELHelper(getRootBuildInChain(build));
-                Span childSpan = otelHelper.createTransientSpan(key, buildSpan, startDateTime);
-                List<String> keySplitList = Pattern.compile(":")
-                        .splitAsStream(key)
-                        .toList();
-                setSpanBuildAttributes(otelHelper, build, childSpan, keySplitList.get(1), keySplitList.get(0));
-                childSpan.end(startDateTime + value.longValue(), TimeUnit.MILLISECONDS);
-                startDateTime+= value.longValue();
-            }
-        }
+    // the build's own finish time, rather than when we got round to ending its span
+    private static Instant getFinishTime(SBuild build) {
+        var finishDate = build.getFinishDate();
+        return finishDate != null ? finishDate.toInstant() : Instant.now();
     }
 
-    private void createBuildStepSpans(SRunningBuild build, Span buildSpan) {
-        if (build.isCompositeBuild()) return;
-        Map<String, Span> blockMessageSpanMap = new HashMap<>();
-        List<LogMessage> buildBlockLogs = getBuildBlockLogs(build);
-        for (LogMessage logMessage: buildBlockLogs) {
-            BlockLogMessage blockLogMessage = (BlockLogMessage) logMessage;
-            createBlockMessageSpan(blockLogMessage, buildSpan, blockMessageSpanMap, build);
-        }
+    @Override
+    public void serverShutdown() {
+        if (!nodesService.getCurrentNode().isMainNode()) return;
+        // builds carry on running on their agents, but we won't be around to see them finish
+        otelHelperFactory.shutdown(PluginConstants.EXCEPTION_ERROR_MESSAGE_SERVER_SHUTDOWN, deferredBuildSpans::endAll);
+        chainGraphs.clear();
     }
 
-    private void createBlockMessageSpan(BlockLogMessage blockLogMessage, Span buildSpan, Map<String, Span> blockMessageSpanMap, SRunningBuild build) {
-        if (blockLogMessage.getBlockType().equals("$TEST_BLOCK$")) {
-            //we handle these explicitly when we publish tests (in createTestExecutionSpans)
-            return;
+    @Override
+    public void projectRemoved(@NotNull String projectId) {
+        // the roots in the project won't be finishing now
+        for (var rootBuildPromotionId : deferredBuildSpans.endAllInProject(projectId)) {
+            chainGraphs.remove(rootBuildPromotionId);
         }
+    }
 
-        Date blockMessageFinishDate = blockLogMessage.getFinishDate();
-        String blockMessageStepName = blockLogMessage.getText() + " " + blockMessageFinishDate;
-        if (blockMessageFinishDate != null) { // This filters out creating duplicate spans for Builds from their build blockMessages
-            BlockLogMessage parentBlockMessage = blockLogMessage.getParent();
-            Span parentSpan;
-            if (parentBlockMessage != null) {
-                if (parentBlockMessage.getBlockType().equals(DefaultMessagesInfo.BLOCK_TYPE_BUILD)) {
-                    parentSpan = buildSpan;
-                } else {
-                    var parentBlockMessageKey = parentBlockMessage.getText() + " " + parentBlockMessage.getFinishDate();
-                    parentSpan = blockMessageSpanMap.get(parentBlockMessageKey);
-                    if (parentSpan == null) {
-                        LOG.warn("Attempted to find span in map using key '" + parentBlockMessageKey + "', but it was not found; using buildspan instead");
-                        parentSpan = buildSpan;
-                    }
-                }
-            } else {
-                parentSpan = buildSpan;
-            }
-            if (parentSpan == null) {
-                LOG.error("Parent span is null; not creating block message spans for '" + blockMessageStepName + "'");
-                return;
-            }
-            var otelHelper = otelHelperFactory.getOTELHelper(getRootBuildInChain(build));
-            Span childSpan = otelHelper.createTransientSpan(blockMessageStepName, parentSpan, blockLogMessage.getTimestamp().getTime());
-            otelHelper.addAttributeToSpan(childSpan, PluginConstants.ATTRIBUTE_BUILD_STEP_STATUS, blockLogMessage.getStatus());
-            blockMessageSpanMap.put(blockMessageStepName, childSpan);
-            String spanName;
-            if (blockLogMessage.getBlockDescription() != null) {
-                // Only the Build Step Types "teamcity-build-step-type" has blockDescriptions
-                spanName = blockLogMessage.getText() + ": " + blockLogMessage.getBlockDescription();
-            } else {
-                spanName = blockLogMessage.getText();
-            }
-            if (blockLogMessage.getBlockType().equals("checkout")) {
-                calculateBuildCheckoutTime(blockLogMessage, buildSpan);
-            }
-            setSpanBuildAttributes(otelHelper, build, childSpan, spanName, blockLogMessage.getBlockType());
-            childSpan.end(blockMessageFinishDate.getTime(),TimeUnit.MILLISECONDS);
+    @Override
+    public void buildRemovedFromQueue(@NotNull SQueuedBuild queuedBuild, User user, String comment) {
+        // the root of a chain can be removed from the queue (eg, when a dependency fails) after some of its
+        // dependencies have finished; their spans won't be getting a critical path, so send them as they are
+        var rootBuildPromotionId = queuedBuild.getBuildPromotion().getId();
+        chainGraphs.remove(rootBuildPromotionId);
+        if (!deferredBuildSpans.has(rootBuildPromotionId)) return;
+        deferredBuildSpans.endAll(rootBuildPromotionId, null);
+        var otelHelper = otelHelperFactory.getOTELHelper(queuedBuild.getBuildPromotion());
+        var rootSpan = otelHelper.getSpan(String.valueOf(rootBuildPromotionId));
+        if (rootSpan != null) {
+            rootSpan.end();
+            otelHelper.removeSpan(String.valueOf(rootBuildPromotionId));
         }
+        otelHelperFactory.release(rootBuildPromotionId);
     }
 
-    private void calculateBuildCheckoutTime(BlockLogMessage blockLogMessage, Span span) {
-        if (blockLogMessage.getBlockDescription() != null && blockLogMessage.getBlockDescription().contains("checkout")) {
-            Date checkoutStartDate = blockLogMessage.getTimestamp();
-            Date checkoutEndDate = blockLogMessage.getFinishDate();
-            if (checkoutEndDate != null) {
-                Duration checkoutDuration = Duration.between(checkoutStartDate.toInstant(), checkoutEndDate.toInstant());
-                long checkoutDifference = Math.abs(checkoutDuration.toMillis());
-                this.checkoutTimeMap.put(span.getSpanContext().getSpanId(), checkoutDifference);
-            }
-        }
+    // when the tests started, if the build log doesn't say: when the agent started the build
+    private static long getTestsStartMs(SRunningBuild build) {
+        var clientStartDate = build.getClientStartDate();
+        return clientStartDate != null ? build.convertToServerTime(clientStartDate).getTime() : build.getStartDate().getTime();
     }
 
-    private List<LogMessage> getBuildBlockLogs(SRunningBuild build) {
-        List<LogMessage> buildLogs = build.getBuildLog().getFilteredMessages(new LogMessageFilter() {
-            @Override
-            public boolean acceptMessage(@NotNull LogMessage message, boolean lastMessageInParent) {
-                return message instanceof BlockLogMessage;
-            }
-        });
-        buildLogs.removeIf(logMessage -> !(logMessage instanceof BlockLogMessage));
-        return buildLogs;
+    private void publishBuildStatistics(OTELHelper otelHelper, SRunningBuild build, Span span) {
+        var statistics = buildStatisticsPublisher.getPublishedStatistics(build);
+        for (Map.Entry<String, BigDecimal> entry : statistics.entrySet()) {
+            otelHelper.addAttributeToSpan(span, PluginConstants.ATTRIBUTE_BUILD_STATISTIC_PREFIX + entry.getKey(), entry.getValue().toPlainString());
+        }
+        buildStatisticsPublisher.record(build, statistics);
     }
 
-    private void setArtifactAttributes(SRunningBuild build, Span span) {
+    private void setArtifactAttributes(SRunningBuild build, Span span, FinishBudget budget) {
         if (build.isCompositeBuild()) return;
         LOG.debug("Retrieving build artifact attributes for build '" + getBuildName(build) + "' with id: " + getBuildId(build));
         AtomicLong buildTotalArtifactSize = new AtomicLong();
         BuildArtifacts buildArtifacts = build.getArtifacts(BuildArtifactsViewMode.VIEW_DEFAULT);
         buildArtifacts.iterateArtifacts(artifact -> {
+            if (budget.isExhausted()) {
+                budget.cutShort(FinishBudget.PHASE_ARTIFACTS);
+                return BuildArtifacts.BuildArtifactsProcessor.Continuation.BREAK;
+            }
             buildTotalArtifactSize.getAndAdd(artifact.getSize());
             return BuildArtifacts.BuildArtifactsProcessor.Continuation.CONTINUE;
         });
+        // a partial total would look like a real one
+        if (budget.getCutShort().contains(FinishBudget.PHASE_ARTIFACTS)) return;
         LOG.debug("Build total artifact size attribute " + PluginConstants.ATTRIBUTE_TOTAL_ARTIFACT_SIZE + "=" + buildTotalArtifactSize);
         span.setAttribute(PluginConstants.ATTRIBUTE_TOTAL_ARTIFACT_SIZE, String.valueOf(buildTotalArtifactSize));
     }
@@ -0,0 +1,52 @@
+package com.octopus.teamcity.opentelemetry.server;
+
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.api.trace.propagation.W3CTraceContextPropagator;
+import io.opentelemetry.context.Context;
+import jetbrains.buildServer.serverSide.BuildStartContext;
+import jetbrains.buildServer.serverSide.BuildStartContextProcessor;
+import jetbrains.buildServer.serverSide.TeamCityProperties;
+import org.apache.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.HashMap;
+
+import static com.octopus.teamcity.opentelemetry.common.PluginConstants.*;
+
+// Hands the build span's traceparent (and tracestate, if any) to the build as parameters and environment variables,
+// so that instrumented tools the build runs - Gradle, Maven, test runners - can put their spans under the build's.
+// Step spans are only made from the build log once the build finishes, so the build span is the parent on offer.
+public class TraceContextStartContext implements BuildStartContextProcessor {
+    static Logger LOG = Logger.getLogger(TraceContextStartContext.class.getName());
+    public static final String PROPERTY_ENABLED = "teamcity.opentelemetry.traceContext.enabled";
+
+    private final TeamCityBuildListener buildListener;
+
+    public TraceContextStartContext(@NotNull TeamCityBuildListener buildListener) {
+        this.buildListener = buildListener;
+    }
+
+    @Override
+    public void updateParameters(@NotNull BuildStartContext context) {
+        if (!TeamCityProperties.getBooleanOrTrue(PROPERTY_ENABLED)) return;
+        var build = context.getBuild();
+        try {
+            var spanContext = buildListener.getBuildSpanContext(build);
+            if (spanContext == null || !spanContext.isValid()) return;
+
+            var carrier = new HashMap<String, String>();
+            W3CTraceContextPropagator.getInstance().inject(Context.root().with(Span.wrap(spanContext)), carrier, HashMap::put);
+            var traceparent = carrier.get("traceparent");
+            if (traceparent == null) return;
+            context.addSharedParameter(PARAMETER_TRACEPARENT, traceparent);
+            context.addSharedParameter(ENV_TRACEPARENT, traceparent);
+            var tracestate = carrier.get("tracestate");
+            if (tracestate != null && !tracestate.isEmpty()) {
+                context.addSharedParameter(PARAMETER_TRACESTATE, tracestate);
+                context.addSharedParameter(ENV_TRACESTATE, tracestate);
+            }
+        } catch (Exception e) {
+            LOG.warn(LogMasker.mask(String.format("Unable to pass the trace context to build %d: %s", build.getBuildId(), e.getMessage())));
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package com.octopus.teamcity.opentelemetry.server;
+
+import com.octopus.teamcity.opentelemetry.server.endpoints.OTELEndpointFactory;
+import jetbrains.buildServer.controllers.BaseController;
+import jetbrains.buildServer.serverSide.*;
+import jetbrains.buildServer.serverSide.auth.Permission;
+import jetbrains.buildServer.util.EventDispatcher;
+import jetbrains.buildServer.web.openapi.WebControllerManager;
+import jetbrains.buildServer.web.util.SessionUser;
+import org.apache.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.springframework.web.servlet.ModelAndView;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.octopus.teamcity.opentelemetry.common.PluginConstants.*;
+import static com.octopus.teamcity.opentelemetry.server.helpers.JsonStrings.quote;
+
+// GET (or POST) /teamcity-opentelemetry/traces.html?buildIds=1,2,3 - the trace id and trace url of many builds at once.
+// Trace ids come from BuildStorageManager's in-memory cache. The response's ETag is made from the builds asked for,
+// who asked, and versions of the trace ids and project settings, so a poller's 304 costs no lookups at all.
+public class TraceLookupController extends BaseController {
+    static Logger LOG = Logger.getLogger(TraceLookupController.class.getName());
+    private static final int MAX_BUILDS = 1000;
+
+    private final SBuildServer sBuildServer;
+    private final ProjectManager projectManager;
+    private final BuildStorageManager buildStorageManager;
+    private final OTELEndpointFactory otelEndpointFactory;
+    // so that an ETag from before a restart, when the versions started again from zero, never matches
+    private final long instanceId = ThreadLocalRandom.current().nextLong();
+    // trace urls come from the project feature's settings
+    private final AtomicLong settingsVersion = new AtomicLong();
+
+    public TraceLookupController(
+            @NotNull SBuildServer sBuildServer,
+            @NotNull ProjectManager projectManager,
+            @NotNull WebControllerManager controllerManager,
+            @NotNull BuildStorageManager buildStorageManager,
+            @NotNull OTELEndpointFactory otelEndpointFactory,
+            @NotNull EventDispatcher<BuildServerListener> buildServerListenerEventDispatcher) {
+        this.sBuildServer = sBuildServer;
+        this.projectManager = projectManager;
+        this.buildStorageManager = buildStorageManager;
+        this.otelEndpointFactory = otelEndpointFactory;
+
+        controllerManager.registerController("/" + PLUGIN_NAME + "/traces.html", this);
+        buildServerListenerEventDispatcher.addListener(new BuildServerAdapter() {
+            @Override
+            public void projectPersisted(@NotNull String projectId) {
+                settingsVersion.incrementAndGet();
+            }
+
+            @Override
+            public void projectRestored(@NotNull String projectId) {
+                settingsVersion.incrementAndGet();
+            }
+
+            @Override
+            public void projectRemoved(@NotNull String projectId) {
+                settingsVersion.incrementAndGet();
+            }
+        });
+    }
+
+    @Nullable
+    @Override
+    protected ModelAndView doHandle(@NotNull HttpServletRequest request, @NotNull HttpServletResponse response) throws IOException {
+        var user = SessionUser.getUser(request);
+        if (user == null) {
+            writeJson(response, HttpServletResponse.SC_FORBIDDEN, "{\"error\":\"You need to log in to look up traces.\"}");
+            return null;
+        }
+
+        var buildIds = new LinkedHashSet<Long>();
+        var values = request.getParameterValues("buildIds");
+        if (values != null) {
+            for (String value : values) {
+                for (String id : value.split(",")) {
+                    if (id.isBlank()) continue;
+                    try {
+                        buildIds.add(Long.parseLong(id.trim()));
+                    } catch (NumberFormatException e) {
+                        writeJson(response, HttpServletResponse.SC_BAD_REQUEST, "{\"error\":" + quote(String.format("'%s' is not a build id!", id.trim())) + "}");
+                        return null;
+                    }
+                }
+            }
+        }
+        if (buildIds.size() > MAX_BUILDS) {
+            writeJson(response, HttpServletResponse.SC_BAD_REQUEST, "{\"error\":" + quote(String.format("Look up at most %d builds at a time!", MAX_BUILDS)) + "}");
+            return null;
+        }
+
+        // read before looking anything up, so a change made while we're looking things up gets a new ETag
+        var etag = "\"" + hash(instanceId + ";" + buildStorageManager.getTraceIdVersion() + ";" + settingsVersion.get()
+                + ";" + user.getId() + ";" + buildIds) + "\"";
+        response.setHeader("ETag", etag);
+        response.setHeader("Cache-Control", "private, no-cache");
+        if (etag.equals(request.getHeader("If-None-Match"))) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return null;
+        }
+
+        // feature settings are per project, and a batch usually spans only a few projects
+        var settingsByProject = new HashMap<String, Optional<Map<String, String>>>();
+        var json = new StringBuilder("{\"builds\":[");
+        var first = true;
+        for (long buildId : buildIds) {
+            if (!first) json.append(',');
+            first = false;
+            json.append("{\"buildId\":").append(buildId);
+
+            var build = sBuildServer.findBuildInstanceById(buildId);
+            if (build == null || !user.isPermissionGrantedForProject(build.getProjectId(), Permission.VIEW_PROJECT)) {
+                json.append(",\"found\":false}");
+                continue;
+            }
+            json.append(",\"found\":true");
+
+            var traceId = buildStorageManager.getTraceId(build);
+            json.append(",\"traceId\":").append(traceId == null ? "null" : quote(traceId));
+
+            String url = null;
+            if (traceId != null) {
+                var settings = settingsByProject.computeIfAbsent(build.getProjectExternalId(), this::getEnabledSettings);
+                if (settings.isPresent()) url = getTraceUrl(build, settings.get(), traceId);
+            }
+            json.append(",\"url\":").append(url == null ? "null" : quote(url)).append('}');
+        }
+        json.append("]}");
+        writeJson(response, HttpServletResponse.SC_OK, json.toString());
+        return null;
+    }
+
+    private Optional<Map<String, String>> getEnabledSettings(@Nullable String projectExternalId) {
+        var project = projectManager.findProjectByExternalId(projectExternalId);
+        if (project == null) return Optional.empty();
+        return project.getAvailableFeaturesOfType(PLUGIN_NAME).stream()
+                .findFirst()
+                .map(feature -> feature.getParameters())
+                .filter(params -> "true".equals(params.get(PROPERTY_KEY_ENABLED)));
+    }
+
+    @Nullable
+    private String getTraceUrl(SBuild build, Map<String, String> params, String traceId) {
+        try {
+            return otelEndpointFactory.getOTELEndpointHandler(params.get(PROPERTY_KEY_SERVICE)).getTraceUrl(build, params, traceId);
+        } catch (Exception e) {
+            LOG.warn(LogMasker.mask(String.format("Unable to build the trace url for build %d: %s", build.getBuildId(), e.getMessage())));
+            return null;
+        }
+    }
+
+    private static String hash(String value) {
+        try {
+            var digest = MessageDigest.getInstance("SHA-256").digest(value.getBytes(StandardCharsets.UTF_8));
+            var hex = new StringBuilder();
+            for (int i = 0; i < 16; i++) hex.append(String.format("%02x", digest[i]));
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            // every JVM has SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void writeJson(HttpServletResponse response, int status, String json) throws IOException {
+        response.setStatus(status);
+        response.setContentType("application/json");
+        response.setCharacterEncoding("UTF-8");
+        response.getWriter().write(json);
+    }
+}
@@ -0,0 +1,134 @@
+package com.octopus.teamcity.opentelemetry.server.agent;
+
+import jetbrains.buildServer.serverSide.BuildServerAdapter;
+import jetbrains.buildServer.serverSide.BuildServerListener;
+import jetbrains.buildServer.serverSide.SRunningBuild;
+import jetbrains.buildServer.serverSide.TeamCityProperties;
+import jetbrains.buildServer.util.EventDispatcher;
+import org.apache.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Resource samples the agents have sent for running builds, kept until the build finishes and its step spans are
+// made. Each build gets a random token when it starts, and only requests carrying it can add samples to it - the
+// agent doesn't otherwise have a way to authenticate to the server. The token stops working when the build finishes,
+// even if its samples haven't been taken. Builds that never finish (the server restarts, say) fall out the end of
+// the LRU.
+public class ResourceSampleStore extends BuildServerAdapter {
+    static Logger LOG = Logger.getLogger(ResourceSampleStore.class.getName());
+    public static final String PROPERTY_MAX_BUILDS = "teamcity.opentelemetry.resourceSampling.maxBuilds";
+    public static final String PROPERTY_MAX_SAMPLES_PER_BUILD = "teamcity.opentelemetry.resourceSampling.maxSamplesPerBuild";
+    private static final int DEFAULT_MAX_BUILDS = 1000;
+    private static final int DEFAULT_MAX_SAMPLES_PER_BUILD = 5000;
+
+    private static final class Entry {
+        // null once the build has finished
+        @Nullable
+        volatile byte[] token;
+        final ResourceSamples samples = new ResourceSamples();
+
+        Entry(byte[] token) {
+            this.token = token;
+        }
+    }
+
+    private final SecureRandom random = new SecureRandom();
+    private final int maxSamplesPerBuild;
+    private final Map<Long, Entry> builds;
+
+    @Autowired
+    public ResourceSampleStore(@NotNull EventDispatcher<BuildServerListener> buildServerListenerEventDispatcher) {
+        this();
+        buildServerListenerEventDispatcher.addListener(this);
+    }
+
+    public ResourceSampleStore() {
+        var maxBuilds = Math.max(1, TeamCityProperties.getInteger(PROPERTY_MAX_BUILDS, DEFAULT_MAX_BUILDS));
+        this.maxSamplesPerBuild = Math.max(1, TeamCityProperties.getInteger(PROPERTY_MAX_SAMPLES_PER_BUILD, DEFAULT_MAX_SAMPLES_PER_BUILD));
+        this.builds = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Entry> eldest) {
+                return size() > maxBuilds;
+            }
+        };
+    }
+
+    // Starts collecting samples for the build, returning the token the agent has to send them with.
+    @NotNull
+    public String register(long buildId) {
+        var bytes = new byte[24];
+        random.nextBytes(bytes);
+        var token = Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+        synchronized (builds) {
+            builds.put(buildId, new Entry(token.getBytes(StandardCharsets.US_ASCII)));
+        }
+        return token;
+    }
+
+    // The token the build was given, until it finishes.
+    @Nullable
+    public String getToken(long buildId) {
+        Entry entry;
+        synchronized (builds) {
+            entry = builds.get(buildId);
+        }
+        var token = entry == null ? null : entry.token;
+        return token == null ? null : new String(token, StandardCharsets.US_ASCII);
+    }
+
+    @Override
+    public void buildFinished(@NotNull SRunningBuild build) {
+        expireToken(build.getBuildId());
+    }
+
+    @Override
+    public void buildInterrupted(@NotNull SRunningBuild build) {
+        expireToken(build.getBuildId());
+    }
+
+    private void expireToken(long buildId) {
+        synchronized (builds) {
+            var entry = builds.get(buildId);
+            if (entry != null) entry.token = null;
+        }
+    }
+
+    public enum AddResult { ADDED, UNKNOWN_BUILD, MALFORMED }
+
+    // clockOffsetMs is the server's time less the agent's as the batch arrived, if the agent said when it sent it.
+    @NotNull
+    public AddResult add(long buildId, @Nullable String token, @NotNull String batch, @Nullable Long clockOffsetMs) {
+        Entry entry;
+        synchronized (builds) {
+            entry = builds.get(buildId);
+        }
+        var expected = entry == null ? null : entry.token;
+        if (expected == null || token == null || !MessageDigest.isEqual(expected, token.getBytes(StandardCharsets.US_ASCII)))
+            return AddResult.UNKNOWN_BUILD;
+        var added = entry.samples.add(batch, maxSamplesPerBuild);
+        if (added < 0) return AddResult.MALFORMED;
+        if (clockOffsetMs != null) entry.samples.recordClockOffset(clockOffsetMs);
+        LOG.debug(String.format("Added %d resource samples for build %d.", added, buildId));
+        return AddResult.ADDED;
+    }
+
+    // Stops collecting samples for the build, returning what it was sent, if anything.
+    @Nullable
+    public ResourceSamples take(long buildId) {
+        Entry entry;
+        synchronized (builds) {
+            entry = builds.remove(buildId);
+        }
+        if (entry == null || entry.samples.size() == 0) return null;
+        entry.samples.sort();
+        return entry.samples;
+    }
+}
@@ -0,0 +1,133 @@
+package com.octopus.teamcity.opentelemetry.server.agent;
+
+import com.octopus.teamcity.opentelemetry.common.PluginConstants;
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.trace.Span;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+// The resource samples an agent sent for a build, in time order, as parallel arrays (a build can send thousands).
+// Each step span gets the totals for the samples taken while it ran, and the samples themselves as events - merged
+// down to MAX_EVENTS_PER_SPAN if there are more, so a long step doesn't use up the span's event limit.
+// Samples are timed by the agent's clock, and spans by the server's, so the offset between the two is allowed for.
+public class ResourceSamples {
+    static final int MAX_EVENTS_PER_SPAN = 60;
+    private static final AttributeKey<Long> CPU_TIME = AttributeKey.longKey("cpu_time_ms");
+    private static final AttributeKey<Long> RSS = AttributeKey.longKey("rss_bytes");
+    private static final AttributeKey<Long> DISK_READ = AttributeKey.longKey("disk_read_bytes");
+    private static final AttributeKey<Long> DISK_WRITE = AttributeKey.longKey("disk_write_bytes");
+    private static final AttributeKey<Long> NETWORK_RECEIVE = AttributeKey.longKey("network_receive_bytes");
+    private static final AttributeKey<Long> NETWORK_TRANSMIT = AttributeKey.longKey("network_transmit_bytes");
+    static final int FIELDS = 7;
+
+    // sample i is values[i * FIELDS .. i * FIELDS + FIELDS - 1], in the order they're sent in
+    private long[] values = new long[FIELDS * 64];
+    private int size;
+    // server time minus agent time; the smallest seen, as a batch that took a while to arrive overstates it
+    private long clockOffsetMs = Long.MAX_VALUE;
+
+    // Adds the samples in a batch from the agent, returning how many there were, or -1 if the batch was malformed.
+    public synchronized int add(String batch, int maxSamples) {
+        var lines = batch.split("\n");
+        var parsed = new long[lines.length * FIELDS];
+        var count = 0;
+        for (String line : lines) {
+            if (line.isBlank()) continue;
+            var fields = line.trim().split(" ");
+            if (fields.length != FIELDS) return -1;
+            try {
+                for (int i = 0; i < FIELDS; i++) parsed[count * FIELDS + i] = Long.parseLong(fields[i]);
+            } catch (NumberFormatException e) {
+                return -1;
+            }
+            count++;
+        }
+        count = Math.min(count, maxSamples - size);
+        if (count <= 0) return 0;
+        if ((size + count) * FIELDS > values.length)
+            values = Arrays.copyOf(values, Math.max(values.length * 2, (size + count) * FIELDS));
+        System.arraycopy(parsed, 0, values, size * FIELDS, count * FIELDS);
+        size += count;
+        return count;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    // How far the agent's clock was behind the server's when a batch arrived, network time included.
+    public synchronized void recordClockOffset(long offsetMs) {
+        clockOffsetMs = Math.min(clockOffsetMs, offsetMs);
+    }
+
+    public synchronized long getClockOffsetMs() {
+        return clockOffsetMs == Long.MAX_VALUE ? 0 : clockOffsetMs;
+    }
+
+    // Batches arrive in order from a single agent, but sort anyway - it's cheap, and the lookups below rely on it.
+    synchronized void sort() {
+        var order = new Integer[size];
+        for (int i = 0; i < size; i++) order[i] = i;
+        Arrays.sort(order, (a, b) -> Long.compare(values[a * FIELDS], values[b * FIELDS]));
+        var sorted = new long[size * FIELDS];
+        for (int i = 0; i < size; i++) System.arraycopy(values, order[i] * FIELDS, sorted, i * FIELDS, FIELDS);
+        values = sorted;
+    }
+
+    // startMs and endMs are server times.
+    public synchronized void attachTo(Span span, long startMs, long endMs) {
+        var clockOffset = getClockOffsetMs();
+        var from = firstAtOrAfter(startMs - clockOffset);
+        var to = firstAtOrAfter(endMs - clockOffset + 1);
+        var count = to - from;
+        if (count <= 0) return;
+
+        long cpu = 0, peakRss = 0, read = 0, write = 0, receive = 0, transmit = 0;
+        var perEvent = (count + MAX_EVENTS_PER_SPAN - 1) / MAX_EVENTS_PER_SPAN;
+        for (int bucketStart = from; bucketStart < to; bucketStart += perEvent) {
+            var bucketEnd = Math.min(to, bucketStart + perEvent);
+            long bucketCpu = 0, bucketRss = 0, bucketRead = 0, bucketWrite = 0, bucketReceive = 0, bucketTransmit = 0;
+            for (int i = bucketStart; i < bucketEnd; i++) {
+                var offset = i * FIELDS;
+                bucketCpu += values[offset + 1];
+                bucketRss = Math.max(bucketRss, values[offset + 2]);
+                bucketRead += values[offset + 3];
+                bucketWrite += values[offset + 4];
+                bucketReceive += values[offset + 5];
+                bucketTransmit += values[offset + 6];
+            }
+            span.addEvent(PluginConstants.EVENT_RESOURCE_SAMPLE, Attributes.builder()
+                    .put(CPU_TIME, bucketCpu)
+                    .put(RSS, bucketRss)
+                    .put(DISK_READ, bucketRead)
+                    .put(DISK_WRITE, bucketWrite)
+                    .put(NETWORK_RECEIVE, bucketReceive)
+                    .put(NETWORK_TRANSMIT, bucketTransmit)
+                    .build(), values[(bucketEnd - 1) * FIELDS] + clockOffset, TimeUnit.MILLISECONDS);
+            cpu += bucketCpu;
+            peakRss = Math.max(peakRss, bucketRss);
+            read += bucketRead;
+            write += bucketWrite;
+            receive += bucketReceive;
+            transmit += bucketTransmit;
+        }
+        span.setAttribute(PluginConstants.ATTRIBUTE_STEP_CPU_TIME, cpu);
+        span.setAttribute(PluginConstants.ATTRIBUTE_STEP_PEAK_RSS, peakRss);
+        span.setAttribute(PluginConstants.ATTRIBUTE_STEP_DISK_READ, read);
+        span.setAttribute(PluginConstants.ATTRIBUTE_STEP_DISK_WRITE, write);
+        span.setAttribute(PluginConstants.ATTRIBUTE_STEP_NETWORK_RECEIVE, receive);
+        span.setAttribute(PluginConstants.ATTRIBUTE_STEP_NETWORK_TRANSMIT, transmit);
+    }
+
+    private int firstAtOrAfter(long timestampMs) {
+        int low = 0, high = size;
+        while (low < high) {
+            var mid = (low + high) >>> 1;
+            if (values[mid * FIELDS] < timestampMs) low = mid + 1;
+            else high = mid;
+        }
+        return low;
+    }
+}
@@ -0,0 +1,106 @@
+package com.octopus.teamcity.opentelemetry.server.agent;
+
+import jetbrains.buildServer.controllers.AuthorizationInterceptor;
+import jetbrains.buildServer.controllers.BaseController;
+import jetbrains.buildServer.web.openapi.WebControllerManager;
+import org.apache.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.springframework.web.servlet.ModelAndView;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static com.octopus.teamcity.opentelemetry.common.PluginConstants.*;
+
+// POST /teamcity-opentelemetry/resourceSamples.html?buildId=1 - where the agent plugin sends the resource samples
+// of a running build. Agents have no TeamCity login, so instead of the usual auth the request has to carry the
+// token the build was given when it started (see ResourceSampleStore).
+public class ResourceSamplesController extends BaseController {
+    static Logger LOG = Logger.getLogger(ResourceSamplesController.class.getName());
+    // a full batch is around 60 lines of 7 numbers, so this is plenty
+    private static final int MAX_BODY_BYTES = 1024 * 1024;
+
+    private final ResourceSampleStore resourceSampleStore;
+
+    public ResourceSamplesController(
+            @NotNull WebControllerManager controllerManager,
+            @NotNull AuthorizationInterceptor authorizationInterceptor,
+            @NotNull ResourceSampleStore resourceSampleStore) {
+        this.resourceSampleStore = resourceSampleStore;
+
+        controllerManager.registerController(RESOURCE_SAMPLES_PATH, this);
+        authorizationInterceptor.addPathNotRequiringAuth(RESOURCE_SAMPLES_PATH);
+    }
+
+    @Nullable
+    @Override
+    protected ModelAndView doHandle(@NotNull HttpServletRequest request, @NotNull HttpServletResponse response) throws IOException {
+        if (!isPost(request)) {
+            response.sendError(HttpServletResponse.SC_METHOD_NOT_ALLOWED);
+            return null;
+        }
+
+        long buildId;
+        try {
+            buildId = Long.parseLong(request.getParameter("buildId"));
+        } catch (NumberFormatException e) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, "buildId is required");
+            return null;
+        }
+
+        if (request.getContentLength() > MAX_BODY_BYTES) {
+            response.sendError(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE);
+            return null;
+        }
+        var body = readBody(request);
+        if (body == null) {
+            response.sendError(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE);
+            return null;
+        }
+
+        var clockOffsetMs = getClockOffsetMs(request.getHeader(RESOURCE_SAMPLES_SENT_AT_HEADER));
+        switch (resourceSampleStore.add(buildId, request.getHeader(RESOURCE_SAMPLES_TOKEN_HEADER), body, clockOffsetMs)) {
+            case ADDED:
+                response.setStatus(HttpServletResponse.SC_NO_CONTENT);
+                break;
+            case UNKNOWN_BUILD:
+                // the build has finished, isn't being sampled, or the token is wrong - the agent can't tell which
+                LOG.debug(String.format("Rejected resource samples for build %d.", buildId));
+                response.sendError(HttpServletResponse.SC_FORBIDDEN);
+                break;
+            case MALFORMED:
+                response.sendError(HttpServletResponse.SC_BAD_REQUEST, "malformed samples");
+                break;
+        }
+        return null;
+    }
+
+    // Agents from before the header was added don't send it; their samples are taken to be in server time.
+    @Nullable
+    private static Long getClockOffsetMs(@Nullable String sentAt) {
+        if (sentAt == null) return null;
+        try {
+            return System.currentTimeMillis() - Long.parseLong(sentAt.trim());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    @Nullable
+    private static String readBody(HttpServletRequest request) throws IOException {
+        var body = new ByteArrayOutputStream();
+        var buffer = new byte[8192];
+        try (var input = request.getInputStream()) {
+            int read;
+            while ((read = input.read(buffer)) != -1) {
+                if (body.size() + read > MAX_BODY_BYTES) return null;
+                body.write(buffer, 0, read);
+            }
+        }
+        return body.toString(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,51 @@
+package com.octopus.teamcity.opentelemetry.server.agent;
+
+import jetbrains.buildServer.serverSide.*;
+import jetbrains.buildServer.serverSide.parameters.types.PasswordsProvider;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Collection;
+import java.util.List;
+
+import static com.octopus.teamcity.opentelemetry.common.PluginConstants.*;
+
+// Tells the agent to sample the resources a build uses, by giving it a token to send the samples back with, when
+// the build's project has the plugin turned on. Agents without the agent plugin just ignore the parameters. The
+// token is a password parameter, so it's masked wherever TeamCity shows the build's parameters or log.
+public class ResourceSamplingStartContext implements BuildStartContextProcessor, PasswordsProvider {
+    public static final String PROPERTY_ENABLED = "teamcity.opentelemetry.resourceSampling.enabled";
+    public static final String PROPERTY_INTERVAL_SECONDS = "teamcity.opentelemetry.resourceSampling.intervalSeconds";
+    private static final int DEFAULT_INTERVAL_SECONDS = 5;
+
+    private final ProjectManager projectManager;
+    private final ResourceSampleStore resourceSampleStore;
+
+    public ResourceSamplingStartContext(@NotNull ProjectManager projectManager, @NotNull ResourceSampleStore resourceSampleStore) {
+        this.projectManager = projectManager;
+        this.resourceSampleStore = resourceSampleStore;
+    }
+
+    @Override
+    public void updateParameters(@NotNull BuildStartContext context) {
+        if (!TeamCityProperties.getBooleanOrTrue(PROPERTY_ENABLED)) return;
+        var build = context.getBuild();
+        var project = projectManager.findProjectByExternalId(build.getProjectExternalId());
+        if (project == null) return;
+        var enabled = project.getAvailableFeaturesOfType(PLUGIN_NAME).stream()
+                .findFirst()
+                .map(feature -> "true".equals(feature.getParameters().get(PROPERTY_KEY_ENABLED)))
+                .orElse(false);
+        if (!enabled) return;
+
+        var intervalSeconds = Math.max(1, TeamCityProperties.getInteger(PROPERTY_INTERVAL_SECONDS, DEFAULT_INTERVAL_SECONDS));
+        context.addSharedParameter(PARAMETER_RESOURCE_SAMPLING_TOKEN, resourceSampleStore.register(build.getBuildId()));
+        context.addSharedParameter(PARAMETER_RESOURCE_SAMPLING_INTERVAL, String.valueOf(intervalSeconds));
+    }
+
+    @NotNull
+    @Override
+    public Collection<Parameter> getPasswordParameters(@NotNull SBuild build) {
+        var token = resourceSampleStore.getToken(build.getBuildId());
+        return token == null ? List.of() : List.of(new SimpleParameter(PARAMETER_RESOURCE_SAMPLING_TOKEN, token));
+    }
+}
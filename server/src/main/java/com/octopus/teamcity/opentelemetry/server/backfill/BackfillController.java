@@ -0,0 +1,138 @@
+package com.octopus.teamcity.opentelemetry.server.backfill;
+
+import jetbrains.buildServer.controllers.BaseController;
+import jetbrains.buildServer.serverSide.ProjectManager;
+import jetbrains.buildServer.serverSide.SProject;
+import jetbrains.buildServer.serverSide.auth.Permission;
+import jetbrains.buildServer.web.openapi.WebControllerManager;
+import jetbrains.buildServer.web.util.SessionUser;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.springframework.web.servlet.ModelAndView;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+
+import static com.octopus.teamcity.opentelemetry.common.PluginConstants.PLUGIN_NAME;
+import static com.octopus.teamcity.opentelemetry.server.helpers.JsonStrings.quote;
+
+// GET  /admin/teamcity-opentelemetry/backfill.html?projectId=<external id>  - progress of the project's backfill
+// POST /admin/teamcity-opentelemetry/backfill.html with projectId, from and to (yyyy-MM-dd, inclusive),
+//      and optionally concurrency and maxBuildsPerSecond - start (or resume) a backfill
+// POST ... with projectId and action=cancel - stop it, leaving a checkpoint to resume from
+public class BackfillController extends BaseController {
+    private static final int DEFAULT_CONCURRENCY = 4;
+    private static final int MAX_CONCURRENCY = 16;
+    private static final int DEFAULT_MAX_BUILDS_PER_SECOND = 10;
+
+    private final ProjectManager projectManager;
+    private final BackfillManager backfillManager;
+
+    public BackfillController(
+            @NotNull ProjectManager projectManager,
+            @NotNull WebControllerManager controllerManager,
+            @NotNull BackfillManager backfillManager) {
+        this.projectManager = projectManager;
+        this.backfillManager = backfillManager;
+
+        controllerManager.registerController("/admin/" + PLUGIN_NAME + "/backfill.html", this);
+    }
+
+    @Nullable
+    @Override
+    protected ModelAndView doHandle(@NotNull HttpServletRequest request, @NotNull HttpServletResponse response) throws IOException {
+        var project = projectManager.findProjectByExternalId(request.getParameter("projectId"));
+        if (project == null) {
+            return writeError(response, HttpServletResponse.SC_NOT_FOUND, String.format("Can't find project by given '%s' project id!", request.getParameter("projectId")));
+        }
+        var user = SessionUser.getUser(request);
+        if (user == null || !user.isPermissionGrantedForProject(project.getProjectId(), Permission.EDIT_PROJECT)) {
+            return writeError(response, HttpServletResponse.SC_FORBIDDEN, "You need permission to edit the project to backfill it.");
+        }
+
+        if (isPost(request)) {
+            if ("cancel".equals(request.getParameter("action"))) {
+                var job = backfillManager.getJob(project.getExternalId());
+                if (job != null) job.cancel();
+            } else {
+                var error = start(project, request);
+                if (error != null) return writeError(response, HttpServletResponse.SC_BAD_REQUEST, error);
+            }
+        }
+
+        writeJson(response, HttpServletResponse.SC_OK, toJson(backfillManager.getJob(project.getExternalId())));
+        return null;
+    }
+
+    @Nullable
+    private String start(SProject project, HttpServletRequest request) {
+        LocalDate from;
+        LocalDate to;
+        try {
+            from = LocalDate.parse(request.getParameter("from"));
+            to = LocalDate.parse(request.getParameter("to"));
+        } catch (DateTimeParseException | NullPointerException e) {
+            return "From and to must be dates, formatted as yyyy-MM-dd!";
+        }
+        if (to.isBefore(from)) return "To must not be before from!";
+
+        int concurrency;
+        int maxBuildsPerSecond;
+        try {
+            concurrency = parseInt(request.getParameter("concurrency"), DEFAULT_CONCURRENCY);
+            maxBuildsPerSecond = parseInt(request.getParameter("maxBuildsPerSecond"), DEFAULT_MAX_BUILDS_PER_SECOND);
+        } catch (NumberFormatException e) {
+            return "Concurrency and max builds per second must be numbers!";
+        }
+        if (concurrency < 1 || concurrency > MAX_CONCURRENCY) return String.format("Concurrency must be between 1 and %d!", MAX_CONCURRENCY);
+        if (maxBuildsPerSecond < 1) return "Max builds per second must be at least 1!";
+
+        var zone = ZoneId.systemDefault();
+        try {
+            backfillManager.start(project,
+                    from.atStartOfDay(zone).toInstant().toEpochMilli(),
+                    to.plusDays(1).atStartOfDay(zone).toInstant().toEpochMilli(),
+                    concurrency,
+                    maxBuildsPerSecond);
+        } catch (IllegalStateException e) {
+            return e.getMessage();
+        }
+        return null;
+    }
+
+    private static int parseInt(@Nullable String value, int defaultValue) {
+        return value == null || value.isBlank() ? defaultValue : Integer.parseInt(value.trim());
+    }
+
+    private static String toJson(@Nullable BackfillJob job) {
+        if (job == null) return "{\"state\":null}";
+        return "{" +
+                "\"state\":\"" + job.getState().name() + "\"," +
+                "\"from\":" + job.getFrom() + "," +
+                "\"to\":" + job.getTo() + "," +
+                "\"total\":" + job.getTotal() + "," +
+                "\"resumedFrom\":" + job.getResumedFrom() + "," +
+                "\"exported\":" + job.getExported() + "," +
+                "\"skipped\":" + job.getSkipped() + "," +
+                "\"failed\":" + job.getFailed() + "," +
+                "\"spans\":" + job.getSpans() + "," +
+                "\"error\":" + (job.getError() == null ? "null" : quote(job.getError())) +
+                "}";
+    }
+
+    private static ModelAndView writeError(HttpServletResponse response, int status, String message) throws IOException {
+        writeJson(response, status, "{\"error\":" + quote(message) + "}");
+        return null;
+    }
+
+    private static void writeJson(HttpServletResponse response, int status, String json) throws IOException {
+        response.setStatus(status);
+        response.setContentType("application/json");
+        response.setCharacterEncoding("UTF-8");
+        response.getWriter().write(json);
+    }
+}
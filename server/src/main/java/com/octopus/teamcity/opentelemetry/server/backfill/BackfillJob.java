@@ -0,0 +1,162 @@
+package com.octopus.teamcity.opentelemetry.server.backfill;
+
+import java.util.BitSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// The state of one backfill: which builds it covers (ordered by finish time), how far it has got, and the
+// checkpoint it can resume from. Workers claim builds by index; the checkpoint only ever moves past builds
+// that were exported or skipped, so resuming never skips a build that was still in flight, or one that failed.
+public class BackfillJob {
+    public enum State { RUNNING, COMPLETED, CANCELLED, FAILED }
+
+    private final String projectExternalId;
+    private final long from;
+    private final long to;
+    private final int concurrency;
+    private final long permitIntervalNanos;
+    private volatile long[] buildIds = new long[0];
+    private volatile long[] finishTimes = new long[0];
+    private volatile int startIndex;
+
+    private final AtomicInteger nextIndex = new AtomicInteger();
+    private final AtomicInteger exported = new AtomicInteger();
+    private final AtomicInteger skipped = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+    private final AtomicLong spans = new AtomicLong();
+    private final BitSet done = new BitSet();
+    private int checkpointIndex;
+    private long nextPermitAt;
+    private volatile State state = State.RUNNING;
+    private volatile String error;
+
+    public BackfillJob(String projectExternalId, long from, long to, int concurrency, int maxBuildsPerSecond) {
+        this.projectExternalId = projectExternalId;
+        this.from = from;
+        this.to = to;
+        this.concurrency = concurrency;
+        this.permitIntervalNanos = TimeUnit.SECONDS.toNanos(1) / Math.max(1, maxBuildsPerSecond);
+    }
+
+    // Called once the builds have been collected, before any worker starts; builds before startIndex were
+    // already dealt with by an earlier run.
+    synchronized void setBuilds(long[] buildIds, long[] finishTimes, int startIndex) {
+        this.finishTimes = finishTimes;
+        this.startIndex = startIndex;
+        this.checkpointIndex = startIndex;
+        this.nextIndex.set(startIndex);
+        this.buildIds = buildIds;
+    }
+
+    public String getProjectExternalId() {
+        return projectExternalId;
+    }
+
+    public long getFrom() {
+        return from;
+    }
+
+    public long getTo() {
+        return to;
+    }
+
+    public int getConcurrency() {
+        return concurrency;
+    }
+
+    public int getTotal() {
+        return buildIds.length;
+    }
+
+    public int getResumedFrom() {
+        return startIndex;
+    }
+
+    public int getExported() {
+        return exported.get();
+    }
+
+    public int getSkipped() {
+        return skipped.get();
+    }
+
+    public int getFailed() {
+        return failed.get();
+    }
+
+    public long getSpans() {
+        return spans.get();
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    void finish(State state, String error) {
+        this.error = error;
+        this.state = state;
+    }
+
+    public void cancel() {
+        if (state == State.RUNNING) state = State.CANCELLED;
+    }
+
+    // The next build for a worker to pick up, or -1 when there's nothing left (or we've been cancelled).
+    int claim() {
+        if (state != State.RUNNING) return -1;
+        var index = nextIndex.getAndIncrement();
+        return index < buildIds.length ? index : -1;
+    }
+
+    long getBuildId(int index) {
+        return buildIds[index];
+    }
+
+    // Blocks until the rate limit allows another build to be exported.
+    void awaitPermit() throws InterruptedException {
+        long waitNanos;
+        synchronized (this) {
+            var now = System.nanoTime();
+            var permitAt = Math.max(now, nextPermitAt);
+            nextPermitAt = permitAt + permitIntervalNanos;
+            waitNanos = permitAt - now;
+        }
+        if (waitNanos > 0) TimeUnit.NANOSECONDS.sleep(waitNanos);
+    }
+
+    void markExported(int index, int spanCount) {
+        exported.incrementAndGet();
+        spans.addAndGet(spanCount);
+        markDone(index);
+    }
+
+    void markSkipped(int index) {
+        skipped.incrementAndGet();
+        markDone(index);
+    }
+
+    void markFailed(int index) {
+        failed.incrementAndGet();
+    }
+
+    private synchronized void markDone(int index) {
+        done.set(index);
+        checkpointIndex = done.nextClearBit(checkpointIndex);
+    }
+
+    // Every build before this index has been dealt with.
+    synchronized int getCheckpointIndex() {
+        return checkpointIndex;
+    }
+
+    // The finish time and id of the last build covered by the checkpoint, or null if there isn't one yet.
+    synchronized long[] getCheckpoint() {
+        if (checkpointIndex == 0) return null;
+        return new long[] { finishTimes[checkpointIndex - 1], buildIds[checkpointIndex - 1] };
+    }
+}
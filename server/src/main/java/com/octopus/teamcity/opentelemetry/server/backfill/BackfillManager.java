@@ -0,0 +1,294 @@
+package com.octopus.teamcity.opentelemetry.server.backfill;
+
+import com.octopus.teamcity.opentelemetry.common.PluginConstants;
+import com.octopus.teamcity.opentelemetry.server.BuildSpans;
+import com.octopus.teamcity.opentelemetry.server.BuildStorageManager;
+import com.octopus.teamcity.opentelemetry.server.LogMasker;
+import com.octopus.teamcity.opentelemetry.server.endpoints.OTELEndpointFactory;
+import com.octopus.teamcity.opentelemetry.server.helpers.PluginDataFiles;
+import com.octopus.teamcity.opentelemetry.server.helpers.SpanLimitSettings;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.sdk.resources.Resource;
+import io.opentelemetry.sdk.trace.SdkTracerProvider;
+import io.opentelemetry.sdk.trace.SpanProcessor;
+import io.opentelemetry.semconv.ServiceAttributes;
+import jetbrains.buildServer.serverSide.*;
+import jetbrains.buildServer.util.EventDispatcher;
+import org.apache.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.octopus.teamcity.opentelemetry.common.PluginConstants.*;
+
+// Exports traces for builds that finished before the plugin was enabled (or while it was disabled).
+// One backfill per project at a time; each runs a coordinator thread, which collects the builds and saves a
+// checkpoint every few seconds, and a fixed pool of workers that trace the builds, sharing a rate limit.
+public class BackfillManager extends BuildServerAdapter {
+    static Logger LOG = Logger.getLogger(BackfillManager.class.getName());
+    private static final int CHECKPOINT_INTERVAL_SECONDS = 5;
+    // don't let the batch span processor's queue fill up (and start dropping spans) while we outpace the exporter
+    private static final int FLUSH_AFTER_SPANS = BATCH_SPAN_PROCESSOR_MAX_QUEUE_SIZE / 2;
+    // how long before the window a build can have started and still be taken to have finished in it
+    private static final long MAX_BUILD_DURATION_MS = TimeUnit.DAYS.toMillis(1);
+
+    private final ProjectManager projectManager;
+    private final SBuildServer buildServer;
+    private final BuildStorageManager buildStorageManager;
+    private final OTELEndpointFactory otelEndpointFactory;
+    private final ServerPaths serverPaths;
+    private final BuildSpans buildSpans;
+    private final ConcurrentHashMap<String, BackfillJob> jobs = new ConcurrentHashMap<>();
+    private final ExecutorService coordinators = Executors.newCachedThreadPool(r -> {
+        var thread = new Thread(r, "OpenTelemetry backfill coordinator");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public BackfillManager(
+            @NotNull EventDispatcher<BuildServerListener> buildServerListenerEventDispatcher,
+            @NotNull ProjectManager projectManager,
+            @NotNull SBuildServer buildServer,
+            @NotNull BuildStorageManager buildStorageManager,
+            @NotNull OTELEndpointFactory otelEndpointFactory,
+            @NotNull ServerPaths serverPaths,
+            @NotNull BuildSpans buildSpans) {
+        this.projectManager = projectManager;
+        this.buildServer = buildServer;
+        this.buildStorageManager = buildStorageManager;
+        this.otelEndpointFactory = otelEndpointFactory;
+        this.serverPaths = serverPaths;
+        this.buildSpans = buildSpans;
+        buildServerListenerEventDispatcher.addListener(this);
+    }
+
+    @Override
+    public void serverShutdown() {
+        // workers stop after the build they're on; the coordinators save a checkpoint on the way out
+        jobs.values().forEach(BackfillJob::cancel);
+        coordinators.shutdown();
+    }
+
+    @Nullable
+    public BackfillJob getJob(@NotNull String projectExternalId) {
+        return jobs.get(projectExternalId);
+    }
+
+    @NotNull
+    public BackfillJob start(@NotNull SProject project, long from, long to, int concurrency, int maxBuildsPerSecond) {
+        var params = getEnabledParams(project);
+        if (params == null)
+            throw new IllegalStateException(String.format("OpenTelemetry is not enabled for project '%s'.", project.getName()));
+
+        var job = new BackfillJob(project.getExternalId(), from, to, concurrency, maxBuildsPerSecond);
+        var existing = jobs.compute(project.getExternalId(), (key, current) ->
+                current != null && current.getState() == BackfillJob.State.RUNNING ? current : job);
+        if (existing != job)
+            throw new IllegalStateException(String.format("A backfill is already running for project '%s'.", project.getName()));
+
+        LOG.info(String.format("Starting backfill of project '%s' from %d to %d with %d workers.", project.getExternalId(), from, to, concurrency));
+        coordinators.submit(() -> run(job, project, params));
+        return job;
+    }
+
+    private void run(BackfillJob job, SProject project, Map<String, String> params) {
+        SdkTracerProvider tracerProvider = null;
+        try {
+            collectBuilds(job, project);
+            LOG.info(String.format("Backfill of project '%s' covers %d builds, resuming from %d.", job.getProjectExternalId(), job.getTotal(), job.getResumedFrom()));
+
+            var otelHandler = otelEndpointFactory.getOTELEndpointHandler(params.get(PROPERTY_KEY_SERVICE));
+            var spanProcessorMeterProviderPair = otelHandler.buildSpanProcessorAndMeterProvider(null, params.get(PROPERTY_KEY_ENDPOINT), params);
+            var spanProcessor = spanProcessorMeterProviderPair.getLeft();
+            var idGenerator = new DeterministicIdGenerator();
+            var serviceNameResource = Resource.create(Attributes.of(ServiceAttributes.SERVICE_NAME, PluginConstants.SERVICE_NAME));
+            tracerProvider = SdkTracerProvider.builder()
+                    .setResource(Resource.getDefault().merge(serviceNameResource))
+                    .setIdGenerator(idGenerator)
+                    .addSpanProcessor(spanProcessor)
+                    .setSpanLimits(SpanLimitSettings.fromParams(params).toSpanLimits())
+                    .build();
+            var tracer = new HistoricalBuildTracer(tracerProvider.get(TRACER_INSTRUMENTATION_NAME), idGenerator, buildSpans);
+
+            var workers = Executors.newFixedThreadPool(job.getConcurrency(), r -> {
+                var thread = new Thread(r, "OpenTelemetry backfill worker");
+                thread.setDaemon(true);
+                return thread;
+            });
+            var spansSinceFlush = new AtomicLong();
+            for (int i = 0; i < job.getConcurrency(); i++) {
+                workers.submit(() -> runWorker(job, tracer, spanProcessor, spansSinceFlush));
+            }
+            workers.shutdown();
+            while (!workers.awaitTermination(CHECKPOINT_INTERVAL_SECONDS, TimeUnit.SECONDS)) {
+                saveCheckpoint(job);
+            }
+
+            tracerProvider.forceFlush().join(1, TimeUnit.MINUTES);
+            if (spanProcessorMeterProviderPair.getRight() != null)
+                spanProcessorMeterProviderPair.getRight().close();
+            if (job.getState() == BackfillJob.State.RUNNING) {
+                // the checkpoint stops short of the first build that failed, so running it again retries from there
+                if (job.getFailed() == 0) deleteCheckpoint(job);
+                else saveCheckpoint(job);
+                job.finish(BackfillJob.State.COMPLETED, null);
+            } else {
+                saveCheckpoint(job);
+            }
+            LOG.info(String.format("Backfill of project '%s' %s: %d builds exported (%d spans), %d skipped, %d failed.",
+                    job.getProjectExternalId(), job.getState().name().toLowerCase(), job.getExported(), job.getSpans(), job.getSkipped(), job.getFailed()));
+        } catch (InterruptedException e) {
+            job.cancel();
+            saveCheckpoint(job);
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            LOG.warn(String.format("Backfill of project '%s' failed: %s", job.getProjectExternalId(), LogMasker.maskStackTrace(e)));
+            job.finish(BackfillJob.State.FAILED, e.getMessage());
+            saveCheckpoint(job);
+        } finally {
+            if (tracerProvider != null) tracerProvider.close();
+        }
+    }
+
+    private void runWorker(BackfillJob job, HistoricalBuildTracer tracer, SpanProcessor spanProcessor, AtomicLong spansSinceFlush) {
+        int index;
+        while ((index = job.claim()) >= 0) {
+            try {
+                job.awaitPermit();
+                var build = buildServer.findBuildInstanceById(job.getBuildId(index));
+                // builds that were traced when they ran already have their trace
+                if (build == null || build.getFinishDate() == null || buildStorageManager.getTraceId(build) != null) {
+                    job.markSkipped(index);
+                    continue;
+                }
+                var spanCount = tracer.trace(build);
+                job.markExported(index, spanCount);
+                if (spansSinceFlush.addAndGet(spanCount) > FLUSH_AFTER_SPANS) {
+                    synchronized (spansSinceFlush) {
+                        if (spansSinceFlush.get() > FLUSH_AFTER_SPANS) {
+                            spanProcessor.forceFlush().join(1, TimeUnit.MINUTES);
+                            spansSinceFlush.set(0);
+                        }
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                LOG.warn(String.format("Unable to backfill build %d: %s", job.getBuildId(index), LogMasker.maskStackTrace(e)));
+                job.markFailed(index);
+            }
+        }
+    }
+
+    private void collectBuilds(BackfillJob job, SProject project) {
+        var builds = new ArrayList<long[]>();
+        var history = buildServer.getHistory();
+        var stopBefore = job.getFrom() - MAX_BUILD_DURATION_MS;
+        for (var buildType : getBuildTypes(project)) {
+            // newest first and one at a time, rather than the whole history at once; once the builds started too
+            // long before the window to finish in it, there's no need to read any further back
+            history.processEntries(buildType.getBuildTypeId(), null, false, true, false, build -> {
+                var startDate = build.getStartDate();
+                if (startDate != null && startDate.getTime() < stopBefore) return false;
+                var finishDate = build.getFinishDate();
+                if (finishDate == null) return true;
+                var finishTime = finishDate.getTime();
+                if (finishTime >= job.getFrom() && finishTime < job.getTo())
+                    builds.add(new long[] { finishTime, build.getBuildId() });
+                return true;
+            });
+        }
+        builds.sort(Comparator.<long[]>comparingLong(b -> b[0]).thenComparingLong(b -> b[1]));
+
+        var finishTimes = new long[builds.size()];
+        var buildIds = new long[builds.size()];
+        for (int i = 0; i < builds.size(); i++) {
+            finishTimes[i] = builds.get(i)[0];
+            buildIds[i] = builds.get(i)[1];
+        }
+
+        var startIndex = 0;
+        var checkpoint = loadCheckpoint(job);
+        if (checkpoint != null) {
+            while (startIndex < buildIds.length
+                    && (finishTimes[startIndex] < checkpoint[0] || (finishTimes[startIndex] == checkpoint[0] && buildIds[startIndex] <= checkpoint[1]))) {
+                startIndex++;
+            }
+        }
+        job.setBuilds(buildIds, finishTimes, startIndex);
+    }
+
+    // the project's own build configurations and those of every project under it
+    @NotNull
+    private static List<SBuildType> getBuildTypes(SProject project) {
+        var buildTypes = new ArrayList<SBuildType>(project.getOwnBuildTypes());
+        for (var subproject : project.getProjects()) buildTypes.addAll(subproject.getOwnBuildTypes());
+        return buildTypes;
+    }
+
+    @Nullable
+    private Map<String, String> getEnabledParams(SProject project) {
+        var features = project.getAvailableFeaturesOfType(PLUGIN_NAME);
+        if (features.isEmpty()) return null;
+        var params = features.stream().findFirst().get().getParameters();
+        return "true".equals(params.get(PROPERTY_KEY_ENABLED)) ? params : null;
+    }
+
+    private File getCheckpointFile(BackfillJob job) {
+        return PluginDataFiles.get(serverPaths, "backfill-" + job.getProjectExternalId() + ".properties");
+    }
+
+    // A checkpoint only applies to a rerun of the same date range.
+    @Nullable
+    private long[] loadCheckpoint(BackfillJob job) {
+        var file = getCheckpointFile(job);
+        if (!file.exists()) return null;
+        var properties = new Properties();
+        try (var reader = new FileReader(file)) {
+            properties.load(reader);
+            if (Long.parseLong(properties.getProperty("from")) != job.getFrom() || Long.parseLong(properties.getProperty("to")) != job.getTo())
+                return null;
+            return new long[] { Long.parseLong(properties.getProperty("finishTime")), Long.parseLong(properties.getProperty("buildId")) };
+        } catch (IOException | RuntimeException e) {
+            LOG.warn(String.format("Ignoring unreadable backfill checkpoint '%s': %s", file, e.getMessage()));
+            return null;
+        }
+    }
+
+    private void saveCheckpoint(BackfillJob job) {
+        var checkpoint = job.getCheckpoint();
+        if (checkpoint == null) return;
+        var properties = new Properties();
+        properties.setProperty("from", String.valueOf(job.getFrom()));
+        properties.setProperty("to", String.valueOf(job.getTo()));
+        properties.setProperty("finishTime", String.valueOf(checkpoint[0]));
+        properties.setProperty("buildId", String.valueOf(checkpoint[1]));
+        var contents = new ByteArrayOutputStream();
+        try {
+            properties.store(contents, "OpenTelemetry backfill checkpoint for " + job.getProjectExternalId());
+        } catch (IOException e) {
+            return;
+        }
+        PluginDataFiles.writeAtomically(getCheckpointFile(job), contents.toByteArray());
+    }
+
+    private void deleteCheckpoint(BackfillJob job) {
+        var file = getCheckpointFile(job);
+        IOGuard.allowDiskWrite(() -> {
+            if (file.exists() && !file.delete())
+                LOG.warn(String.format("Unable to delete backfill checkpoint '%s'.", file));
+        });
+    }
+}
@@ -0,0 +1,57 @@
+package com.octopus.teamcity.opentelemetry.server.backfill;
+
+import com.octopus.teamcity.opentelemetry.server.helpers.LongIndexMap;
+import io.opentelemetry.api.trace.SpanId;
+import io.opentelemetry.api.trace.TraceId;
+import io.opentelemetry.sdk.trace.IdGenerator;
+
+import java.nio.charset.StandardCharsets;
+
+// Backfilled spans need the same ids every time they're exported, so that running a backfill twice (or resuming
+// one) overwrites rather than duplicates. The SDK asks the IdGenerator for ids without telling it which span
+// they're for, so callers set the next ids for their thread just before starting each span.
+public class DeterministicIdGenerator implements IdGenerator {
+    // distinguishes our trace ids from anything else derived from small integers
+    private static final long TRACE_ID_SALT = 0x7465616d63697479L;
+
+    private final ThreadLocal<String> nextTraceId = new ThreadLocal<>();
+    private final ThreadLocal<String> nextSpanId = new ThreadLocal<>();
+
+    public void setNextIds(String traceId, String spanId) {
+        nextTraceId.set(traceId);
+        nextSpanId.set(spanId);
+    }
+
+    @Override
+    public String generateSpanId() {
+        var spanId = nextSpanId.get();
+        nextSpanId.remove();
+        return spanId != null ? spanId : IdGenerator.random().generateSpanId();
+    }
+
+    @Override
+    public String generateTraceId() {
+        var traceId = nextTraceId.get();
+        nextTraceId.remove();
+        return traceId != null ? traceId : IdGenerator.random().generateTraceId();
+    }
+
+    public static String traceIdFor(long rootBuildPromotionId) {
+        return TraceId.fromLongs(LongIndexMap.mix(TRACE_ID_SALT ^ rootBuildPromotionId) | 1, rootBuildPromotionId);
+    }
+
+    public static String spanIdFor(long buildPromotionId, String... parts) {
+        // FNV-1a over the promotion id and the parts, then mixed
+        var hash = 0xcbf29ce484222325L ^ buildPromotionId;
+        for (String part : parts) {
+            for (byte b : part.getBytes(StandardCharsets.UTF_8)) {
+                hash ^= b;
+                hash *= 0x100000001b3L;
+            }
+            hash ^= 0xff;
+            hash *= 0x100000001b3L;
+        }
+        var spanId = LongIndexMap.mix(hash);
+        return SpanId.fromLong(spanId == 0 ? 1 : spanId);
+    }
+}
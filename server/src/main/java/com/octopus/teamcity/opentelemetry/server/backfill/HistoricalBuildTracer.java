@@ -0,0 +1,109 @@
+package com.octopus.teamcity.opentelemetry.server.backfill;
+
+import com.octopus.teamcity.opentelemetry.server.BuildSpans;
+import com.octopus.teamcity.opentelemetry.server.FinishBudget;
+import com.octopus.teamcity.opentelemetry.server.TeamCityBuildListener;
+import com.octopus.teamcity.opentelemetry.server.chain.ChainGraph;
+import com.octopus.teamcity.opentelemetry.server.tests.TestBlockTimes;
+import io.opentelemetry.api.trace.*;
+import io.opentelemetry.context.Context;
+import jetbrains.buildServer.serverSide.BuildPromotion;
+import jetbrains.buildServer.serverSide.SBuild;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Rebuilds the spans TeamCityBuildListener would have sent for a build that has already finished, from what
+// TeamCity kept about it: the build itself, its queue wait reasons, its build log blocks and its tests. The spans
+// under the build's span are made by the same BuildSpans as the listener's, so they only differ where TeamCity no
+// longer has what the listener had: there's no queue timeline or resource samples, and old test outcomes don't go
+// into the flaky test history.
+// Every span id is derived from the build promotion id (see DeterministicIdGenerator), so a build's parent in the
+// chain can be referenced without having the parent's span to hand.
+public class HistoricalBuildTracer {
+    private final Tracer tracer;
+    private final DeterministicIdGenerator idGenerator;
+    private final BuildSpans buildSpans;
+
+    public HistoricalBuildTracer(@NotNull Tracer tracer, @NotNull DeterministicIdGenerator idGenerator, @NotNull BuildSpans buildSpans) {
+        this.tracer = tracer;
+        this.idGenerator = idGenerator;
+        this.buildSpans = buildSpans;
+    }
+
+    // Returns the number of spans created.
+    public int trace(@NotNull SBuild build) {
+        var finishDate = build.getFinishDate();
+        var startDate = build.getStartDate();
+        if (finishDate == null) return 0;
+
+        var promotion = build.getBuildPromotion();
+        var rootPromotion = promotion.findTops()[0];
+        var traceId = DeterministicIdGenerator.traceIdFor(rootPromotion.getId());
+        var buildSpanId = getBuildSpanId(promotion);
+
+        // same shape as the live listener: of the builds in this chain that depend on us, the last is our parent and
+        // the others are linked to; builds in other chains that depend on us have their own traces
+        var parentSpanIds = new ArrayList<String>();
+        if (promotion.getId() != rootPromotion.getId()) {
+            var chain = ChainGraph.of(rootPromotion);
+            for (var dependedOnMe : promotion.getDependedOnMe()) {
+                var parent = dependedOnMe.getDependent();
+                if (chain.contains(parent.getId())) parentSpanIds.add(getBuildSpanId(parent));
+            }
+        }
+
+        var spanCount = 1;
+        var buildSpan = startSpan(String.valueOf(promotion.getId()), traceId, parentSpanIds, buildSpanId, startDate.getTime());
+        BuildSpans.setBuildAttributes(buildSpan, build, BuildSpans.getBuildName(build), TeamCityBuildListener.BUILD_SERVICE_NAME);
+        try {
+            BuildSpans.SpanStarter spanStarter = (name, parent, startTimeMs, kind, key) -> {
+                idGenerator.setNextIds(traceId, DeterministicIdGenerator.spanIdFor(promotion.getId(), prepend(kind, key)));
+                return tracer.spanBuilder(name)
+                        .setParent(Context.root().with(parent))
+                        .setStartTimestamp(startTimeMs, TimeUnit.MILLISECONDS)
+                        .startSpan();
+            };
+            // there's no one waiting on a backfill, so no time limit
+            var budget = new FinishBudget(0, System::nanoTime);
+            var testBlockTimes = new TestBlockTimes();
+            spanCount += buildSpans.createQueuedEventsSpans(build, buildSpan, null, spanStarter);
+            spanCount += buildSpans.createBuildStepSpans(build, buildSpan, null, testBlockTimes, budget, spanStarter);
+            spanCount += buildSpans.createTestExecutionSpans(build, buildSpan, startDate.getTime(), testBlockTimes, budget, false, spanStarter);
+            BuildSpans.setResultAttributes(buildSpan, build);
+        } finally {
+            buildSpan.end(finishDate.getTime(), TimeUnit.MILLISECONDS);
+        }
+        return spanCount;
+    }
+
+    private Span startSpan(String name, String traceId, List<String> parentSpanIds, String spanId, long startTime) {
+        idGenerator.setNextIds(traceId, spanId);
+        var spanBuilder = tracer.spanBuilder(name).setStartTimestamp(startTime, TimeUnit.MILLISECONDS);
+        if (parentSpanIds.isEmpty()) {
+            spanBuilder.setNoParent();
+        } else {
+            var parentContext = remoteSpanContext(traceId, parentSpanIds.get(parentSpanIds.size() - 1));
+            spanBuilder.setParent(Context.root().with(Span.wrap(parentContext)));
+            for (int i = 0; i < parentSpanIds.size() - 1; i++) spanBuilder.addLink(remoteSpanContext(traceId, parentSpanIds.get(i)));
+        }
+        return spanBuilder.startSpan();
+    }
+
+    private static SpanContext remoteSpanContext(String traceId, String spanId) {
+        return SpanContext.createFromRemoteParent(traceId, spanId, TraceFlags.getSampled(), TraceState.getDefault());
+    }
+
+    private static String getBuildSpanId(BuildPromotion promotion) {
+        return DeterministicIdGenerator.spanIdFor(promotion.getId(), "build");
+    }
+
+    private static String[] prepend(String kind, String[] key) {
+        var parts = new String[key.length + 1];
+        parts[0] = kind;
+        System.arraycopy(key, 0, parts, 1, key.length);
+        return parts;
+    }
+}
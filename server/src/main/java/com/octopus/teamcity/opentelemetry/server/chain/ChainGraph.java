@@ -0,0 +1,68 @@
+package com.octopus.teamcity.opentelemetry.server.chain;
+
+import io.opentelemetry.api.trace.SpanContext;
+import jetbrains.buildServer.serverSide.BuildPromotion;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+// The builds of a running chain, read from TeamCity once when the chain's first build starts. A build can be a
+// snapshot dependency of builds in other chains too, and only the dependents in this chain belong in this trace.
+// Also remembers the spans standing in for builds the chain reused rather than ran, so each gets just one.
+public class ChainGraph {
+    private final Set<Long> members;
+    // when the root was queued; 0 if TeamCity couldn't tell us
+    private final long rootQueuedAtMs;
+    private final ConcurrentHashMap<Long, SpanContext> reusedBuildSpans = new ConcurrentHashMap<>();
+
+    private ChainGraph(Set<Long> members, long rootQueuedAtMs) {
+        this.members = members;
+        this.rootQueuedAtMs = rootQueuedAtMs;
+    }
+
+    @NotNull
+    public static ChainGraph of(@NotNull BuildPromotion root) {
+        var dependencies = root.getAllDependencies();
+        var members = new HashSet<Long>(dependencies.size() * 2 + 2);
+        members.add(root.getId());
+        for (var dependency : dependencies) members.add(dependency.getId());
+        var queuedDate = getQueuedDate(root);
+        return new ChainGraph(members, queuedDate == null ? 0 : queuedDate.getTime());
+    }
+
+    public boolean contains(long buildPromotionId) {
+        return members.contains(buildPromotionId);
+    }
+
+    // Whether the chain reused a dependency that was built before it, rather than building it. TeamCity hands the
+    // chain the earlier build's promotion, so it can be one of our members; it's reused if it finished before the
+    // root was even queued.
+    public boolean isReused(@NotNull BuildPromotion dependency) {
+        if (!contains(dependency.getId())) return true;
+        var build = dependency.getAssociatedBuild();
+        if (build == null || rootQueuedAtMs == 0) return false;
+        var finishDate = build.getFinishDate();
+        return finishDate != null && finishDate.getTime() < rootQueuedAtMs;
+    }
+
+    @Nullable
+    private static Date getQueuedDate(BuildPromotion promotion) {
+        var build = promotion.getAssociatedBuild();
+        if (build != null) return build.getQueuedDate();
+        var queuedBuild = promotion.getQueuedBuild();
+        return queuedBuild == null ? null : queuedBuild.getWhenQueued();
+    }
+
+    @Nullable
+    public SpanContext getReusedBuildSpan(long buildPromotionId) {
+        return reusedBuildSpans.get(buildPromotionId);
+    }
+
+    public void putReusedBuildSpan(long buildPromotionId, @NotNull SpanContext spanContext) {
+        reusedBuildSpans.putIfAbsent(buildPromotionId, spanContext);
+    }
+}
@@ -0,0 +1,189 @@
+package com.octopus.teamcity.opentelemetry.server.chain;
+
+import jetbrains.buildServer.serverSide.BuildPromotion;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.*;
+
+// The builds of a chain that decided how long it took. A build is ready to run once it's queued and its snapshot
+// dependencies have finished; from then until it finishes counts towards its own time, whether it spent it waiting
+// for an agent or running. Working back from the root (the usual critical path method, run backwards over the
+// chain's dependency graph), each build's slack is how much later it could have finished without holding up the
+// root. The critical path is the run of zero slack builds through the chain.
+public final class CriticalPath {
+    // builds finishing within this of their deadline count as on the path, to allow for clock skew between
+    // agents and the server
+    private static final long TOLERANCE_MS = 1000;
+
+    public static final class Build {
+        final long id;
+        final long queuedMs;
+        final long startMs;
+        final long finishMs;
+        final long[] dependencies;
+
+        public Build(long id, long queuedMs, long startMs, long finishMs, long[] dependencies) {
+            this.id = id;
+            this.queuedMs = queuedMs;
+            this.startMs = startMs;
+            this.finishMs = finishMs;
+            this.dependencies = dependencies;
+        }
+    }
+
+    private final Map<Long, Long> slackMs;
+    private final List<Long> path;
+    private final Set<Long> onPath;
+    private final long queueTimeMs;
+    private final Map<Long, String> names;
+
+    private CriticalPath(Map<Long, Long> slackMs, List<Long> path, long queueTimeMs, Map<Long, String> names) {
+        this.slackMs = slackMs;
+        this.path = path;
+        this.onPath = new HashSet<>(path);
+        this.queueTimeMs = queueTimeMs;
+        this.names = names;
+    }
+
+    // Reads the chain below root from TeamCity. The root is still finishing, so its finish time is passed in.
+    @NotNull
+    public static CriticalPath of(@NotNull BuildPromotion root, long rootFinishMs) {
+        var builds = new HashMap<Long, Build>();
+        var names = new HashMap<Long, String>();
+        var pending = new ArrayDeque<BuildPromotion>();
+        pending.add(root);
+        while (!pending.isEmpty()) {
+            var promotion = pending.poll();
+            if (builds.containsKey(promotion.getId())) continue;
+            var build = promotion.getAssociatedBuild();
+            if (build == null || build.getStartDate() == null) continue; // never ran, eg, cancelled in the queue
+            var finishDate = build.getFinishDate();
+            if (finishDate == null && promotion != root) continue;
+
+            var dependencies = promotion.getDependencies();
+            var dependencyIds = new long[dependencies.size()];
+            var i = 0;
+            for (var dependency : dependencies) {
+                var dependOn = dependency.getDependOn();
+                dependencyIds[i++] = dependOn.getId();
+                pending.add(dependOn);
+            }
+            var startMs = build.getStartDate().getTime();
+            builds.put(promotion.getId(), new Build(
+                    promotion.getId(),
+                    Math.min(build.getQueuedDate().getTime(), startMs),
+                    startMs,
+                    finishDate == null ? rootFinishMs : finishDate.getTime(),
+                    dependencyIds));
+            names.put(promotion.getId(), promotion.getBuildTypeExternalId());
+        }
+        return compute(builds, root.getId(), names);
+    }
+
+    @NotNull
+    public static CriticalPath compute(@NotNull Map<Long, Build> builds, long rootId, @NotNull Map<Long, String> names) {
+        var root = builds.get(rootId);
+        if (root == null) return new CriticalPath(Map.of(), List.of(), 0, names);
+
+        var order = reversePostOrder(builds, root);
+
+        // when each build became ready to run
+        var readyMs = new HashMap<Long, Long>(order.size() * 2);
+        for (var build : order) {
+            var ready = build.queuedMs;
+            for (long dependencyId : build.dependencies) {
+                var dependency = builds.get(dependencyId);
+                if (dependency != null) ready = Math.max(ready, dependency.finishMs);
+            }
+            readyMs.put(build.id, Math.min(ready, build.startMs));
+        }
+
+        // dependents come before their dependencies in reverse post order, so each build's deadline is known by
+        // the time we get to its dependencies
+        var deadlineMs = new HashMap<Long, Long>(order.size() * 2);
+        deadlineMs.put(root.id, root.finishMs);
+        var slackMs = new HashMap<Long, Long>(order.size() * 2);
+        for (var build : order) {
+            var deadline = deadlineMs.get(build.id);
+            slackMs.put(build.id, Math.max(0, deadline - build.finishMs));
+            var latestReady = deadline - (build.finishMs - readyMs.get(build.id));
+            for (long dependencyId : build.dependencies) {
+                if (builds.containsKey(dependencyId))
+                    deadlineMs.merge(dependencyId, latestReady, Math::min);
+            }
+        }
+
+        // follow the latest finishing zero slack dependency down from the root
+        var path = new ArrayList<Long>();
+        long queueTimeMs = 0;
+        var build = root;
+        while (build != null) {
+            path.add(build.id);
+            queueTimeMs += build.startMs - readyMs.get(build.id);
+            Build next = null;
+            for (long dependencyId : build.dependencies) {
+                var dependency = builds.get(dependencyId);
+                if (dependency == null || slackMs.get(dependencyId) > TOLERANCE_MS) continue;
+                if (dependency.finishMs + TOLERANCE_MS < readyMs.get(build.id)) continue; // it wasn't what we were waiting on
+                if (next == null || dependency.finishMs > next.finishMs) next = dependency;
+            }
+            build = next;
+        }
+        Collections.reverse(path);
+        return new CriticalPath(slackMs, path, queueTimeMs, names);
+    }
+
+    // Dependents before their dependencies, without recursing - chains can be hundreds of builds deep.
+    private static List<Build> reversePostOrder(Map<Long, Build> builds, Build root) {
+        var postOrder = new ArrayList<Build>(builds.size());
+        var visited = new HashSet<Long>();
+        var stack = new ArrayDeque<Build>();
+        var nextDependency = new ArrayDeque<Integer>();
+        stack.push(root);
+        nextDependency.push(0);
+        visited.add(root.id);
+        while (!stack.isEmpty()) {
+            var build = stack.peek();
+            var index = nextDependency.pop();
+            if (index < build.dependencies.length) {
+                nextDependency.push(index + 1);
+                var dependency = builds.get(build.dependencies[index]);
+                if (dependency != null && visited.add(dependency.id)) {
+                    stack.push(dependency);
+                    nextDependency.push(0);
+                }
+            } else {
+                stack.pop();
+                postOrder.add(build);
+            }
+        }
+        Collections.reverse(postOrder);
+        return postOrder;
+    }
+
+    // Slack of the build in milliseconds, or -1 if it isn't part of the chain (or never ran).
+    public long getSlackMs(long buildPromotionId) {
+        return slackMs.getOrDefault(buildPromotionId, -1L);
+    }
+
+    public boolean isOnPath(long buildPromotionId) {
+        return onPath.contains(buildPromotionId);
+    }
+
+    // Build promotion ids from the first build of the path to the root.
+    public List<Long> getPath() {
+        return path;
+    }
+
+    // The path as build configuration ids, eg "Compile > Test > Deploy".
+    public String describe() {
+        var description = new StringJoiner(" > ");
+        for (long id : path) description.add(names.getOrDefault(id, String.valueOf(id)));
+        return description.toString();
+    }
+
+    // Time the builds on the path spent queued once they were ready to run.
+    public long getQueueTimeMs() {
+        return queueTimeMs;
+    }
+}
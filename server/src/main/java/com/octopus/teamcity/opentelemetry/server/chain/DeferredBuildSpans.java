@@ -0,0 +1,110 @@
+package com.octopus.teamcity.opentelemetry.server.chain;
+
+import com.octopus.teamcity.opentelemetry.common.PluginConstants;
+import io.opentelemetry.api.trace.Span;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+
+// The spans of finished builds in a chain, held open until the chain's root finishes and we know the critical path.
+// Each is then ended with the time its build actually finished, so only the export is delayed, not the timings.
+// A root that never finishes (or whose project is removed) would hold them forever, so they can also be let go.
+public class DeferredBuildSpans {
+    private static final class DeferredSpan {
+        final Span span;
+        final Instant endTime;
+
+        DeferredSpan(Span span, Instant endTime) {
+            this.span = span;
+            this.endTime = endTime;
+        }
+    }
+
+    private static final class Chain {
+        @Nullable
+        final String rootProjectId;
+        final long heldSinceMs;
+        final Map<Long, DeferredSpan> spans = new ConcurrentHashMap<>();
+
+        Chain(@Nullable String rootProjectId, long heldSinceMs) {
+            this.rootProjectId = rootProjectId;
+            this.heldSinceMs = heldSinceMs;
+        }
+    }
+
+    private final ConcurrentHashMap<Long, Chain> byRoot = new ConcurrentHashMap<>();
+    private final LongSupplier clock;
+
+    public DeferredBuildSpans() {
+        this(System::currentTimeMillis);
+    }
+
+    public DeferredBuildSpans(@NotNull LongSupplier clock) {
+        this.clock = clock;
+    }
+
+    public void defer(long rootBuildPromotionId, @Nullable String rootProjectId, long buildPromotionId, @NotNull Span span, @NotNull Instant endTime) {
+        // in compute, so the span can't be added to a chain that's just been ended
+        byRoot.compute(rootBuildPromotionId, (key, chain) -> {
+            if (chain == null) chain = new Chain(rootProjectId, clock.getAsLong());
+            chain.spans.put(buildPromotionId, new DeferredSpan(span, endTime));
+            return chain;
+        });
+    }
+
+    public boolean has(long rootBuildPromotionId) {
+        return byRoot.containsKey(rootBuildPromotionId);
+    }
+
+    // Ends the held spans of every chain, as they are - for when the server is shutting down.
+    public void endAll() {
+        for (var rootBuildPromotionId : byRoot.keySet()) endAll(rootBuildPromotionId, null);
+    }
+
+    // Ends the held spans of chains that have been waiting on their root for longer than maxHoldMs, as they are.
+    // Returns the roots of those chains.
+    @NotNull
+    public List<Long> endHeldLongerThan(long maxHoldMs) {
+        var heldSince = clock.getAsLong() - maxHoldMs;
+        var ended = new ArrayList<Long>();
+        byRoot.forEach((rootBuildPromotionId, chain) -> {
+            if (chain.heldSinceMs <= heldSince && endAll(rootBuildPromotionId, null)) ended.add(rootBuildPromotionId);
+        });
+        return ended;
+    }
+
+    // Ends the held spans of chains whose root is in the project, as they are. Returns the roots of those chains.
+    @NotNull
+    public List<Long> endAllInProject(@NotNull String projectId) {
+        var ended = new ArrayList<Long>();
+        byRoot.forEach((rootBuildPromotionId, chain) -> {
+            if (Objects.equals(chain.rootProjectId, projectId) && endAll(rootBuildPromotionId, null)) ended.add(rootBuildPromotionId);
+        });
+        return ended;
+    }
+
+    // Ends the held spans of the chain, first marking them with the critical path if we managed to work it out.
+    // Returns false if the chain had no spans held (or another thread got to them first).
+    public boolean endAll(long rootBuildPromotionId, @Nullable CriticalPath criticalPath) {
+        var chain = byRoot.remove(rootBuildPromotionId);
+        if (chain == null) return false;
+        chain.spans.forEach((buildPromotionId, deferred) -> {
+            if (criticalPath != null) {
+                var slackMs = criticalPath.getSlackMs(buildPromotionId);
+                if (slackMs >= 0) {
+                    deferred.span.setAttribute(PluginConstants.ATTRIBUTE_CRITICAL_PATH_FLAG, criticalPath.isOnPath(buildPromotionId));
+                    deferred.span.setAttribute(PluginConstants.ATTRIBUTE_SLACK_TIME, slackMs);
+                }
+            }
+            deferred.span.end(deferred.endTime);
+        });
+        return true;
+    }
+}
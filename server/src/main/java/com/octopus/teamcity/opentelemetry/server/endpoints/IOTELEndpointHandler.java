@@ -2,19 +2,50 @@ package com.octopus.teamcity.opentelemetry.server.endpoints;
 
 import com.octopus.teamcity.opentelemetry.server.SetProjectConfigurationSettingsRequest;
 import io.opentelemetry.sdk.metrics.SdkMeterProvider;
+import io.opentelemetry.sdk.metrics.export.MetricExporter;
 import io.opentelemetry.sdk.trace.SpanProcessor;
+import io.opentelemetry.sdk.trace.export.SpanExporter;
 import jetbrains.buildServer.serverSide.BuildPromotion;
 import jetbrains.buildServer.serverSide.SBuild;
 import org.apache.commons.lang3.tuple.Pair;
 import org.springframework.web.servlet.ModelAndView;
 
+import javax.annotation.Nullable;
 import javax.servlet.http.HttpServletRequest;
 import java.util.Map;
+import java.util.function.UnaryOperator;
 
+// Sends a project's spans and metrics to one kind of backend. There's a single instance of each handler, shared by
+// every project and build that uses its service, so it mustn't keep per-project state; everything it needs comes in
+// the project's params. A handler's settings are whatever its SetProjectConfigurationSettingsRequest validates and
+// saves, and mapParamsToModel shows them again.
 public interface IOTELEndpointHandler {
+    // the value saved as the project's service, e.g. "honeycomb.io"; one handler per value
+    String getServiceName();
+
+    // what the service is called in the settings
+    String getDisplayName();
+
+    // null if there's nothing to show for the trace yet, but there should be soon
     ModelAndView getBuildOverviewModelAndView(SBuild build, Map<String, String> params, String traceId);
 
-    Pair<SpanProcessor, SdkMeterProvider> buildSpanProcessorAndMeterProvider(BuildPromotion buildPromotion, String endpoint, Map<String, String> params);
+    // where the trace can be viewed, or null if we don't know
+    @Nullable
+    String getTraceUrl(SBuild build, Map<String, String> params, String traceId);
+
+    // the exporter buildSpanProcessorAndMeterProvider batches spans for, masking them and behind the project's circuit
+    // breaker; for sending spans we already have all at once
+    SpanExporter buildSpanExporter(String endpoint, Map<String, String> params);
+
+    default Pair<SpanProcessor, SdkMeterProvider> buildSpanProcessorAndMeterProvider(@Nullable BuildPromotion buildPromotion, String endpoint, Map<String, String> params) {
+        return buildSpanProcessorAndMeterProvider(buildPromotion, endpoint, params, UnaryOperator.identity());
+    }
+
+    // as above, with the exporter wrapped before it's handed to the span processor, eg to see how its exports went
+    Pair<SpanProcessor, SdkMeterProvider> buildSpanProcessorAndMeterProvider(@Nullable BuildPromotion buildPromotion, String endpoint, Map<String, String> params, UnaryOperator<SpanExporter> wrapExporter);
+
+    @Nullable
+    MetricExporter buildMetricExporter(String endpoint, Map<String, String> params);
 
     SetProjectConfigurationSettingsRequest getSetProjectConfigurationSettingsRequest(HttpServletRequest request);
 
@@ -1,46 +1,83 @@
 package com.octopus.teamcity.opentelemetry.server.endpoints;
 
-import com.octopus.teamcity.opentelemetry.server.endpoints.custom.CustomOTELEndpointHandler;
-import com.octopus.teamcity.opentelemetry.server.endpoints.honeycomb.HoneycombOTELEndpointHandler;
-import com.octopus.teamcity.opentelemetry.server.endpoints.zipkin.ZipkinOTELEndpointHandler;
-import jetbrains.buildServer.serverSide.TeamCityNodes;
-import jetbrains.buildServer.web.openapi.PluginDescriptor;
+import org.apache.log4j.Logger;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Looks up the handler for a project's service. The handlers are singletons: this plugin's own are beans, handed to
+// us by Spring, and another plugin that depends on this one can add a handler for its own backend (Jaeger, Tempo,
+// Datadog and so on) by calling registerHandler from one of its beans, without any change here. Lookups happen for
+// every build, so they read a map that's replaced, never changed, when a handler is added.
 public class OTELEndpointFactory {
+    static Logger LOG = Logger.getLogger(OTELEndpointFactory.class.getName());
 
-    @NotNull
-    private final PluginDescriptor pluginDescriptor;
-    @NotNull
-    private final TeamCityNodes teamcityNodesService;
+    private volatile Map<String, IOTELEndpointHandler> handlers = Collections.emptyMap();
+
+    public OTELEndpointFactory(@NotNull Collection<IOTELEndpointHandler> handlers)
+    {
+        handlers.forEach(this::registerHandler);
+    }
 
-    public OTELEndpointFactory(
-            @NotNull PluginDescriptor pluginDescriptor,
-            @NotNull TeamCityNodes teamcityNodesService)
+    public synchronized void registerHandler(@NotNull IOTELEndpointHandler handler)
     {
-        this.pluginDescriptor = pluginDescriptor;
-        this.teamcityNodesService = teamcityNodesService;
+        var serviceName = handler.getServiceName();
+        var existing = handlers.get(serviceName);
+        if (existing != null)
+            throw new IllegalArgumentException(String.format("Service '%s' already has a handler, %s", serviceName, existing.getClass().getName()));
+        var updated = new LinkedHashMap<>(handlers);
+        updated.put(serviceName, handler);
+        handlers = Collections.unmodifiableMap(updated);
+        LOG.info(String.format("Registered %s as the handler for service '%s'.", handler.getClass().getName(), serviceName));
     }
 
+    // null if no handler has been registered for the service
+    @Nullable
+    public IOTELEndpointHandler findOTELEndpointHandler(@Nullable String otelService)
+    {
+        return otelService == null ? null : handlers.get(otelService);
+    }
+
+    @NotNull
     public IOTELEndpointHandler getOTELEndpointHandler(String otelService)
     {
-        return getOTELEndpointHandler(OTELService.get(otelService).get());
+        var handler = findOTELEndpointHandler(otelService);
+        if (handler == null)
+            throw new IllegalArgumentException("Invalid service name " + otelService);
+        return handler;
     }
 
+    @NotNull
     public IOTELEndpointHandler getOTELEndpointHandler(OTELService otelService)
     {
-        //todo: can we look this up automatically somehow
-        switch (otelService)
-        {
-            case HONEYCOMB:
-                return new HoneycombOTELEndpointHandler(pluginDescriptor, teamcityNodesService);
-            case ZIPKIN:
-                return new ZipkinOTELEndpointHandler(pluginDescriptor);
-            case CUSTOM:
-                return new CustomOTELEndpointHandler(pluginDescriptor);
-            default:
-                throw new IllegalArgumentException("Invalid service name " + otelService);
+        return getOTELEndpointHandler(otelService.getValue());
+    }
+
+    // in the order they were registered, this plugin's own first
+    @NotNull
+    public Collection<IOTELEndpointHandler> getOTELEndpointHandlers()
+    {
+        return handlers.values();
+    }
+
+    @NotNull
+    public String readableJoin()
+    {
+        var names = new ArrayList<>(handlers.keySet());
+        var sb = new StringBuilder();
+        for (int i = 0; i < names.size(); i++) {
+            sb.append(names.get(i));
+            if (i < names.size() - 2) {
+                sb.append(", ");
+            } else if (i == names.size() - 2) {
+                sb.append(" or ");
+            }
         }
+        return sb.toString();
     }
 }
-
@@ -3,35 +3,29 @@ package com.octopus.teamcity.opentelemetry.server.endpoints;
 import java.util.Arrays;
 import java.util.Optional;
 
+// The services this plugin has handlers for itself. Other plugins can add more; see OTELEndpointFactory.
 public enum OTELService {
-    HONEYCOMB("honeycomb.io"),
-    ZIPKIN("zipkin.io"),
-    CUSTOM("custom");
+    HONEYCOMB("honeycomb.io", "Honeycomb.io"),
+    ZIPKIN("zipkin.io", "Zipkin"),
+    CUSTOM("custom", "Custom"),
+    FILE("file", "File");
 
     private final String value;
+    private final String displayName;
 
-    OTELService(String value) {
+    OTELService(String value, String displayName) {
         this.value = value;
-    }
-
-    public static String readableJoin() {
-        var sb = new StringBuilder();
-        var values = OTELService.values();
-        for (int i = 0; i < values.length; i++) {
-            sb.append(values[i].value);
-            if (i < values.length - 2) {
-                sb.append(", ");
-            } else if (i == values.length - 2) {
-                sb.append(" or ");
-            }
-        }
-        return sb.toString();
+        this.displayName = displayName;
     }
 
     public String getValue() {
         return value;
     }
 
+    public String getDisplayName() {
+        return displayName;
+    }
+
     public static Optional<OTELService> get(String value) {
         return Arrays.stream(OTELService.values())
                 .filter(service -> service.value.equals(value))
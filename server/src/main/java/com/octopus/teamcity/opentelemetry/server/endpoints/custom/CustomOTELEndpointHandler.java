@@ -2,9 +2,18 @@ package com.octopus.teamcity.opentelemetry.server.endpoints.custom;
 
 import com.octopus.teamcity.opentelemetry.server.*;
 import com.octopus.teamcity.opentelemetry.server.endpoints.IOTELEndpointHandler;
+import com.octopus.teamcity.opentelemetry.server.endpoints.OTELService;
+import com.octopus.teamcity.opentelemetry.server.helpers.ExporterCircuitBreakers;
+import com.octopus.teamcity.opentelemetry.server.helpers.MaskingSpanExporter;
+import com.octopus.teamcity.opentelemetry.server.tracestore.LocalTraceOverview;
+import com.octopus.teamcity.opentelemetry.server.tracestore.LocalTraceStore;
+import com.octopus.teamcity.opentelemetry.server.tracestore.LocalTraceStoreSpanExporter;
+import io.opentelemetry.exporter.otlp.metrics.OtlpGrpcMetricExporter;
+import io.opentelemetry.exporter.otlp.metrics.OtlpGrpcMetricExporterBuilder;
 import io.opentelemetry.exporter.otlp.trace.OtlpGrpcSpanExporter;
 import io.opentelemetry.exporter.otlp.trace.OtlpGrpcSpanExporterBuilder;
 import io.opentelemetry.sdk.metrics.SdkMeterProvider;
+import io.opentelemetry.sdk.metrics.export.MetricExporter;
 import io.opentelemetry.sdk.trace.SpanProcessor;
 import io.opentelemetry.sdk.trace.export.BatchSpanProcessor;
 import io.opentelemetry.sdk.trace.export.SpanExporter;
@@ -20,24 +29,78 @@ import javax.servlet.http.HttpServletRequest;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.function.UnaryOperator;
 
 import static com.octopus.teamcity.opentelemetry.common.PluginConstants.*;
 
 public class CustomOTELEndpointHandler implements IOTELEndpointHandler {
     private final PluginDescriptor pluginDescriptor;
+    private final ExporterCircuitBreakers circuitBreakers;
+    private final LocalTraceStore localTraceStore;
+    private final BuildStorageManager buildStorageManager;
     static Logger LOG = Logger.getLogger(CustomOTELEndpointHandler.class.getName());
 
     public CustomOTELEndpointHandler(
-            PluginDescriptor pluginDescriptor) {
+            PluginDescriptor pluginDescriptor,
+            ExporterCircuitBreakers circuitBreakers,
+            LocalTraceStore localTraceStore,
+            BuildStorageManager buildStorageManager) {
         this.pluginDescriptor = pluginDescriptor;
+        this.circuitBreakers = circuitBreakers;
+        this.localTraceStore = localTraceStore;
+        this.buildStorageManager = buildStorageManager;
     }
 
+    // A custom endpoint could be sending the trace anywhere, so we show what the local trace store kept of it.
     public ModelAndView getBuildOverviewModelAndView(SBuild build, Map<String, String> params, String traceId) {
-        return new ModelAndView(pluginDescriptor.getPluginResourcesPath("buildOverviewEmpty.jsp"));
+        return new LocalTraceOverview(pluginDescriptor, localTraceStore, buildStorageManager).getModelAndView(build, traceId);
     }
 
     @Override
-    public Pair<SpanProcessor, SdkMeterProvider> buildSpanProcessorAndMeterProvider(BuildPromotion buildPromotion, String endpoint, Map<String, String> params) {
+    public String getServiceName() {
+        return OTELService.CUSTOM.getValue();
+    }
+
+    @Override
+    public String getDisplayName() {
+        return OTELService.CUSTOM.getDisplayName();
+    }
+
+    @Override
+    public String getTraceUrl(SBuild build, Map<String, String> params, String traceId) {
+        //we've no idea where a custom endpoint sends its traces
+        return null;
+    }
+
+    @Override
+    public SpanExporter buildSpanExporter(String endpoint, Map<String, String> params) {
+        OtlpGrpcSpanExporterBuilder spanExporterBuilder = OtlpGrpcSpanExporter.builder();
+        getHeaders(params).forEach(spanExporterBuilder::addHeader);
+        spanExporterBuilder.setEndpoint(endpoint);
+        SpanExporter spanExporter = spanExporterBuilder.build();
+
+        // the local trace store gets the spans once they're masked, whether or not the endpoint is up
+        return new MaskingSpanExporter(new LocalTraceStoreSpanExporter(circuitBreakers.wrap(spanExporter, params), localTraceStore));
+    }
+
+    @Override
+    public Pair<SpanProcessor, SdkMeterProvider> buildSpanProcessorAndMeterProvider(BuildPromotion buildPromotion, String endpoint, Map<String, String> params, UnaryOperator<SpanExporter> wrapExporter) {
+        return Pair.of(BatchSpanProcessor.builder(wrapExporter.apply(buildSpanExporter(endpoint, params)))
+                .setMaxQueueSize(BATCH_SPAN_PROCESSOR_MAX_QUEUE_SIZE)
+                .setScheduleDelay(BATCH_SPAN_PROCESSOR_MAX_SCHEDULE_DELAY)
+                .setMaxExportBatchSize(BATCH_SPAN_PROCESSOR_MAX_EXPORT_BATCH_SIZE)
+                .build(), null);
+    }
+
+    @Override
+    public MetricExporter buildMetricExporter(String endpoint, Map<String, String> params) {
+        OtlpGrpcMetricExporterBuilder metricExporterBuilder = OtlpGrpcMetricExporter.builder();
+        getHeaders(params).forEach(metricExporterBuilder::addHeader);
+        metricExporterBuilder.setEndpoint(endpoint);
+        return metricExporterBuilder.build();
+    }
+
+    private Map<String, String> getHeaders(Map<String, String> params) {
         Map<String, String> headers = new HashMap<>();
         params.forEach((k, v) -> {
             if (k.startsWith(PROPERTY_KEY_HEADERS)) {
@@ -47,7 +110,7 @@ public class CustomOTELEndpointHandler implements IOTELEndpointHandler {
                 headers.put(name, value);
             }
         });
-        return Pair.of(buildGrpcSpanProcessor(headers, endpoint), null);
+        return headers;
     }
 
     @Override
@@ -73,18 +136,4 @@ public class CustomOTELEndpointHandler implements IOTELEndpointHandler {
 
         model.put("otelHeaders", headers);
     }
-
-    private SpanProcessor buildGrpcSpanProcessor(Map<String, String> headers, String exporterEndpoint) {
-
-        OtlpGrpcSpanExporterBuilder spanExporterBuilder = OtlpGrpcSpanExporter.builder();
-        headers.forEach(spanExporterBuilder::addHeader);
-        spanExporterBuilder.setEndpoint(exporterEndpoint);
-        SpanExporter spanExporter = spanExporterBuilder.build();
-
-        return BatchSpanProcessor.builder(spanExporter)
-                .setMaxQueueSize(BATCH_SPAN_PROCESSOR_MAX_QUEUE_SIZE)
-                .setScheduleDelay(BATCH_SPAN_PROCESSOR_MAX_SCHEDULE_DELAY)
-                .setMaxExportBatchSize(BATCH_SPAN_PROCESSOR_MAX_EXPORT_BATCH_SIZE)
-                .build();
-    }
 }
@@ -0,0 +1,100 @@
+package com.octopus.teamcity.opentelemetry.server.endpoints.file;
+
+import com.octopus.teamcity.opentelemetry.server.BuildStorageManager;
+import com.octopus.teamcity.opentelemetry.server.SetProjectConfigurationSettingsRequest;
+import com.octopus.teamcity.opentelemetry.server.endpoints.IOTELEndpointHandler;
+import com.octopus.teamcity.opentelemetry.server.endpoints.OTELService;
+import com.octopus.teamcity.opentelemetry.server.helpers.ExporterCircuitBreakers;
+import com.octopus.teamcity.opentelemetry.server.helpers.MaskingSpanExporter;
+import com.octopus.teamcity.opentelemetry.server.tracestore.LocalTraceOverview;
+import com.octopus.teamcity.opentelemetry.server.tracestore.LocalTraceStore;
+import com.octopus.teamcity.opentelemetry.server.tracestore.LocalTraceStoreSpanExporter;
+import io.opentelemetry.sdk.metrics.SdkMeterProvider;
+import io.opentelemetry.sdk.metrics.export.MetricExporter;
+import io.opentelemetry.sdk.trace.SpanProcessor;
+import io.opentelemetry.sdk.trace.export.BatchSpanProcessor;
+import io.opentelemetry.sdk.trace.export.SpanExporter;
+import jetbrains.buildServer.serverSide.BuildPromotion;
+import jetbrains.buildServer.serverSide.SBuild;
+import jetbrains.buildServer.web.openapi.PluginDescriptor;
+import org.apache.commons.lang3.tuple.Pair;
+import org.springframework.web.servlet.ModelAndView;
+
+import javax.servlet.http.HttpServletRequest;
+import java.util.Map;
+import java.util.function.UnaryOperator;
+
+import static com.octopus.teamcity.opentelemetry.common.PluginConstants.*;
+
+// Writes spans and metrics as OTLP JSON lines to files in the data directory, for a sidecar (eg, an OpenTelemetry
+// collector's filelog receiver, or Fluent Bit) to ship, where the server can't reach a collector itself.
+public class FileOTELEndpointHandler implements IOTELEndpointHandler {
+    private final PluginDescriptor pluginDescriptor;
+    private final ExporterCircuitBreakers circuitBreakers;
+    private final LocalTraceStore localTraceStore;
+    private final BuildStorageManager buildStorageManager;
+    private final OtlpJsonLinesFiles otlpJsonLinesFiles;
+
+    public FileOTELEndpointHandler(
+            PluginDescriptor pluginDescriptor,
+            ExporterCircuitBreakers circuitBreakers,
+            LocalTraceStore localTraceStore,
+            BuildStorageManager buildStorageManager,
+            OtlpJsonLinesFiles otlpJsonLinesFiles) {
+        this.pluginDescriptor = pluginDescriptor;
+        this.circuitBreakers = circuitBreakers;
+        this.localTraceStore = localTraceStore;
+        this.buildStorageManager = buildStorageManager;
+        this.otlpJsonLinesFiles = otlpJsonLinesFiles;
+    }
+
+    // Wherever the sidecar ships the trace to, we can't link to it, so we show what the local trace store kept of it.
+    public ModelAndView getBuildOverviewModelAndView(SBuild build, Map<String, String> params, String traceId) {
+        return new LocalTraceOverview(pluginDescriptor, localTraceStore, buildStorageManager).getModelAndView(build, traceId);
+    }
+
+    @Override
+    public String getServiceName() {
+        return OTELService.FILE.getValue();
+    }
+
+    @Override
+    public String getDisplayName() {
+        return OTELService.FILE.getDisplayName();
+    }
+
+    @Override
+    public String getTraceUrl(SBuild build, Map<String, String> params, String traceId) {
+        return null;
+    }
+
+    @Override
+    public SpanExporter buildSpanExporter(String endpoint, Map<String, String> params) {
+        var spanExporter = new OtlpJsonLinesSpanExporter(otlpJsonLinesFiles.forSpans(endpoint));
+        return new MaskingSpanExporter(new LocalTraceStoreSpanExporter(circuitBreakers.wrap(spanExporter, params), localTraceStore));
+    }
+
+    @Override
+    public Pair<SpanProcessor, SdkMeterProvider> buildSpanProcessorAndMeterProvider(BuildPromotion buildPromotion, String endpoint, Map<String, String> params, UnaryOperator<SpanExporter> wrapExporter) {
+        return Pair.of(BatchSpanProcessor.builder(wrapExporter.apply(buildSpanExporter(endpoint, params)))
+                .setMaxQueueSize(BATCH_SPAN_PROCESSOR_MAX_QUEUE_SIZE)
+                .setScheduleDelay(BATCH_SPAN_PROCESSOR_MAX_SCHEDULE_DELAY)
+                .setMaxExportBatchSize(BATCH_SPAN_PROCESSOR_MAX_EXPORT_BATCH_SIZE)
+                .build(), null);
+    }
+
+    @Override
+    public MetricExporter buildMetricExporter(String endpoint, Map<String, String> params) {
+        return new OtlpJsonLinesMetricExporter(otlpJsonLinesFiles.forMetrics(endpoint));
+    }
+
+    @Override
+    public SetProjectConfigurationSettingsRequest getSetProjectConfigurationSettingsRequest(HttpServletRequest request) {
+        return new SetFileProjectConfigurationSettingsRequest(request);
+    }
+
+    @Override
+    public void mapParamsToModel(Map<String, String> params, Map<String, Object> model) {
+        model.put("otelEndpoint", params.get(PROPERTY_KEY_ENDPOINT));
+    }
+}
@@ -0,0 +1,70 @@
+package com.octopus.teamcity.opentelemetry.server.endpoints.file;
+
+import com.octopus.teamcity.opentelemetry.server.helpers.PluginDataFiles;
+import jetbrains.buildServer.serverSide.ServerPaths;
+import jetbrains.buildServer.serverSide.TeamCityProperties;
+import org.apache.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+// The writers of each directory the file service writes to, under the plugin's data directory. They're shared by
+// the exporters of every build (and the server's metrics) writing there, as that's what lets writes be grouped.
+public class OtlpJsonLinesFiles {
+    static Logger LOG = Logger.getLogger(OtlpJsonLinesFiles.class.getName());
+    public static final String PROPERTY_MAX_FILE_MEGABYTES = "teamcity.opentelemetry.file.maxFileMegabytes";
+    public static final String PROPERTY_MAX_FILE_AGE_MINUTES = "teamcity.opentelemetry.file.maxFileAgeMinutes";
+    public static final String PROPERTY_MAX_FILES = "teamcity.opentelemetry.file.maxFiles";
+    public static final String PROPERTY_MAX_PENDING_MEGABYTES = "teamcity.opentelemetry.file.maxPendingMegabytes";
+    public static final String PROPERTY_FSYNC = "teamcity.opentelemetry.file.fsync";
+    private static final int DEFAULT_MAX_FILE_MEGABYTES = 64;
+    private static final int DEFAULT_MAX_FILE_AGE_MINUTES = 60;
+    private static final int DEFAULT_MAX_FILES = 48;
+    private static final int DEFAULT_MAX_PENDING_MEGABYTES = 16;
+    public static final String DEFAULT_DIRECTORY = "otlp";
+    // just a name, so settings can't point us outside the data directory
+    private static final Pattern DIRECTORY_NAME = Pattern.compile("[A-Za-z0-9][A-Za-z0-9._-]{0,63}");
+    private static final String SPANS = "spans";
+    private static final String METRICS = "metrics";
+
+    private final ServerPaths serverPaths;
+    private final ConcurrentHashMap<String, OtlpJsonLinesWriter> writers = new ConcurrentHashMap<>();
+
+    public OtlpJsonLinesFiles(@NotNull ServerPaths serverPaths) {
+        this.serverPaths = serverPaths;
+    }
+
+    public static boolean isValidDirectoryName(@Nullable String directoryName) {
+        return directoryName != null && DIRECTORY_NAME.matcher(directoryName).matches();
+    }
+
+    @NotNull
+    public OtlpJsonLinesWriter forSpans(@Nullable String directoryName) {
+        return writerFor(directoryName, SPANS);
+    }
+
+    @NotNull
+    public OtlpJsonLinesWriter forMetrics(@Nullable String directoryName) {
+        return writerFor(directoryName, METRICS);
+    }
+
+    private OtlpJsonLinesWriter writerFor(String directoryName, String prefix) {
+        if (!isValidDirectoryName(directoryName)) {
+            LOG.warn(String.format("'%s' isn't a valid directory name; writing to '%s' instead", directoryName, DEFAULT_DIRECTORY));
+            directoryName = DEFAULT_DIRECTORY;
+        }
+        var directory = PluginDataFiles.get(serverPaths, directoryName).toPath();
+        return writers.computeIfAbsent(directoryName + "/" + prefix, key -> new OtlpJsonLinesWriter(
+                directory,
+                prefix,
+                TeamCityProperties.getInteger(PROPERTY_MAX_FILE_MEGABYTES, DEFAULT_MAX_FILE_MEGABYTES) * 1024L * 1024L,
+                TimeUnit.MINUTES.toMillis(TeamCityProperties.getInteger(PROPERTY_MAX_FILE_AGE_MINUTES, DEFAULT_MAX_FILE_AGE_MINUTES)),
+                TeamCityProperties.getInteger(PROPERTY_MAX_FILES, DEFAULT_MAX_FILES),
+                TeamCityProperties.getInteger(PROPERTY_MAX_PENDING_MEGABYTES, DEFAULT_MAX_PENDING_MEGABYTES) * 1024L * 1024L,
+                TeamCityProperties.getBooleanOrTrue(PROPERTY_FSYNC),
+                System::currentTimeMillis));
+    }
+}
@@ -0,0 +1,63 @@
+package com.octopus.teamcity.opentelemetry.server.endpoints.file;
+
+import io.opentelemetry.exporter.logging.otlp.metrics.OtlpStdoutMetricExporter;
+import io.opentelemetry.sdk.common.CompletableResultCode;
+import io.opentelemetry.sdk.metrics.InstrumentType;
+import io.opentelemetry.sdk.metrics.data.AggregationTemporality;
+import io.opentelemetry.sdk.metrics.data.MetricData;
+import io.opentelemetry.sdk.metrics.export.AggregationTemporalitySelector;
+import io.opentelemetry.sdk.metrics.export.MetricExporter;
+import org.apache.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Collection;
+
+// Writes each collection of metrics as one line of OTLP JSON (an ExportMetricsServiceRequest), cumulative like the
+// OTLP exporters. The encoding is left to the OTLP stdout exporter, as for spans.
+public class OtlpJsonLinesMetricExporter implements MetricExporter {
+    static Logger LOG = Logger.getLogger(OtlpJsonLinesMetricExporter.class.getName());
+    private final OtlpJsonLinesWriter writer;
+    private final ByteArrayOutputStream line = new ByteArrayOutputStream();
+    private final OtlpStdoutMetricExporter encoder = OtlpStdoutMetricExporter.builder()
+            .setOutput(line)
+            .setWrapperJsonObject(true)
+            .setAggregationTemporalitySelector(AggregationTemporalitySelector.alwaysCumulative())
+            .build();
+
+    public OtlpJsonLinesMetricExporter(@NotNull OtlpJsonLinesWriter writer) {
+        this.writer = writer;
+    }
+
+    @Override
+    public AggregationTemporality getAggregationTemporality(@NotNull InstrumentType instrumentType) {
+        return encoder.getAggregationTemporality(instrumentType);
+    }
+
+    @Override
+    public CompletableResultCode export(@NotNull Collection<MetricData> metrics) {
+        if (metrics.isEmpty()) return CompletableResultCode.ofSuccess();
+        byte[] bytes;
+        // the buffer is reused, so one collection at a time
+        synchronized (line) {
+            line.reset();
+            if (!encoder.export(metrics).isSuccess()) {
+                LOG.warn(String.format("Unable to write %d metrics as OTLP JSON", metrics.size()));
+                return CompletableResultCode.ofFailure();
+            }
+            bytes = line.toByteArray();
+        }
+        return writer.append(bytes);
+    }
+
+    @Override
+    public CompletableResultCode flush() {
+        return writer.flush();
+    }
+
+    @Override
+    public CompletableResultCode shutdown() {
+        encoder.shutdown();
+        return writer.flush();
+    }
+}
@@ -0,0 +1,55 @@
+package com.octopus.teamcity.opentelemetry.server.endpoints.file;
+
+import io.opentelemetry.exporter.logging.otlp.traces.OtlpStdoutSpanExporter;
+import io.opentelemetry.sdk.common.CompletableResultCode;
+import io.opentelemetry.sdk.trace.data.SpanData;
+import io.opentelemetry.sdk.trace.export.SpanExporter;
+import org.apache.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Collection;
+
+// Writes each batch of spans as one line of OTLP JSON (an ExportTraceServiceRequest, as the collector's otlpjsonfile
+// and filelog receivers read them). The encoding is left to the OTLP stdout exporter, pointed at a buffer so the line
+// can go through the writer. The writer is shared with the exporters of other builds, so it's left open on shutdown.
+public class OtlpJsonLinesSpanExporter implements SpanExporter {
+    static Logger LOG = Logger.getLogger(OtlpJsonLinesSpanExporter.class.getName());
+    private final OtlpJsonLinesWriter writer;
+    private final ByteArrayOutputStream line = new ByteArrayOutputStream();
+    private final OtlpStdoutSpanExporter encoder = OtlpStdoutSpanExporter.builder()
+            .setOutput(line)
+            .setWrapperJsonObject(true)
+            .build();
+
+    public OtlpJsonLinesSpanExporter(@NotNull OtlpJsonLinesWriter writer) {
+        this.writer = writer;
+    }
+
+    @Override
+    public CompletableResultCode export(@NotNull Collection<SpanData> spans) {
+        if (spans.isEmpty()) return CompletableResultCode.ofSuccess();
+        byte[] bytes;
+        // the buffer is reused, so one batch at a time
+        synchronized (line) {
+            line.reset();
+            if (!encoder.export(spans).isSuccess()) {
+                LOG.warn(String.format("Unable to write %d spans as OTLP JSON", spans.size()));
+                return CompletableResultCode.ofFailure();
+            }
+            bytes = line.toByteArray();
+        }
+        return writer.append(bytes);
+    }
+
+    @Override
+    public CompletableResultCode flush() {
+        return writer.flush();
+    }
+
+    @Override
+    public CompletableResultCode shutdown() {
+        encoder.shutdown();
+        return writer.flush();
+    }
+}
@@ -0,0 +1,167 @@
+package com.octopus.teamcity.opentelemetry.server.endpoints.file;
+
+import io.opentelemetry.sdk.common.CompletableResultCode;
+import org.apache.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.LongSupplier;
+
+// Appends lines to files in one directory, for a sidecar to pick up and ship. Writes are group committed: whichever
+// exporter finds nothing being written becomes the one writing, and takes everything queued up behind it along with
+// its own, in one write (and one fsync) to the file, so exporters of many builds don't each wait on the disk. The
+// rest get a result that's completed once their lines are written. A new file is started when the current one gets
+// too big or too old, and on startup, so a file is never appended to after a crash might have left it with half a
+// line; once there are too many files, the oldest go. Lines that don't fit in what's queued fail straight away.
+public class OtlpJsonLinesWriter {
+    static Logger LOG = Logger.getLogger(OtlpJsonLinesWriter.class.getName());
+    private static final DateTimeFormatter FILE_TIMESTAMP = DateTimeFormatter.ofPattern("yyyyMMdd'T'HHmmss'Z'").withZone(ZoneOffset.UTC);
+    public static final String FILE_EXTENSION = ".jsonl";
+
+    private final Path directory;
+    private final String prefix;
+    private final long maxFileBytes;
+    private final long maxFileAgeMs;
+    private final int maxFiles;
+    private final long maxPendingBytes;
+    private final boolean fsync;
+    private final LongSupplier clock;
+
+    private final Object lock = new Object();
+    private List<byte[]> pending = new ArrayList<>();
+    private List<CompletableResultCode> waiting = new ArrayList<>();
+    private long pendingBytes;
+    private boolean writing;
+
+    // only touched by whoever is writing
+    private FileChannel channel;
+    private long fileBytes;
+    private long fileOpenedAtMs;
+    private int fileSequence;
+
+    public OtlpJsonLinesWriter(@NotNull Path directory, @NotNull String prefix, long maxFileBytes, long maxFileAgeMs, int maxFiles, long maxPendingBytes, boolean fsync, @NotNull LongSupplier clock) {
+        this.directory = directory;
+        this.prefix = prefix;
+        this.maxFileBytes = maxFileBytes;
+        this.maxFileAgeMs = maxFileAgeMs;
+        this.maxFiles = Math.max(1, maxFiles);
+        this.maxPendingBytes = maxPendingBytes;
+        this.fsync = fsync;
+        this.clock = clock;
+    }
+
+    // Each line should end with a newline. The result completes once the lines are in the file.
+    @NotNull
+    public CompletableResultCode append(@NotNull byte[] lines) {
+        var result = new CompletableResultCode();
+        synchronized (lock) {
+            if (pendingBytes + lines.length > maxPendingBytes) {
+                return CompletableResultCode.ofFailure();
+            }
+            pending.add(lines);
+            waiting.add(result);
+            pendingBytes += lines.length;
+            if (writing) return result;
+            writing = true;
+        }
+        writeAll();
+        return result;
+    }
+
+    // Completes once everything appended so far is in the file.
+    @NotNull
+    public CompletableResultCode flush() {
+        return append(new byte[0]);
+    }
+
+    private void writeAll() {
+        while (true) {
+            List<byte[]> group;
+            List<CompletableResultCode> results;
+            synchronized (lock) {
+                if (pending.isEmpty()) {
+                    writing = false;
+                    return;
+                }
+                group = pending;
+                results = waiting;
+                pending = new ArrayList<>();
+                waiting = new ArrayList<>();
+                pendingBytes = 0;
+            }
+            var written = write(group);
+            for (var result : results) {
+                if (written) result.succeed();
+                else result.fail();
+            }
+        }
+    }
+
+    private boolean write(List<byte[]> group) {
+        var buffers = new ByteBuffer[group.size()];
+        var bytes = 0L;
+        for (int i = 0; i < buffers.length; i++) {
+            buffers[i] = ByteBuffer.wrap(group.get(i));
+            bytes += buffers[i].remaining();
+        }
+        if (bytes == 0) return true;
+        try {
+            if (channel == null || (fileBytes > 0 && fileBytes + bytes > maxFileBytes) || clock.getAsLong() - fileOpenedAtMs >= maxFileAgeMs)
+                rotate();
+            var remaining = bytes;
+            while (remaining > 0) remaining -= channel.write(buffers);
+            if (fsync) channel.force(false);
+            fileBytes += bytes;
+            return true;
+        } catch (IOException e) {
+            LOG.warn(String.format("Unable to write %d bytes to '%s': %s", bytes, directory, e.getMessage()));
+            // start afresh next time, rather than appending after whatever part of this made it
+            closeFile();
+            return false;
+        }
+    }
+
+    private void rotate() throws IOException {
+        closeFile();
+        Files.createDirectories(directory);
+        var now = clock.getAsLong();
+        var file = directory.resolve(String.format("%s-%s-%04d%s", prefix, FILE_TIMESTAMP.format(Instant.ofEpochMilli(now)), fileSequence++ % 10000, FILE_EXTENSION));
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        fileBytes = channel.size();
+        fileOpenedAtMs = now;
+        deleteOldFiles();
+    }
+
+    private void deleteOldFiles() {
+        var files = directory.toFile().listFiles((dir, name) -> name.startsWith(prefix + "-") && name.endsWith(FILE_EXTENSION));
+        if (files == null || files.length <= maxFiles) return;
+        // the names sort by when they were started
+        Arrays.sort(files);
+        for (int i = 0; i < files.length - maxFiles; i++) {
+            if (!files[i].delete())
+                LOG.warn(String.format("Unable to delete old file '%s'", files[i]));
+        }
+    }
+
+    private void closeFile() {
+        if (channel == null) return;
+        try {
+            channel.close();
+        } catch (IOException e) {
+            LOG.warn(String.format("Unable to close the current file in '%s': %s", directory, e.getMessage()));
+        }
+        channel = null;
+        fileBytes = 0;
+    }
+}
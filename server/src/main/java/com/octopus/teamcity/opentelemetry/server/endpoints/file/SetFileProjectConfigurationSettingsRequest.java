@@ -0,0 +1,30 @@
+package com.octopus.teamcity.opentelemetry.server.endpoints.file;
+
+import com.octopus.teamcity.opentelemetry.server.HeaderDto;
+import com.octopus.teamcity.opentelemetry.server.SetProjectConfigurationSettingsRequest;
+import jetbrains.buildServer.controllers.ActionErrors;
+
+import javax.servlet.http.HttpServletRequest;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+public class SetFileProjectConfigurationSettingsRequest extends SetProjectConfigurationSettingsRequest {
+    public SetFileProjectConfigurationSettingsRequest(HttpServletRequest request) {
+        super(request);
+    }
+
+    // the endpoint is the name of the directory to write to, under the plugin's data directory
+    @Override
+    protected void validateEndpoint(ActionErrors errors, String endpoint) {
+        if (!OtlpJsonLinesFiles.isValidDirectoryName(endpoint.trim()))
+            errors.addError("endpoint", "Endpoint must be a directory name, made up of letters, digits, '.', '_' and '-'!");
+    }
+
+    @Override
+    protected void serviceSpecificValidate(ActionErrors errors) {
+    }
+
+    @Override
+    protected void mapServiceSpecificParams(HashMap<String, String> params, ArrayList<HeaderDto> headers) {
+    }
+}
@@ -3,6 +3,9 @@ package com.octopus.teamcity.opentelemetry.server.endpoints.honeycomb;
 import com.octopus.teamcity.opentelemetry.common.PluginConstants;
 import com.octopus.teamcity.opentelemetry.server.*;
 import com.octopus.teamcity.opentelemetry.server.endpoints.IOTELEndpointHandler;
+import com.octopus.teamcity.opentelemetry.server.endpoints.OTELService;
+import com.octopus.teamcity.opentelemetry.server.helpers.ExporterCircuitBreakers;
+import com.octopus.teamcity.opentelemetry.server.helpers.MaskingSpanExporter;
 import com.octopus.teamcity.opentelemetry.server.helpers.OTELMetrics;
 import io.opentelemetry.api.common.AttributeKey;
 import io.opentelemetry.api.common.Attributes;
@@ -13,7 +16,7 @@ import io.opentelemetry.sdk.metrics.export.MetricExporter;
 import io.opentelemetry.sdk.resources.Resource;
 import io.opentelemetry.sdk.trace.SpanProcessor;
 import io.opentelemetry.sdk.trace.export.BatchSpanProcessor;
-import jetbrains.buildServer.serverSide.BuildPromotion;
+import io.opentelemetry.sdk.trace.export.SpanExporter;
 import io.opentelemetry.semconv.ServiceAttributes;
 import jetbrains.buildServer.serverSide.BuildPromotion;
 import jetbrains.buildServer.serverSide.SBuild;
@@ -28,21 +31,37 @@ import org.jetbrains.annotations.Nullable;
 import org.springframework.web.servlet.ModelAndView;
 
 import javax.servlet.http.HttpServletRequest;
-import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.function.UnaryOperator;
 
 import static com.octopus.teamcity.opentelemetry.common.PluginConstants.*;
 
 public class HoneycombOTELEndpointHandler implements IOTELEndpointHandler {
+    //we pad the time to ensure that we get all the spans, just in case we get a slight diff in the
+    //timestamps between the traces and the server start time.
+    //this will also help us see the whole chain better
+    private static final long TWO_HOURS_IN_SECONDS = 7200;
 
     private final PluginDescriptor pluginDescriptor;
     private final TeamCityNodes nodesService;
+    private final ExporterCircuitBreakers circuitBreakers;
     static Logger LOG = Logger.getLogger(HoneycombOTELEndpointHandler.class.getName());
 
-    public HoneycombOTELEndpointHandler(PluginDescriptor pluginDescriptor, TeamCityNodes nodesService) {
+    public HoneycombOTELEndpointHandler(PluginDescriptor pluginDescriptor, TeamCityNodes nodesService, ExporterCircuitBreakers circuitBreakers) {
         this.pluginDescriptor = pluginDescriptor;
         this.nodesService = nodesService;
+        this.circuitBreakers = circuitBreakers;
+    }
+
+    @Override
+    public String getServiceName() {
+        return OTELService.HONEYCOMB.getValue();
+    }
+
+    @Override
+    public String getDisplayName() {
+        return OTELService.HONEYCOMB.getDisplayName();
     }
 
     @NotNull
@@ -53,32 +72,45 @@ public class HoneycombOTELEndpointHandler implements IOTELEndpointHandler {
         model.put("team", params.get(PROPERTY_KEY_HONEYCOMB_TEAM));
         model.put("dataset", params.get(PROPERTY_KEY_HONEYCOMB_DATASET));
         model.put("traceId", traceId);
+        model.put("buildStart", getTraceStart(build));
+        model.put("buildEnd", getTraceEnd(build));
+        return mv;
+    }
 
-        //we pad the time to ensure that we get all the spans, just in case we get a slight diff in the
-        //timestamps between the traces and the server start time.
-        //this will also help us see the whole chain better
-        long twoHoursInSeconds = 7200;
-        Date startDate = build.getServerStartDate();
-        model.put("buildStart", (startDate.getTime() / 1000L) - twoHoursInSeconds);
+    @Override
+    public String getTraceUrl(SBuild build, Map<String, String> params, String traceId) {
+        return String.format("https://ui.honeycomb.io/%s/datasets/%s/trace?trace_id=%s&trace_start_ts=%d&trace_end_ts=%d",
+                params.get(PROPERTY_KEY_HONEYCOMB_TEAM),
+                params.get(PROPERTY_KEY_HONEYCOMB_DATASET),
+                traceId,
+                getTraceStart(build),
+                getTraceEnd(build));
+    }
+
+    private static long getTraceStart(SBuild build) {
+        return (build.getServerStartDate().getTime() / 1000L) - TWO_HOURS_IN_SECONDS;
+    }
+
+    private static long getTraceEnd(SBuild build) {
         var finishDate = build.getFinishDate();
-        model.put("buildEnd", ((finishDate == null ? startDate : finishDate).getTime() / 1000L) + twoHoursInSeconds);
-        return mv;
+        return ((finishDate == null ? build.getServerStartDate() : finishDate).getTime() / 1000L) + TWO_HOURS_IN_SECONDS;
     }
 
     @Override
-    public Pair<SpanProcessor, SdkMeterProvider> buildSpanProcessorAndMeterProvider(BuildPromotion buildPromotion, String endpoint, Map<String, String> params) {
-        Map<String, String> headers = new HashMap<>();
-        //todo: add a setting to say "use classic" or "use environments"
-        headers.put("x-honeycomb-dataset", params.get(PROPERTY_KEY_HONEYCOMB_DATASET));
-        headers.put("x-honeycomb-team", EncryptUtil.unscramble(params.get(PROPERTY_KEY_HONEYCOMB_APIKEY)));
+    public SpanExporter buildSpanExporter(String endpoint, Map<String, String> params) {
+        return buildSpanExporter(endpoint, params, null);
+    }
 
-        var metricsExporter = buildMetricsExporter(endpoint, params);
+    @Override
+    public Pair<SpanProcessor, SdkMeterProvider> buildSpanProcessorAndMeterProvider(BuildPromotion buildPromotion, String endpoint, Map<String, String> params, UnaryOperator<SpanExporter> wrapExporter) {
+        var metricsExporter = buildMetricExporter(endpoint, params);
 
-        return buildGrpcSpanProcessor(buildPromotion, headers, endpoint, metricsExporter);
+        return buildGrpcSpanProcessor(buildPromotion, endpoint, metricsExporter, params, wrapExporter);
     }
 
+    @Override
     @Nullable
-    private MetricExporter buildMetricsExporter(String endpoint, Map<String, String> params) {
+    public MetricExporter buildMetricExporter(String endpoint, Map<String, String> params) {
         if (params.getOrDefault(PROPERTY_KEY_HONEYCOMB_METRICS_ENABLED, "false").equals("true")) {
             return OtlpGrpcMetricExporter.builder()
                     .setEndpoint(endpoint)
@@ -90,29 +122,22 @@ public class HoneycombOTELEndpointHandler implements IOTELEndpointHandler {
     }
 
     private Pair<SpanProcessor, SdkMeterProvider> buildGrpcSpanProcessor(
-            BuildPromotion buildPromotion,
-            Map<String, String> headers,
+            @Nullable BuildPromotion buildPromotion,
             String exporterEndpoint,
-            @Nullable MetricExporter metricsExporter) {
+            @Nullable MetricExporter metricsExporter,
+            Map<String, String> params,
+            UnaryOperator<SpanExporter> wrapExporter) {
 
         //todo: centralise the definition of this
-        var serviceNameResource = Resource
-                .create(Attributes.of(
-                        ServiceAttributes.SERVICE_NAME, PluginConstants.SERVICE_NAME,
-                        AttributeKey.stringKey("teamcity.build_promotion.id"), Long.toString(buildPromotion.getId()),
-                        AttributeKey.stringKey("teamcity.node.id"), nodesService.getCurrentNode().getId()
-                ));
+        var resourceAttributes = Attributes.builder()
+                .put(ServiceAttributes.SERVICE_NAME, PluginConstants.SERVICE_NAME)
+                .put(AttributeKey.stringKey("teamcity.node.id"), nodesService.getCurrentNode().getId());
+        if (buildPromotion != null) // null when we're not exporting on behalf of a single build (eg, backfilling)
+            resourceAttributes.put(AttributeKey.stringKey("teamcity.build_promotion.id"), Long.toString(buildPromotion.getId()));
+        var serviceNameResource = Resource.create(resourceAttributes.build());
         var meterProvider = OTELMetrics.getOTELMeterProvider(metricsExporter, serviceNameResource);
 
-        var spanExporterBuilder = OtlpGrpcSpanExporter.builder();
-        spanExporterBuilder.setEndpoint(exporterEndpoint);
-        headers.forEach(spanExporterBuilder::addHeader);
-        if (meterProvider != null) {
-            spanExporterBuilder.setMeterProvider(meterProvider);
-        }
-        var spanExporter = spanExporterBuilder.build();
-
-        var batchSpanProcessorBuilder = BatchSpanProcessor.builder(spanExporter);
+        var batchSpanProcessorBuilder = BatchSpanProcessor.builder(wrapExporter.apply(buildSpanExporter(exporterEndpoint, params, meterProvider)));
         batchSpanProcessorBuilder.setMaxQueueSize(BATCH_SPAN_PROCESSOR_MAX_QUEUE_SIZE);
         batchSpanProcessorBuilder.setScheduleDelay(BATCH_SPAN_PROCESSOR_MAX_SCHEDULE_DELAY);
         batchSpanProcessorBuilder.setMaxExportBatchSize(BATCH_SPAN_PROCESSOR_MAX_EXPORT_BATCH_SIZE);
@@ -122,6 +147,21 @@ public class HoneycombOTELEndpointHandler implements IOTELEndpointHandler {
         return Pair.of(batchSpanProcessorBuilder.build(), meterProvider);
     }
 
+    private SpanExporter buildSpanExporter(String exporterEndpoint, Map<String, String> params, @Nullable SdkMeterProvider meterProvider) {
+        Map<String, String> headers = new HashMap<>();
+        //todo: add a setting to say "use classic" or "use environments"
+        headers.put("x-honeycomb-dataset", params.get(PROPERTY_KEY_HONEYCOMB_DATASET));
+        headers.put("x-honeycomb-team", EncryptUtil.unscramble(params.get(PROPERTY_KEY_HONEYCOMB_APIKEY)));
+
+        var spanExporterBuilder = OtlpGrpcSpanExporter.builder();
+        spanExporterBuilder.setEndpoint(exporterEndpoint);
+        headers.forEach(spanExporterBuilder::addHeader);
+        if (meterProvider != null) {
+            spanExporterBuilder.setMeterProvider(meterProvider);
+        }
+        return circuitBreakers.wrap(new MaskingSpanExporter(spanExporterBuilder.build()), params);
+    }
+
     @Override
     public SetProjectConfigurationSettingsRequest getSetProjectConfigurationSettingsRequest(HttpServletRequest request) {
         return new SetHoneycombProjectConfigurationSettingsRequest(request);
@@ -2,28 +2,48 @@ package com.octopus.teamcity.opentelemetry.server.endpoints.zipkin;
 
 import com.octopus.teamcity.opentelemetry.server.SetProjectConfigurationSettingsRequest;
 import com.octopus.teamcity.opentelemetry.server.endpoints.IOTELEndpointHandler;
+import com.octopus.teamcity.opentelemetry.server.endpoints.OTELService;
+import com.octopus.teamcity.opentelemetry.server.helpers.ExporterCircuitBreakers;
+import com.octopus.teamcity.opentelemetry.server.helpers.MaskingSpanExporter;
 import io.opentelemetry.exporter.zipkin.ZipkinSpanExporter;
 import io.opentelemetry.sdk.metrics.SdkMeterProvider;
+import io.opentelemetry.sdk.metrics.export.MetricExporter;
 import io.opentelemetry.sdk.trace.SpanProcessor;
 import io.opentelemetry.sdk.trace.export.BatchSpanProcessor;
+import io.opentelemetry.sdk.trace.export.SpanExporter;
 import jetbrains.buildServer.serverSide.BuildPromotion;
 import jetbrains.buildServer.serverSide.SBuild;
 import jetbrains.buildServer.web.openapi.PluginDescriptor;
 import org.apache.commons.lang3.tuple.Pair;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.springframework.web.servlet.ModelAndView;
 
 import javax.servlet.http.HttpServletRequest;
 import java.util.Map;
+import java.util.function.UnaryOperator;
 
 import static com.octopus.teamcity.opentelemetry.common.PluginConstants.*;
 
 public class ZipkinOTELEndpointHandler implements IOTELEndpointHandler {
     private final PluginDescriptor pluginDescriptor;
+    private final ExporterCircuitBreakers circuitBreakers;
 
     public ZipkinOTELEndpointHandler(
-            PluginDescriptor pluginDescriptor) {
+            PluginDescriptor pluginDescriptor,
+            ExporterCircuitBreakers circuitBreakers) {
         this.pluginDescriptor = pluginDescriptor;
+        this.circuitBreakers = circuitBreakers;
+    }
+
+    @Override
+    public String getServiceName() {
+        return OTELService.ZIPKIN.getValue();
+    }
+
+    @Override
+    public String getDisplayName() {
+        return OTELService.ZIPKIN.getDisplayName();
     }
 
     @NotNull
@@ -37,21 +57,33 @@ public class ZipkinOTELEndpointHandler implements IOTELEndpointHandler {
     }
 
     @Override
-    public Pair<SpanProcessor, SdkMeterProvider> buildSpanProcessorAndMeterProvider(BuildPromotion buildPromotion, String endpoint, Map<String, String> params) {
-        return Pair.of(buildZipkinSpanProcessor(endpoint), null);
+    public String getTraceUrl(SBuild build, Map<String, String> params, String traceId) {
+        return String.format("%s/zipkin/traces/%s", params.get(PROPERTY_KEY_ENDPOINT).replaceAll("/$", ""), traceId);
     }
 
-    private SpanProcessor buildZipkinSpanProcessor(String exporterEndpoint) {
+    @Override
+    public SpanExporter buildSpanExporter(String exporterEndpoint, Map<String, String> params) {
         String endpoint = String.format("%s/api/v2/spans", exporterEndpoint);
         ZipkinSpanExporter zipkinExporter = ZipkinSpanExporter.builder()
                 .setEndpoint(endpoint)
                 .build();
+        return circuitBreakers.wrap(new MaskingSpanExporter(zipkinExporter), params);
+    }
 
-        return BatchSpanProcessor.builder(zipkinExporter)
+    @Override
+    public Pair<SpanProcessor, SdkMeterProvider> buildSpanProcessorAndMeterProvider(BuildPromotion buildPromotion, String endpoint, Map<String, String> params, UnaryOperator<SpanExporter> wrapExporter) {
+        return Pair.of(BatchSpanProcessor.builder(wrapExporter.apply(buildSpanExporter(endpoint, params)))
                 .setMaxQueueSize(BATCH_SPAN_PROCESSOR_MAX_QUEUE_SIZE)
                 .setScheduleDelay(BATCH_SPAN_PROCESSOR_MAX_SCHEDULE_DELAY)
                 .setMaxExportBatchSize(BATCH_SPAN_PROCESSOR_MAX_EXPORT_BATCH_SIZE)
-                .build();
+                .build(), null);
+    }
+
+    @Override
+    @Nullable
+    public MetricExporter buildMetricExporter(String endpoint, Map<String, String> params) {
+        //zipkin only understands traces
+        return null;
     }
 
     @Override
@@ -0,0 +1,47 @@
+package com.octopus.teamcity.opentelemetry.server.helpers;
+
+import io.opentelemetry.sdk.common.CompletableResultCode;
+import io.opentelemetry.sdk.trace.data.SpanData;
+import io.opentelemetry.sdk.trace.export.SpanExporter;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Collection;
+
+// Reports how each export went to the destination's circuit breaker, and while it's open, fails exports straight
+// away rather than waiting on a destination that's down (which would back up the batch processor's queue).
+public class CircuitBreakingSpanExporter implements SpanExporter {
+    private final SpanExporter delegate;
+    private final ExporterCircuitBreaker circuitBreaker;
+
+    public CircuitBreakingSpanExporter(@NotNull SpanExporter delegate, @NotNull ExporterCircuitBreaker circuitBreaker) {
+        this.delegate = delegate;
+        this.circuitBreaker = circuitBreaker;
+    }
+
+    @Override
+    public CompletableResultCode export(@NotNull Collection<SpanData> spans) {
+        if (!circuitBreaker.tryAcquire()) {
+            circuitBreaker.onExportDropped(spans.size());
+            return CompletableResultCode.ofFailure();
+        }
+        CompletableResultCode result;
+        try {
+            result = delegate.export(spans);
+        } catch (RuntimeException e) {
+            circuitBreaker.onExportResult(false, e);
+            throw e;
+        }
+        result.whenComplete(() -> circuitBreaker.onExportResult(result.isSuccess(), result.getFailureThrowable()));
+        return result;
+    }
+
+    @Override
+    public CompletableResultCode flush() {
+        return delegate.flush();
+    }
+
+    @Override
+    public CompletableResultCode shutdown() {
+        return delegate.shutdown();
+    }
+}
@@ -0,0 +1,124 @@
+package com.octopus.teamcity.opentelemetry.server.helpers;
+
+import org.apache.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.function.LongSupplier;
+
+// The health of one destination, worked out from how its exports go. After enough failures in a row it opens: exports
+// are dropped without being attempted, and the build listener stops building the step and test spans nobody would
+// receive. Once the cool-down has passed, the next export goes through as a probe (half open) - if it succeeds the
+// breaker closes, otherwise it opens again for twice as long, up to the maximum cool-down.
+public class ExporterCircuitBreaker {
+    static Logger LOG = Logger.getLogger(ExporterCircuitBreaker.class.getName());
+
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private final String description;
+    private final int failureThreshold;
+    private final long coolDownMs;
+    private final long maxCoolDownMs;
+    private final LongSupplier clock;
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long currentCoolDownMs;
+    private long openedAtMs;
+    private long stateChangedAtMs;
+    private long droppedSpanCount;
+    @Nullable
+    private String lastError;
+
+    public ExporterCircuitBreaker(@NotNull String description, int failureThreshold, long coolDownMs, long maxCoolDownMs, @NotNull LongSupplier clock) {
+        this.description = description;
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.coolDownMs = Math.max(1, coolDownMs);
+        this.maxCoolDownMs = Math.max(this.coolDownMs, maxCoolDownMs);
+        this.clock = clock;
+        this.currentCoolDownMs = this.coolDownMs;
+        this.stateChangedAtMs = clock.getAsLong();
+    }
+
+    // Whether an export should be attempted. Every caller that gets true must report back with onExportResult.
+    public synchronized boolean tryAcquire() {
+        switch (state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                var now = clock.getAsLong();
+                if (now - openedAtMs < currentCoolDownMs) return false;
+                changeState(State.HALF_OPEN, now);
+                return true;
+            default:
+                // the probe is still in flight
+                return false;
+        }
+    }
+
+    public synchronized void onExportResult(boolean success, @Nullable Throwable error) {
+        var now = clock.getAsLong();
+        if (success) {
+            consecutiveFailures = 0;
+            currentCoolDownMs = coolDownMs;
+            if (state != State.CLOSED) changeState(State.CLOSED, now);
+            return;
+        }
+        consecutiveFailures++;
+        lastError = error == null ? "Export failed" : error.getMessage();
+        if (state == State.HALF_OPEN) {
+            currentCoolDownMs = Math.min(maxCoolDownMs, currentCoolDownMs * 2);
+            openedAtMs = now;
+            changeState(State.OPEN, now);
+        } else if (state == State.CLOSED && consecutiveFailures >= failureThreshold) {
+            openedAtMs = now;
+            changeState(State.OPEN, now);
+        }
+    }
+
+    public synchronized void onExportDropped(int spanCount) {
+        droppedSpanCount += spanCount;
+    }
+
+    private void changeState(State newState, long now) {
+        if (newState == State.OPEN)
+            LOG.warn(String.format("Exports to %s are failing (%d in a row, last: %s); dropping spans for %d seconds.",
+                    description, consecutiveFailures, lastError, currentCoolDownMs / 1000));
+        else if (newState == State.CLOSED)
+            LOG.info(String.format("Exports to %s are working again.", description));
+        state = newState;
+        stateChangedAtMs = now;
+    }
+
+    // While not closed, spans that are expensive to build and likely to be dropped anyway shouldn't be built.
+    public synchronized boolean isShedding() {
+        return state != State.CLOSED;
+    }
+
+    @NotNull
+    public String getDescription() {
+        return description;
+    }
+
+    @NotNull
+    public synchronized State getState() {
+        return state;
+    }
+
+    public synchronized long getStateChangedAtMs() {
+        return stateChangedAtMs;
+    }
+
+    public synchronized int getConsecutiveFailures() {
+        return consecutiveFailures;
+    }
+
+    public synchronized long getDroppedSpanCount() {
+        return droppedSpanCount;
+    }
+
+    @Nullable
+    public synchronized String getLastError() {
+        return lastError;
+    }
+}
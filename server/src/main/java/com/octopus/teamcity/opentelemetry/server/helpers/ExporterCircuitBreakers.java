@@ -0,0 +1,63 @@
+package com.octopus.teamcity.opentelemetry.server.helpers;
+
+import io.opentelemetry.sdk.trace.export.SpanExporter;
+import jetbrains.buildServer.serverSide.TeamCityProperties;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.octopus.teamcity.opentelemetry.common.PluginConstants.*;
+
+// One circuit breaker per destination, shared by the helpers of every build (and backfill) sending there. A
+// destination is the service and endpoint, plus the credentials - one project's revoked api key shouldn't stop the
+// detailed spans of every other project using the same service.
+public class ExporterCircuitBreakers {
+    public static final String PROPERTY_ENABLED = "teamcity.opentelemetry.circuitBreaker.enabled";
+    public static final String PROPERTY_FAILURE_THRESHOLD = "teamcity.opentelemetry.circuitBreaker.failureThreshold";
+    public static final String PROPERTY_COOL_DOWN_SECONDS = "teamcity.opentelemetry.circuitBreaker.coolDownSeconds";
+    public static final String PROPERTY_MAX_COOL_DOWN_SECONDS = "teamcity.opentelemetry.circuitBreaker.maxCoolDownSeconds";
+    private static final int DEFAULT_FAILURE_THRESHOLD = 3;
+    private static final int DEFAULT_COOL_DOWN_SECONDS = 30;
+    private static final int DEFAULT_MAX_COOL_DOWN_SECONDS = 600;
+
+    private final ConcurrentHashMap<String, ExporterCircuitBreaker> breakers = new ConcurrentHashMap<>();
+
+    // The destination's breaker, or null if circuit breaking is turned off.
+    @Nullable
+    public ExporterCircuitBreaker forDestination(@NotNull Map<String, String> params) {
+        if (!TeamCityProperties.getBooleanOrTrue(PROPERTY_ENABLED)) return null;
+        return breakers.computeIfAbsent(destinationOf(params), key -> new ExporterCircuitBreaker(
+                describe(params),
+                TeamCityProperties.getInteger(PROPERTY_FAILURE_THRESHOLD, DEFAULT_FAILURE_THRESHOLD),
+                TeamCityProperties.getInteger(PROPERTY_COOL_DOWN_SECONDS, DEFAULT_COOL_DOWN_SECONDS) * 1000L,
+                TeamCityProperties.getInteger(PROPERTY_MAX_COOL_DOWN_SECONDS, DEFAULT_MAX_COOL_DOWN_SECONDS) * 1000L,
+                System::currentTimeMillis));
+    }
+
+    // The destination's breaker if anything has been exported there yet, without creating one.
+    @Nullable
+    public ExporterCircuitBreaker find(@NotNull Map<String, String> params) {
+        return breakers.get(destinationOf(params));
+    }
+
+    @NotNull
+    public SpanExporter wrap(@NotNull SpanExporter spanExporter, @NotNull Map<String, String> params) {
+        var breaker = forDestination(params);
+        return breaker == null ? spanExporter : new CircuitBreakingSpanExporter(spanExporter, breaker);
+    }
+
+    private static String destinationOf(Map<String, String> params) {
+        var credentials = new TreeMap<String, String>();
+        params.forEach((k, v) -> {
+            if (k.startsWith(PROPERTY_KEY_HEADERS) || k.equals(PROPERTY_KEY_HONEYCOMB_APIKEY)) credentials.put(k, v);
+        });
+        return describe(params) + " " + Integer.toHexString(credentials.hashCode());
+    }
+
+    private static String describe(Map<String, String> params) {
+        return params.get(PROPERTY_KEY_SERVICE) + " " + params.get(PROPERTY_KEY_ENDPOINT);
+    }
+}
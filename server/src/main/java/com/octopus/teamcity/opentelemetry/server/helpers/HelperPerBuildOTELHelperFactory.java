@@ -1,30 +1,48 @@
 package com.octopus.teamcity.opentelemetry.server.helpers;
 
 import com.octopus.teamcity.opentelemetry.server.endpoints.OTELEndpointFactory;
+import com.octopus.teamcity.opentelemetry.server.metrics.PluginMetrics;
+import io.opentelemetry.sdk.common.CompletableResultCode;
 import io.opentelemetry.sdk.metrics.SdkMeterProvider;
 import io.opentelemetry.sdk.trace.SpanProcessor;
 import jetbrains.buildServer.serverSide.BuildPromotion;
 import jetbrains.buildServer.serverSide.ProjectManager;
+import jetbrains.buildServer.serverSide.TeamCityProperties;
 import org.apache.log4j.Logger;
 import org.jetbrains.annotations.NotNull;
 
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 import static com.octopus.teamcity.opentelemetry.common.PluginConstants.*;
 
 public class HelperPerBuildOTELHelperFactory implements OTELHelperFactory {
     static Logger LOG = Logger.getLogger(HelperPerBuildOTELHelperFactory.class.getName());
+    public static final String PROPERTY_SHUTDOWN_TIMEOUT_SECONDS = "teamcity.opentelemetry.shutdown.timeoutSeconds";
+    private static final int DEFAULT_SHUTDOWN_TIMEOUT_SECONDS = 10;
     private final ConcurrentHashMap<Long, OTELHelper> otelHelpers;
+    private final ConcurrentHashMap<Long, ShutdownRecorder> shutdownRecorders = new ConcurrentHashMap<>();
     private final ProjectManager projectManager;
     @NotNull
     private final OTELEndpointFactory otelEndpointFactory;
+    private final TraceBudgetSpanProcessor.Counters budgetCounters;
+    private final UnsentSpanStore unsentSpanStore;
+    private final ExporterCircuitBreakers circuitBreakers;
 
     public HelperPerBuildOTELHelperFactory(
         ProjectManager projectManager,
-        @NotNull OTELEndpointFactory otelEndpointFactory
+        @NotNull OTELEndpointFactory otelEndpointFactory,
+        @NotNull PluginMetrics pluginMetrics,
+        @NotNull UnsentSpanStore unsentSpanStore,
+        @NotNull ExporterCircuitBreakers circuitBreakers
     ) {
         this.projectManager = projectManager;
         this.otelEndpointFactory = otelEndpointFactory;
+        this.budgetCounters = new TraceBudgetSpanProcessor.Counters(pluginMetrics);
+        this.unsentSpanStore = unsentSpanStore;
+        this.circuitBreakers = circuitBreakers;
         LOG.debug("Creating HelperPerBuildOTELHelperFactory.");
 
         this.otelHelpers = new ConcurrentHashMap<>();
@@ -46,12 +64,15 @@ public class HelperPerBuildOTELHelperFactory implements OTELHelperFactory {
                     var endpoint = params.get(PROPERTY_KEY_ENDPOINT);
 
                     var otelHandler = otelEndpointFactory.getOTELEndpointHandler(params.get(PROPERTY_KEY_SERVICE));
-                    var spanProcessorMeterProviderPair = otelHandler.buildSpanProcessorAndMeterProvider(buildPromotion, endpoint, params);
+                    var shutdownRecorder = new ShutdownRecorder(projectId);
+                    var spanProcessorMeterProviderPair = otelHandler.buildSpanProcessorAndMeterProvider(buildPromotion, endpoint, params, shutdownRecorder::wrapExporter);
 
                     long startTime = System.nanoTime();
-                    var spanProcessor = spanProcessorMeterProviderPair.getLeft();
+                    var limits = SpanLimitSettings.fromParams(params);
+                    shutdownRecorders.put(buildId, shutdownRecorder);
+                    var spanProcessor = new TraceBudgetSpanProcessor(shutdownRecorder.wrapProcessor(spanProcessorMeterProviderPair.getLeft()), limits, budgetCounters, projectId);
                     var meterProvider = spanProcessorMeterProviderPair.getRight();
-                    var otelHelper = new OTELHelperImpl(spanProcessor, meterProvider, String.valueOf(buildId));
+                    var otelHelper = new OTELHelperImpl(spanProcessor, meterProvider, String.valueOf(buildId), limits.toSpanLimits(), circuitBreakers.forDestination(params));
                     long endTime = System.nanoTime();
 
                     long duration = (endTime - startTime);
@@ -72,5 +93,44 @@ public class HelperPerBuildOTELHelperFactory implements OTELHelperFactory {
             helper.release(String.valueOf(buildId));
             otelHelpers.remove(buildId);
         }
+        shutdownRecorders.remove(buildId);
+    }
+
+    // Releasing helpers one at a time can take seconds each, so on the way down they're all shut down together,
+    // with one deadline. From here on each build's recorder keeps the spans that haven't got out - those ended from
+    // now, and those still queued or being exported - and whatever an export didn't succeed for (or didn't finish in
+    // time) is saved, to be sent after the restart.
+    @Override
+    public void shutdown(String reason, Runnable endHeldSpans) {
+        var startTime = System.nanoTime();
+        shutdownRecorders.values().forEach(ShutdownRecorder::startRecording);
+        try {
+            endHeldSpans.run();
+        } catch (Exception e) {
+            LOG.warn("Unable to end the spans held open for build chains: " + e.getMessage());
+        }
+
+        var results = new HashMap<Long, CompletableResultCode>();
+        otelHelpers.forEach((buildId, helper) -> {
+            try {
+                helper.endOpenSpans(reason);
+                results.put(buildId, helper.shutdown());
+            } catch (Exception e) {
+                LOG.warn(String.format("Unable to shut down the OTELHelper for build %d: %s", buildId, e.getMessage()));
+            }
+        });
+        var timeoutSeconds = Math.max(1, TeamCityProperties.getInteger(PROPERTY_SHUTDOWN_TIMEOUT_SECONDS, DEFAULT_SHUTDOWN_TIMEOUT_SECONDS));
+        CompletableResultCode.ofAll(new ArrayList<>(results.values())).join(timeoutSeconds, TimeUnit.SECONDS);
+
+        var unsent = 0;
+        for (var recorder : shutdownRecorders.values()) {
+            if (recorder.isAllSent()) continue;
+            unsent++;
+            unsentSpanStore.save(recorder.getProjectExternalId(), recorder.getUnsent());
+        }
+        otelHelpers.clear();
+        shutdownRecorders.clear();
+        LOG.info(String.format("Shut down %d OTELHelpers in %d milliseconds; %d didn't get all their spans out.",
+                results.size(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime), unsent));
     }
 }
@@ -0,0 +1,17 @@
+package com.octopus.teamcity.opentelemetry.server.helpers;
+
+// The plugin's JSON responses are small and flat, so we write them by hand rather than pulling in a serializer.
+public final class JsonStrings {
+    private JsonStrings() {
+    }
+
+    public static String quote(String value) {
+        var result = new StringBuilder(value.length() + 2).append('"');
+        for (char c : value.toCharArray()) {
+            if (c == '"' || c == '\\') result.append('\\').append(c);
+            else if (c < 0x20) result.append(String.format("\\u%04x", (int) c));
+            else result.append(c);
+        }
+        return result.append('"').toString();
+    }
+}
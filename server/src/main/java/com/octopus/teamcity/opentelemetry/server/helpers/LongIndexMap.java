@@ -0,0 +1,81 @@
+package com.octopus.teamcity.opentelemetry.server.helpers;
+
+import java.util.Arrays;
+
+// Open addressing map from a long key to a dense int index (0, 1, 2, ...), so callers can keep their values in
+// parallel primitive arrays instead of boxing them into a HashMap. Not thread safe, and entries are never removed.
+public class LongIndexMap {
+    private static final int NO_INDEX = -1;
+    private long[] keys;
+    private int[] indexes;
+    private int mask;
+    private int size;
+
+    public LongIndexMap(int expectedSize) {
+        var capacity = Integer.highestOneBit(Math.max(16, expectedSize * 2 - 1)) << 1;
+        allocate(capacity);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // The index of the key, or -1 if it isn't in the map.
+    public int get(long key) {
+        var slot = slot(key);
+        while (indexes[slot] != NO_INDEX) {
+            if (keys[slot] == key) return indexes[slot];
+            slot = (slot + 1) & mask;
+        }
+        return NO_INDEX;
+    }
+
+    // The index of the key, adding it (with the next free index) if it isn't in the map yet.
+    public int getOrAdd(long key) {
+        var slot = slot(key);
+        while (indexes[slot] != NO_INDEX) {
+            if (keys[slot] == key) return indexes[slot];
+            slot = (slot + 1) & mask;
+        }
+        var index = size++;
+        keys[slot] = key;
+        indexes[slot] = index;
+        if (size * 2 > keys.length) grow();
+        return index;
+    }
+
+    private void grow() {
+        var oldKeys = keys;
+        var oldIndexes = indexes;
+        allocate(keys.length * 2);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldIndexes[i] == NO_INDEX) continue;
+            var slot = slot(oldKeys[i]);
+            while (indexes[slot] != NO_INDEX) slot = (slot + 1) & mask;
+            keys[slot] = oldKeys[i];
+            indexes[slot] = oldIndexes[i];
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        indexes = new int[capacity];
+        Arrays.fill(indexes, NO_INDEX);
+        mask = capacity - 1;
+    }
+
+    private int slot(long key) {
+        return (int) mix(key) & mask;
+    }
+
+    // murmur3 finalizer, so sequential ids don't cluster
+    public static long mix(long key) {
+        var h = key;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,153 @@
+package com.octopus.teamcity.opentelemetry.server.helpers;
+
+import com.octopus.teamcity.opentelemetry.server.LogMasker;
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.common.AttributeType;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.common.AttributesBuilder;
+import io.opentelemetry.sdk.common.CompletableResultCode;
+import io.opentelemetry.sdk.trace.data.DelegatingSpanData;
+import io.opentelemetry.sdk.trace.data.EventData;
+import io.opentelemetry.sdk.trace.data.LinkData;
+import io.opentelemetry.sdk.trace.data.SpanData;
+import io.opentelemetry.sdk.trace.data.StatusData;
+import io.opentelemetry.sdk.trace.export.SpanExporter;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+// Masks configured secrets in span names, string (and string array) attributes, events, links and status descriptions
+// before they leave the server, as build step names, test names, failure messages and the like can end up containing
+// secrets. Every span is exported through here, including those builds send us over OTLP. Spans with nothing to mask
+// are passed on as they are.
+public class MaskingSpanExporter implements SpanExporter {
+    private final SpanExporter delegate;
+
+    public MaskingSpanExporter(@NotNull SpanExporter delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public CompletableResultCode export(@NotNull Collection<SpanData> spans) {
+        List<SpanData> masked = null;
+        var index = 0;
+        for (SpanData span : spans) {
+            var maskedSpan = mask(span);
+            if (maskedSpan != span) {
+                if (masked == null) masked = new ArrayList<>(spans);
+                masked.set(index, maskedSpan);
+            }
+            index++;
+        }
+        return delegate.export(masked == null ? spans : masked);
+    }
+
+    @Override
+    public CompletableResultCode flush() {
+        return delegate.flush();
+    }
+
+    @Override
+    public CompletableResultCode shutdown() {
+        return delegate.shutdown();
+    }
+
+    private static SpanData mask(SpanData span) {
+        var name = LogMasker.maskSecrets(span.getName());
+        var attributes = mask(span.getAttributes());
+        var events = maskEvents(span.getEvents());
+        var links = maskLinks(span.getLinks());
+        var status = mask(span.getStatus());
+        if (name == span.getName() && attributes == span.getAttributes() && events == span.getEvents()
+                && links == span.getLinks() && status == span.getStatus()) return span;
+        return new DelegatingSpanData(span) {
+            @Override
+            public String getName() {
+                return name;
+            }
+
+            @Override
+            public Attributes getAttributes() {
+                return attributes;
+            }
+
+            @Override
+            public List<EventData> getEvents() {
+                return events;
+            }
+
+            @Override
+            public List<LinkData> getLinks() {
+                return links;
+            }
+
+            @Override
+            public StatusData getStatus() {
+                return status;
+            }
+        };
+    }
+
+    // failed test events carry exception messages and stack traces, which often have a command line in them
+    private static List<EventData> maskEvents(List<EventData> events) {
+        List<EventData> masked = null;
+        for (int i = 0; i < events.size(); i++) {
+            var event = events.get(i);
+            var name = LogMasker.maskSecrets(event.getName());
+            var attributes = mask(event.getAttributes());
+            if (name == event.getName() && attributes == event.getAttributes()) continue;
+            if (masked == null) masked = new ArrayList<>(events);
+            masked.set(i, EventData.create(event.getEpochNanos(), name, attributes, event.getTotalAttributeCount()));
+        }
+        return masked == null ? events : masked;
+    }
+
+    private static List<LinkData> maskLinks(List<LinkData> links) {
+        List<LinkData> masked = null;
+        for (int i = 0; i < links.size(); i++) {
+            var link = links.get(i);
+            var attributes = mask(link.getAttributes());
+            if (attributes == link.getAttributes()) continue;
+            if (masked == null) masked = new ArrayList<>(links);
+            masked.set(i, LinkData.create(link.getSpanContext(), attributes, link.getTotalAttributeCount()));
+        }
+        return masked == null ? links : masked;
+    }
+
+    // the status description is often an exception's message
+    private static StatusData mask(StatusData status) {
+        var description = LogMasker.maskSecrets(status.getDescription());
+        if (description == status.getDescription()) return status;
+        return StatusData.create(status.getStatusCode(), description);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Attributes mask(Attributes attributes) {
+        AttributesBuilder builder = null;
+        for (var entry : attributes.asMap().entrySet()) {
+            var type = entry.getKey().getType();
+            if (type == AttributeType.STRING) {
+                var value = (String) entry.getValue();
+                var maskedValue = LogMasker.maskSecrets(value);
+                if (maskedValue == value) continue;
+                if (builder == null) builder = attributes.toBuilder();
+                builder.put((AttributeKey<String>) entry.getKey(), maskedValue);
+            } else if (type == AttributeType.STRING_ARRAY) {
+                var values = (List<String>) entry.getValue();
+                List<String> maskedValues = null;
+                for (int i = 0; i < values.size(); i++) {
+                    var maskedValue = LogMasker.maskSecrets(values.get(i));
+                    if (maskedValue == values.get(i)) continue;
+                    if (maskedValues == null) maskedValues = new ArrayList<>(values);
+                    maskedValues.set(i, maskedValue);
+                }
+                if (maskedValues == null) continue;
+                if (builder == null) builder = attributes.toBuilder();
+                builder.put((AttributeKey<List<String>>) entry.getKey(), maskedValues);
+            }
+        }
+        return builder == null ? attributes : builder.build();
+    }
+}
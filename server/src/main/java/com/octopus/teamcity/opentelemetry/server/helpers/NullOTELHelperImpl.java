@@ -1,6 +1,9 @@
 package com.octopus.teamcity.opentelemetry.server.helpers;
 
 import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.sdk.common.CompletableResultCode;
+import io.opentelemetry.sdk.trace.ReadableSpan;
+import io.opentelemetry.sdk.trace.SpanLimits;
 
 import javax.annotation.Nullable;
 
@@ -39,7 +42,30 @@ public class NullOTELHelperImpl implements OTELHelper {
     public void addAttributeToSpan(Span span, String attributeName, Object attributeValue) {
     }
 
+    @Override
+    public SpanLimits getSpanLimits() {
+        return SpanLimits.getDefault();
+    }
+
+    @Override
+    public boolean isDestinationHealthy() {
+        return true;
+    }
+
+    @Override
+    public void addEndedSpan(ReadableSpan span) {
+    }
+
     @Override
     public void release(String helperName) {
     }
+
+    @Override
+    public void endOpenSpans(String reason) {
+    }
+
+    @Override
+    public CompletableResultCode shutdown() {
+        return CompletableResultCode.ofSuccess();
+    }
 }
@@ -1,6 +1,9 @@
 package com.octopus.teamcity.opentelemetry.server.helpers;
 
 import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.sdk.common.CompletableResultCode;
+import io.opentelemetry.sdk.trace.ReadableSpan;
+import io.opentelemetry.sdk.trace.SpanLimits;
 
 import javax.annotation.Nullable;
 
@@ -20,5 +23,19 @@ public interface OTELHelper {
 
     void addAttributeToSpan(Span span, String attributeName, Object attributeValue);
 
+    SpanLimits getSpanLimits();
+
+    // False while exports to the destination are failing, so spans that are expensive to build are better skipped.
+    boolean isDestinationHealthy();
+
+    // Sends a span that was recorded somewhere else (eg, by a tool the build ran) along with this helper's spans.
+    void addEndedSpan(ReadableSpan span);
+
     void release(String helperName);
+
+    // Ends the spans still open (of builds still running), marking them as failed for the given reason.
+    void endOpenSpans(String reason);
+
+    // Like release, but without waiting for the spans to be exported, so many helpers can shut down at once.
+    CompletableResultCode shutdown();
 }
@@ -7,4 +7,8 @@ public interface OTELHelperFactory {
     OTELHelper getOTELHelper(BuildPromotion build);
 
     void release(Long buildId);
+
+    // Ends every open span as interrupted for the given reason, and shuts all the helpers down at once. Run
+    // endHeldSpans first, for spans the caller is holding open itself.
+    void shutdown(String reason, Runnable endHeldSpans);
 }
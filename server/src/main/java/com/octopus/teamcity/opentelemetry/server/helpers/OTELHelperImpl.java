@@ -4,19 +4,24 @@ import com.octopus.teamcity.opentelemetry.common.PluginConstants;
 import io.opentelemetry.api.OpenTelemetry;
 import io.opentelemetry.api.common.Attributes;
 import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.api.trace.StatusCode;
 import io.opentelemetry.api.trace.Tracer;
 import io.opentelemetry.api.trace.propagation.W3CTraceContextPropagator;
 import io.opentelemetry.context.Context;
 import io.opentelemetry.context.propagation.ContextPropagators;
+import io.opentelemetry.sdk.common.CompletableResultCode;
 import io.opentelemetry.sdk.OpenTelemetrySdk;
 import io.opentelemetry.sdk.metrics.SdkMeterProvider;
 import io.opentelemetry.sdk.resources.Resource;
+import io.opentelemetry.sdk.trace.ReadableSpan;
 import io.opentelemetry.sdk.trace.SdkTracerProvider;
+import io.opentelemetry.sdk.trace.SpanLimits;
 import io.opentelemetry.sdk.trace.SpanProcessor;
 import io.opentelemetry.semconv.ServiceAttributes;
 import org.apache.log4j.Logger;
 
 import javax.annotation.Nullable;
+import java.util.ArrayList;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 
@@ -27,6 +32,10 @@ public class OTELHelperImpl implements OTELHelper {
     private final ConcurrentHashMap<String, Span> spanMap;
     private final SdkTracerProvider sdkTracerProvider;
     private final String helperName;
+    private final SpanProcessor spanProcessor;
+    private final SpanLimits spanLimits;
+    @Nullable
+    private final ExporterCircuitBreaker circuitBreaker;
     @Nullable
     private final SdkMeterProvider meterProvider;
 
@@ -35,12 +44,36 @@ public class OTELHelperImpl implements OTELHelper {
             @Nullable
             SdkMeterProvider meterProvider,
             String helperName) {
+        this(spanProcessor, meterProvider, helperName, SpanLimits.getDefault());
+    }
+
+    public OTELHelperImpl(
+            SpanProcessor spanProcessor,
+            @Nullable
+            SdkMeterProvider meterProvider,
+            String helperName,
+            SpanLimits spanLimits) {
+        this(spanProcessor, meterProvider, helperName, spanLimits, null);
+    }
+
+    public OTELHelperImpl(
+            SpanProcessor spanProcessor,
+            @Nullable
+            SdkMeterProvider meterProvider,
+            String helperName,
+            SpanLimits spanLimits,
+            @Nullable
+            ExporterCircuitBreaker circuitBreaker) {
         this.helperName = helperName;
+        this.spanProcessor = spanProcessor;
+        this.spanLimits = spanLimits;
+        this.circuitBreaker = circuitBreaker;
         Resource serviceNameResource = Resource
                 .create(Attributes.of(ServiceAttributes.SERVICE_NAME, PluginConstants.SERVICE_NAME));
         this.sdkTracerProvider = SdkTracerProvider.builder()
                 .setResource(Resource.getDefault().merge(serviceNameResource))
                 .addSpanProcessor(spanProcessor)
+                .setSpanLimits(spanLimits)
                 .build();
         this.openTelemetry = OpenTelemetrySdk.builder()
                 .setTracerProvider(sdkTracerProvider)
@@ -94,6 +127,21 @@ public class OTELHelperImpl implements OTELHelper {
         span.setAttribute(attributeName, attributeValue.toString());
     }
 
+    @Override
+    public SpanLimits getSpanLimits() {
+        return spanLimits;
+    }
+
+    @Override
+    public boolean isDestinationHealthy() {
+        return circuitBreaker == null || !circuitBreaker.isShedding();
+    }
+
+    @Override
+    public void addEndedSpan(ReadableSpan span) {
+        if (spanProcessor.isEndRequired()) spanProcessor.onEnd(span);
+    }
+
     @Override
     public void release(String helperName) {
         LOG.info("Cleaning up OTELHelperImpl named '" + helperName + "'; there are still " + this.spanMap.size() + " spans in the map");
@@ -104,4 +152,24 @@ public class OTELHelperImpl implements OTELHelper {
             this.meterProvider.close();
         this.spanMap.clear();
     }
+
+    @Override
+    public void endOpenSpans(String reason) {
+        for (Span span : this.spanMap.values()) {
+            if (span instanceof ReadableSpan && ((ReadableSpan) span).hasEnded()) continue;
+            span.setStatus(StatusCode.ERROR, reason);
+            span.end();
+        }
+        this.spanMap.clear();
+    }
+
+    @Override
+    public CompletableResultCode shutdown() {
+        LOG.info("Shutting down OTELHelperImpl named '" + helperName + "'");
+        var results = new ArrayList<CompletableResultCode>(2);
+        results.add(this.sdkTracerProvider.shutdown());
+        if (this.meterProvider != null)
+            results.add(this.meterProvider.shutdown());
+        return CompletableResultCode.ofAll(results);
+    }
 }
@@ -9,13 +9,14 @@ import javax.annotation.Nullable;
 import java.time.Duration;
 
 public class OTELMetrics {
+    public static final Duration METRIC_EXPORT_INTERVAL = Duration.ofSeconds(10);
 
     @Nullable
     public static SdkMeterProvider getOTELMeterProvider(@Nullable MetricExporter metricExporter, Resource serviceNameResource) {
         if (metricExporter == null) return null;
 
         var providedMetricExporter = PeriodicMetricReader.builder(metricExporter)
-                .setInterval(Duration.ofSeconds(10))
+                .setInterval(METRIC_EXPORT_INTERVAL)
                 .build();
 
         return SdkMeterProvider.builder()
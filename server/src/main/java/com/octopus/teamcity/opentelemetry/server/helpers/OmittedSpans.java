@@ -0,0 +1,47 @@
+package com.octopus.teamcity.opentelemetry.server.helpers;
+
+import com.octopus.teamcity.opentelemetry.common.PluginConstants;
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.sdk.trace.ReadWriteSpan;
+import org.jetbrains.annotations.NotNull;
+
+// Spans left out under a parent, summarised on it in their place: how many, how many of them failed and how long
+// they took. The counts add to whatever the parent already has, as spans can be left out for more than one reason.
+public final class OmittedSpans {
+    private static final AttributeKey<Long> OMITTED_SPAN_COUNT = AttributeKey.longKey(PluginConstants.ATTRIBUTE_OMITTED_SPAN_COUNT);
+    private static final AttributeKey<Long> OMITTED_ERROR_SPAN_COUNT = AttributeKey.longKey(PluginConstants.ATTRIBUTE_OMITTED_ERROR_SPAN_COUNT);
+    private static final AttributeKey<Long> OMITTED_SPAN_DURATION = AttributeKey.longKey(PluginConstants.ATTRIBUTE_OMITTED_SPAN_DURATION);
+
+    private long count;
+    private long errorCount;
+    private long durationMs;
+
+    public void add(boolean failed, long durationMs) {
+        count++;
+        if (failed) errorCount++;
+        this.durationMs += Math.max(0, durationMs);
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public void addTo(@NotNull Span parent) {
+        // the spans we make are always the SDK's, which can be read back
+        if (count > 0 && parent instanceof ReadWriteSpan) addTo((ReadWriteSpan) parent, count, errorCount, durationMs);
+    }
+
+    static void addTo(@NotNull ReadWriteSpan parent, long count, long errorCount, long durationMs) {
+        synchronized (parent) {
+            parent.setAttribute(OMITTED_SPAN_COUNT, getOrZero(parent, OMITTED_SPAN_COUNT) + count);
+            if (errorCount > 0) parent.setAttribute(OMITTED_ERROR_SPAN_COUNT, getOrZero(parent, OMITTED_ERROR_SPAN_COUNT) + errorCount);
+            parent.setAttribute(OMITTED_SPAN_DURATION, getOrZero(parent, OMITTED_SPAN_DURATION) + durationMs);
+        }
+    }
+
+    private static long getOrZero(ReadWriteSpan span, AttributeKey<Long> key) {
+        var value = span.getAttribute(key);
+        return value == null ? 0 : value;
+    }
+}
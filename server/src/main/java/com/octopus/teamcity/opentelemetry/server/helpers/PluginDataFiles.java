@@ -0,0 +1,43 @@
+package com.octopus.teamcity.opentelemetry.server.helpers;
+
+import jetbrains.buildServer.serverSide.IOGuard;
+import jetbrains.buildServer.serverSide.ServerPaths;
+import org.apache.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static com.octopus.teamcity.opentelemetry.common.PluginConstants.PLUGIN_NAME;
+
+// Files the plugin keeps for itself under <data directory>/plugins/teamcity-opentelemetry.
+public class PluginDataFiles {
+    static Logger LOG = Logger.getLogger(PluginDataFiles.class.getName());
+
+    private PluginDataFiles() {}
+
+    @NotNull
+    public static File get(@NotNull ServerPaths serverPaths, @NotNull String fileName) {
+        return new File(new File(serverPaths.getPluginDataDirectory(), PLUGIN_NAME), fileName);
+    }
+
+    // Writes to a temporary file first, so a crash half way through never leaves a truncated file behind.
+    public static boolean writeAtomically(@NotNull File file, @NotNull byte[] contents) {
+        var written = new AtomicBoolean();
+        IOGuard.allowDiskWrite(() -> {
+            try {
+                Files.createDirectories(file.getParentFile().toPath());
+                var temporaryFile = new File(file.getPath() + ".tmp");
+                Files.write(temporaryFile.toPath(), contents);
+                Files.move(temporaryFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                written.set(true);
+            } catch (IOException e) {
+                LOG.warn(String.format("Unable to write '%s': %s", file, e.getMessage()));
+            }
+        });
+        return written.get();
+    }
+}
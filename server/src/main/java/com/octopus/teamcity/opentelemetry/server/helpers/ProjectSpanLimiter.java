@@ -0,0 +1,141 @@
+package com.octopus.teamcity.opentelemetry.server.helpers;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+// How many spans one project can create: a rate, with some burst, and a quota per (UTC) day. It's asked before each
+// detail span is made, so it has to be cheap when many builds of a project finish at once. The rate is split across
+// a few shards, each a token bucket kept as a single "theoretical arrival time" (the generic cell rate algorithm) so
+// taking a token is one compare-and-set, with no locks. A thread starts at its own shard and only moves on to the
+// others when that one is empty. The day's usage is counted in LongAdders for the same reason.
+public class ProjectSpanLimiter {
+    private static final int SHARDS = Integer.highestOneBit(Math.max(1, Math.min(8, Runtime.getRuntime().availableProcessors())));
+    // keep each shard's arrival time on its own cache line
+    private static final int STRIDE = 8;
+    private static final long DAY_MS = TimeUnit.DAYS.toMillis(1);
+
+    public static final class DailyUsage {
+        private final long day;
+        private final LongAdder created = new LongAdder();
+        private final LongAdder rateLimited = new LongAdder();
+        private final LongAdder overQuota = new LongAdder();
+
+        private DailyUsage(long day) {
+            this.day = day;
+        }
+
+        // days since the epoch (UTC)
+        public long getDay() {
+            return day;
+        }
+
+        public long getCreated() {
+            return created.sum();
+        }
+
+        public long getRateLimited() {
+            return rateLimited.sum();
+        }
+
+        public long getOverQuota() {
+            return overQuota.sum();
+        }
+    }
+
+    private final LongSupplier nanoClock;
+    private final LongSupplier millisClock;
+    private final AtomicLongArray arrivals = new AtomicLongArray(SHARDS * STRIDE);
+    private final AtomicReference<DailyUsage> today;
+    private volatile long spansPerSecond;
+    private volatile long spansPerDay;
+    // per shard; 0 when there's no rate limit
+    private volatile long intervalNanos;
+    private volatile long burstNanos;
+
+    public ProjectSpanLimiter(@NotNull LongSupplier nanoClock, @NotNull LongSupplier millisClock) {
+        this.nanoClock = nanoClock;
+        this.millisClock = millisClock;
+        this.today = new AtomicReference<>(new DailyUsage(millisClock.getAsLong() / DAY_MS));
+        var now = nanoClock.getAsLong();
+        for (int shard = 0; shard < SHARDS; shard++) arrivals.set(shard * STRIDE, now);
+    }
+
+    // 0 for either means no limit.
+    public void configure(long spansPerSecond, long burstSeconds, long spansPerDay) {
+        var burstNanos = TimeUnit.SECONDS.toNanos(Math.max(1, burstSeconds));
+        if (spansPerSecond == this.spansPerSecond && spansPerDay == this.spansPerDay && burstNanos == this.burstNanos) return;
+        this.spansPerSecond = spansPerSecond;
+        this.spansPerDay = spansPerDay;
+        this.burstNanos = burstNanos;
+        this.intervalNanos = spansPerSecond > 0 ? Math.max(1, TimeUnit.SECONDS.toNanos(SHARDS) / spansPerSecond) : 0;
+    }
+
+    // Carries on from usage counted before a restart, if it was for today.
+    public void restore(long day, long created, long rateLimited, long overQuota) {
+        var usage = getToday();
+        if (usage.day != day) return;
+        usage.created.add(created);
+        usage.rateLimited.add(rateLimited);
+        usage.overQuota.add(overQuota);
+    }
+
+    // Whether another span can be created; a span that can't should be counted on its parent instead.
+    public boolean tryAcquire() {
+        var usage = getToday();
+        var quota = spansPerDay;
+        if (quota > 0 && usage.created.sum() >= quota) {
+            usage.overQuota.increment();
+            return false;
+        }
+        if (!tryTake()) {
+            usage.rateLimited.increment();
+            return false;
+        }
+        usage.created.increment();
+        return true;
+    }
+
+    private boolean tryTake() {
+        var interval = intervalNanos;
+        if (interval == 0) return true;
+        var first = (int) (Thread.currentThread().getId() & (SHARDS - 1));
+        for (int i = 0; i < SHARDS; i++) {
+            if (tryTake(((first + i) & (SHARDS - 1)) * STRIDE, interval)) return true;
+        }
+        return false;
+    }
+
+    private boolean tryTake(int index, long interval) {
+        var burst = burstNanos;
+        while (true) {
+            var now = nanoClock.getAsLong();
+            var arrival = arrivals.get(index);
+            var next = Math.max(arrival, now);
+            // the bucket is empty once the next token is due more than the burst away
+            if (next - now > burst) return false;
+            if (arrivals.compareAndSet(index, arrival, next + interval)) return true;
+        }
+    }
+
+    @NotNull
+    public DailyUsage getToday() {
+        var day = millisClock.getAsLong() / DAY_MS;
+        var usage = today.get();
+        if (usage.day == day) return usage;
+        today.compareAndSet(usage, new DailyUsage(day));
+        return today.get();
+    }
+
+    public long getSpansPerSecond() {
+        return spansPerSecond;
+    }
+
+    public long getSpansPerDay() {
+        return spansPerDay;
+    }
+}
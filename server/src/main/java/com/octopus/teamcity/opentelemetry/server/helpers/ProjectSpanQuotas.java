@@ -0,0 +1,163 @@
+package com.octopus.teamcity.opentelemetry.server.helpers;
+
+import com.octopus.teamcity.opentelemetry.server.LogMasker;
+import jetbrains.buildServer.serverSide.*;
+import jetbrains.buildServer.util.EventDispatcher;
+import org.apache.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import java.io.*;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+import static com.octopus.teamcity.opentelemetry.common.PluginConstants.*;
+
+// The span limiters of each project, set from the spans per second and spans per day limits in the project's (or
+// an ancestor's) settings. Usage is counted against the project the build belongs to, so one project can't use up
+// the allowance of the others sharing its settings. The day's usage is saved every few minutes and when the server
+// stops, so a restart doesn't hand out the day's quota again.
+public class ProjectSpanQuotas extends BuildServerAdapter {
+    static Logger LOG = Logger.getLogger(ProjectSpanQuotas.class.getName());
+    public static final String FILE_NAME = "span-quota-usage.bin";
+    public static final String PROPERTY_BURST_SECONDS = "teamcity.opentelemetry.quota.burstSeconds";
+    private static final int DEFAULT_BURST_SECONDS = 60;
+    private static final int FILE_MAGIC = 0x4f545351;
+    private static final int FILE_VERSION = 1;
+    private static final int SAVE_INTERVAL_MINUTES = 5;
+    private static final long DAY_MS = TimeUnit.DAYS.toMillis(1);
+
+    private final ProjectManager projectManager;
+    private final File file;
+    private final LongSupplier millisClock;
+    private final ScheduledExecutorService executorService;
+    private final ConcurrentHashMap<String, ProjectSpanLimiter> limiters = new ConcurrentHashMap<>();
+    // today's usage from before the restart, until the project's limiter is made
+    private final ConcurrentHashMap<String, long[]> restored = new ConcurrentHashMap<>();
+
+    @Autowired
+    public ProjectSpanQuotas(
+            @NotNull EventDispatcher<BuildServerListener> buildServerListenerEventDispatcher,
+            @NotNull ProjectManager projectManager,
+            @NotNull ServerPaths serverPaths) {
+        this(buildServerListenerEventDispatcher, projectManager, serverPaths, System::currentTimeMillis);
+    }
+
+    public ProjectSpanQuotas(
+            @NotNull EventDispatcher<BuildServerListener> buildServerListenerEventDispatcher,
+            @NotNull ProjectManager projectManager,
+            @NotNull ServerPaths serverPaths,
+            @NotNull LongSupplier millisClock) {
+        this.projectManager = projectManager;
+        this.file = PluginDataFiles.get(serverPaths, FILE_NAME);
+        this.millisClock = millisClock;
+        load();
+
+        this.executorService = Executors.newSingleThreadScheduledExecutor(r -> {
+            var thread = new Thread(r, "OpenTelemetry span quota usage writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.executorService.scheduleWithFixedDelay(this::save, SAVE_INTERVAL_MINUTES, SAVE_INTERVAL_MINUTES, TimeUnit.MINUTES);
+        buildServerListenerEventDispatcher.addListener(this);
+    }
+
+    @Override
+    public void serverShutdown() {
+        executorService.shutdownNow();
+        save();
+    }
+
+    // The project's limiter, brought up to date with its settings - get it once per batch of spans, not per span.
+    @NotNull
+    public ProjectSpanLimiter forProject(@NotNull String projectExternalId) {
+        var limiter = limiters.computeIfAbsent(projectExternalId, key -> {
+            var created = new ProjectSpanLimiter(System::nanoTime, millisClock);
+            var usage = restored.remove(key);
+            if (usage != null) created.restore(usage[0], usage[1], usage[2], usage[3]);
+            return created;
+        });
+        var settings = getSettings(projectExternalId);
+        limiter.configure(settings.getSpansPerSecond(), TeamCityProperties.getInteger(PROPERTY_BURST_SECONDS, DEFAULT_BURST_SECONDS), settings.getSpansPerDay());
+        return limiter;
+    }
+
+    // The project's limiter if it has created any spans yet (today, or before a restart), without creating one.
+    @Nullable
+    public ProjectSpanLimiter find(@NotNull String projectExternalId) {
+        var limiter = limiters.get(projectExternalId);
+        if (limiter == null && restored.containsKey(projectExternalId)) return forProject(projectExternalId);
+        return limiter;
+    }
+
+    // The span limits in the project's (or an ancestor's) settings.
+    @NotNull
+    public SpanLimitSettings getSettings(@NotNull String projectExternalId) {
+        return SpanLimitSettings.fromParams(getParams(projectExternalId));
+    }
+
+    private Map<String, String> getParams(String projectExternalId) {
+        var project = projectManager.findProjectByExternalId(projectExternalId);
+        if (project == null) return Map.of();
+        var features = project.getAvailableFeaturesOfType(PLUGIN_NAME);
+        if (features.isEmpty()) return Map.of();
+        return features.iterator().next().getParameters();
+    }
+
+    // Only today's usage is kept; anything older has no quota left to count against.
+    private synchronized void load() {
+        if (!file.exists()) return;
+        var today = millisClock.getAsLong() / DAY_MS;
+        try (var input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (input.readInt() != FILE_MAGIC || input.readInt() != FILE_VERSION) {
+                LOG.warn(String.format("Ignoring span quota usage in '%s', as it isn't in a format we understand.", file));
+                return;
+            }
+            var count = input.readInt();
+            var loaded = new HashMap<String, long[]>();
+            for (int i = 0; i < count; i++) {
+                var projectExternalId = input.readUTF();
+                var usage = new long[] { input.readLong(), input.readLong(), input.readLong(), input.readLong() };
+                if (usage[0] == today) loaded.put(projectExternalId, usage);
+            }
+            restored.putAll(loaded);
+            LOG.info(String.format("Loaded today's span quota usage for %d projects.", loaded.size()));
+        } catch (IOException e) {
+            LOG.warn(String.format("Unable to read span quota usage from '%s'; starting the day's counts afresh: %s", file, LogMasker.maskStackTrace(e)));
+        }
+    }
+
+    private void save() {
+        try {
+            byte[] contents;
+            synchronized (this) {
+                var bytes = new ByteArrayOutputStream();
+                try (var output = new DataOutputStream(bytes)) {
+                    var entries = new HashMap<>(restored);
+                    limiters.forEach((projectExternalId, limiter) -> {
+                        var usage = limiter.getToday();
+                        entries.put(projectExternalId, new long[] { usage.getDay(), usage.getCreated(), usage.getRateLimited(), usage.getOverQuota() });
+                    });
+                    if (entries.isEmpty()) return;
+                    output.writeInt(FILE_MAGIC);
+                    output.writeInt(FILE_VERSION);
+                    output.writeInt(entries.size());
+                    for (var entry : entries.entrySet()) {
+                        output.writeUTF(entry.getKey());
+                        for (long value : entry.getValue()) output.writeLong(value);
+                    }
+                }
+                contents = bytes.toByteArray();
+            }
+            PluginDataFiles.writeAtomically(file, contents);
+        } catch (Exception e) {
+            LOG.warn("Exception while saving span quota usage: " + LogMasker.maskStackTrace(e));
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package com.octopus.teamcity.opentelemetry.server.helpers;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.TreeSet;
+
+// An Aho-Corasick automaton over a set of secrets, so a message can be checked against all of them in one pass.
+// Transitions are a dense table over the characters that appear in any secret; every other character goes back to
+// the root. Feed characters through next() and ask matchLength() for the longest secret ending at that point.
+public final class SecretMatcher {
+    public static final SecretMatcher EMPTY = new SecretMatcher(new TreeSet<>());
+
+    private final int secretCount;
+    // sorted characters that appear in secrets; a character's class is its index + 1 (0 is "anything else")
+    private final char[] alphabet;
+    private final short[] asciiClasses = new short[128];
+    private final int classCount;
+    private final int[] transitions;
+    private final int[] matchLengths;
+
+    public static SecretMatcher of(Collection<String> secrets) {
+        var distinct = new TreeSet<String>();
+        for (String secret : secrets) {
+            if (secret != null && !secret.isEmpty()) distinct.add(secret);
+        }
+        return distinct.isEmpty() ? EMPTY : new SecretMatcher(distinct);
+    }
+
+    private SecretMatcher(TreeSet<String> secrets) {
+        this.secretCount = secrets.size();
+
+        var characters = new TreeSet<Character>();
+        var maxStates = 1;
+        for (String secret : secrets) {
+            for (char c : secret.toCharArray()) characters.add(c);
+            maxStates += secret.length();
+        }
+        alphabet = new char[characters.size()];
+        var index = 0;
+        for (char c : characters) alphabet[index++] = c;
+        classCount = alphabet.length + 1;
+        Arrays.fill(asciiClasses, (short) -1);
+        for (int i = 0; i < alphabet.length && alphabet[i] < 128; i++) {
+            // ascii is looked up by table; everything else by binary search
+            asciiClasses[alphabet[i]] = (short) (i + 1);
+        }
+
+        // build the trie; 0 in the table means "no edge" until the failure links fill it in
+        var trie = new int[maxStates * classCount];
+        var lengths = new int[maxStates];
+        var states = 1;
+        for (String secret : secrets) {
+            var state = 0;
+            for (char c : secret.toCharArray()) {
+                var slot = state * classCount + classOf(c);
+                if (trie[slot] == 0) trie[slot] = states++;
+                state = trie[slot];
+            }
+            lengths[state] = secret.length();
+        }
+
+        // breadth first, so a state's failure state is always finished before the state itself
+        var failures = new int[states];
+        var queue = new ArrayDeque<Integer>();
+        for (int cls = 1; cls < classCount; cls++) {
+            var child = trie[cls];
+            if (child != 0) queue.add(child);
+        }
+        while (!queue.isEmpty()) {
+            int state = queue.poll();
+            var failure = failures[state];
+            // we only ever need the longest match ending here, to know how far back to mask
+            lengths[state] = Math.max(lengths[state], lengths[failure]);
+            for (int cls = 1; cls < classCount; cls++) {
+                var slot = state * classCount + cls;
+                var child = trie[slot];
+                if (child != 0) {
+                    failures[child] = trie[failure * classCount + cls];
+                    queue.add(child);
+                } else {
+                    trie[slot] = trie[failure * classCount + cls];
+                }
+            }
+        }
+
+        this.transitions = Arrays.copyOf(trie, states * classCount);
+        this.matchLengths = Arrays.copyOf(lengths, states);
+    }
+
+    public boolean isEmpty() {
+        return secretCount == 0;
+    }
+
+    public int size() {
+        return secretCount;
+    }
+
+    public int next(int state, char c) {
+        var cls = classOf(c);
+        return cls == 0 ? 0 : transitions[state * classCount + cls];
+    }
+
+    // the length of the longest secret ending at this state, or 0
+    public int matchLength(int state) {
+        return matchLengths[state];
+    }
+
+    private int classOf(char c) {
+        if (c < 128) {
+            var cls = asciiClasses[c];
+            return cls < 0 ? 0 : cls;
+        }
+        var index = Arrays.binarySearch(alphabet, c);
+        return index < 0 ? 0 : index + 1;
+    }
+}
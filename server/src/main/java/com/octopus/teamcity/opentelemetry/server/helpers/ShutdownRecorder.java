@@ -0,0 +1,177 @@
+package com.octopus.teamcity.opentelemetry.server.helpers;
+
+import io.opentelemetry.context.Context;
+import io.opentelemetry.sdk.common.CompletableResultCode;
+import io.opentelemetry.sdk.trace.ReadWriteSpan;
+import io.opentelemetry.sdk.trace.ReadableSpan;
+import io.opentelemetry.sdk.trace.SpanProcessor;
+import io.opentelemetry.sdk.trace.data.SpanData;
+import io.opentelemetry.sdk.trace.export.SpanExporter;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Keeps track of which of a build's spans got out once the server starts shutting down, so the rest can be saved
+// (see UnsentSpanStore). A span processor's shutdown succeeds whether or not its exports did, so this sits on both
+// sides of the batch processor: spans ended from then on, and the batches being exported from then on (including
+// any already queued or on their way out), count as unsent until an export of them succeeds. Until then, it just
+// passes spans on.
+public class ShutdownRecorder {
+    private final String projectExternalId;
+    private final Set<Collection<SpanData>> inFlight = Collections.newSetFromMap(new IdentityHashMap<>());
+    private final Map<String, SpanData> unsent = new LinkedHashMap<>();
+    private final List<CompletableResultCode> results = new ArrayList<>();
+    private volatile boolean recording;
+
+    public ShutdownRecorder(String projectExternalId) {
+        this.projectExternalId = projectExternalId;
+    }
+
+    public String getProjectExternalId() {
+        return projectExternalId;
+    }
+
+    @NotNull
+    public SpanProcessor wrapProcessor(@NotNull SpanProcessor delegate) {
+        return new RecordingSpanProcessor(delegate);
+    }
+
+    @NotNull
+    public SpanExporter wrapExporter(@NotNull SpanExporter delegate) {
+        return new RecordingSpanExporter(delegate);
+    }
+
+    public synchronized void startRecording() {
+        if (recording) return;
+        recording = true;
+        for (var batch : inFlight) addUnsent(batch);
+    }
+
+    // Whether every export and flush since recording started has succeeded, and every span ended since has been sent.
+    public synchronized boolean isAllSent() {
+        return unsent.isEmpty() && results.stream().allMatch(CompletableResultCode::isSuccess);
+    }
+
+    @NotNull
+    public synchronized List<SpanData> getUnsent() {
+        return new ArrayList<>(unsent.values());
+    }
+
+    private synchronized void onEnd(ReadableSpan span) {
+        if (recording) addUnsent(List.of(span.toSpanData()));
+    }
+
+    private synchronized void onExport(Collection<SpanData> batch, CompletableResultCode result) {
+        inFlight.add(batch);
+        if (recording) {
+            addUnsent(batch);
+            results.add(result);
+        }
+    }
+
+    private synchronized void onExported(Collection<SpanData> batch, boolean success) {
+        inFlight.remove(batch);
+        if (!recording) return;
+        if (success) {
+            for (var span : batch) unsent.remove(key(span));
+        } else {
+            addUnsent(batch);
+        }
+    }
+
+    private synchronized void onFlush(CompletableResultCode result) {
+        if (recording) results.add(result);
+    }
+
+    private void addUnsent(Collection<SpanData> spans) {
+        for (var span : spans) unsent.put(key(span), span);
+    }
+
+    private static String key(SpanData span) {
+        return span.getTraceId() + span.getSpanId();
+    }
+
+    private class RecordingSpanProcessor implements SpanProcessor {
+        private final SpanProcessor delegate;
+
+        RecordingSpanProcessor(SpanProcessor delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void onStart(@NotNull Context parentContext, @NotNull ReadWriteSpan span) {
+            delegate.onStart(parentContext, span);
+        }
+
+        @Override
+        public boolean isStartRequired() {
+            return delegate.isStartRequired();
+        }
+
+        @Override
+        public void onEnd(@NotNull ReadableSpan span) {
+            // before passing it on, so an export that's done straight away finds it
+            if (recording) ShutdownRecorder.this.onEnd(span);
+            delegate.onEnd(span);
+        }
+
+        @Override
+        public boolean isEndRequired() {
+            return true;
+        }
+
+        @Override
+        public CompletableResultCode shutdown() {
+            return delegate.shutdown();
+        }
+
+        @Override
+        public CompletableResultCode forceFlush() {
+            return delegate.forceFlush();
+        }
+    }
+
+    private class RecordingSpanExporter implements SpanExporter {
+        private final SpanExporter delegate;
+
+        RecordingSpanExporter(SpanExporter delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public CompletableResultCode export(@NotNull Collection<SpanData> spans) {
+            // the batch processor reuses its batch, so keep a copy
+            var batch = new ArrayList<>(spans);
+            CompletableResultCode result;
+            try {
+                result = delegate.export(spans);
+            } catch (RuntimeException e) {
+                onExport(batch, CompletableResultCode.ofFailure());
+                onExported(batch, false);
+                throw e;
+            }
+            onExport(batch, result);
+            result.whenComplete(() -> onExported(batch, result.isSuccess()));
+            return result;
+        }
+
+        @Override
+        public CompletableResultCode flush() {
+            var result = delegate.flush();
+            onFlush(result);
+            return result;
+        }
+
+        @Override
+        public CompletableResultCode shutdown() {
+            return delegate.shutdown();
+        }
+    }
+}
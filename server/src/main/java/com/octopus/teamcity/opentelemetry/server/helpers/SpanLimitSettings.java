@@ -0,0 +1,87 @@
+package com.octopus.teamcity.opentelemetry.server.helpers;
+
+import io.opentelemetry.sdk.trace.SpanLimits;
+import jetbrains.buildServer.util.StringUtil;
+
+import java.util.Map;
+
+import static com.octopus.teamcity.opentelemetry.common.PluginConstants.*;
+
+// The span limits from a project's settings, falling back to defaults that keep a trace with thousands of
+// generated test names to a sensible size.
+public class SpanLimitSettings {
+    public static final int DEFAULT_ATTRIBUTE_LENGTH = 4096;
+    public static final int DEFAULT_ATTRIBUTES_PER_SPAN = 128;
+    public static final int DEFAULT_EVENTS_PER_SPAN = 128;
+    public static final int DEFAULT_TRACE_KILOBYTES = 20 * 1024;
+    public static final int DEFAULT_SPANS_PER_SECOND = 1000;
+    // no daily quota unless the project sets one
+    public static final int DEFAULT_SPANS_PER_DAY = 0;
+
+    private final int attributeLength;
+    private final int attributesPerSpan;
+    private final int eventsPerSpan;
+    private final int traceKilobytes;
+    private final int spansPerSecond;
+    private final int spansPerDay;
+
+    public SpanLimitSettings(int attributeLength, int attributesPerSpan, int eventsPerSpan, int traceKilobytes) {
+        this(attributeLength, attributesPerSpan, eventsPerSpan, traceKilobytes, DEFAULT_SPANS_PER_SECOND, DEFAULT_SPANS_PER_DAY);
+    }
+
+    public SpanLimitSettings(int attributeLength, int attributesPerSpan, int eventsPerSpan, int traceKilobytes, int spansPerSecond, int spansPerDay) {
+        this.attributeLength = attributeLength;
+        this.attributesPerSpan = attributesPerSpan;
+        this.eventsPerSpan = eventsPerSpan;
+        this.traceKilobytes = traceKilobytes;
+        this.spansPerSecond = spansPerSecond;
+        this.spansPerDay = spansPerDay;
+    }
+
+    public static SpanLimitSettings fromParams(Map<String, String> params) {
+        return new SpanLimitSettings(
+                getPositiveInt(params, PROPERTY_KEY_LIMIT_ATTRIBUTE_LENGTH, DEFAULT_ATTRIBUTE_LENGTH),
+                getPositiveInt(params, PROPERTY_KEY_LIMIT_ATTRIBUTES_PER_SPAN, DEFAULT_ATTRIBUTES_PER_SPAN),
+                getPositiveInt(params, PROPERTY_KEY_LIMIT_EVENTS_PER_SPAN, DEFAULT_EVENTS_PER_SPAN),
+                getPositiveInt(params, PROPERTY_KEY_LIMIT_TRACE_KILOBYTES, DEFAULT_TRACE_KILOBYTES),
+                getPositiveInt(params, PROPERTY_KEY_LIMIT_SPANS_PER_SECOND, DEFAULT_SPANS_PER_SECOND),
+                getPositiveInt(params, PROPERTY_KEY_LIMIT_SPANS_PER_DAY, DEFAULT_SPANS_PER_DAY));
+    }
+
+    private static int getPositiveInt(Map<String, String> params, String key, int defaultValue) {
+        var value = params.get(key);
+        if (StringUtil.isEmptyOrSpaces(value)) return defaultValue;
+        try {
+            var parsed = Integer.parseInt(value.trim());
+            return parsed > 0 ? parsed : defaultValue;
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    public int getAttributeLength() {
+        return attributeLength;
+    }
+
+    public long getTraceBudgetBytes() {
+        return traceKilobytes * 1024L;
+    }
+
+    public int getSpansPerSecond() {
+        return spansPerSecond;
+    }
+
+    // 0 when there's no daily quota
+    public int getSpansPerDay() {
+        return spansPerDay;
+    }
+
+    public SpanLimits toSpanLimits() {
+        return SpanLimits.builder()
+                .setMaxAttributeValueLength(attributeLength)
+                .setMaxNumberOfAttributes(attributesPerSpan)
+                .setMaxNumberOfEvents(eventsPerSpan)
+                .setMaxNumberOfAttributesPerEvent(attributesPerSpan)
+                .build();
+    }
+}
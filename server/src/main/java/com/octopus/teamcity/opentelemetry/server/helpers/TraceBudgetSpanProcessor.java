@@ -0,0 +1,169 @@
+package com.octopus.teamcity.opentelemetry.server.helpers;
+
+import com.octopus.teamcity.opentelemetry.common.PluginConstants;
+import com.octopus.teamcity.opentelemetry.server.metrics.PluginMetrics;
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.common.AttributeType;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.metrics.LongCounter;
+import io.opentelemetry.api.trace.StatusCode;
+import io.opentelemetry.context.Context;
+import io.opentelemetry.sdk.common.CompletableResultCode;
+import io.opentelemetry.sdk.trace.ReadWriteSpan;
+import io.opentelemetry.sdk.trace.ReadableSpan;
+import io.opentelemetry.sdk.trace.SpanProcessor;
+import io.opentelemetry.sdk.trace.data.EventData;
+import io.opentelemetry.sdk.trace.data.SpanData;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Sits in front of a helper's span processor (one helper per build chain, so one trace) and stops passing spans on
+// once the trace has used up its byte budget. A span over budget is summarised on its parent instead - a count of the
+// omitted spans, how many of them failed and how long they took - so a build with a huge number of tests still
+// shows where the time went. Spans we've already sent children for are always sent, so nothing is left orphaned.
+// Span names (often test names, which can be any length) are held to the attribute length limit too.
+public class TraceBudgetSpanProcessor implements SpanProcessor {
+    // ids, timestamps, kind, status and the protobuf framing around them
+    private static final int SPAN_OVERHEAD_BYTES = 96;
+
+    // The counters are shared by every trace; each processor records against its own project.
+    public static class Counters {
+        private final PluginMetrics pluginMetrics;
+        private final LongCounter spansOmitted;
+        private final LongCounter attributesDropped;
+        private final LongCounter attributesPossiblyTruncated;
+        private final LongCounter eventsDropped;
+
+        public Counters(PluginMetrics pluginMetrics) {
+            this.pluginMetrics = pluginMetrics;
+            var meter = pluginMetrics.getMeter();
+            this.spansOmitted = meter.counterBuilder(PluginConstants.METRIC_SPANS_OMITTED)
+                    .setDescription("Spans left out of a trace because it used up its byte budget")
+                    .setUnit("{span}")
+                    .build();
+            this.attributesDropped = meter.counterBuilder(PluginConstants.METRIC_SPAN_ATTRIBUTES_DROPPED)
+                    .setDescription("Span attributes dropped because a span had too many")
+                    .setUnit("{attribute}")
+                    .build();
+            this.attributesPossiblyTruncated = meter.counterBuilder(PluginConstants.METRIC_SPAN_ATTRIBUTES_POSSIBLY_TRUNCATED)
+                    .setDescription("Span attribute values exactly at the attribute length limit, so most likely cut short")
+                    .setUnit("{attribute}")
+                    .build();
+            this.eventsDropped = meter.counterBuilder(PluginConstants.METRIC_SPAN_EVENTS_DROPPED)
+                    .setDescription("Span events dropped because a span had too many")
+                    .setUnit("{event}")
+                    .build();
+        }
+    }
+
+    private final SpanProcessor delegate;
+    private final SpanLimitSettings limits;
+    private final Counters counters;
+    private final Attributes metricAttributes;
+    private final AtomicLong remainingBytes;
+    private final ConcurrentHashMap<String, ReadWriteSpan> openSpans = new ConcurrentHashMap<>();
+    private final Set<String> parentsOfSentSpans = ConcurrentHashMap.newKeySet();
+
+    public TraceBudgetSpanProcessor(@NotNull SpanProcessor delegate, @NotNull SpanLimitSettings limits, @NotNull Counters counters, String projectExternalId) {
+        this.delegate = delegate;
+        this.limits = limits;
+        this.counters = counters;
+        this.metricAttributes = Attributes.of(AttributeKey.stringKey(PluginConstants.METRIC_ATTRIBUTE_PROJECT), projectExternalId);
+        this.remainingBytes = new AtomicLong(limits.getTraceBudgetBytes());
+    }
+
+    @Override
+    public void onStart(@NotNull Context parentContext, @NotNull ReadWriteSpan span) {
+        var name = span.getName();
+        if (name.length() > limits.getAttributeLength()) span.updateName(name.substring(0, limits.getAttributeLength()));
+        openSpans.put(span.getSpanContext().getSpanId(), span);
+        delegate.onStart(parentContext, span);
+    }
+
+    @Override
+    public boolean isStartRequired() {
+        return true;
+    }
+
+    @Override
+    public void onEnd(@NotNull ReadableSpan span) {
+        var spanId = span.getSpanContext().getSpanId();
+        openSpans.remove(spanId);
+        var data = span.toSpanData();
+        recordLimitsHit(data);
+
+        var size = estimateSize(data);
+        var isRoot = !data.getParentSpanContext().isValid();
+        var withinBudget = remainingBytes.addAndGet(-size) >= 0;
+        if (withinBudget || isRoot || parentsOfSentSpans.remove(spanId)) {
+            if (!isRoot) parentsOfSentSpans.add(data.getParentSpanId());
+            delegate.onEnd(span);
+            return;
+        }
+
+        // give the bytes back, so a later, smaller span can still fit
+        remainingBytes.addAndGet(size);
+        if (counters.pluginMetrics.isEnabled()) counters.spansOmitted.add(1, metricAttributes);
+        summariseOnParent(data);
+    }
+
+    @Override
+    public boolean isEndRequired() {
+        return true;
+    }
+
+    @Override
+    public CompletableResultCode shutdown() {
+        openSpans.clear();
+        parentsOfSentSpans.clear();
+        return delegate.shutdown();
+    }
+
+    @Override
+    public CompletableResultCode forceFlush() {
+        return delegate.forceFlush();
+    }
+
+    private void summariseOnParent(SpanData data) {
+        var parent = openSpans.get(data.getParentSpanId());
+        // the parent has usually not ended yet - builds outlive their steps, and the Tests span its tests
+        if (parent == null) return;
+        var failed = data.getStatus().getStatusCode() == StatusCode.ERROR;
+        var durationMs = TimeUnit.NANOSECONDS.toMillis(data.getEndEpochNanos() - data.getStartEpochNanos());
+        OmittedSpans.addTo(parent, 1, failed ? 1 : 0, durationMs);
+    }
+
+    private void recordLimitsHit(SpanData data) {
+        if (!counters.pluginMetrics.isEnabled()) return;
+        var droppedAttributes = data.getTotalAttributeCount() - data.getAttributes().size();
+        if (droppedAttributes > 0) counters.attributesDropped.add(droppedAttributes, metricAttributes);
+        var droppedEvents = data.getTotalRecordedEvents() - data.getEvents().size();
+        if (droppedEvents > 0) counters.eventsDropped.add(droppedEvents, metricAttributes);
+
+        // the SDK truncates values as they're set, so by now there's no telling a truncated value from one that was
+        // exactly the limit to begin with; the latter is rare enough for the count to be a fair guide
+        var possiblyTruncated = new int[1];
+        data.getAttributes().forEach((key, value) -> {
+            if (key.getType() == AttributeType.STRING && ((String) value).length() == limits.getAttributeLength()) possiblyTruncated[0]++;
+        });
+        if (possiblyTruncated[0] > 0) counters.attributesPossiblyTruncated.add(possiblyTruncated[0], metricAttributes);
+    }
+
+    private static long estimateSize(SpanData data) {
+        long size = SPAN_OVERHEAD_BYTES + data.getName().length() + estimateSize(data.getAttributes());
+        for (EventData event : data.getEvents()) {
+            size += 16 + event.getName().length() + estimateSize(event.getAttributes());
+        }
+        return size;
+    }
+
+    private static long estimateSize(Attributes attributes) {
+        var size = new long[1];
+        attributes.forEach((key, value) -> size[0] += 4 + key.getKey().length() + String.valueOf(value).length());
+        return size[0];
+    }
+}
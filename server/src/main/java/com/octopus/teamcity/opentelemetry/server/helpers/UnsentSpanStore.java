@@ -0,0 +1,139 @@
+package com.octopus.teamcity.opentelemetry.server.helpers;
+
+import com.octopus.teamcity.opentelemetry.server.LogMasker;
+import com.octopus.teamcity.opentelemetry.server.endpoints.OTELEndpointFactory;
+import com.octopus.teamcity.opentelemetry.server.receiver.OtlpSpanConverter;
+import com.octopus.teamcity.opentelemetry.server.receiver.OtlpSpanWriter;
+import com.google.protobuf.InvalidProtocolBufferException;
+import io.opentelemetry.proto.collector.trace.v1.ExportTraceServiceRequest;
+import io.opentelemetry.sdk.common.CompletableResultCode;
+import io.opentelemetry.sdk.trace.SpanLimits;
+import io.opentelemetry.sdk.trace.data.SpanData;
+import jetbrains.buildServer.serverSide.BuildServerAdapter;
+import jetbrains.buildServer.serverSide.BuildServerListener;
+import jetbrains.buildServer.serverSide.IOGuard;
+import jetbrains.buildServer.serverSide.ProjectManager;
+import jetbrains.buildServer.serverSide.ServerPaths;
+import jetbrains.buildServer.util.EventDispatcher;
+import org.apache.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.octopus.teamcity.opentelemetry.common.PluginConstants.*;
+
+// Spans that didn't get out before the server shut down, saved as OTLP export requests (one file per trace, under
+// <data directory>/plugins/teamcity-opentelemetry/unsent-spans) and sent to their project's destination in the
+// background once the server is back up. A file that still can't be sent is kept for the next start.
+public class UnsentSpanStore extends BuildServerAdapter {
+    static Logger LOG = Logger.getLogger(UnsentSpanStore.class.getName());
+    private static final String DIRECTORY = "unsent-spans";
+    private static final String EXTENSION = ".otlp";
+    private static final int SEND_TIMEOUT_SECONDS = 30;
+
+    private final ProjectManager projectManager;
+    private final OTELEndpointFactory otelEndpointFactory;
+    private final ServerPaths serverPaths;
+    private final AtomicInteger sequence = new AtomicInteger();
+
+    public UnsentSpanStore(
+            @NotNull EventDispatcher<BuildServerListener> buildServerListenerEventDispatcher,
+            @NotNull ProjectManager projectManager,
+            @NotNull OTELEndpointFactory otelEndpointFactory,
+            @NotNull ServerPaths serverPaths) {
+        this.projectManager = projectManager;
+        this.otelEndpointFactory = otelEndpointFactory;
+        this.serverPaths = serverPaths;
+        buildServerListenerEventDispatcher.addListener(this);
+    }
+
+    public void save(@NotNull String projectExternalId, @NotNull List<SpanData> spans) {
+        if (spans.isEmpty()) return;
+        var file = PluginDataFiles.get(serverPaths, DIRECTORY + File.separator
+                + projectExternalId + "-" + System.currentTimeMillis() + "-" + sequence.incrementAndGet() + EXTENSION);
+        if (PluginDataFiles.writeAtomically(file, OtlpSpanWriter.toRequest(spans).toByteArray()))
+            LOG.info(String.format("Saved %d unsent spans of project '%s' to '%s'.", spans.size(), projectExternalId, file));
+    }
+
+    @Override
+    public void serverStartup() {
+        if (listFiles().length == 0) return;
+        var thread = new Thread(this::sendSaved, "OpenTelemetry unsent span sender");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    // Sends each file's spans straight to the project's exporter, and only deletes the file once the exporter says it
+    // got them out; a span processor's shutdown succeeds whether or not its exports did.
+    public void sendSaved() {
+        for (var file : listFiles()) send(file);
+    }
+
+    @NotNull
+    private File[] listFiles() {
+        var files = PluginDataFiles.get(serverPaths, DIRECTORY).listFiles((dir, name) -> name.endsWith(EXTENSION));
+        return files == null ? new File[0] : files;
+    }
+
+    private void send(File file) {
+        var name = file.getName();
+        var projectExternalId = name.substring(0, name.lastIndexOf('-', name.lastIndexOf('-') - 1));
+        try {
+            var params = getEnabledParams(projectExternalId);
+            if (params == null) {
+                LOG.info(String.format("Discarding unsent spans in '%s'; OpenTelemetry is no longer enabled for project '%s'.", file, projectExternalId));
+                delete(file);
+                return;
+            }
+
+            var request = ExportTraceServiceRequest.parseFrom(Files.readAllBytes(file.toPath()));
+            var converter = new OtlpSpanConverter(null, SpanLimits.getDefault());
+            converter.convert(request);
+
+            var otelHandler = otelEndpointFactory.getOTELEndpointHandler(params.get(PROPERTY_KEY_SERVICE));
+            var exporter = otelHandler.buildSpanExporter(params.get(PROPERTY_KEY_ENDPOINT), params);
+            CompletableResultCode result;
+            try {
+                result = exporter.export(new ArrayList<SpanData>(converter.getAccepted())).join(SEND_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            } finally {
+                exporter.shutdown().join(SEND_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            }
+
+            if (result.isSuccess()) {
+                LOG.info(String.format("Sent %d spans of project '%s' left over from the last shutdown.", converter.getAccepted().size(), projectExternalId));
+                delete(file);
+            } else {
+                LOG.warn(String.format("Unable to send the unsent spans in '%s'; will try again on the next start.", file));
+            }
+        } catch (InvalidProtocolBufferException e) {
+            LOG.warn(String.format("Discarding unreadable unsent spans in '%s': %s", file, e.getMessage()));
+            delete(file);
+        } catch (Exception e) {
+            LOG.warn(LogMasker.mask(String.format("Unable to send the unsent spans in '%s': %s", file, e.getMessage())));
+        }
+    }
+
+    @Nullable
+    private Map<String, String> getEnabledParams(String projectExternalId) {
+        var project = projectManager.findProjectByExternalId(projectExternalId);
+        if (project == null) return null;
+        var features = project.getAvailableFeaturesOfType(PLUGIN_NAME);
+        if (features.isEmpty()) return null;
+        var params = features.stream().findFirst().get().getParameters();
+        return "true".equals(params.get(PROPERTY_KEY_ENABLED)) ? params : null;
+    }
+
+    private static void delete(File file) {
+        IOGuard.allowDiskWrite(() -> {
+            if (file.exists() && !file.delete())
+                LOG.warn(String.format("Unable to delete '%s'.", file));
+        });
+    }
+}
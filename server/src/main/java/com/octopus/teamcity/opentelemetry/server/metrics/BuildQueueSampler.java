@@ -0,0 +1,241 @@
+package com.octopus.teamcity.opentelemetry.server.metrics;
+
+import com.octopus.teamcity.opentelemetry.server.LogMasker;
+import com.octopus.teamcity.opentelemetry.server.queue.QueueWaitTracker;
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.metrics.ObservableLongMeasurement;
+import jetbrains.buildServer.serverSide.*;
+import jetbrains.buildServer.serverSide.agentPools.AgentPool;
+import jetbrains.buildServer.serverSide.agentPools.AgentPoolManager;
+import jetbrains.buildServer.util.EventDispatcher;
+import org.apache.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static com.octopus.teamcity.opentelemetry.common.PluginConstants.*;
+
+// Periodically takes one snapshot of the build queue and the agent list, and publishes it as gauges.
+// The gauge callbacks only ever read the most recent snapshot, so metric collection never touches TeamCity itself.
+// The same snapshot feeds the QueueWaitTracker with the current wait reason of each queued build.
+public class BuildQueueSampler extends BuildServerAdapter {
+    static Logger LOG = Logger.getLogger(BuildQueueSampler.class.getName());
+    public static final String PROPERTY_SAMPLE_INTERVAL_SECONDS = "teamcity.opentelemetry.queueSampler.intervalSeconds";
+    private static final int DEFAULT_SAMPLE_INTERVAL_SECONDS = 30;
+    private static final AttributeKey<String> AGENT_POOL = AttributeKey.stringKey(METRIC_ATTRIBUTE_AGENT_POOL);
+    private static final AttributeKey<String> AGENT_STATE = AttributeKey.stringKey(METRIC_ATTRIBUTE_AGENT_STATE);
+    private static final AttributeKey<String> QUANTILE = AttributeKey.stringKey(METRIC_ATTRIBUTE_QUANTILE);
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99};
+    private static final Attributes[] QUANTILE_ATTRIBUTES = {
+            Attributes.of(QUANTILE, "0.5"),
+            Attributes.of(QUANTILE, "0.9"),
+            Attributes.of(QUANTILE, "0.99")
+    };
+
+    private final BuildQueue buildQueue;
+    private final BuildAgentManager buildAgentManager;
+    private final AgentPoolManager agentPoolManager;
+    private final TeamCityNodes nodesService;
+    private final PluginMetrics pluginMetrics;
+    private final QueueWaitTracker queueWaitTracker;
+    private final ScheduledExecutorService executorService;
+
+    // scratch space, only touched from the sampler thread
+    private final Map<Integer, Attributes[]> poolAttributes = new HashMap<>();
+    private final Map<Integer, Integer> poolIndexes = new HashMap<>();
+    private final Map<String, Set<Integer>> projectPools = new HashMap<>();
+    private long[] waitTimes = new long[256];
+
+    private volatile QueueSnapshot snapshot = QueueSnapshot.EMPTY;
+
+    public BuildQueueSampler(
+            @NotNull EventDispatcher<BuildServerListener> buildServerListenerEventDispatcher,
+            @NotNull BuildQueue buildQueue,
+            @NotNull BuildAgentManager buildAgentManager,
+            @NotNull AgentPoolManager agentPoolManager,
+            @NotNull TeamCityNodes nodesService,
+            @NotNull PluginMetrics pluginMetrics,
+            @NotNull QueueWaitTracker queueWaitTracker) {
+        this.buildQueue = buildQueue;
+        this.buildAgentManager = buildAgentManager;
+        this.agentPoolManager = agentPoolManager;
+        this.nodesService = nodesService;
+        this.pluginMetrics = pluginMetrics;
+        this.queueWaitTracker = queueWaitTracker;
+
+        var meter = pluginMetrics.getMeter();
+        meter.gaugeBuilder(METRIC_QUEUE_LENGTH)
+                .ofLongs()
+                .setDescription("Number of queued builds that can run on each agent pool")
+                .buildWithCallback(this::observeQueueLength);
+        meter.gaugeBuilder(METRIC_QUEUE_WAIT_TIME)
+                .ofLongs()
+                .setUnit("ms")
+                .setDescription("How long builds currently in the queue have been waiting")
+                .buildWithCallback(this::observeWaitTimes);
+        meter.gaugeBuilder(METRIC_AGENTS)
+                .ofLongs()
+                .setDescription("Number of authorized agents per pool, by state")
+                .buildWithCallback(this::observeAgents);
+
+        var intervalSeconds = Math.max(1, TeamCityProperties.getInteger(PROPERTY_SAMPLE_INTERVAL_SECONDS, DEFAULT_SAMPLE_INTERVAL_SECONDS));
+        this.executorService = Executors.newSingleThreadScheduledExecutor(r -> {
+            var thread = new Thread(r, "OpenTelemetry build queue sampler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.executorService.scheduleWithFixedDelay(this::sample, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+
+        buildServerListenerEventDispatcher.addListener(this);
+        LOG.info(String.format("Build queue sampler registered with an interval of %d seconds.", intervalSeconds));
+    }
+
+    @Override
+    public void serverShutdown() {
+        executorService.shutdownNow();
+    }
+
+    private void sample() {
+        try {
+            if (!nodesService.getCurrentNode().isMainNode()) return;
+            pluginMetrics.refreshDestination();
+
+            var now = System.currentTimeMillis();
+            var queuedBuilds = buildQueue.getItems();
+            for (SQueuedBuild queuedBuild : queuedBuilds) {
+                queueWaitTracker.observe(queuedBuild, now);
+            }
+            queueWaitTracker.prune(now);
+
+            snapshot = pluginMetrics.isEnabled() ? takeSnapshot(queuedBuilds, now) : QueueSnapshot.EMPTY;
+        } catch (Exception e) {
+            LOG.warn("Exception while sampling the build queue: " + LogMasker.maskStackTrace(e));
+        }
+    }
+
+    private QueueSnapshot takeSnapshot(List<SQueuedBuild> queuedBuilds, long now) {
+        var pools = agentPoolManager.getAllAgentPools();
+        var poolCount = pools.size();
+        var poolAttributesInSnapshot = new Attributes[poolCount][];
+        poolIndexes.clear();
+        for (int i = 0; i < poolCount; i++) {
+            AgentPool pool = pools.get(i);
+            poolIndexes.put(pool.getAgentPoolId(), i);
+            poolAttributesInSnapshot[i] = getPoolAttributes(pool);
+        }
+
+        var queued = new long[poolCount];
+        var busy = new long[poolCount];
+        var idle = new long[poolCount];
+        var disconnected = new long[poolCount];
+
+        if (waitTimes.length < queuedBuilds.size()) {
+            waitTimes = new long[Integer.highestOneBit(queuedBuilds.size()) << 1];
+        }
+        var waitTimeCount = 0;
+        projectPools.clear();
+        for (SQueuedBuild queuedBuild : queuedBuilds) {
+            waitTimes[waitTimeCount++] = Math.max(0, now - queuedBuild.getWhenQueued().getTime());
+            var buildType = queuedBuild.getBuildType();
+            var poolIds = projectPools.computeIfAbsent(buildType.getProjectId(), agentPoolManager::getAgentPoolsWithProject);
+            for (Integer poolId : poolIds) {
+                var index = poolIndexes.get(poolId);
+                if (index != null) queued[index]++;
+            }
+        }
+
+        List<SBuildAgent> registeredAgents = buildAgentManager.getRegisteredAgents();
+        for (SBuildAgent agent : registeredAgents) {
+            var index = poolIndexes.get(agent.getAgentPoolId());
+            if (index == null) continue;
+            if (agent.getRunningBuild() != null) {
+                busy[index]++;
+            } else if (agent.isEnabled()) {
+                idle[index]++;
+            }
+        }
+        List<SBuildAgent> unregisteredAgents = buildAgentManager.getUnregisteredAgents();
+        for (SBuildAgent agent : unregisteredAgents) {
+            if (!agent.isAuthorized()) continue;
+            var index = poolIndexes.get(agent.getAgentPoolId());
+            if (index != null) disconnected[index]++;
+        }
+
+        var waitTimeQuantiles = new long[QUANTILES.length];
+        if (waitTimeCount > 0) {
+            Arrays.sort(waitTimes, 0, waitTimeCount);
+            for (int i = 0; i < QUANTILES.length; i++) {
+                var rank = (int) Math.ceil(QUANTILES[i] * waitTimeCount) - 1;
+                waitTimeQuantiles[i] = waitTimes[Math.max(0, rank)];
+            }
+        }
+
+        return new QueueSnapshot(poolAttributesInSnapshot, queued, busy, idle, disconnected, waitTimeCount > 0, waitTimeQuantiles);
+    }
+
+    // [0] is the pool on its own, [1..3] add the agent state - built once per pool so sampling doesn't allocate them
+    private Attributes[] getPoolAttributes(AgentPool pool) {
+        var attributes = poolAttributes.get(pool.getAgentPoolId());
+        if (attributes == null || !Objects.equals(attributes[0].get(AGENT_POOL), pool.getName())) {
+            var poolOnly = Attributes.of(AGENT_POOL, pool.getName());
+            attributes = new Attributes[] {
+                    poolOnly,
+                    poolOnly.toBuilder().put(AGENT_STATE, "busy").build(),
+                    poolOnly.toBuilder().put(AGENT_STATE, "idle").build(),
+                    poolOnly.toBuilder().put(AGENT_STATE, "disconnected").build()
+            };
+            poolAttributes.put(pool.getAgentPoolId(), attributes);
+        }
+        return attributes;
+    }
+
+    private void observeQueueLength(ObservableLongMeasurement measurement) {
+        var current = snapshot;
+        for (int i = 0; i < current.poolAttributes.length; i++) {
+            measurement.record(current.queued[i], current.poolAttributes[i][0]);
+        }
+    }
+
+    private void observeWaitTimes(ObservableLongMeasurement measurement) {
+        var current = snapshot;
+        if (!current.hasWaitTimes) return;
+        for (int i = 0; i < QUANTILES.length; i++) {
+            measurement.record(current.waitTimeQuantiles[i], QUANTILE_ATTRIBUTES[i]);
+        }
+    }
+
+    private void observeAgents(ObservableLongMeasurement measurement) {
+        var current = snapshot;
+        for (int i = 0; i < current.poolAttributes.length; i++) {
+            measurement.record(current.busy[i], current.poolAttributes[i][1]);
+            measurement.record(current.idle[i], current.poolAttributes[i][2]);
+            measurement.record(current.disconnected[i], current.poolAttributes[i][3]);
+        }
+    }
+
+    private static final class QueueSnapshot {
+        static final QueueSnapshot EMPTY = new QueueSnapshot(new Attributes[0][], new long[0], new long[0], new long[0], new long[0], false, new long[QUANTILES.length]);
+
+        final Attributes[][] poolAttributes;
+        final long[] queued;
+        final long[] busy;
+        final long[] idle;
+        final long[] disconnected;
+        final boolean hasWaitTimes;
+        final long[] waitTimeQuantiles;
+
+        QueueSnapshot(Attributes[][] poolAttributes, long[] queued, long[] busy, long[] idle, long[] disconnected, boolean hasWaitTimes, long[] waitTimeQuantiles) {
+            this.poolAttributes = poolAttributes;
+            this.queued = queued;
+            this.busy = busy;
+            this.idle = idle;
+            this.disconnected = disconnected;
+            this.hasWaitTimes = hasWaitTimes;
+            this.waitTimeQuantiles = waitTimeQuantiles;
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package com.octopus.teamcity.opentelemetry.server.metrics;
+
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.metrics.DoubleHistogram;
+import jetbrains.buildServer.serverSide.SRunningBuild;
+import jetbrains.buildServer.serverSide.TeamCityProperties;
+import org.apache.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+
+import java.math.BigDecimal;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static com.octopus.teamcity.opentelemetry.common.PluginConstants.*;
+
+// Publishes the build statistics (built in ones like BuildDuration, and anything reported via
+// ##teamcity[buildStatisticValue]) that match the allowlist as a histogram on the plugin meter.
+public class BuildStatisticsPublisher {
+    static Logger LOG = Logger.getLogger(BuildStatisticsPublisher.class.getName());
+    public static final String PROPERTY_STATISTICS_ALLOWLIST = "teamcity.opentelemetry.buildStatistics.allowlist";
+    public static final String DEFAULT_STATISTICS_ALLOWLIST = "BuildDuration,ArtifactsSize,TimeSpentInQueue";
+    private static final AttributeKey<String> STATISTIC = AttributeKey.stringKey(METRIC_ATTRIBUTE_STATISTIC);
+    private static final AttributeKey<String> BUILD_TYPE = AttributeKey.stringKey(METRIC_ATTRIBUTE_BUILD_TYPE);
+    private static final AttributeKey<String> BRANCH = AttributeKey.stringKey(METRIC_ATTRIBUTE_BRANCH);
+
+    private final PluginMetrics pluginMetrics;
+    private final DoubleHistogram statisticValues;
+    private volatile StatisticAllowlist allowlist = StatisticAllowlist.EMPTY;
+
+    public BuildStatisticsPublisher(@NotNull PluginMetrics pluginMetrics) {
+        this.pluginMetrics = pluginMetrics;
+        this.statisticValues = pluginMetrics.getMeter()
+                .histogramBuilder(METRIC_BUILD_STATISTIC)
+                .setDescription("Build statistic values reported by finished builds, by statistic name")
+                .build();
+    }
+
+    // The allowlisted statistics of the build, sorted by name.
+    @NotNull
+    public Map<String, BigDecimal> getPublishedStatistics(@NotNull SRunningBuild build) {
+        var result = new TreeMap<String, BigDecimal>();
+        var currentAllowlist = getAllowlist();
+        if (currentAllowlist.isEmpty()) return result;
+
+        for (Map.Entry<String, BigDecimal> entry : build.getStatisticValues().entrySet()) {
+            if (entry.getValue() != null && currentAllowlist.matches(entry.getKey())) {
+                result.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return result;
+    }
+
+    public void record(@NotNull SRunningBuild build, @NotNull Map<String, BigDecimal> statistics) {
+        if (statistics.isEmpty() || !pluginMetrics.isEnabled()) return;
+
+        var buildAttributes = Attributes.of(
+                BUILD_TYPE, build.getBuildTypeExternalId(),
+                BRANCH, build.getBranch() != null ? build.getBranch().getName() : "");
+        for (Map.Entry<String, BigDecimal> entry : statistics.entrySet()) {
+            var attributes = buildAttributes.toBuilder().put(STATISTIC, entry.getKey()).build();
+            statisticValues.record(entry.getValue().doubleValue(), attributes);
+        }
+        LOG.debug(String.format("Recorded %d build statistics for build %d", statistics.size(), build.getBuildId()));
+    }
+
+    // The property can be changed at runtime, so re-read it, but only recompile when it actually changes.
+    private StatisticAllowlist getAllowlist() {
+        var source = TeamCityProperties.getPropertyOrNull(PROPERTY_STATISTICS_ALLOWLIST);
+        if (source == null) source = DEFAULT_STATISTICS_ALLOWLIST;
+        var current = allowlist;
+        if (!current.getSource().equals(source)) {
+            current = StatisticAllowlist.parse(source);
+            allowlist = current;
+        }
+        return current;
+    }
+}
@@ -0,0 +1,54 @@
+package com.octopus.teamcity.opentelemetry.server.metrics;
+
+import jetbrains.buildServer.controllers.BaseController;
+import jetbrains.buildServer.serverSide.auth.Permission;
+import jetbrains.buildServer.web.openapi.WebControllerManager;
+import jetbrains.buildServer.web.util.SessionUser;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.springframework.web.servlet.ModelAndView;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+import static com.octopus.teamcity.opentelemetry.common.PluginConstants.PLUGIN_NAME;
+
+// GET /teamcity-opentelemetry/metrics.html - the server-wide metrics (queue, agents, build statistics and the plugin's
+// own health) in the OpenMetrics text format, for Prometheus to scrape. Off unless PluginMetrics'
+// PROPERTY_OPEN_METRICS_ENABLED is set, and needs a user (or access token) that can view usage statistics, the same
+// as TeamCity's own metrics.
+public class OpenMetricsController extends BaseController {
+    private static final String OPEN_METRICS_CONTENT_TYPE = "application/openmetrics-text; version=1.0.0; charset=utf-8";
+
+    private final PluginMetrics pluginMetrics;
+
+    public OpenMetricsController(
+            @NotNull WebControllerManager controllerManager,
+            @NotNull PluginMetrics pluginMetrics) {
+        this.pluginMetrics = pluginMetrics;
+
+        controllerManager.registerController("/" + PLUGIN_NAME + "/metrics.html", this);
+    }
+
+    @Nullable
+    @Override
+    protected ModelAndView doHandle(@NotNull HttpServletRequest request, @NotNull HttpServletResponse response) throws IOException {
+        if (!pluginMetrics.isOpenMetricsEnabled()) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return null;
+        }
+        var user = SessionUser.getUser(request);
+        if (user == null || !user.isPermissionGrantedGlobally(Permission.VIEW_USAGE_STATISTICS)) {
+            response.sendError(HttpServletResponse.SC_FORBIDDEN, "You need permission to view usage statistics to scrape metrics.");
+            return null;
+        }
+
+        var body = pluginMetrics.scrapeOpenMetrics();
+        response.setStatus(HttpServletResponse.SC_OK);
+        response.setContentType(OPEN_METRICS_CONTENT_TYPE);
+        response.setContentLength(body.length);
+        response.getOutputStream().write(body);
+        return null;
+    }
+}
@@ -0,0 +1,102 @@
+package com.octopus.teamcity.opentelemetry.server.metrics;
+
+import io.opentelemetry.sdk.common.CompletableResultCode;
+import io.opentelemetry.sdk.common.export.MemoryMode;
+import io.opentelemetry.sdk.metrics.InstrumentType;
+import io.opentelemetry.sdk.metrics.data.AggregationTemporality;
+import io.opentelemetry.sdk.metrics.export.CollectionRegistration;
+import io.opentelemetry.sdk.metrics.export.MetricReader;
+import io.opentelemetry.sdk.resources.Resource;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.charset.StandardCharsets;
+import java.util.function.LongSupplier;
+
+// A metric reader that's pulled rather than pushing on a timer: metrics are only collected when someone scrapes
+// them, and then written out in the OpenMetrics text format. The text is kept and handed to every scrape until it's
+// older than the caller allows, so several Prometheus replicas scraping the same server cost one collection between
+// them. Only one scrape collects at a time; the others wait for it and get what it wrote. The SDK can reuse its
+// metric data between collections, as we're done with it before the next one starts.
+public class OpenMetricsReader implements MetricReader {
+    private static final byte[] EMPTY = "# EOF\n".getBytes(StandardCharsets.UTF_8);
+
+    private final Resource resource;
+    private final LongSupplier clock;
+    private final Object lock = new Object();
+    private final OpenMetricsWriter writer = new OpenMetricsWriter();
+    // only touched while holding the lock; grows to fit the biggest scrape so far
+    private final StringBuilder text = new StringBuilder(4096);
+
+    @Nullable
+    private volatile CollectionRegistration registration;
+    @Nullable
+    private volatile Snapshot snapshot;
+
+    private static final class Snapshot {
+        final byte[] bytes;
+        final long takenAtMs;
+
+        Snapshot(byte[] bytes, long takenAtMs) {
+            this.bytes = bytes;
+            this.takenAtMs = takenAtMs;
+        }
+    }
+
+    public OpenMetricsReader(@NotNull Resource resource, @NotNull LongSupplier clock) {
+        this.resource = resource;
+        this.clock = clock;
+    }
+
+    // The metrics as OpenMetrics text, collected no more than maxAgeMs ago. Don't change the array.
+    @NotNull
+    public byte[] scrape(long maxAgeMs) {
+        var current = snapshot;
+        if (current != null && clock.getAsLong() - current.takenAtMs < maxAgeMs) return current.bytes;
+        synchronized (lock) {
+            // someone else may have collected while we waited
+            current = snapshot;
+            var now = clock.getAsLong();
+            if (current != null && now - current.takenAtMs < maxAgeMs) return current.bytes;
+
+            var collectionRegistration = registration;
+            var bytes = EMPTY;
+            if (collectionRegistration != null) {
+                text.setLength(0);
+                writer.write(resource, collectionRegistration.collectAllMetrics(), text);
+                bytes = text.toString().getBytes(StandardCharsets.UTF_8);
+            }
+            snapshot = new Snapshot(bytes, now);
+            return bytes;
+        }
+    }
+
+    @Override
+    public void register(@NotNull CollectionRegistration registration) {
+        this.registration = registration;
+    }
+
+    @Override
+    public AggregationTemporality getAggregationTemporality(@NotNull InstrumentType instrumentType) {
+        // Prometheus only understands totals since the start
+        return AggregationTemporality.CUMULATIVE;
+    }
+
+    @Override
+    public MemoryMode getMemoryMode() {
+        return MemoryMode.REUSABLE_DATA;
+    }
+
+    @Override
+    public CompletableResultCode forceFlush() {
+        // nothing to flush; it's up to the scrapers when metrics are collected
+        return CompletableResultCode.ofSuccess();
+    }
+
+    @Override
+    public CompletableResultCode shutdown() {
+        registration = null;
+        snapshot = null;
+        return CompletableResultCode.ofSuccess();
+    }
+}
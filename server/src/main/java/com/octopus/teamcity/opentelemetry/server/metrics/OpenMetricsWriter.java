@@ -0,0 +1,219 @@
+package com.octopus.teamcity.opentelemetry.server.metrics;
+
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.sdk.metrics.data.DoublePointData;
+import io.opentelemetry.sdk.metrics.data.HistogramPointData;
+import io.opentelemetry.sdk.metrics.data.LongPointData;
+import io.opentelemetry.sdk.metrics.data.MetricData;
+import io.opentelemetry.sdk.metrics.data.PointData;
+import io.opentelemetry.sdk.resources.Resource;
+import org.apache.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+// Writes metrics in the OpenMetrics text format, the way the OpenTelemetry Prometheus exporters name them: dots and
+// other characters Prometheus doesn't allow become underscores, the unit is added to the end of the name, counters
+// get _total, and non-monotonic sums are gauges. The resource goes in target_info. Everything is appended to the
+// StringBuilder it's given, without any String.format or regexes, and the translated names are kept between calls,
+// as there are only ever as many of them as there are instruments and attribute keys. Not thread safe.
+public final class OpenMetricsWriter {
+    static Logger LOG = Logger.getLogger(OpenMetricsWriter.class.getName());
+    // names come from our own instruments, but don't let a misbehaving one grow these forever
+    private static final int MAX_CACHED_NAMES = 1000;
+
+    private final Map<String, String> familyNames = new HashMap<>();
+    private final Map<String, String> labelNames = new HashMap<>();
+    private final Set<String> written = new HashSet<>();
+
+    public void write(@NotNull Resource resource, @NotNull Collection<MetricData> metrics, @NotNull StringBuilder out) {
+        written.clear();
+        writeTargetInfo(resource, out);
+        for (var metric : metrics) {
+            switch (metric.getType()) {
+                case LONG_GAUGE:
+                    writeFamily(metric, "gauge", "", metric.getLongGaugeData().getPoints(), out);
+                    break;
+                case DOUBLE_GAUGE:
+                    writeFamily(metric, "gauge", "", metric.getDoubleGaugeData().getPoints(), out);
+                    break;
+                case LONG_SUM:
+                    var longSum = metric.getLongSumData();
+                    if (longSum.isMonotonic()) writeFamily(metric, "counter", "_total", longSum.getPoints(), out);
+                    else writeFamily(metric, "gauge", "", longSum.getPoints(), out);
+                    break;
+                case DOUBLE_SUM:
+                    var doubleSum = metric.getDoubleSumData();
+                    if (doubleSum.isMonotonic()) writeFamily(metric, "counter", "_total", doubleSum.getPoints(), out);
+                    else writeFamily(metric, "gauge", "", doubleSum.getPoints(), out);
+                    break;
+                case HISTOGRAM:
+                    writeFamily(metric, "histogram", "", metric.getHistogramData().getPoints(), out);
+                    break;
+                default:
+                    // the plugin doesn't record summaries or exponential histograms
+                    LOG.debug("Not writing metric " + metric.getName() + " of type " + metric.getType());
+            }
+        }
+        out.append("# EOF\n");
+    }
+
+    private void writeTargetInfo(Resource resource, StringBuilder out) {
+        if (resource.getAttributes().isEmpty()) return;
+        out.append("# TYPE target info\n");
+        out.append("target_info");
+        writeLabels(resource.getAttributes(), null, 0, out);
+        out.append(" 1\n");
+    }
+
+    private void writeFamily(MetricData metric, String type, String suffix, Collection<? extends PointData> points, StringBuilder out) {
+        if (points.isEmpty()) return;
+        var unit = prometheusUnit(metric.getUnit());
+        var name = familyName(metric.getName(), unit, type);
+        if (!written.add(name)) {
+            LOG.debug("Not writing metric " + metric.getName() + " again as " + name);
+            return;
+        }
+
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+        if (!unit.isEmpty())
+            out.append("# UNIT ").append(name).append(' ').append(unit).append('\n');
+        if (!metric.getDescription().isEmpty()) {
+            out.append("# HELP ").append(name).append(' ');
+            appendEscaped(metric.getDescription(), out);
+            out.append('\n');
+        }
+
+        for (var point : points) {
+            if (point instanceof HistogramPointData) {
+                writeHistogram(name, (HistogramPointData) point, out);
+                continue;
+            }
+            out.append(name).append(suffix);
+            writeLabels(point.getAttributes(), null, 0, out);
+            out.append(' ');
+            if (point instanceof LongPointData) out.append(((LongPointData) point).getValue());
+            else appendDouble(((DoublePointData) point).getValue(), out);
+            out.append('\n');
+        }
+    }
+
+    private void writeHistogram(String name, HistogramPointData point, StringBuilder out) {
+        var boundaries = point.getBoundaries();
+        var counts = point.getCounts();
+        var cumulative = 0L;
+        for (int i = 0; i < counts.size(); i++) {
+            cumulative += counts.get(i);
+            out.append(name).append("_bucket");
+            writeLabels(point.getAttributes(), "le", i < boundaries.size() ? boundaries.get(i) : Double.POSITIVE_INFINITY, out);
+            out.append(' ').append(cumulative).append('\n');
+        }
+        out.append(name).append("_count");
+        writeLabels(point.getAttributes(), null, 0, out);
+        out.append(' ').append(point.getCount()).append('\n');
+        out.append(name).append("_sum");
+        writeLabels(point.getAttributes(), null, 0, out);
+        out.append(' ');
+        appendDouble(point.getSum(), out);
+        out.append('\n');
+    }
+
+    private void writeLabels(Attributes attributes, String extraName, double extraValue, StringBuilder out) {
+        if (attributes.isEmpty() && extraName == null) return;
+        out.append('{');
+        var start = out.length();
+        attributes.forEach((key, value) -> {
+            if (out.length() > start) out.append(',');
+            out.append(labelName(key.getKey())).append("=\"");
+            appendEscaped(String.valueOf(value), out);
+            out.append('"');
+        });
+        if (extraName != null) {
+            if (out.length() > start) out.append(',');
+            out.append(extraName).append("=\"");
+            appendDouble(extraValue, out);
+            out.append('"');
+        }
+        out.append('}');
+    }
+
+    private String familyName(String metricName, String unit, String type) {
+        var name = familyNames.get(metricName);
+        if (name != null) return name;
+        var sb = new StringBuilder(metricName.length() + unit.length() + 1);
+        appendSanitized(metricName, true, sb);
+        // counters get _total on each sample, so it doesn't belong on the family
+        if (type.equals("counter") && endsWith(sb, "_total")) sb.setLength(sb.length() - "_total".length());
+        if (!unit.isEmpty() && !endsWith(sb, "_" + unit)) sb.append('_').append(unit);
+        name = sb.toString();
+        if (familyNames.size() >= MAX_CACHED_NAMES) familyNames.clear();
+        familyNames.put(metricName, name);
+        return name;
+    }
+
+    private String labelName(String key) {
+        var name = labelNames.get(key);
+        if (name != null) return name;
+        var sb = new StringBuilder(key.length() + 1);
+        appendSanitized(key, false, sb);
+        name = sb.toString();
+        if (labelNames.size() >= MAX_CACHED_NAMES) labelNames.clear();
+        labelNames.put(key, name);
+        return name;
+    }
+
+    // the units the plugin uses, spelled out the way Prometheus likes; annotations like {span} aren't units at all
+    private static String prometheusUnit(String unit) {
+        if (unit == null || unit.isEmpty() || unit.equals("1") || unit.startsWith("{")) return "";
+        switch (unit) {
+            case "ms": return "milliseconds";
+            case "s": return "seconds";
+            case "By": return "bytes";
+            default:
+                var sb = new StringBuilder(unit.length());
+                appendSanitized(unit, false, sb);
+                return sb.toString();
+        }
+    }
+
+    private static void appendSanitized(String value, boolean allowColon, StringBuilder out) {
+        if (value.isEmpty() || (value.charAt(0) >= '0' && value.charAt(0) <= '9')) out.append('_');
+        for (int i = 0; i < value.length(); i++) {
+            var c = value.charAt(i);
+            var valid = (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_' || (allowColon && c == ':');
+            out.append(valid ? c : '_');
+        }
+    }
+
+    private static void appendEscaped(String value, StringBuilder out) {
+        for (int i = 0; i < value.length(); i++) {
+            var c = value.charAt(i);
+            switch (c) {
+                case '\\': out.append("\\\\"); break;
+                case '"': out.append("\\\""); break;
+                case '\n': out.append("\\n"); break;
+                default: out.append(c);
+            }
+        }
+    }
+
+    private static void appendDouble(double value, StringBuilder out) {
+        if (Double.isNaN(value)) out.append("NaN");
+        else if (value == Double.POSITIVE_INFINITY) out.append("+Inf");
+        else if (value == Double.NEGATIVE_INFINITY) out.append("-Inf");
+        else out.append(value);
+    }
+
+    private static boolean endsWith(StringBuilder sb, String suffix) {
+        var offset = sb.length() - suffix.length();
+        if (offset < 0) return false;
+        for (int i = 0; i < suffix.length(); i++) {
+            if (sb.charAt(offset + i) != suffix.charAt(i)) return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,121 @@
+package com.octopus.teamcity.opentelemetry.server.metrics;
+
+import com.octopus.teamcity.opentelemetry.common.PluginConstants;
+import com.octopus.teamcity.opentelemetry.server.endpoints.OTELEndpointFactory;
+import com.octopus.teamcity.opentelemetry.server.helpers.OTELMetrics;
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.metrics.Meter;
+import io.opentelemetry.sdk.metrics.SdkMeterProvider;
+import io.opentelemetry.sdk.metrics.export.MetricExporter;
+import io.opentelemetry.sdk.metrics.export.PeriodicMetricReader;
+import io.opentelemetry.sdk.resources.Resource;
+import io.opentelemetry.semconv.ServiceAttributes;
+import jetbrains.buildServer.serverSide.BuildServerAdapter;
+import jetbrains.buildServer.serverSide.BuildServerListener;
+import jetbrains.buildServer.serverSide.ProjectManager;
+import jetbrains.buildServer.serverSide.TeamCityNodes;
+import jetbrains.buildServer.serverSide.TeamCityProperties;
+import jetbrains.buildServer.util.EventDispatcher;
+import org.apache.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+
+import javax.annotation.Nullable;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+import static com.octopus.teamcity.opentelemetry.common.PluginConstants.*;
+
+// Server-wide metrics (as opposed to the per-build helpers) are sent to the destination configured on the root project,
+// and can also be scraped in the OpenMetrics format (see OpenMetricsController).
+public class PluginMetrics extends BuildServerAdapter {
+    static Logger LOG = Logger.getLogger(PluginMetrics.class.getName());
+    public static final String PROPERTY_OPEN_METRICS_ENABLED = "teamcity.opentelemetry.openMetrics.enabled";
+    public static final String PROPERTY_OPEN_METRICS_REFRESH_SECONDS = "teamcity.opentelemetry.openMetrics.refreshSeconds";
+    private static final int DEFAULT_OPEN_METRICS_REFRESH_SECONDS = 15;
+    private final ProjectManager projectManager;
+    private final OTELEndpointFactory otelEndpointFactory;
+    private final SwitchableMetricExporter metricExporter;
+    private final OpenMetricsReader openMetricsReader;
+    private final SdkMeterProvider meterProvider;
+    private final Meter meter;
+    @Nullable
+    private Map<String, String> currentParams;
+
+    public PluginMetrics(
+            @NotNull EventDispatcher<BuildServerListener> buildServerListenerEventDispatcher,
+            @NotNull ProjectManager projectManager,
+            @NotNull OTELEndpointFactory otelEndpointFactory,
+            @NotNull TeamCityNodes nodesService) {
+        this.projectManager = projectManager;
+        this.otelEndpointFactory = otelEndpointFactory;
+        this.metricExporter = new SwitchableMetricExporter();
+
+        var serviceNameResource = Resource
+                .create(Attributes.of(
+                        ServiceAttributes.SERVICE_NAME, PluginConstants.SERVICE_NAME,
+                        AttributeKey.stringKey("teamcity.node.id"), nodesService.getCurrentNode().getId()
+                ));
+        var resource = Resource.getDefault().merge(serviceNameResource);
+        this.openMetricsReader = new OpenMetricsReader(resource, System::currentTimeMillis);
+        this.meterProvider = SdkMeterProvider.builder()
+                .setResource(resource)
+                .registerMetricReader(PeriodicMetricReader.builder(metricExporter)
+                        .setInterval(OTELMetrics.METRIC_EXPORT_INTERVAL)
+                        .build())
+                .registerMetricReader(openMetricsReader)
+                .build();
+        this.meter = meterProvider.get(TRACER_INSTRUMENTATION_NAME);
+
+        buildServerListenerEventDispatcher.addListener(this);
+    }
+
+    public Meter getMeter() {
+        return meter;
+    }
+
+    // whether anything will see the metrics; the samplers don't bother otherwise
+    public boolean isEnabled() {
+        return metricExporter.hasDelegate() || isOpenMetricsEnabled();
+    }
+
+    public boolean isOpenMetricsEnabled() {
+        return TeamCityProperties.getBoolean(PROPERTY_OPEN_METRICS_ENABLED);
+    }
+
+    // The metrics as OpenMetrics text, collected at most once per refresh interval however often they're scraped.
+    @NotNull
+    public byte[] scrapeOpenMetrics() {
+        var refreshSeconds = Math.max(1, TeamCityProperties.getInteger(PROPERTY_OPEN_METRICS_REFRESH_SECONDS, DEFAULT_OPEN_METRICS_REFRESH_SECONDS));
+        return openMetricsReader.scrape(TimeUnit.SECONDS.toMillis(refreshSeconds));
+    }
+
+    // Cheap to call often - we only rebuild the exporter when the root project settings actually change.
+    public synchronized void refreshDestination() {
+        Map<String, String> params = null;
+        var features = projectManager.getRootProject().getAvailableFeaturesOfType(PLUGIN_NAME);
+        if (!features.isEmpty()) {
+            var featureParams = features.stream().findFirst().get().getParameters();
+            if ("true".equals(featureParams.get(PROPERTY_KEY_ENABLED)))
+                params = featureParams;
+        }
+
+        if (Objects.equals(params, currentParams)) return;
+        currentParams = params;
+
+        MetricExporter exporter = null;
+        if (params != null) {
+            var otelHandler = otelEndpointFactory.getOTELEndpointHandler(params.get(PROPERTY_KEY_SERVICE));
+            exporter = otelHandler.buildMetricExporter(params.get(PROPERTY_KEY_ENDPOINT), params);
+        }
+        LOG.info(String.format("Root project metrics destination changed; metrics are now %s.", exporter == null ? "disabled" : "enabled"));
+        metricExporter.setDelegate(exporter);
+    }
+
+    @Override
+    public void serverShutdown() {
+        LOG.debug("Shutting down plugin meter provider.");
+        meterProvider.close();
+    }
+}
@@ -0,0 +1,74 @@
+package com.octopus.teamcity.opentelemetry.server.metrics;
+
+import jetbrains.buildServer.util.StringUtil;
+import org.apache.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+// A comma separated list of build statistic names to publish.
+// Entries are globs (`*` and `?`), unless prefixed with `regex:`; everything is compiled up front, once.
+public class StatisticAllowlist {
+    static Logger LOG = Logger.getLogger(StatisticAllowlist.class.getName());
+    public static final String REGEX_PREFIX = "regex:";
+    public static final StatisticAllowlist EMPTY = new StatisticAllowlist("", new ArrayList<>());
+
+    private final String source;
+    private final Pattern[] patterns;
+
+    private StatisticAllowlist(String source, List<Pattern> patterns) {
+        this.source = source;
+        this.patterns = patterns.toArray(new Pattern[0]);
+    }
+
+    @NotNull
+    public static StatisticAllowlist parse(String source) {
+        if (StringUtil.isEmptyOrSpaces(source)) return EMPTY;
+
+        var patterns = new ArrayList<Pattern>();
+        for (String entry : source.split(",")) {
+            var trimmed = entry.trim();
+            if (trimmed.isEmpty()) continue;
+            try {
+                patterns.add(trimmed.startsWith(REGEX_PREFIX)
+                        ? Pattern.compile(trimmed.substring(REGEX_PREFIX.length()))
+                        : globToPattern(trimmed));
+            } catch (PatternSyntaxException e) {
+                LOG.warn(String.format("Ignoring invalid build statistic pattern '%s': %s", trimmed, e.getMessage()));
+            }
+        }
+        return new StatisticAllowlist(source, patterns);
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    public boolean isEmpty() {
+        return patterns.length == 0;
+    }
+
+    public boolean matches(String statisticName) {
+        for (Pattern pattern : patterns) {
+            if (pattern.matcher(statisticName).matches()) return true;
+        }
+        return false;
+    }
+
+    private static Pattern globToPattern(String glob) {
+        var regex = new StringBuilder();
+        var literalStart = 0;
+        for (int i = 0; i < glob.length(); i++) {
+            var c = glob.charAt(i);
+            if (c != '*' && c != '?') continue;
+            if (i > literalStart) regex.append(Pattern.quote(glob.substring(literalStart, i)));
+            regex.append(c == '*' ? ".*" : ".");
+            literalStart = i + 1;
+        }
+        if (literalStart < glob.length()) regex.append(Pattern.quote(glob.substring(literalStart)));
+        return Pattern.compile(regex.toString());
+    }
+}
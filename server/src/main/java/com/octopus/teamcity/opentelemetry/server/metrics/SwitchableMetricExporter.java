@@ -0,0 +1,65 @@
+package com.octopus.teamcity.opentelemetry.server.metrics;
+
+import io.opentelemetry.sdk.common.CompletableResultCode;
+import io.opentelemetry.sdk.metrics.InstrumentType;
+import io.opentelemetry.sdk.metrics.data.AggregationTemporality;
+import io.opentelemetry.sdk.metrics.data.MetricData;
+import io.opentelemetry.sdk.metrics.export.MetricExporter;
+import org.apache.log4j.Logger;
+
+import javax.annotation.Nullable;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicReference;
+
+// The meter provider (and every instrument registered against it) lives for the lifetime of the plugin,
+// but the destination can change whenever someone edits the root project settings. Rather than rebuilding
+// the provider (and losing the instruments), we swap the exporter underneath it.
+public class SwitchableMetricExporter implements MetricExporter {
+    static Logger LOG = Logger.getLogger(SwitchableMetricExporter.class.getName());
+    private final AtomicReference<MetricExporter> delegate = new AtomicReference<>();
+
+    public void setDelegate(@Nullable MetricExporter metricExporter) {
+        if (metricExporter != null && Arrays.stream(InstrumentType.values())
+                .anyMatch(instrumentType -> metricExporter.getAggregationTemporality(instrumentType) != AggregationTemporality.CUMULATIVE)) {
+            LOG.warn(String.format("%s asks for delta metrics, but the plugin's metrics are always sent as cumulative totals.", metricExporter.getClass().getName()));
+        }
+        var previous = delegate.getAndSet(metricExporter);
+        if (previous != null) {
+            previous.shutdown();
+        }
+    }
+
+    public boolean hasDelegate() {
+        return delegate.get() != null;
+    }
+
+    // This can't be passed on to the delegate: the SDK asks once, when it sets up each instrument's storage, which is
+    // before any destination is configured, and the answer holds for the life of the meter provider. Cumulative is also
+    // what lets a new destination carry on from the running totals, where deltas would start from a point it never saw.
+    @Override
+    public AggregationTemporality getAggregationTemporality(InstrumentType instrumentType) {
+        return AggregationTemporality.CUMULATIVE;
+    }
+
+    @Override
+    public CompletableResultCode export(Collection<MetricData> metrics) {
+        var metricExporter = delegate.get();
+        if (metricExporter == null) return CompletableResultCode.ofSuccess();
+        return metricExporter.export(metrics);
+    }
+
+    @Override
+    public CompletableResultCode flush() {
+        var metricExporter = delegate.get();
+        if (metricExporter == null) return CompletableResultCode.ofSuccess();
+        return metricExporter.flush();
+    }
+
+    @Override
+    public CompletableResultCode shutdown() {
+        var metricExporter = delegate.getAndSet(null);
+        if (metricExporter == null) return CompletableResultCode.ofSuccess();
+        return metricExporter.shutdown();
+    }
+}
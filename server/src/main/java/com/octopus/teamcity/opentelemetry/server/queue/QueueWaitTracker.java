@@ -0,0 +1,139 @@
+package com.octopus.teamcity.opentelemetry.server.queue;
+
+import com.octopus.teamcity.opentelemetry.server.metrics.PluginMetrics;
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.metrics.LongHistogram;
+import jetbrains.buildServer.serverSide.*;
+import jetbrains.buildServer.users.User;
+import jetbrains.buildServer.util.EventDispatcher;
+import org.apache.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import static com.octopus.teamcity.opentelemetry.common.PluginConstants.*;
+
+// Records, as they happen, when builds enter the queue, which wait reasons they move through and when they leave.
+// Entering and leaving come straight from the queue events; wait reasons are read from the queue snapshot taken by
+// BuildQueueSampler, so a change is timestamped at the first sample that sees it.
+public class QueueWaitTracker extends BuildServerAdapter {
+    static Logger LOG = Logger.getLogger(QueueWaitTracker.class.getName());
+    public static final String UNKNOWN_WAIT_REASON = "Unknown";
+    public static final String OTHER_WAIT_REASON = "Other";
+    private static final int MAX_WAIT_REASONS = 4096;
+    private static final long MAX_TIMELINE_AGE_MS = TimeUnit.DAYS.toMillis(2);
+    // a build can leave the queue a little while before buildStarted fires; don't forget it in the meantime
+    private static final long UNSEEN_GRACE_MS = TimeUnit.MINUTES.toMillis(10);
+    private static final AttributeKey<String> WAIT_REASON = AttributeKey.stringKey(METRIC_ATTRIBUTE_WAIT_REASON);
+
+    private final ConcurrentHashMap<Long, QueuedBuildTimeline> timelines = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Integer> waitReasonIds = new ConcurrentHashMap<>();
+    private final List<String> waitReasons = new ArrayList<>();
+    private final List<Attributes> waitReasonAttributes = new ArrayList<>();
+    private final LongHistogram waitReasonDuration;
+
+    public QueueWaitTracker(
+            @NotNull EventDispatcher<BuildServerListener> buildServerListenerEventDispatcher,
+            @NotNull PluginMetrics pluginMetrics) {
+        this.waitReasonDuration = pluginMetrics.getMeter()
+                .histogramBuilder(METRIC_QUEUE_WAIT_REASON_DURATION)
+                .ofLongs()
+                .setUnit("ms")
+                .setDescription("Time builds spent in the queue, by wait reason")
+                .build();
+        getWaitReasonId(UNKNOWN_WAIT_REASON);
+        getWaitReasonId(OTHER_WAIT_REASON);
+        buildServerListenerEventDispatcher.addListener(this);
+    }
+
+    @Override
+    public void buildTypeAddedToQueue(@NotNull SQueuedBuild queuedBuild) {
+        var promotionId = queuedBuild.getBuildPromotion().getId();
+        timelines.computeIfAbsent(promotionId, key -> new QueuedBuildTimeline(queuedBuild.getWhenQueued().getTime()));
+    }
+
+    @Override
+    public void buildRemovedFromQueue(@NotNull SQueuedBuild queuedBuild, User user, String comment) {
+        // removed without starting (eg, cancelled) - it'll never be traced
+        timelines.remove(queuedBuild.getBuildPromotion().getId());
+    }
+
+    @Override
+    public void buildStarted(@NotNull SRunningBuild build) {
+        var timeline = timelines.get(build.getBuildPromotion().getId());
+        if (timeline == null) return;
+        timeline.leftQueue(build.getServerStartDate().getTime());
+
+        for (int i = 0; i < timeline.getSegmentCount(); i++) {
+            var duration = timeline.getSegmentEnd(i) - timeline.getSegmentStart(i);
+            waitReasonDuration.record(duration, getWaitReasonAttributes(timeline.getSegmentReasonId(i)));
+        }
+    }
+
+    // Called by the queue sampler, once per queued build per tick.
+    public void observe(@NotNull SQueuedBuild queuedBuild, long now) {
+        var timeline = timelines.computeIfAbsent(queuedBuild.getBuildPromotion().getId(), key -> new QueuedBuildTimeline(queuedBuild.getWhenQueued().getTime()));
+        timeline.observe(getWaitReasonId(getWaitReason(queuedBuild)), now);
+    }
+
+    // Called by the queue sampler at the end of each tick, to forget builds that left the queue without us hearing about it.
+    public void prune(long sampleStartedAt) {
+        timelines.values().removeIf(timeline -> {
+            var leftQueueAt = timeline.getLeftQueueAt();
+            if (leftQueueAt == 0) return timeline.getLastSeenAt() < sampleStartedAt - UNSEEN_GRACE_MS;
+            return sampleStartedAt - leftQueueAt > MAX_TIMELINE_AGE_MS;
+        });
+    }
+
+    // Hands over (and forgets) the timeline for a build that has left the queue.
+    @Nullable
+    public QueuedBuildTimeline take(long promotionId) {
+        var timeline = timelines.get(promotionId);
+        if (timeline == null || timeline.getLeftQueueAt() == 0) return null;
+        timelines.remove(promotionId);
+        return timeline;
+    }
+
+    public String getWaitReason(int waitReasonId) {
+        synchronized (waitReasons) {
+            return waitReasons.get(waitReasonId);
+        }
+    }
+
+    private Attributes getWaitReasonAttributes(int waitReasonId) {
+        synchronized (waitReasons) {
+            return waitReasonAttributes.get(waitReasonId);
+        }
+    }
+
+    private int getWaitReasonId(String waitReason) {
+        var id = waitReasonIds.get(waitReason);
+        if (id != null) return id;
+        synchronized (waitReasons) {
+            id = waitReasonIds.get(waitReason);
+            if (id != null) return id;
+            if (waitReasons.size() >= MAX_WAIT_REASONS) {
+                LOG.debug(String.format("Wait reason dictionary is full; recording '%s' as '%s'.", waitReason, OTHER_WAIT_REASON));
+                return waitReasonIds.get(OTHER_WAIT_REASON);
+            }
+            id = waitReasons.size();
+            waitReasons.add(waitReason);
+            waitReasonAttributes.add(Attributes.of(WAIT_REASON, waitReason));
+            waitReasonIds.put(waitReason, id);
+            return id;
+        }
+    }
+
+    private static String getWaitReason(SQueuedBuild queuedBuild) {
+        var estimates = queuedBuild.getBuildEstimates();
+        if (estimates == null) return UNKNOWN_WAIT_REASON;
+        var waitReason = estimates.getWaitReason();
+        if (waitReason == null) return UNKNOWN_WAIT_REASON;
+        return waitReason.getDescription();
+    }
+}
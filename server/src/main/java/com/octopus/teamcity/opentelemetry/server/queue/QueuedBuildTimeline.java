@@ -0,0 +1,66 @@
+package com.octopus.teamcity.opentelemetry.server.queue;
+
+import java.util.Arrays;
+
+// Wait reason history for a single queued build, kept as a pair of primitive arrays.
+// Reasons are dictionary ids (see QueueWaitTracker); a segment runs from its change time until the next change,
+// or until the build left the queue.
+public class QueuedBuildTimeline {
+    private final long queuedAt;
+    private long leftQueueAt;
+    private long lastSeenAt;
+    private long[] changeTimes = new long[4];
+    private int[] reasonIds = new int[4];
+    private int size;
+
+    public QueuedBuildTimeline(long queuedAt) {
+        this.queuedAt = queuedAt;
+        this.lastSeenAt = queuedAt;
+    }
+
+    synchronized void observe(int reasonId, long timestamp) {
+        lastSeenAt = timestamp;
+        if (leftQueueAt != 0) return;
+        if (size > 0 && reasonIds[size - 1] == reasonId) return;
+        if (size == changeTimes.length) {
+            changeTimes = Arrays.copyOf(changeTimes, size * 2);
+            reasonIds = Arrays.copyOf(reasonIds, size * 2);
+        }
+        // the first reason we see is back-dated to when the build was queued
+        changeTimes[size] = size == 0 ? queuedAt : Math.max(timestamp, changeTimes[size - 1]);
+        reasonIds[size] = reasonId;
+        size++;
+    }
+
+    synchronized void leftQueue(long timestamp) {
+        if (leftQueueAt == 0) leftQueueAt = Math.max(timestamp, queuedAt);
+    }
+
+    public long getQueuedAt() {
+        return queuedAt;
+    }
+
+    public synchronized long getLeftQueueAt() {
+        return leftQueueAt;
+    }
+
+    synchronized long getLastSeenAt() {
+        return lastSeenAt;
+    }
+
+    public synchronized int getSegmentCount() {
+        return size;
+    }
+
+    public synchronized int getSegmentReasonId(int index) {
+        return reasonIds[index];
+    }
+
+    public synchronized long getSegmentStart(int index) {
+        return changeTimes[index];
+    }
+
+    public synchronized long getSegmentEnd(int index) {
+        return index + 1 < size ? changeTimes[index + 1] : leftQueueAt;
+    }
+}
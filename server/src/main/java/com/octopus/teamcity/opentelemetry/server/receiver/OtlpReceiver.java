@@ -0,0 +1,224 @@
+package com.octopus.teamcity.opentelemetry.server.receiver;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.octopus.teamcity.opentelemetry.server.helpers.OTELHelper;
+import com.octopus.teamcity.opentelemetry.server.helpers.ProjectSpanQuotas;
+import io.opentelemetry.proto.collector.trace.v1.ExportTracePartialSuccess;
+import io.opentelemetry.proto.collector.trace.v1.ExportTraceServiceRequest;
+import io.opentelemetry.proto.collector.trace.v1.ExportTraceServiceResponse;
+import jetbrains.buildServer.serverSide.BuildServerAdapter;
+import jetbrains.buildServer.serverSide.BuildServerListener;
+import jetbrains.buildServer.serverSide.SRunningBuild;
+import jetbrains.buildServer.serverSide.TeamCityProperties;
+import jetbrains.buildServer.util.EventDispatcher;
+import org.apache.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.function.LongSupplier;
+
+// Takes spans that tools in a running build send over OTLP and passes them through the build's helper, so they
+// get the same masking, limits and trace budget as ours, and go to the same place. Each build gets its own token
+// when it starts, and can only add spans to its own trace while it runs.
+// Ingest is bounded so a chatty build can't starve the rest: only a few requests are handled at once, and each
+// build gets a rate (with some burst) and a total number of spans; past those, requests are turned away with a 429
+// so the exporter can back off, or the extra spans rejected. The spans also count against the project's span rate
+// and daily quota, like the plugin's own.
+public class OtlpReceiver extends BuildServerAdapter {
+    static Logger LOG = Logger.getLogger(OtlpReceiver.class.getName());
+    public static final String PROPERTY_MAX_CONCURRENT_REQUESTS = "teamcity.opentelemetry.receiver.maxConcurrentRequests";
+    public static final String PROPERTY_SPANS_PER_SECOND = "teamcity.opentelemetry.receiver.spansPerSecond";
+    public static final String PROPERTY_MAX_SPANS_PER_BUILD = "teamcity.opentelemetry.receiver.maxSpansPerBuild";
+    private static final int DEFAULT_MAX_CONCURRENT_REQUESTS = 4;
+    private static final int DEFAULT_SPANS_PER_SECOND = 200;
+    private static final int DEFAULT_MAX_SPANS_PER_BUILD = 20000;
+    // how many seconds worth of spans a build can send at once, eg when a tool flushes as it exits
+    private static final int BURST_SECONDS = 10;
+
+    public enum Status { ACCEPTED, UNAUTHORIZED, MALFORMED, THROTTLED, BUSY }
+
+    public static final class Result {
+        private final Status status;
+        @Nullable
+        private final byte[] response;
+
+        private Result(Status status, @Nullable byte[] response) {
+            this.status = status;
+            this.response = response;
+        }
+
+        public Status getStatus() {
+            return status;
+        }
+
+        // The ExportTraceServiceResponse to send back, when the request was accepted.
+        @Nullable
+        public byte[] getResponse() {
+            return response;
+        }
+    }
+
+    private static final class Registration {
+        final byte[] token;
+        final String projectExternalId;
+        final String traceId;
+        final OTELHelper otelHelper;
+        long remainingSpans;
+        double availableSpans;
+        long lastRefillNanos;
+
+        Registration(byte[] token, String projectExternalId, String traceId, OTELHelper otelHelper, long maxSpans, double burst, long nowNanos) {
+            this.token = token;
+            this.projectExternalId = projectExternalId;
+            this.traceId = traceId;
+            this.otelHelper = otelHelper;
+            this.remainingSpans = maxSpans;
+            this.availableSpans = burst;
+            this.lastRefillNanos = nowNanos;
+        }
+
+        // Takes up to wanted spans' worth of allowance, returning how many it got.
+        synchronized int take(int wanted, double spansPerSecond, double burst, long now) {
+            // now was read before we got the lock, so may be behind what another request already counted up to
+            if (now > lastRefillNanos) {
+                availableSpans = Math.min(burst, availableSpans + (now - lastRefillNanos) / 1e9 * spansPerSecond);
+                lastRefillNanos = now;
+            }
+            var granted = (int) Math.min(wanted, Math.min(Math.floor(availableSpans), remainingSpans));
+            availableSpans -= granted;
+            remainingSpans -= granted;
+            return granted;
+        }
+
+        synchronized boolean isExhausted() {
+            return remainingSpans <= 0;
+        }
+    }
+
+    private final SecureRandom random = new SecureRandom();
+    private final ConcurrentHashMap<Long, Registration> registrations = new ConcurrentHashMap<>();
+    private final Semaphore requests;
+    private final ProjectSpanQuotas projectSpanQuotas;
+    private final LongSupplier nanoClock;
+
+    @Autowired
+    public OtlpReceiver(@NotNull EventDispatcher<BuildServerListener> buildServerListenerEventDispatcher, @NotNull ProjectSpanQuotas projectSpanQuotas) {
+        this(buildServerListenerEventDispatcher, projectSpanQuotas, System::nanoTime);
+    }
+
+    public OtlpReceiver(@NotNull EventDispatcher<BuildServerListener> buildServerListenerEventDispatcher, @NotNull ProjectSpanQuotas projectSpanQuotas, @NotNull LongSupplier nanoClock) {
+        this.projectSpanQuotas = projectSpanQuotas;
+        this.nanoClock = nanoClock;
+        this.requests = new Semaphore(Math.max(1, TeamCityProperties.getInteger(PROPERTY_MAX_CONCURRENT_REQUESTS, DEFAULT_MAX_CONCURRENT_REQUESTS)));
+        buildServerListenerEventDispatcher.addListener(this);
+    }
+
+    // Starts accepting spans for the build, returning the token they have to be sent with. The build id is part of
+    // the token, so the exporter only needs the one header.
+    @NotNull
+    public String register(long buildId, @NotNull String projectExternalId, @NotNull String traceId, @NotNull OTELHelper otelHelper) {
+        var bytes = new byte[24];
+        random.nextBytes(bytes);
+        var token = buildId + "-" + Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+        var maxSpans = Math.max(0, TeamCityProperties.getInteger(PROPERTY_MAX_SPANS_PER_BUILD, DEFAULT_MAX_SPANS_PER_BUILD));
+        registrations.put(buildId, new Registration(token.getBytes(StandardCharsets.US_ASCII), projectExternalId, traceId, otelHelper, maxSpans, getSpansPerSecond() * BURST_SECONDS, nanoClock.getAsLong()));
+        return token;
+    }
+
+    // The token the build was given, while it's still running.
+    @Nullable
+    public String getToken(long buildId) {
+        var registration = registrations.get(buildId);
+        return registration == null ? null : new String(registration.token, StandardCharsets.US_ASCII);
+    }
+
+    @Override
+    public void buildFinished(@NotNull SRunningBuild build) {
+        registrations.remove(build.getBuildId());
+    }
+
+    @Override
+    public void buildInterrupted(@NotNull SRunningBuild build) {
+        registrations.remove(build.getBuildId());
+    }
+
+    @NotNull
+    public Result receive(@Nullable String token, @NotNull byte[] body) {
+        var registration = findRegistration(token);
+        if (registration == null) return new Result(Status.UNAUTHORIZED, null);
+
+        if (!requests.tryAcquire()) return new Result(Status.BUSY, null);
+        try {
+            ExportTraceServiceRequest request;
+            try {
+                request = ExportTraceServiceRequest.parseFrom(body);
+            } catch (InvalidProtocolBufferException e) {
+                return new Result(Status.MALFORMED, null);
+            }
+
+            var converter = new OtlpSpanConverter(registration.traceId, registration.otelHelper.getSpanLimits());
+            converter.convert(request);
+            var spans = converter.getAccepted();
+            if (registration.isExhausted())
+                return accepted(converter.getRejected() + spans.size(), "the build has sent as many spans as it can");
+            var spansPerSecond = getSpansPerSecond();
+            var granted = registration.take(spans.size(), spansPerSecond, spansPerSecond * BURST_SECONDS, nanoClock.getAsLong());
+            if (granted == 0 && !spans.isEmpty()) return new Result(Status.THROTTLED, null);
+
+            var limiter = projectSpanQuotas.forProject(registration.projectExternalId);
+            var added = 0;
+            for (int i = 0; i < granted; i++) {
+                if (!limiter.tryAcquire()) continue;
+                registration.otelHelper.addEndedSpan(spans.get(i));
+                added++;
+            }
+            var rejected = converter.getRejected() + spans.size() - added;
+            String message = null;
+            if (spans.size() > granted) message = "the build is sending spans faster than allowed";
+            else if (granted > added) message = "the project is over its span rate or daily quota";
+            else if (converter.getRejected() > 0) message = "spans must be in the build's trace, and have a parent";
+            if (rejected > 0)
+                LOG.debug(String.format("Rejected %d of %d spans sent by a build: %s", rejected, converter.getRejected() + spans.size(), message));
+            return accepted(rejected, message);
+        } finally {
+            requests.release();
+        }
+    }
+
+    @Nullable
+    private Registration findRegistration(@Nullable String token) {
+        if (token == null) return null;
+        var separator = token.indexOf('-');
+        if (separator <= 0) return null;
+        long buildId;
+        try {
+            buildId = Long.parseLong(token.substring(0, separator));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        var registration = registrations.get(buildId);
+        if (registration == null || !MessageDigest.isEqual(registration.token, token.getBytes(StandardCharsets.US_ASCII))) return null;
+        return registration;
+    }
+
+    private static double getSpansPerSecond() {
+        return Math.max(1, TeamCityProperties.getInteger(PROPERTY_SPANS_PER_SECOND, DEFAULT_SPANS_PER_SECOND));
+    }
+
+    private static Result accepted(int rejectedSpans, @Nullable String message) {
+        var response = ExportTraceServiceResponse.newBuilder();
+        if (rejectedSpans > 0) {
+            response.setPartialSuccess(ExportTracePartialSuccess.newBuilder()
+                    .setRejectedSpans(rejectedSpans)
+                    .setErrorMessage(message == null ? "" : message));
+        }
+        return new Result(Status.ACCEPTED, response.build().toByteArray());
+    }
+}
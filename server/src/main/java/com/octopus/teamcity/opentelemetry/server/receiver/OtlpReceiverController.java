@@ -0,0 +1,97 @@
+package com.octopus.teamcity.opentelemetry.server.receiver;
+
+import jetbrains.buildServer.controllers.AuthorizationInterceptor;
+import jetbrains.buildServer.controllers.BaseController;
+import jetbrains.buildServer.web.openapi.WebControllerManager;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.springframework.web.servlet.ModelAndView;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static com.octopus.teamcity.opentelemetry.common.PluginConstants.*;
+
+// POST /teamcity-opentelemetry/otlpTraces.html - an OTLP/HTTP traces endpoint (binary protobuf only) for tools
+// running in builds. Like the resource samples endpoint, it's authenticated with a per build token rather than a
+// TeamCity login (see OtlpReceiver).
+public class OtlpReceiverController extends BaseController {
+    private static final String PROTOBUF_CONTENT_TYPE = "application/x-protobuf";
+    private static final int MAX_BODY_BYTES = 4 * 1024 * 1024;
+    private static final String RETRY_AFTER_SECONDS = "5";
+
+    private final OtlpReceiver otlpReceiver;
+
+    public OtlpReceiverController(
+            @NotNull WebControllerManager controllerManager,
+            @NotNull AuthorizationInterceptor authorizationInterceptor,
+            @NotNull OtlpReceiver otlpReceiver) {
+        this.otlpReceiver = otlpReceiver;
+
+        controllerManager.registerController(OTLP_TRACES_PATH, this);
+        authorizationInterceptor.addPathNotRequiringAuth(OTLP_TRACES_PATH);
+    }
+
+    @Nullable
+    @Override
+    protected ModelAndView doHandle(@NotNull HttpServletRequest request, @NotNull HttpServletResponse response) throws IOException {
+        if (!isPost(request)) {
+            response.sendError(HttpServletResponse.SC_METHOD_NOT_ALLOWED);
+            return null;
+        }
+        var contentType = request.getContentType();
+        if (contentType == null || !contentType.startsWith(PROTOBUF_CONTENT_TYPE)) {
+            response.sendError(HttpServletResponse.SC_UNSUPPORTED_MEDIA_TYPE, "only " + PROTOBUF_CONTENT_TYPE + " is supported");
+            return null;
+        }
+        if (request.getContentLength() > MAX_BODY_BYTES) {
+            response.sendError(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE);
+            return null;
+        }
+        var body = readBody(request);
+        if (body == null) {
+            response.sendError(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE);
+            return null;
+        }
+
+        var result = otlpReceiver.receive(request.getHeader(OTLP_TOKEN_HEADER), body);
+        switch (result.getStatus()) {
+            case ACCEPTED:
+                response.setStatus(HttpServletResponse.SC_OK);
+                response.setContentType(PROTOBUF_CONTENT_TYPE);
+                response.getOutputStream().write(result.getResponse());
+                break;
+            case UNAUTHORIZED:
+                response.sendError(HttpServletResponse.SC_UNAUTHORIZED);
+                break;
+            case MALFORMED:
+                response.sendError(HttpServletResponse.SC_BAD_REQUEST, "not an ExportTraceServiceRequest");
+                break;
+            case THROTTLED:
+                response.setHeader("Retry-After", RETRY_AFTER_SECONDS);
+                response.sendError(429);
+                break;
+            case BUSY:
+                response.setHeader("Retry-After", RETRY_AFTER_SECONDS);
+                response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+                break;
+        }
+        return null;
+    }
+
+    @Nullable
+    private static byte[] readBody(HttpServletRequest request) throws IOException {
+        var body = new ByteArrayOutputStream();
+        var buffer = new byte[8192];
+        try (var input = request.getInputStream()) {
+            int read;
+            while ((read = input.read(buffer)) != -1) {
+                if (body.size() + read > MAX_BODY_BYTES) return null;
+                body.write(buffer, 0, read);
+            }
+        }
+        return body.toByteArray();
+    }
+}
@@ -0,0 +1,85 @@
+package com.octopus.teamcity.opentelemetry.server.receiver;
+
+import com.octopus.teamcity.opentelemetry.server.LogMasker;
+import com.octopus.teamcity.opentelemetry.server.TeamCityBuildListener;
+import com.octopus.teamcity.opentelemetry.server.helpers.OTELHelperFactory;
+import jetbrains.buildServer.serverSide.*;
+import jetbrains.buildServer.serverSide.parameters.types.PasswordsProvider;
+import org.apache.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import static com.octopus.teamcity.opentelemetry.common.PluginConstants.*;
+
+// Gives each traced build the endpoint and header to send its tools' spans to the server with, as parameters.
+// Builds opt in by passing these on to their tools, eg with env.OTEL_EXPORTER_OTLP_TRACES_ENDPOINT; setting
+// those for every build would take over tools that already export somewhere else, so that's an internal property.
+// The header carries the build's token, so it's a password parameter: masked wherever TeamCity shows the build's
+// parameters or log, and useless once the build has finished.
+public class OtlpReceiverStartContext implements BuildStartContextProcessor, PasswordsProvider {
+    static Logger LOG = Logger.getLogger(OtlpReceiverStartContext.class.getName());
+    public static final String PROPERTY_ENABLED = "teamcity.opentelemetry.receiver.enabled";
+    public static final String PROPERTY_SET_ENVIRONMENT = "teamcity.opentelemetry.receiver.setEnvironment";
+
+    private final TeamCityBuildListener buildListener;
+    private final OTELHelperFactory otelHelperFactory;
+    private final OtlpReceiver otlpReceiver;
+    private final SBuildServer sBuildServer;
+
+    public OtlpReceiverStartContext(
+            @NotNull TeamCityBuildListener buildListener,
+            @NotNull OTELHelperFactory otelHelperFactory,
+            @NotNull OtlpReceiver otlpReceiver,
+            @NotNull SBuildServer sBuildServer) {
+        this.buildListener = buildListener;
+        this.otelHelperFactory = otelHelperFactory;
+        this.otlpReceiver = otlpReceiver;
+        this.sBuildServer = sBuildServer;
+    }
+
+    @Override
+    public void updateParameters(@NotNull BuildStartContext context) {
+        if (!TeamCityProperties.getBooleanOrTrue(PROPERTY_ENABLED)) return;
+        var build = context.getBuild();
+        try {
+            var spanContext = buildListener.getBuildSpanContext(build);
+            if (spanContext == null || !spanContext.isValid()) return;
+            // the helper is there, as getBuildSpanContext has just used it
+            var otelHelper = otelHelperFactory.getOTELHelper(build.getBuildPromotion().findTops()[0]);
+
+            var token = otlpReceiver.register(build.getBuildId(), build.getProjectExternalId(), spanContext.getTraceId(), otelHelper);
+            var rootUrl = sBuildServer.getRootUrl();
+            var endpoint = (rootUrl.endsWith("/") ? rootUrl.substring(0, rootUrl.length() - 1) : rootUrl) + OTLP_TRACES_PATH;
+            var headers = getHeaders(token);
+            context.addSharedParameter(PARAMETER_OTLP_TRACES_ENDPOINT, endpoint);
+            context.addSharedParameter(PARAMETER_OTLP_TRACES_HEADERS, headers);
+            if (TeamCityProperties.getBoolean(PROPERTY_SET_ENVIRONMENT)) {
+                context.addSharedParameter(ENV_OTLP_TRACES_ENDPOINT, endpoint);
+                context.addSharedParameter(ENV_OTLP_TRACES_HEADERS, headers);
+                context.addSharedParameter(ENV_OTLP_TRACES_PROTOCOL, "http/protobuf");
+            }
+        } catch (Exception e) {
+            LOG.warn(LogMasker.mask(String.format("Unable to set up the OTLP receiver for build %d: %s", build.getBuildId(), e.getMessage())));
+        }
+    }
+
+    @NotNull
+    @Override
+    public Collection<Parameter> getPasswordParameters(@NotNull SBuild build) {
+        var token = otlpReceiver.getToken(build.getBuildId());
+        if (token == null) return List.of();
+        var headers = getHeaders(token);
+        var parameters = new ArrayList<Parameter>(2);
+        parameters.add(new SimpleParameter(PARAMETER_OTLP_TRACES_HEADERS, headers));
+        if (TeamCityProperties.getBoolean(PROPERTY_SET_ENVIRONMENT))
+            parameters.add(new SimpleParameter(ENV_OTLP_TRACES_HEADERS, headers));
+        return parameters;
+    }
+
+    private static String getHeaders(String token) {
+        return OTLP_TOKEN_HEADER + "=" + token;
+    }
+}
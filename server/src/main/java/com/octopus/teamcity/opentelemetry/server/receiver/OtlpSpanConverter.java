@@ -0,0 +1,200 @@
+package com.octopus.teamcity.opentelemetry.server.receiver;
+
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.common.AttributesBuilder;
+import io.opentelemetry.api.trace.SpanContext;
+import io.opentelemetry.api.trace.SpanId;
+import io.opentelemetry.api.trace.SpanKind;
+import io.opentelemetry.api.trace.StatusCode;
+import io.opentelemetry.api.trace.TraceFlags;
+import io.opentelemetry.api.trace.TraceId;
+import io.opentelemetry.api.trace.TraceState;
+import io.opentelemetry.proto.collector.trace.v1.ExportTraceServiceRequest;
+import io.opentelemetry.proto.common.v1.AnyValue;
+import io.opentelemetry.proto.common.v1.KeyValue;
+import io.opentelemetry.proto.trace.v1.Span;
+import io.opentelemetry.proto.trace.v1.Status;
+import io.opentelemetry.sdk.common.InstrumentationScopeInfo;
+import io.opentelemetry.sdk.resources.Resource;
+import io.opentelemetry.sdk.trace.SpanLimits;
+import io.opentelemetry.sdk.trace.data.EventData;
+import io.opentelemetry.sdk.trace.data.LinkData;
+import io.opentelemetry.sdk.trace.data.StatusData;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Turns the spans of an OTLP export request into ReceivedSpans, holding them to the same limits as our own spans
+// (the SDK applies those as spans are recorded, which these weren't). Spans from other traces, and spans without a
+// parent - they'd show up as a second root - don't belong to the build, so are rejected. Without a trace id, any
+// span is accepted, for spans we wrote out ourselves (see UnsentSpanStore).
+public class OtlpSpanConverter {
+    @Nullable
+    private final String traceId;
+    private final SpanLimits limits;
+    private final List<ReceivedSpan> accepted = new ArrayList<>();
+    private int rejected;
+
+    public OtlpSpanConverter(@Nullable String traceId, @NotNull SpanLimits limits) {
+        this.traceId = traceId;
+        this.limits = limits;
+    }
+
+    public void convert(@NotNull ExportTraceServiceRequest request) {
+        for (var resourceSpans : request.getResourceSpansList()) {
+            var resource = Resource.create(toAttributes(resourceSpans.getResource().getAttributesList(), Integer.MAX_VALUE));
+            for (var scopeSpans : resourceSpans.getScopeSpansList()) {
+                var protoScope = scopeSpans.getScope();
+                var scopeBuilder = InstrumentationScopeInfo.builder(protoScope.getName());
+                if (!protoScope.getVersion().isEmpty()) scopeBuilder.setVersion(protoScope.getVersion());
+                if (!scopeSpans.getSchemaUrl().isEmpty()) scopeBuilder.setSchemaUrl(scopeSpans.getSchemaUrl());
+                var scope = scopeBuilder.build();
+                for (var span : scopeSpans.getSpansList()) {
+                    var converted = convert(span, scope, resource);
+                    if (converted == null) rejected++;
+                    else accepted.add(converted);
+                }
+            }
+        }
+    }
+
+    public List<ReceivedSpan> getAccepted() {
+        return accepted;
+    }
+
+    public int getRejected() {
+        return rejected;
+    }
+
+    private ReceivedSpan convert(Span span, InstrumentationScopeInfo scope, Resource resource) {
+        if (span.getTraceId().size() != TraceId.getLength() / 2 || span.getSpanId().size() != SpanId.getLength() / 2) return null;
+        var spanTraceId = TraceId.fromBytes(span.getTraceId().toByteArray());
+        var hasParent = span.getParentSpanId().size() == SpanId.getLength() / 2;
+        if (traceId != null && (!traceId.equals(spanTraceId) || !hasParent)) return null;
+        if (span.getEndTimeUnixNano() < span.getStartTimeUnixNano()) return null;
+
+        var spanContext = SpanContext.create(spanTraceId, SpanId.fromBytes(span.getSpanId().toByteArray()), TraceFlags.getSampled(), TraceState.getDefault());
+        var parentSpanContext = hasParent
+                ? SpanContext.create(spanTraceId, SpanId.fromBytes(span.getParentSpanId().toByteArray()), TraceFlags.getSampled(), TraceState.getDefault())
+                : SpanContext.getInvalid();
+
+        var events = new ArrayList<EventData>(Math.min(span.getEventsCount(), limits.getMaxNumberOfEvents()));
+        for (var event : span.getEventsList()) {
+            if (events.size() >= limits.getMaxNumberOfEvents()) break;
+            events.add(EventData.create(
+                    event.getTimeUnixNano(),
+                    event.getName(),
+                    toAttributes(event.getAttributesList(), limits.getMaxNumberOfAttributesPerEvent()),
+                    event.getAttributesCount() + event.getDroppedAttributesCount()));
+        }
+
+        var links = new ArrayList<LinkData>(Math.min(span.getLinksCount(), limits.getMaxNumberOfLinks()));
+        for (var link : span.getLinksList()) {
+            if (links.size() >= limits.getMaxNumberOfLinks()) break;
+            if (link.getTraceId().size() != TraceId.getLength() / 2 || link.getSpanId().size() != SpanId.getLength() / 2) continue;
+            links.add(LinkData.create(
+                    SpanContext.create(TraceId.fromBytes(link.getTraceId().toByteArray()), SpanId.fromBytes(link.getSpanId().toByteArray()), TraceFlags.getSampled(), TraceState.getDefault()),
+                    toAttributes(link.getAttributesList(), limits.getMaxNumberOfAttributesPerLink()),
+                    link.getAttributesCount() + link.getDroppedAttributesCount()));
+        }
+
+        return new ReceivedSpan(
+                span.getName(),
+                toKind(span.getKind()),
+                spanContext,
+                parentSpanContext,
+                toStatus(span.getStatus()),
+                span.getStartTimeUnixNano(),
+                span.getEndTimeUnixNano(),
+                toAttributes(span.getAttributesList(), limits.getMaxNumberOfAttributes()),
+                span.getAttributesCount() + span.getDroppedAttributesCount(),
+                events,
+                span.getEventsCount() + span.getDroppedEventsCount(),
+                links,
+                span.getLinksCount() + span.getDroppedLinksCount(),
+                scope,
+                resource);
+    }
+
+    private Attributes toAttributes(List<KeyValue> keyValues, int maxAttributes) {
+        AttributesBuilder builder = Attributes.builder();
+        var count = 0;
+        for (var keyValue : keyValues) {
+            if (count >= maxAttributes) break;
+            if (keyValue.getKey().isEmpty()) continue;
+            if (put(builder, keyValue.getKey(), keyValue.getValue())) count++;
+        }
+        return builder.build();
+    }
+
+    private boolean put(AttributesBuilder builder, String key, AnyValue value) {
+        switch (value.getValueCase()) {
+            case STRING_VALUE:
+                builder.put(key, truncate(value.getStringValue()));
+                return true;
+            case BOOL_VALUE:
+                builder.put(key, value.getBoolValue());
+                return true;
+            case INT_VALUE:
+                builder.put(key, value.getIntValue());
+                return true;
+            case DOUBLE_VALUE:
+                builder.put(key, value.getDoubleValue());
+                return true;
+            case ARRAY_VALUE:
+                return putArray(builder, key, value.getArrayValue().getValuesList());
+            case KVLIST_VALUE:
+            case BYTES_VALUE:
+                // nothing in the SDK's attribute model to put these in, so keep them readable at least
+                builder.put(key, truncate(value.toString()));
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    // Arrays of one type are kept as they are; anything else becomes an array of strings.
+    private boolean putArray(AttributesBuilder builder, String key, List<AnyValue> values) {
+        if (values.isEmpty()) return false;
+        var valueCase = values.get(0).getValueCase();
+        var sameType = values.stream().allMatch(value -> value.getValueCase() == valueCase);
+        if (sameType && valueCase == AnyValue.ValueCase.BOOL_VALUE) {
+            builder.put(AttributeKey.booleanArrayKey(key), values.stream().map(AnyValue::getBoolValue).toList());
+        } else if (sameType && valueCase == AnyValue.ValueCase.INT_VALUE) {
+            builder.put(AttributeKey.longArrayKey(key), values.stream().map(AnyValue::getIntValue).toList());
+        } else if (sameType && valueCase == AnyValue.ValueCase.DOUBLE_VALUE) {
+            builder.put(AttributeKey.doubleArrayKey(key), values.stream().map(AnyValue::getDoubleValue).toList());
+        } else {
+            builder.put(AttributeKey.stringArrayKey(key), values.stream()
+                    .map(value -> truncate(value.getValueCase() == AnyValue.ValueCase.STRING_VALUE ? value.getStringValue() : value.toString()))
+                    .toList());
+        }
+        return true;
+    }
+
+    private String truncate(String value) {
+        var maxLength = limits.getMaxAttributeValueLength();
+        return value.length() > maxLength ? value.substring(0, maxLength) : value;
+    }
+
+    private static SpanKind toKind(Span.SpanKind kind) {
+        switch (kind) {
+            case SPAN_KIND_SERVER: return SpanKind.SERVER;
+            case SPAN_KIND_CLIENT: return SpanKind.CLIENT;
+            case SPAN_KIND_PRODUCER: return SpanKind.PRODUCER;
+            case SPAN_KIND_CONSUMER: return SpanKind.CONSUMER;
+            default: return SpanKind.INTERNAL;
+        }
+    }
+
+    private static StatusData toStatus(Status status) {
+        switch (status.getCode()) {
+            case STATUS_CODE_OK: return StatusData.ok();
+            case STATUS_CODE_ERROR: return StatusData.create(StatusCode.ERROR, status.getMessage());
+            default: return StatusData.unset();
+        }
+    }
+}
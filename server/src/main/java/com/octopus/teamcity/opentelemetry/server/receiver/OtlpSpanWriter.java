@@ -0,0 +1,144 @@
+package com.octopus.teamcity.opentelemetry.server.receiver;
+
+import com.google.protobuf.ByteString;
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.trace.SpanContext;
+import io.opentelemetry.proto.collector.trace.v1.ExportTraceServiceRequest;
+import io.opentelemetry.proto.common.v1.AnyValue;
+import io.opentelemetry.proto.common.v1.ArrayValue;
+import io.opentelemetry.proto.common.v1.InstrumentationScope;
+import io.opentelemetry.proto.common.v1.KeyValue;
+import io.opentelemetry.proto.resource.v1.Resource;
+import io.opentelemetry.proto.trace.v1.ResourceSpans;
+import io.opentelemetry.proto.trace.v1.ScopeSpans;
+import io.opentelemetry.proto.trace.v1.Span;
+import io.opentelemetry.proto.trace.v1.Status;
+import io.opentelemetry.sdk.common.InstrumentationScopeInfo;
+import io.opentelemetry.sdk.trace.data.SpanData;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// The other way to OtlpSpanConverter: spans as an OTLP export request, for when they have to be kept somewhere
+// rather than sent.
+public final class OtlpSpanWriter {
+    private OtlpSpanWriter() {}
+
+    @NotNull
+    public static ExportTraceServiceRequest toRequest(@NotNull Collection<SpanData> spans) {
+        var byResource = new LinkedHashMap<io.opentelemetry.sdk.resources.Resource, Map<InstrumentationScopeInfo, ScopeSpans.Builder>>();
+        for (var span : spans) {
+            byResource.computeIfAbsent(span.getResource(), key -> new LinkedHashMap<>())
+                    .computeIfAbsent(span.getInstrumentationScopeInfo(), OtlpSpanWriter::toScopeSpans)
+                    .addSpans(toSpan(span));
+        }
+
+        var request = ExportTraceServiceRequest.newBuilder();
+        byResource.forEach((resource, scopes) -> {
+            var resourceSpans = ResourceSpans.newBuilder()
+                    .setResource(Resource.newBuilder().addAllAttributes(toKeyValues(resource.getAttributes())));
+            if (resource.getSchemaUrl() != null) resourceSpans.setSchemaUrl(resource.getSchemaUrl());
+            scopes.values().forEach(resourceSpans::addScopeSpans);
+            request.addResourceSpans(resourceSpans);
+        });
+        return request.build();
+    }
+
+    private static ScopeSpans.Builder toScopeSpans(InstrumentationScopeInfo scope) {
+        var protoScope = InstrumentationScope.newBuilder().setName(scope.getName());
+        if (scope.getVersion() != null) protoScope.setVersion(scope.getVersion());
+        var scopeSpans = ScopeSpans.newBuilder().setScope(protoScope);
+        if (scope.getSchemaUrl() != null) scopeSpans.setSchemaUrl(scope.getSchemaUrl());
+        return scopeSpans;
+    }
+
+    private static Span toSpan(SpanData span) {
+        var builder = Span.newBuilder()
+                .setTraceId(toBytes(span.getTraceId()))
+                .setSpanId(toBytes(span.getSpanId()))
+                .setName(span.getName())
+                .setKind(toKind(span))
+                .setStartTimeUnixNano(span.getStartEpochNanos())
+                .setEndTimeUnixNano(span.getEndEpochNanos())
+                .addAllAttributes(toKeyValues(span.getAttributes()))
+                .setDroppedAttributesCount(span.getTotalAttributeCount() - span.getAttributes().size())
+                .setDroppedEventsCount(span.getTotalRecordedEvents() - span.getEvents().size())
+                .setDroppedLinksCount(span.getTotalRecordedLinks() - span.getLinks().size())
+                .setStatus(toStatus(span));
+        if (span.getParentSpanContext().isValid()) builder.setParentSpanId(toBytes(span.getParentSpanId()));
+        for (var event : span.getEvents()) {
+            builder.addEvents(Span.Event.newBuilder()
+                    .setTimeUnixNano(event.getEpochNanos())
+                    .setName(event.getName())
+                    .addAllAttributes(toKeyValues(event.getAttributes()))
+                    .setDroppedAttributesCount(event.getTotalAttributeCount() - event.getAttributes().size()));
+        }
+        for (var link : span.getLinks()) {
+            SpanContext linked = link.getSpanContext();
+            builder.addLinks(Span.Link.newBuilder()
+                    .setTraceId(toBytes(linked.getTraceId()))
+                    .setSpanId(toBytes(linked.getSpanId()))
+                    .addAllAttributes(toKeyValues(link.getAttributes()))
+                    .setDroppedAttributesCount(link.getTotalAttributeCount() - link.getAttributes().size()));
+        }
+        return builder.build();
+    }
+
+    private static Span.SpanKind toKind(SpanData span) {
+        switch (span.getKind()) {
+            case SERVER: return Span.SpanKind.SPAN_KIND_SERVER;
+            case CLIENT: return Span.SpanKind.SPAN_KIND_CLIENT;
+            case PRODUCER: return Span.SpanKind.SPAN_KIND_PRODUCER;
+            case CONSUMER: return Span.SpanKind.SPAN_KIND_CONSUMER;
+            default: return Span.SpanKind.SPAN_KIND_INTERNAL;
+        }
+    }
+
+    private static Status toStatus(SpanData span) {
+        var status = span.getStatus();
+        switch (status.getStatusCode()) {
+            case OK: return Status.newBuilder().setCode(Status.StatusCode.STATUS_CODE_OK).build();
+            case ERROR: return Status.newBuilder().setCode(Status.StatusCode.STATUS_CODE_ERROR).setMessage(status.getDescription()).build();
+            default: return Status.getDefaultInstance();
+        }
+    }
+
+    private static List<KeyValue> toKeyValues(Attributes attributes) {
+        var keyValues = new ArrayList<KeyValue>(attributes.size());
+        attributes.forEach((key, value) -> keyValues.add(KeyValue.newBuilder().setKey(key.getKey()).setValue(toAnyValue(key, value)).build()));
+        return keyValues;
+    }
+
+    private static AnyValue toAnyValue(AttributeKey<?> key, Object value) {
+        switch (key.getType()) {
+            case BOOLEAN: return AnyValue.newBuilder().setBoolValue((Boolean) value).build();
+            case LONG: return AnyValue.newBuilder().setIntValue((Long) value).build();
+            case DOUBLE: return AnyValue.newBuilder().setDoubleValue((Double) value).build();
+            case STRING_ARRAY:
+            case BOOLEAN_ARRAY:
+            case LONG_ARRAY:
+            case DOUBLE_ARRAY:
+                var array = ArrayValue.newBuilder();
+                for (Object element : (List<?>) value) array.addValues(toScalar(element));
+                return AnyValue.newBuilder().setArrayValue(array).build();
+            default: return AnyValue.newBuilder().setStringValue(String.valueOf(value)).build();
+        }
+    }
+
+    private static AnyValue toScalar(Object value) {
+        if (value instanceof Boolean) return AnyValue.newBuilder().setBoolValue((Boolean) value).build();
+        if (value instanceof Long) return AnyValue.newBuilder().setIntValue((Long) value).build();
+        if (value instanceof Double) return AnyValue.newBuilder().setDoubleValue((Double) value).build();
+        return AnyValue.newBuilder().setStringValue(String.valueOf(value)).build();
+    }
+
+    private static ByteString toBytes(String hex) {
+        return ByteString.copyFrom(HexFormat.of().parseHex(hex));
+    }
+}
@@ -0,0 +1,172 @@
+package com.octopus.teamcity.opentelemetry.server.receiver;
+
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.trace.SpanContext;
+import io.opentelemetry.api.trace.SpanKind;
+import io.opentelemetry.sdk.common.InstrumentationLibraryInfo;
+import io.opentelemetry.sdk.common.InstrumentationScopeInfo;
+import io.opentelemetry.sdk.resources.Resource;
+import io.opentelemetry.sdk.trace.ReadableSpan;
+import io.opentelemetry.sdk.trace.data.EventData;
+import io.opentelemetry.sdk.trace.data.LinkData;
+import io.opentelemetry.sdk.trace.data.SpanData;
+import io.opentelemetry.sdk.trace.data.StatusData;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.List;
+
+// A span that ended somewhere else - in a tool the build ran - and was sent to us over OTLP. It's both the span and
+// its data, so it can go through a helper's span processors like one of our own.
+public final class ReceivedSpan implements ReadableSpan, SpanData {
+    private final String name;
+    private final SpanKind kind;
+    private final SpanContext spanContext;
+    private final SpanContext parentSpanContext;
+    private final StatusData status;
+    private final long startEpochNanos;
+    private final long endEpochNanos;
+    private final Attributes attributes;
+    private final int totalAttributeCount;
+    private final List<EventData> events;
+    private final int totalRecordedEvents;
+    private final List<LinkData> links;
+    private final int totalRecordedLinks;
+    private final InstrumentationScopeInfo scope;
+    private final Resource resource;
+
+    ReceivedSpan(
+            @NotNull String name,
+            @NotNull SpanKind kind,
+            @NotNull SpanContext spanContext,
+            @NotNull SpanContext parentSpanContext,
+            @NotNull StatusData status,
+            long startEpochNanos,
+            long endEpochNanos,
+            @NotNull Attributes attributes,
+            int totalAttributeCount,
+            @NotNull List<EventData> events,
+            int totalRecordedEvents,
+            @NotNull List<LinkData> links,
+            int totalRecordedLinks,
+            @NotNull InstrumentationScopeInfo scope,
+            @NotNull Resource resource) {
+        this.name = name;
+        this.kind = kind;
+        this.spanContext = spanContext;
+        this.parentSpanContext = parentSpanContext;
+        this.status = status;
+        this.startEpochNanos = startEpochNanos;
+        this.endEpochNanos = endEpochNanos;
+        this.attributes = attributes;
+        this.totalAttributeCount = totalAttributeCount;
+        this.events = events;
+        this.totalRecordedEvents = totalRecordedEvents;
+        this.links = links;
+        this.totalRecordedLinks = totalRecordedLinks;
+        this.scope = scope;
+        this.resource = resource;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public SpanKind getKind() {
+        return kind;
+    }
+
+    @Override
+    public SpanContext getSpanContext() {
+        return spanContext;
+    }
+
+    @Override
+    public SpanContext getParentSpanContext() {
+        return parentSpanContext;
+    }
+
+    @Override
+    public StatusData getStatus() {
+        return status;
+    }
+
+    @Override
+    public long getStartEpochNanos() {
+        return startEpochNanos;
+    }
+
+    @Override
+    public long getEndEpochNanos() {
+        return endEpochNanos;
+    }
+
+    @Override
+    public long getLatencyNanos() {
+        return endEpochNanos - startEpochNanos;
+    }
+
+    @Override
+    public boolean hasEnded() {
+        return true;
+    }
+
+    @Override
+    public Attributes getAttributes() {
+        return attributes;
+    }
+
+    @Override
+    public <T> T getAttribute(AttributeKey<T> key) {
+        return attributes.get(key);
+    }
+
+    @Override
+    public int getTotalAttributeCount() {
+        return totalAttributeCount;
+    }
+
+    @Override
+    public List<EventData> getEvents() {
+        return events;
+    }
+
+    @Override
+    public int getTotalRecordedEvents() {
+        return totalRecordedEvents;
+    }
+
+    @Override
+    public List<LinkData> getLinks() {
+        return links;
+    }
+
+    @Override
+    public int getTotalRecordedLinks() {
+        return totalRecordedLinks;
+    }
+
+    @Override
+    public InstrumentationScopeInfo getInstrumentationScopeInfo() {
+        return scope;
+    }
+
+    // still abstract on both interfaces, for exporters that haven't moved on to scopes
+    @Override
+    @Deprecated
+    public InstrumentationLibraryInfo getInstrumentationLibraryInfo() {
+        return InstrumentationLibraryInfo.create(scope.getName(), scope.getVersion());
+    }
+
+    @Override
+    public Resource getResource() {
+        return resource;
+    }
+
+    @Override
+    public SpanData toSpanData() {
+        return this;
+    }
+}
@@ -0,0 +1,205 @@
+package com.octopus.teamcity.opentelemetry.server.tests;
+
+import com.octopus.teamcity.opentelemetry.server.helpers.LongIndexMap;
+import com.octopus.teamcity.opentelemetry.server.helpers.PluginDataFiles;
+import com.octopus.teamcity.opentelemetry.server.metrics.PluginMetrics;
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.metrics.LongCounter;
+import jetbrains.buildServer.serverSide.*;
+import jetbrains.buildServer.util.EventDispatcher;
+import org.apache.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static com.octopus.teamcity.opentelemetry.common.PluginConstants.*;
+
+// The last few pass/fail outcomes of every test, used to spot tests that keep flipping between the two.
+// Each test takes a single long in an open addressing table:
+//   [63..32] hash of the test name id (never 0, so 0 marks an empty slot)
+//   [31..27] number of outcomes recorded, up to HISTORY_LENGTH
+//   [26..0]  outcomes, newest in bit 0, 1 meaning failed
+// which keeps a million tests to around 10MB. Two tests whose ids hash the same share a history; with a 32 bit
+// hash that's rare enough not to matter for a heuristic.
+public class FlakyTestHistory extends BuildServerAdapter {
+    static Logger LOG = Logger.getLogger(FlakyTestHistory.class.getName());
+    public static final String FILE_NAME = "flaky-test-history.bin";
+    public static final String PROPERTY_MAX_TESTS = "teamcity.opentelemetry.flakyTests.maxTests";
+    public static final int HISTORY_LENGTH = 27;
+    private static final int DEFAULT_MAX_TESTS = 1_000_000;
+    private static final int FILE_MAGIC = 0x4f544648;
+    private static final int FILE_VERSION = 1;
+    // magic, version, history length and count, then an entry per test
+    private static final int HEADER_BYTES = 16;
+    private static final int ENTRY_BYTES = 8;
+    private static final int SAVE_INTERVAL_MINUTES = 5;
+    private static final int MIN_OUTCOMES = 8;
+    // eg pass -> fail -> pass -> fail within the window; a test that broke and was then fixed only flips twice
+    private static final int MIN_FLAKY_FLIPS = 3;
+    private static final double LOAD_FACTOR = 0.8;
+    private static final long HISTORY_MASK = (1L << HISTORY_LENGTH) - 1;
+    private static final AttributeKey<String> BUILD_TYPE = AttributeKey.stringKey(METRIC_ATTRIBUTE_BUILD_TYPE);
+
+    private final File file;
+    private final int maxTests;
+    private final PluginMetrics pluginMetrics;
+    private final LongCounter buildsWithFlakyFailures;
+    private final ScheduledExecutorService executorService;
+
+    private long[] table = new long[1024];
+    private int size;
+    private boolean dirty;
+
+    public FlakyTestHistory(
+            @NotNull EventDispatcher<BuildServerListener> buildServerListenerEventDispatcher,
+            @NotNull ServerPaths serverPaths,
+            @NotNull PluginMetrics pluginMetrics) {
+        this.file = PluginDataFiles.get(serverPaths, FILE_NAME);
+        this.maxTests = TeamCityProperties.getInteger(PROPERTY_MAX_TESTS, DEFAULT_MAX_TESTS);
+        this.pluginMetrics = pluginMetrics;
+        this.buildsWithFlakyFailures = pluginMetrics.getMeter()
+                .counterBuilder(METRIC_BUILDS_WITH_FLAKY_FAILURES)
+                .setDescription("Number of finished builds with at least one failure of a test that keeps flipping between passing and failing")
+                .build();
+        load();
+
+        this.executorService = Executors.newSingleThreadScheduledExecutor(r -> {
+            var thread = new Thread(r, "OpenTelemetry flaky test history writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.executorService.scheduleWithFixedDelay(this::save, SAVE_INTERVAL_MINUTES, SAVE_INTERVAL_MINUTES, TimeUnit.MINUTES);
+        buildServerListenerEventDispatcher.addListener(this);
+    }
+
+    @Override
+    public void serverShutdown() {
+        executorService.shutdownNow();
+        save();
+    }
+
+    // Adds the outcome to the test's history and returns the updated history (see getFlakyScore and isFlaky).
+    public synchronized long record(long testNameId, boolean failed) {
+        var key = keyOf(testNameId);
+        var slot = find(key);
+        var entry = table[slot];
+        if (entry == 0) {
+            if (size >= maxTests) return 0;
+            size++;
+        }
+        var count = Math.min(HISTORY_LENGTH, (int) ((entry >>> HISTORY_LENGTH) & 0x1f) + 1);
+        var history = ((entry << 1) | (failed ? 1 : 0)) & HISTORY_MASK;
+        var updated = (key << 32) | ((long) count << HISTORY_LENGTH) | history;
+        table[slot] = updated;
+        dirty = true;
+        if (entry == 0 && size > table.length * LOAD_FACTOR) grow();
+        return updated;
+    }
+
+    // How often the test flipped between passing and failing over its recorded history, from 0 to 1,
+    // or -1 if there isn't enough history to say.
+    public static double getFlakyScore(long entry) {
+        var count = (int) ((entry >>> HISTORY_LENGTH) & 0x1f);
+        if (count < MIN_OUTCOMES) return -1;
+        return (double) getFlips(entry, count) / (count - 1);
+    }
+
+    public static boolean isFlaky(long entry) {
+        var count = (int) ((entry >>> HISTORY_LENGTH) & 0x1f);
+        return count >= MIN_OUTCOMES && getFlips(entry, count) >= MIN_FLAKY_FLIPS;
+    }
+
+    public void recordBuildWithFlakyFailures(@NotNull SBuild build) {
+        if (!pluginMetrics.isEnabled()) return;
+        buildsWithFlakyFailures.add(1, Attributes.of(BUILD_TYPE, build.getBuildTypeExternalId()));
+    }
+
+    private static int getFlips(long entry, int count) {
+        var history = entry & HISTORY_MASK & ((1L << count) - 1);
+        // adjacent outcomes that differ
+        return Long.bitCount((history ^ (history >>> 1)) & ((1L << (count - 1)) - 1));
+    }
+
+    private static long keyOf(long testNameId) {
+        var key = LongIndexMap.mix(testNameId) >>> 32;
+        return key == 0 ? 1 : key;
+    }
+
+    private int find(long key) {
+        var slot = (int) (key % table.length);
+        while (table[slot] != 0 && (table[slot] >>> 32) != key) {
+            slot = slot + 1 == table.length ? 0 : slot + 1;
+        }
+        return slot;
+    }
+
+    private void grow() {
+        var old = table;
+        table = new long[old.length + old.length / 2];
+        for (long entry : old) {
+            if (entry != 0) table[find(entry >>> 32)] = entry;
+        }
+    }
+
+    private synchronized void load() {
+        if (!file.exists()) return;
+        try (var input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (input.readInt() != FILE_MAGIC || input.readInt() != FILE_VERSION || input.readInt() != HISTORY_LENGTH) {
+                LOG.warn(String.format("Ignoring flaky test history in '%s', as it isn't in a format we understand.", file));
+                return;
+            }
+            // don't size the table from a count the rest of the file doesn't bear out
+            var count = input.readInt();
+            if (count < 0 || HEADER_BYTES + (long) count * ENTRY_BYTES != file.length()) {
+                LOG.warn(String.format("Ignoring flaky test history in '%s', as its count of %d tests doesn't match its length of %d bytes.", file, count, file.length()));
+                return;
+            }
+            var loaded = new long[Math.max(1024, (int) (count / LOAD_FACTOR) + 1)];
+            table = loaded;
+            for (int i = 0; i < count; i++) {
+                var entry = input.readLong();
+                var slot = find(entry >>> 32);
+                if ((entry >>> 32) == 0 || table[slot] != 0) throw new IOException("entry " + i + " is empty or a duplicate");
+                table[slot] = entry;
+            }
+            size = count;
+            LOG.info(String.format("Loaded flaky test history for %d tests.", count));
+        } catch (IOException e) {
+            LOG.warn(String.format("Unable to read flaky test history from '%s'; starting afresh.", file), e);
+            table = new long[1024];
+            size = 0;
+        }
+    }
+
+    private void save() {
+        try {
+            byte[] contents;
+            synchronized (this) {
+                if (!dirty) return;
+                var bytes = new ByteArrayOutputStream(HEADER_BYTES + size * ENTRY_BYTES);
+                try (var output = new DataOutputStream(bytes)) {
+                    output.writeInt(FILE_MAGIC);
+                    output.writeInt(FILE_VERSION);
+                    output.writeInt(HISTORY_LENGTH);
+                    output.writeInt(size);
+                    for (long entry : table) {
+                        if (entry != 0) output.writeLong(entry);
+                    }
+                }
+                contents = bytes.toByteArray();
+                dirty = false;
+            }
+            if (!PluginDataFiles.writeAtomically(file, contents)) {
+                synchronized (this) {
+                    dirty = true;
+                }
+            }
+        } catch (Exception e) {
+            LOG.warn("Exception while saving flaky test history: " + e.getMessage(), e);
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package com.octopus.teamcity.opentelemetry.server.tests;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+
+// When each test started and finished, taken from the $TEST_BLOCK$ blocks of the build log, as STestRun only knows
+// how long a test took. Blocks are looked up by test name; a test that ran more than once (eg, retried) has a block
+// per run, handed out in log order, which matches the order TeamCity lists the runs in.
+public class TestBlockTimes {
+    public static final String TEST_BLOCK_TYPE = "$TEST_BLOCK$";
+
+    public static final class Interval {
+        private final long startMs;
+        private final long endMs;
+
+        Interval(long startMs, long endMs) {
+            this.startMs = startMs;
+            this.endMs = endMs;
+        }
+
+        public long getStartMs() {
+            return startMs;
+        }
+
+        public long getEndMs() {
+            return endMs;
+        }
+    }
+
+    private final HashMap<String, ArrayDeque<Interval>> byName = new HashMap<>();
+    private long earliestStartMs = Long.MAX_VALUE;
+
+    public void add(@NotNull String testName, long startMs, long endMs) {
+        byName.computeIfAbsent(testName, key -> new ArrayDeque<>(1)).add(new Interval(startMs, Math.max(startMs, endMs)));
+        earliestStartMs = Math.min(earliestStartMs, startMs);
+    }
+
+    // The next run of the test, trying each name in turn - runners don't agree on whether the block names the suite.
+    @Nullable
+    public Interval take(@NotNull String... testNames) {
+        for (String testName : testNames) {
+            var runs = byName.get(testName);
+            if (runs == null) continue;
+            var run = runs.poll();
+            if (runs.isEmpty()) byName.remove(testName);
+            if (run != null) return run;
+        }
+        return null;
+    }
+
+    // When the test ran: its next block, or for a test without one, durationMs from the start of the Tests span. A test
+    // without a block has always started along with the Tests span, so it moves with it (see getTestsStartMs).
+    @NotNull
+    public Interval timeOf(long testsStartMs, long durationMs, @NotNull String... testNames) {
+        var run = take(testNames);
+        return run != null ? run : new Interval(testsStartMs, testsStartMs + durationMs);
+    }
+
+    // When the Tests span starts: with the earliest test block, or at defaultStartMs (when the build started on the
+    // agent) if there are none. So in a build with some blocks, tests without one start with the first block, not
+    // with the build as they did before blocks were read.
+    public long getTestsStartMs(long defaultStartMs) {
+        return isEmpty() ? defaultStartMs : earliestStartMs;
+    }
+
+    public boolean isEmpty() {
+        return earliestStartMs == Long.MAX_VALUE;
+    }
+
+    public long getEarliestStartMs() {
+        return earliestStartMs;
+    }
+}
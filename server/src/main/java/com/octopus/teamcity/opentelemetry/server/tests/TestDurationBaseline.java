@@ -0,0 +1,41 @@
+package com.octopus.teamcity.opentelemetry.server.tests;
+
+// A test's duration baseline, as it was before the current run was folded in.
+public class TestDurationBaseline {
+    private static final double REGRESSION_DEVIATIONS = 3.0;
+    private static final long REGRESSION_MIN_INCREASE_MS = 100;
+    // a test that always takes exactly the same time would otherwise have a deviation of zero
+    private static final double MIN_STANDARD_DEVIATION_RATIO = 0.05;
+
+    private final double meanMs;
+    private final double standardDeviationMs;
+    private final int sampleCount;
+
+    public TestDurationBaseline(double meanMs, double standardDeviationMs, int sampleCount) {
+        this.meanMs = meanMs;
+        this.standardDeviationMs = standardDeviationMs;
+        this.sampleCount = sampleCount;
+    }
+
+    public double getMeanMs() {
+        return meanMs;
+    }
+
+    public double getStandardDeviationMs() {
+        return standardDeviationMs;
+    }
+
+    public int getSampleCount() {
+        return sampleCount;
+    }
+
+    // How many standard deviations the duration is away from the baseline.
+    public double getDeviation(long durationMs) {
+        var standardDeviation = Math.max(1.0, Math.max(standardDeviationMs, meanMs * MIN_STANDARD_DEVIATION_RATIO));
+        return (durationMs - meanMs) / standardDeviation;
+    }
+
+    public boolean isRegression(long durationMs) {
+        return durationMs - meanMs >= REGRESSION_MIN_INCREASE_MS && getDeviation(durationMs) >= REGRESSION_DEVIATIONS;
+    }
+}
@@ -0,0 +1,192 @@
+package com.octopus.teamcity.opentelemetry.server.tests;
+
+import com.octopus.teamcity.opentelemetry.server.helpers.LongIndexMap;
+import com.octopus.teamcity.opentelemetry.server.helpers.PluginDataFiles;
+import com.octopus.teamcity.opentelemetry.server.metrics.PluginMetrics;
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.metrics.LongHistogram;
+import jetbrains.buildServer.serverSide.*;
+import jetbrains.buildServer.util.EventDispatcher;
+import org.apache.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static com.octopus.teamcity.opentelemetry.common.PluginConstants.*;
+
+// Rolling per-test duration baselines: an exponentially weighted mean and variance per test, keyed by TeamCity's
+// test name id and kept in parallel primitive arrays (a few dozen bytes per test). Saved to the plugin data
+// directory every few minutes, and when the server shuts down.
+public class TestDurationBaselines extends BuildServerAdapter {
+    static Logger LOG = Logger.getLogger(TestDurationBaselines.class.getName());
+    public static final String FILE_NAME = "test-duration-baselines.bin";
+    public static final String PROPERTY_MAX_TESTS = "teamcity.opentelemetry.testBaselines.maxTests";
+    private static final int DEFAULT_MAX_TESTS = 1_000_000;
+    private static final int FILE_MAGIC = 0x4f544442;
+    private static final int FILE_VERSION = 1;
+    // magic, version and count, then per test its name id, mean, variance and count
+    private static final int HEADER_BYTES = 12;
+    private static final int ENTRY_BYTES = 20;
+    private static final int SAVE_INTERVAL_MINUTES = 5;
+    private static final int MIN_SAMPLES = 5;
+    private static final double ALPHA = 0.2; // weight of the newest sample
+    private static final AttributeKey<String> BUILD_TYPE = AttributeKey.stringKey(METRIC_ATTRIBUTE_BUILD_TYPE);
+
+    private final File file;
+    private final int maxTests;
+    private final PluginMetrics pluginMetrics;
+    private final LongHistogram regressedTests;
+    private final ScheduledExecutorService executorService;
+
+    private LongIndexMap indexes = new LongIndexMap(1024);
+    private long[] testNameIds = new long[1024];
+    private float[] means = new float[1024];
+    private float[] variances = new float[1024];
+    private int[] counts = new int[1024];
+    private boolean dirty;
+
+    public TestDurationBaselines(
+            @NotNull EventDispatcher<BuildServerListener> buildServerListenerEventDispatcher,
+            @NotNull ServerPaths serverPaths,
+            @NotNull PluginMetrics pluginMetrics) {
+        this.file = PluginDataFiles.get(serverPaths, FILE_NAME);
+        this.maxTests = TeamCityProperties.getInteger(PROPERTY_MAX_TESTS, DEFAULT_MAX_TESTS);
+        this.pluginMetrics = pluginMetrics;
+        this.regressedTests = pluginMetrics.getMeter()
+                .histogramBuilder(METRIC_BUILD_REGRESSED_TESTS)
+                .ofLongs()
+                .setDescription("Number of tests per build that ran significantly slower than their baseline")
+                .build();
+        load();
+
+        this.executorService = Executors.newSingleThreadScheduledExecutor(r -> {
+            var thread = new Thread(r, "OpenTelemetry test duration baseline writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.executorService.scheduleWithFixedDelay(this::save, SAVE_INTERVAL_MINUTES, SAVE_INTERVAL_MINUTES, TimeUnit.MINUTES);
+        buildServerListenerEventDispatcher.addListener(this);
+    }
+
+    @Override
+    public void serverShutdown() {
+        executorService.shutdownNow();
+        save();
+    }
+
+    // Returns the baseline as it was before this run (or null if there isn't enough history yet),
+    // and, if asked to, folds this run's duration into it.
+    @Nullable
+    public synchronized TestDurationBaseline getAndUpdate(long testNameId, long durationMs, boolean update) {
+        var index = indexes.get(testNameId);
+        TestDurationBaseline baseline = null;
+        if (index >= 0 && counts[index] >= MIN_SAMPLES) {
+            baseline = new TestDurationBaseline(means[index], Math.sqrt(variances[index]), counts[index]);
+        }
+        if (!update) return baseline;
+
+        if (index < 0) {
+            if (indexes.size() >= maxTests) return baseline;
+            index = indexes.getOrAdd(testNameId);
+            ensureCapacity(index + 1);
+            testNameIds[index] = testNameId;
+        }
+        if (counts[index] == 0) {
+            means[index] = durationMs;
+            variances[index] = 0;
+        } else {
+            var difference = durationMs - means[index];
+            var increment = ALPHA * difference;
+            means[index] += increment;
+            variances[index] = (float) ((1 - ALPHA) * (variances[index] + difference * increment));
+        }
+        if (counts[index] < Integer.MAX_VALUE) counts[index]++;
+        dirty = true;
+        return baseline;
+    }
+
+    public void recordRegressedTests(@NotNull SBuild build, int regressedTestCount) {
+        if (!pluginMetrics.isEnabled()) return;
+        regressedTests.record(regressedTestCount, Attributes.of(BUILD_TYPE, build.getBuildTypeExternalId()));
+    }
+
+    private void ensureCapacity(int size) {
+        if (size <= testNameIds.length) return;
+        var capacity = Math.max(size, testNameIds.length * 2);
+        testNameIds = Arrays.copyOf(testNameIds, capacity);
+        means = Arrays.copyOf(means, capacity);
+        variances = Arrays.copyOf(variances, capacity);
+        counts = Arrays.copyOf(counts, capacity);
+    }
+
+    private synchronized void load() {
+        if (!file.exists()) return;
+        try (var input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (input.readInt() != FILE_MAGIC || input.readInt() != FILE_VERSION) {
+                LOG.warn(String.format("Ignoring test duration baselines in '%s', as it isn't in a format we understand.", file));
+                return;
+            }
+            // don't size the arrays from a count the rest of the file doesn't bear out
+            var size = input.readInt();
+            if (size < 0 || HEADER_BYTES + (long) size * ENTRY_BYTES != file.length()) {
+                LOG.warn(String.format("Ignoring test duration baselines in '%s', as its count of %d tests doesn't match its length of %d bytes.", file, size, file.length()));
+                return;
+            }
+            indexes = new LongIndexMap(size);
+            ensureCapacity(size);
+            for (int i = 0; i < size; i++) {
+                var testNameId = input.readLong();
+                var index = indexes.getOrAdd(testNameId);
+                if (index != i) throw new IOException("test name id " + testNameId + " appears more than once");
+                testNameIds[index] = testNameId;
+                means[index] = input.readFloat();
+                variances[index] = input.readFloat();
+                counts[index] = input.readInt();
+            }
+            LOG.info(String.format("Loaded duration baselines for %d tests.", size));
+        } catch (IOException e) {
+            LOG.warn(String.format("Unable to read test duration baselines from '%s'; starting afresh.", file), e);
+            indexes = new LongIndexMap(1024);
+            testNameIds = new long[1024];
+            means = new float[1024];
+            variances = new float[1024];
+            counts = new int[1024];
+        }
+    }
+
+    private void save() {
+        try {
+            byte[] contents;
+            synchronized (this) {
+                if (!dirty) return;
+                var bytes = new ByteArrayOutputStream(HEADER_BYTES + indexes.size() * ENTRY_BYTES);
+                try (var output = new DataOutputStream(bytes)) {
+                    output.writeInt(FILE_MAGIC);
+                    output.writeInt(FILE_VERSION);
+                    output.writeInt(indexes.size());
+                    for (int i = 0; i < indexes.size(); i++) {
+                        output.writeLong(testNameIds[i]);
+                        output.writeFloat(means[i]);
+                        output.writeFloat(variances[i]);
+                        output.writeInt(counts[i]);
+                    }
+                }
+                contents = bytes.toByteArray();
+                dirty = false;
+            }
+            if (!PluginDataFiles.writeAtomically(file, contents)) {
+                synchronized (this) {
+                    dirty = true;
+                }
+            }
+        } catch (Exception e) {
+            LOG.warn("Exception while saving test duration baselines: " + e.getMessage(), e);
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package com.octopus.teamcity.opentelemetry.server.tests;
+
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.semconv.ExceptionAttributes;
+import jetbrains.buildServer.serverSide.STestRun;
+import jetbrains.buildServer.serverSide.TeamCityProperties;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+// Failure messages and stack traces of failed tests, added to the test span as an `exception` event. TeamCity loads
+// these from the database one test at a time, so only the first few failed (and not muted) tests of a build get
+// them, and each is cut down to a byte limit - no more than the span's attribute length limit, as the SDK would
+// only cut it down again.
+public final class TestFailureDetails {
+    public static final String PROPERTY_MAX_PER_BUILD = "teamcity.opentelemetry.testFailures.maxPerBuild";
+    public static final String PROPERTY_MAX_BYTES = "teamcity.opentelemetry.testFailures.maxBytes";
+    private static final int DEFAULT_MAX_PER_BUILD = 50;
+    private static final String EXCEPTION_EVENT = "exception";
+    // "java.lang.AssertionError: expected..." or "System.InvalidOperationException : ..."
+    private static final Pattern EXCEPTION_TYPE = Pattern.compile("^\\s*([\\w$]+(?:\\.[\\w$]+)+)\\s*(?::|$)");
+
+    private final int maxTests;
+    private final int maxBytes;
+    private int captured;
+
+    private TestFailureDetails(int maxTests, int maxBytes) {
+        this.maxTests = maxTests;
+        this.maxBytes = maxBytes;
+    }
+
+    // one per build, as the limit on how many tests get details is per build
+    public static TestFailureDetails forBuild(int attributeLength) {
+        return new TestFailureDetails(
+                Math.max(0, TeamCityProperties.getInteger(PROPERTY_MAX_PER_BUILD, DEFAULT_MAX_PER_BUILD)),
+                Math.min(attributeLength, Math.max(256, TeamCityProperties.getInteger(PROPERTY_MAX_BYTES, attributeLength))));
+    }
+
+    public void addTo(@NotNull Span span, @NotNull STestRun test, long endTimeMs) {
+        if (captured >= maxTests) return;
+        captured++;
+
+        var failureInfo = test.getFailureInfo();
+        if (failureInfo == null) return;
+        var stacktrace = failureInfo.getStacktrace();
+        var message = failureInfo.getStacktraceMessage();
+        if (isBlank(stacktrace) && isBlank(message)) return;
+
+        var attributes = Attributes.builder();
+        var type = getExceptionType(isBlank(stacktrace) ? message : stacktrace);
+        if (type != null) attributes.put(ExceptionAttributes.EXCEPTION_TYPE, type);
+        if (!isBlank(message)) attributes.put(ExceptionAttributes.EXCEPTION_MESSAGE, truncate(message.trim(), maxBytes));
+        if (!isBlank(stacktrace)) attributes.put(ExceptionAttributes.EXCEPTION_STACKTRACE, truncate(stacktrace, maxBytes));
+        span.addEvent(EXCEPTION_EVENT, attributes.build(), endTimeMs, TimeUnit.MILLISECONDS);
+    }
+
+    @Nullable
+    static String getExceptionType(String text) {
+        var matcher = EXCEPTION_TYPE.matcher(text);
+        return matcher.find() ? matcher.group(1) : null;
+    }
+
+    // Cuts the value down to at most maxBytes of UTF-8, without splitting a character.
+    public static String truncate(String value, int maxBytes) {
+        // every char is at most 3 bytes of UTF-8 (surrogate pairs are 4 bytes for 2 chars)
+        if ((long) value.length() * 3 <= maxBytes) return value;
+        var bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length <= maxBytes) return value;
+
+        var decoder = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.IGNORE)
+                .onUnmappableCharacter(CodingErrorAction.IGNORE);
+        var chars = CharBuffer.allocate(maxBytes);
+        decoder.decode(ByteBuffer.wrap(bytes, 0, maxBytes), chars, true);
+        chars.flip();
+        return chars.toString();
+    }
+
+    private static boolean isBlank(@Nullable String value) {
+        return value == null || value.isBlank();
+    }
+}
@@ -0,0 +1,52 @@
+package com.octopus.teamcity.opentelemetry.server.tracestore;
+
+import com.octopus.teamcity.opentelemetry.server.BuildStorageManager;
+import jetbrains.buildServer.serverSide.SBuild;
+import jetbrains.buildServer.serverSide.TeamCityProperties;
+import jetbrains.buildServer.web.openapi.PluginDescriptor;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.springframework.web.servlet.ModelAndView;
+
+// The build overview for services we can't link to a trace in: the build's spans from the local trace store, as a
+// waterfall.
+public class LocalTraceOverview {
+    public static final String PROPERTY_MAX_WATERFALL_ROWS = "teamcity.opentelemetry.localTraceStore.maxWaterfallRows";
+    private static final int DEFAULT_MAX_WATERFALL_ROWS = 500;
+
+    private final PluginDescriptor pluginDescriptor;
+    private final LocalTraceStore localTraceStore;
+    private final BuildStorageManager buildStorageManager;
+
+    public LocalTraceOverview(@NotNull PluginDescriptor pluginDescriptor, @NotNull LocalTraceStore localTraceStore, @NotNull BuildStorageManager buildStorageManager) {
+        this.pluginDescriptor = pluginDescriptor;
+        this.localTraceStore = localTraceStore;
+        this.buildStorageManager = buildStorageManager;
+    }
+
+    // null if the build's span isn't in the store (yet)
+    @Nullable
+    public ModelAndView getModelAndView(@NotNull SBuild build, @NotNull String traceId) {
+        if (!localTraceStore.isEnabled())
+            return new ModelAndView(pluginDescriptor.getPluginResourcesPath("buildOverviewEmpty.jsp"));
+
+        var spans = localTraceStore.getTrace(traceId);
+        var spanId = buildStorageManager.getSpanId(build);
+        TraceWaterfall waterfall = spans == null ? null : TraceWaterfall.of(
+                spans,
+                spanId == null ? 0 : Long.parseUnsignedLong(spanId, 16),
+                Math.max(1, TeamCityProperties.getInteger(PROPERTY_MAX_WATERFALL_ROWS, DEFAULT_MAX_WATERFALL_ROWS)));
+        if (waterfall == null) // not sent yet, or already dropped from the store
+            return null;
+
+        final ModelAndView mv = new ModelAndView(pluginDescriptor.getPluginResourcesPath("buildOverviewWaterfall.jsp"));
+        var model = mv.getModel();
+        model.put("buildId", build.getBuildId());
+        model.put("traceId", traceId);
+        model.put("waterfallRows", waterfall.getRows());
+        model.put("waterfallOmittedRowCount", waterfall.getOmittedRowCount());
+        model.put("waterfallDurationMs", waterfall.getDurationMs());
+        model.put("criticalPath", waterfall.getCriticalPath());
+        return mv;
+    }
+}
@@ -0,0 +1,284 @@
+package com.octopus.teamcity.opentelemetry.server.tracestore;
+
+import com.octopus.teamcity.opentelemetry.common.PluginConstants;
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.trace.StatusCode;
+import io.opentelemetry.sdk.trace.data.SpanData;
+import jetbrains.buildServer.serverSide.TeamCityProperties;
+import org.apache.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+
+// Keeps the (masked) spans of the last few traces sent to custom endpoints, so the build overview can show them
+// without an external backend to look them up in. Spans are kept in columns (parallel primitive arrays) written round
+// as a ring, with their names dictionary encoded, so each span costs a fixed few bytes plus its share of the distinct
+// names. The columns are sized from the memory cap when the first span comes in. Each trace keeps the rows its spans
+// are in, oldest first, so looking a trace up or dropping it only touches its own rows. The oldest trace is dropped to
+// make room when the ring comes round to it, when there are more than the maximum number of traces, or when the
+// dictionary is full.
+public class LocalTraceStore {
+    static Logger LOG = Logger.getLogger(LocalTraceStore.class.getName());
+    public static final String PROPERTY_ENABLED = "teamcity.opentelemetry.localTraceStore.enabled";
+    public static final String PROPERTY_MAX_TRACES = "teamcity.opentelemetry.localTraceStore.maxTraces";
+    public static final String PROPERTY_MAX_MEGABYTES = "teamcity.opentelemetry.localTraceStore.maxMegabytes";
+    private static final int DEFAULT_MAX_TRACES = 200;
+    private static final int DEFAULT_MAX_MEGABYTES = 32;
+    // trace, name and service ids, span and parent ids, start and end times, flags, and its entry in its trace's rows
+    public static final int BYTES_PER_SPAN = 4 * Integer.BYTES + 4 * Long.BYTES + 1;
+    // roughly what a short string costs us, with its map entry and boxed id, on top of its characters
+    private static final int BYTES_PER_NAME = 96;
+    private static final AttributeKey<String> SERVICE_NAME = AttributeKey.stringKey(PluginConstants.ATTRIBUTE_SERVICE_NAME);
+    private static final byte FLAG_ERROR = 1;
+    private static final int FREE = -1;
+
+    public static final class StoredSpan {
+        private final long spanId;
+        private final long parentSpanId;
+        private final String name;
+        private final String serviceName;
+        private final long startEpochNanos;
+        private final long endEpochNanos;
+        private final boolean error;
+
+        public StoredSpan(long spanId, long parentSpanId, String name, String serviceName, long startEpochNanos, long endEpochNanos, boolean error) {
+            this.spanId = spanId;
+            this.parentSpanId = parentSpanId;
+            this.name = name;
+            this.serviceName = serviceName;
+            this.startEpochNanos = startEpochNanos;
+            this.endEpochNanos = endEpochNanos;
+            this.error = error;
+        }
+
+        public long getSpanId() {
+            return spanId;
+        }
+
+        // 0 for the root of the trace
+        public long getParentSpanId() {
+            return parentSpanId;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getServiceName() {
+            return serviceName;
+        }
+
+        public long getStartEpochNanos() {
+            return startEpochNanos;
+        }
+
+        public long getEndEpochNanos() {
+            return endEpochNanos;
+        }
+
+        public boolean isError() {
+            return error;
+        }
+    }
+
+    private static final class Trace {
+        final String traceId;
+        final int id;
+        // the rows holding the trace's spans, in the order they were written, from first to end
+        int[] rows = new int[8];
+        int first;
+        int end;
+
+        Trace(String traceId, int id) {
+            this.traceId = traceId;
+            this.id = id;
+        }
+
+        void addRow(int row) {
+            if (end == rows.length) {
+                var size = end - first;
+                var grown = size * 2 > rows.length ? new int[rows.length * 2] : rows;
+                System.arraycopy(rows, first, grown, 0, size);
+                rows = grown;
+                first = 0;
+                end = size;
+            }
+            rows[end++] = row;
+        }
+
+        // the ring only ever overwrites a trace's oldest row
+        void removeFirstRow() {
+            first++;
+        }
+    }
+
+    private final int maxTraces;
+    private final int capacity;
+    private final long maxDictionaryBytes;
+
+    // oldest first
+    private final LinkedHashMap<String, Trace> traces = new LinkedHashMap<>();
+    private final Map<Integer, Trace> tracesById = new HashMap<>();
+    private int nextTraceId;
+
+    private int[] traceColumn;
+    private long[] spanIdColumn;
+    private long[] parentSpanIdColumn;
+    private long[] startColumn;
+    private long[] endColumn;
+    private int[] nameColumn;
+    private int[] serviceColumn;
+    private byte[] flagColumn;
+    private int next;
+    private int spanCount;
+
+    private List<String> dictionary = new ArrayList<>();
+    private Map<String, Integer> dictionaryIds = new HashMap<>();
+    private long dictionaryBytes;
+
+    public LocalTraceStore() {
+        this(TeamCityProperties.getInteger(PROPERTY_MAX_TRACES, DEFAULT_MAX_TRACES),
+             TeamCityProperties.getInteger(PROPERTY_MAX_MEGABYTES, DEFAULT_MAX_MEGABYTES) * 1024L * 1024L);
+    }
+
+    // A quarter of the memory goes to the dictionary, the rest to the columns.
+    public LocalTraceStore(int maxTraces, long maxBytes) {
+        this(maxTraces, (int) Math.min(Integer.MAX_VALUE - 8, Math.max(0, maxBytes - maxBytes / 4) / BYTES_PER_SPAN), Math.max(0, maxBytes / 4));
+    }
+
+    public LocalTraceStore(int maxTraces, int capacity, long maxDictionaryBytes) {
+        this.maxTraces = Math.max(1, maxTraces);
+        this.capacity = capacity;
+        this.maxDictionaryBytes = maxDictionaryBytes;
+    }
+
+    public boolean isEnabled() {
+        return capacity > 0 && TeamCityProperties.getBooleanOrTrue(PROPERTY_ENABLED);
+    }
+
+    public synchronized void record(@NotNull Collection<SpanData> spans) {
+        if (capacity <= 0) return;
+        if (traceColumn == null) allocate();
+        for (var span : spans) {
+            var trace = traces.get(span.getTraceId());
+            if (trace == null) {
+                while (traces.size() >= maxTraces) evict(traces.values().iterator().next());
+                trace = new Trace(span.getTraceId(), nextTraceId++);
+                traces.put(trace.traceId, trace);
+                tracesById.put(trace.id, trace);
+            }
+            write(trace, span);
+        }
+        if (dictionaryBytes > maxDictionaryBytes) compact();
+    }
+
+    // The spans stored for the trace, or null if none are.
+    @Nullable
+    public synchronized List<StoredSpan> getTrace(@NotNull String traceId) {
+        var trace = traces.get(traceId);
+        if (trace == null) return null;
+        var spans = new ArrayList<StoredSpan>(trace.end - trace.first);
+        for (int i = trace.first; i < trace.end; i++) {
+            var row = trace.rows[i];
+            spans.add(new StoredSpan(
+                    spanIdColumn[row],
+                    parentSpanIdColumn[row],
+                    dictionary.get(nameColumn[row]),
+                    dictionary.get(serviceColumn[row]),
+                    startColumn[row],
+                    endColumn[row],
+                    (flagColumn[row] & FLAG_ERROR) != 0));
+        }
+        return spans.isEmpty() ? null : spans;
+    }
+
+    public synchronized int getTraceCount() {
+        return traces.size();
+    }
+
+    public synchronized int getSpanCount() {
+        return spanCount;
+    }
+
+    public synchronized long getEstimatedBytes() {
+        return (traceColumn == null ? 0 : (long) capacity * BYTES_PER_SPAN) + dictionaryBytes;
+    }
+
+    private void allocate() {
+        traceColumn = new int[capacity];
+        Arrays.fill(traceColumn, FREE);
+        spanIdColumn = new long[capacity];
+        parentSpanIdColumn = new long[capacity];
+        startColumn = new long[capacity];
+        endColumn = new long[capacity];
+        nameColumn = new int[capacity];
+        serviceColumn = new int[capacity];
+        flagColumn = new byte[capacity];
+        LOG.info(String.format("Allocated a local trace store of %d spans (%d KB)", capacity, (long) capacity * BYTES_PER_SPAN / 1024));
+    }
+
+    private void write(Trace trace, SpanData span) {
+        var owner = traceColumn[next];
+        if (owner == trace.id) {
+            // a single trace bigger than the whole store; it loses its oldest spans
+            trace.removeFirstRow();
+            spanCount--;
+        } else if (owner != FREE) {
+            evict(tracesById.get(owner));
+        }
+        traceColumn[next] = trace.id;
+        trace.addRow(next);
+        spanIdColumn[next] = parseSpanId(span.getSpanId());
+        parentSpanIdColumn[next] = span.getParentSpanContext().isValid() ? parseSpanId(span.getParentSpanId()) : 0;
+        startColumn[next] = span.getStartEpochNanos();
+        endColumn[next] = span.getEndEpochNanos();
+        nameColumn[next] = encode(span.getName());
+        var serviceName = span.getAttributes().get(SERVICE_NAME);
+        serviceColumn[next] = encode(serviceName == null ? "" : serviceName);
+        flagColumn[next] = span.getStatus().getStatusCode() == StatusCode.ERROR ? FLAG_ERROR : 0;
+        spanCount++;
+        next = (next + 1) % capacity;
+    }
+
+    private void evict(Trace trace) {
+        traces.remove(trace.traceId);
+        tracesById.remove(trace.id);
+        for (int i = trace.first; i < trace.end; i++) traceColumn[trace.rows[i]] = FREE;
+        spanCount -= trace.end - trace.first;
+    }
+
+    private int encode(String value) {
+        var id = dictionaryIds.get(value);
+        if (id != null) return id;
+        id = dictionary.size();
+        dictionary.add(value);
+        dictionaryIds.put(value, id);
+        dictionaryBytes += BYTES_PER_NAME + value.length();
+        return id;
+    }
+
+    // Drops the names no stored span uses any more. If that doesn't free up enough (to half the cap, so we're not back
+    // here with the next new name), the oldest traces go too, though the newest is always kept.
+    private void compact() {
+        while (true) {
+            var oldDictionary = dictionary;
+            dictionary = new ArrayList<>();
+            dictionaryIds = new HashMap<>();
+            dictionaryBytes = 0;
+            for (var trace : traces.values()) {
+                for (int i = trace.first; i < trace.end; i++) {
+                    var row = trace.rows[i];
+                    nameColumn[row] = encode(oldDictionary.get(nameColumn[row]));
+                    serviceColumn[row] = encode(oldDictionary.get(serviceColumn[row]));
+                }
+            }
+            if (dictionaryBytes <= maxDictionaryBytes / 2 || traces.size() <= 1) return;
+            evict(traces.values().iterator().next());
+        }
+    }
+
+    private static long parseSpanId(String spanId) {
+        return Long.parseUnsignedLong(spanId, 16);
+    }
+}
@@ -0,0 +1,45 @@
+package com.octopus.teamcity.opentelemetry.server.tracestore;
+
+import com.octopus.teamcity.opentelemetry.server.LogMasker;
+import io.opentelemetry.sdk.common.CompletableResultCode;
+import io.opentelemetry.sdk.trace.data.SpanData;
+import io.opentelemetry.sdk.trace.export.SpanExporter;
+import org.apache.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Collection;
+
+// Keeps a copy of each batch in the local trace store on its way to the destination. It's stored whether or not the
+// destination takes it, so the build overview still has something to show while the destination is down.
+public class LocalTraceStoreSpanExporter implements SpanExporter {
+    static Logger LOG = Logger.getLogger(LocalTraceStoreSpanExporter.class.getName());
+    private final SpanExporter delegate;
+    private final LocalTraceStore traceStore;
+
+    public LocalTraceStoreSpanExporter(@NotNull SpanExporter delegate, @NotNull LocalTraceStore traceStore) {
+        this.delegate = delegate;
+        this.traceStore = traceStore;
+    }
+
+    @Override
+    public CompletableResultCode export(@NotNull Collection<SpanData> spans) {
+        if (traceStore.isEnabled()) {
+            try {
+                traceStore.record(spans);
+            } catch (RuntimeException e) {
+                LOG.warn("Unable to keep spans in the local trace store: " + LogMasker.maskStackTrace(e));
+            }
+        }
+        return delegate.export(spans);
+    }
+
+    @Override
+    public CompletableResultCode flush() {
+        return delegate.flush();
+    }
+
+    @Override
+    public CompletableResultCode shutdown() {
+        return delegate.shutdown();
+    }
+}
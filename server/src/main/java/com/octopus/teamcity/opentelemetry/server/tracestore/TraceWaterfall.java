@@ -0,0 +1,264 @@
+package com.octopus.teamcity.opentelemetry.server.tracestore;
+
+import com.octopus.teamcity.opentelemetry.server.helpers.LongIndexMap;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+// The spans under one build's span laid out as a waterfall, and the critical path through them. Working back from the
+// end of a span, the child that finished last is what it was waiting on; before that child started, it was waiting
+// on whichever child finished last before then, and so on. Time not covered by any child is the span's own. The
+// summary adds up the time on the path by span name, so the steps that held the build up stand out.
+public final class TraceWaterfall {
+    // deeper spans are left off the critical path rather than risk running out of stack on a pathological trace
+    private static final int MAX_DEPTH = 256;
+    private static final int CRITICAL_PATH_SUMMARY_SIZE = 10;
+    private static final double MIN_WIDTH_PERCENT = 0.2;
+
+    public static final class Row {
+        private final String name;
+        private final String serviceName;
+        private final int depth;
+        private final long offsetMs;
+        private final long durationMs;
+        private final double offsetPercent;
+        private final double widthPercent;
+        private final boolean error;
+        private final boolean onCriticalPath;
+
+        Row(String name, String serviceName, int depth, long offsetMs, long durationMs, double offsetPercent, double widthPercent, boolean error, boolean onCriticalPath) {
+            this.name = name;
+            this.serviceName = serviceName;
+            this.depth = depth;
+            this.offsetMs = offsetMs;
+            this.durationMs = durationMs;
+            this.offsetPercent = offsetPercent;
+            this.widthPercent = widthPercent;
+            this.error = error;
+            this.onCriticalPath = onCriticalPath;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getServiceName() {
+            return serviceName;
+        }
+
+        public int getDepth() {
+            return depth;
+        }
+
+        public long getOffsetMs() {
+            return offsetMs;
+        }
+
+        public long getDurationMs() {
+            return durationMs;
+        }
+
+        public double getOffsetPercent() {
+            return offsetPercent;
+        }
+
+        public double getWidthPercent() {
+            return widthPercent;
+        }
+
+        public boolean isError() {
+            return error;
+        }
+
+        public boolean isOnCriticalPath() {
+            return onCriticalPath;
+        }
+    }
+
+    public static final class CriticalPathEntry {
+        private final String name;
+        private final long durationMs;
+        private final long percent;
+
+        CriticalPathEntry(String name, long durationMs, long percent) {
+            this.name = name;
+            this.durationMs = durationMs;
+            this.percent = percent;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getDurationMs() {
+            return durationMs;
+        }
+
+        public long getPercent() {
+            return percent;
+        }
+    }
+
+    private final List<Row> rows;
+    private final int omittedRowCount;
+    private final long durationMs;
+    private final List<CriticalPathEntry> criticalPath;
+
+    private TraceWaterfall(List<Row> rows, int omittedRowCount, long durationMs, List<CriticalPathEntry> criticalPath) {
+        this.rows = rows;
+        this.omittedRowCount = omittedRowCount;
+        this.durationMs = durationMs;
+        this.criticalPath = criticalPath;
+    }
+
+    // The waterfall under the span with the given id, or under the trace's root if the id is 0. Null if that span
+    // isn't (or isn't yet) in the store.
+    @Nullable
+    public static TraceWaterfall of(@NotNull List<LocalTraceStore.StoredSpan> spans, long rootSpanId, int maxRows) {
+        return new Builder(spans).build(rootSpanId, maxRows);
+    }
+
+    @NotNull
+    public List<Row> getRows() {
+        return rows;
+    }
+
+    public int getOmittedRowCount() {
+        return omittedRowCount;
+    }
+
+    public long getDurationMs() {
+        return durationMs;
+    }
+
+    @NotNull
+    public List<CriticalPathEntry> getCriticalPath() {
+        return criticalPath;
+    }
+
+    private static final class Builder {
+        private final List<LocalTraceStore.StoredSpan> spans;
+        private final int[] parent;
+        private final List<List<Integer>> children;
+        private final boolean[] onCriticalPath;
+        private final Map<String, Long> criticalPathNanos = new HashMap<>();
+
+        Builder(List<LocalTraceStore.StoredSpan> spans) {
+            this.spans = spans;
+            var count = spans.size();
+            var indexes = new LongIndexMap(count);
+            for (var span : spans) indexes.getOrAdd(span.getSpanId());
+            parent = new int[count];
+            children = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) children.add(new ArrayList<>());
+            for (int i = 0; i < count; i++) {
+                var parentSpanId = spans.get(i).getParentSpanId();
+                parent[i] = parentSpanId == 0 ? -1 : indexes.get(parentSpanId);
+                if (parent[i] >= 0 && parent[i] != i) children.get(parent[i]).add(i);
+            }
+            onCriticalPath = new boolean[count];
+        }
+
+        @Nullable
+        TraceWaterfall build(long rootSpanId, int maxRows) {
+            var root = findRoot(rootSpanId);
+            if (root < 0) return null;
+
+            var rootStart = start(root);
+            var rootNanos = Math.max(1, end(root) - rootStart);
+            walkCriticalPath(root, end(root), 0);
+
+            var rows = new ArrayList<Row>();
+            var omitted = 0;
+            // ids come from the builds' agents too, so don't trust them not to loop
+            var visited = new boolean[spans.size()];
+            var pending = new ArrayDeque<int[]>();
+            pending.push(new int[]{root, 0});
+            while (!pending.isEmpty()) {
+                var entry = pending.pop();
+                var index = entry[0];
+                var depth = entry[1];
+                if (visited[index]) continue;
+                visited[index] = true;
+                if (rows.size() >= maxRows) {
+                    omitted++;
+                } else {
+                    var span = spans.get(index);
+                    var offsetPercent = clamp(100.0 * (start(index) - rootStart) / rootNanos, 0, 100);
+                    var widthPercent = clamp(100.0 * (end(index) - start(index)) / rootNanos, MIN_WIDTH_PERCENT, 100 - offsetPercent);
+                    rows.add(new Row(
+                            span.getName(),
+                            span.getServiceName(),
+                            depth,
+                            TimeUnit.NANOSECONDS.toMillis(start(index) - rootStart),
+                            TimeUnit.NANOSECONDS.toMillis(end(index) - start(index)),
+                            offsetPercent,
+                            widthPercent,
+                            span.isError(),
+                            onCriticalPath[index]));
+                }
+                var sorted = new ArrayList<>(children.get(index));
+                sorted.sort(Comparator.comparingLong(this::start).reversed());
+                for (var child : sorted) pending.push(new int[]{child, depth + 1});
+            }
+
+            var criticalPath = new ArrayList<CriticalPathEntry>();
+            criticalPathNanos.entrySet().stream()
+                    .sorted(Map.Entry.<String, Long>comparingByValue().reversed())
+                    .limit(CRITICAL_PATH_SUMMARY_SIZE)
+                    .forEach(e -> criticalPath.add(new CriticalPathEntry(e.getKey(), TimeUnit.NANOSECONDS.toMillis(e.getValue()), 100 * e.getValue() / rootNanos)));
+
+            return new TraceWaterfall(rows, omitted, TimeUnit.NANOSECONDS.toMillis(rootNanos), criticalPath);
+        }
+
+        private int findRoot(long rootSpanId) {
+            var root = -1;
+            for (int i = 0; i < spans.size(); i++) {
+                if (rootSpanId != 0) {
+                    if (spans.get(i).getSpanId() == rootSpanId) return i;
+                } else if (parent[i] < 0 && (root < 0 || end(i) - start(i) > end(root) - start(root))) {
+                    // the longest span with no parent we know of
+                    root = i;
+                }
+            }
+            return root;
+        }
+
+        private void walkCriticalPath(int index, long upTo, int depth) {
+            var spanStart = start(index);
+            var cursor = Math.min(end(index), upTo);
+            if (depth < MAX_DEPTH) {
+                var sorted = new ArrayList<>(children.get(index));
+                sorted.sort(Comparator.comparingLong(this::end).reversed());
+                for (var child : sorted) {
+                    if (cursor <= spanStart) break;
+                    if (start(child) >= cursor) continue;
+                    var childEnd = Math.min(end(child), cursor);
+                    addToCriticalPath(index, childEnd, cursor);
+                    walkCriticalPath(child, childEnd, depth + 1);
+                    cursor = Math.max(start(child), spanStart);
+                }
+            }
+            addToCriticalPath(index, spanStart, cursor);
+        }
+
+        private void addToCriticalPath(int index, long from, long to) {
+            onCriticalPath[index] = true;
+            if (to > from) criticalPathNanos.merge(spans.get(index).getName(), to - from, Long::sum);
+        }
+
+        private long start(int index) {
+            return spans.get(index).getStartEpochNanos();
+        }
+
+        private long end(int index) {
+            return Math.max(spans.get(index).getEndEpochNanos(), spans.get(index).getStartEpochNanos());
+        }
+
+        private static double clamp(double value, double min, double max) {
+            return Math.max(min, Math.min(max, value));
+        }
+    }
+}
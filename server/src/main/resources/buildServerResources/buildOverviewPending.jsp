@@ -0,0 +1,30 @@
+<%@ include file="/include.jsp"%>
+<%@ taglib prefix="c" uri="http://java.sun.com/jsp/jstl/core"%>
+
+<span id="otel-trace-pending-${buildId}"></span>
+<script>
+    (function () {
+        var placeholder = document.getElementById('otel-trace-pending-${buildId}');
+        var url = '<c:url value="/otel-trace-url.html"/>?buildId=${buildId}';
+
+        function poll(retryAfterSeconds) {
+            setTimeout(function () {
+                if (!document.body.contains(placeholder)) return;
+                fetch(url, { credentials: 'same-origin' }).then(function (response) {
+                    var retryAfter = response.headers.get('Retry-After');
+                    if (retryAfter) {
+                        poll(parseInt(retryAfter, 10));
+                        return;
+                    }
+                    return response.text().then(function (html) {
+                        placeholder.outerHTML = html;
+                    });
+                }).catch(function () {
+                    poll(retryAfterSeconds * 2);
+                });
+            }, retryAfterSeconds * 1000);
+        }
+
+        poll(${retryAfterSeconds});
+    })();
+</script>
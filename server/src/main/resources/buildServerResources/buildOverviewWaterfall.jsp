@@ -0,0 +1,42 @@
+<%@ include file="/include.jsp"%>
+<%@ taglib prefix="c" uri="http://java.sun.com/jsp/jstl/core"%>
+
+<style>
+    .otel-waterfall { margin-bottom: 30px; font-size: 12px; }
+    .otel-waterfall-row { display: flex; align-items: center; height: 18px; }
+    .otel-waterfall-name { flex: 0 0 35%; overflow: hidden; white-space: nowrap; text-overflow: ellipsis; }
+    .otel-waterfall-lane { flex: 1 1 auto; position: relative; height: 10px; background: #f4f4f4; }
+    .otel-waterfall-bar { position: absolute; top: 0; height: 10px; background: #8fb8de; }
+    .otel-waterfall-bar.critical { background: #f0a02c; }
+    .otel-waterfall-bar.error { background: #e05252; }
+    .otel-waterfall-duration { flex: 0 0 80px; text-align: right; color: #737577; }
+    .otel-waterfall table { border-collapse: collapse; margin-bottom: 10px; }
+    .otel-waterfall td { padding: 1px 10px 1px 0; }
+</style>
+
+<div class="otel-waterfall" id="otel-waterfall-${buildId}">
+    <h3>Critical path</h3>
+    <table>
+        <c:forEach items="${criticalPath}" var="entry">
+            <tr>
+                <td><c:out value="${entry.name}"/></td>
+                <td>${entry.durationMs} ms</td>
+                <td>${entry.percent}%</td>
+            </tr>
+        </c:forEach>
+    </table>
+
+    <h3>Trace <c:out value="${traceId}"/> (${waterfallDurationMs} ms)</h3>
+    <c:forEach items="${waterfallRows}" var="row">
+        <div class="otel-waterfall-row" title="<c:out value="${row.serviceName}"/>: starts at ${row.offsetMs} ms">
+            <div class="otel-waterfall-name" style="padding-left: ${row.depth * 12}px;"><c:out value="${row.name}"/></div>
+            <div class="otel-waterfall-lane">
+                <div class="otel-waterfall-bar${row.onCriticalPath ? ' critical' : ''}${row.error ? ' error' : ''}" style="left: ${row.offsetPercent}%; width: ${row.widthPercent}%;"></div>
+            </div>
+            <div class="otel-waterfall-duration">${row.durationMs} ms</div>
+        </div>
+    </c:forEach>
+    <c:if test="${waterfallOmittedRowCount > 0}">
+        <div>${waterfallOmittedRowCount} more spans not shown</div>
+    </c:if>
+</div>
@@ -42,18 +42,29 @@ BS.ProjectConfigurationSettings = OO.extend(BS.PluginPropertiesForm, OO.extend(B
             $j('#honeycombTeam').closest('tr').show();
             $j('#honeycombDataset').closest('tr').show();
             $j('#honeycombApiKey').closest('tr').show();
+            $j('#fileHelp').closest('tr').hide();
         } else if ($j(dropdown).val() === 'zipkin.io') {
             $j('#endpoint').closest('tr').show();
             $j('#customHeaders').closest('tr').hide();
             $j('#honeycombTeam').closest('tr').hide();
             $j('#honeycombDataset').closest('tr').hide();
             $j('#honeycombApiKey').closest('tr').hide();
+            $j('#fileHelp').closest('tr').hide();
+        } else if ($j(dropdown).val() === 'file') {
+            if ($j('#endpoint').val().indexOf('://') >= 0) $j('#endpoint').val('otlp');
+            $j('#endpoint').closest('tr').show();
+            $j('#customHeaders').closest('tr').hide();
+            $j('#honeycombTeam').closest('tr').hide();
+            $j('#honeycombDataset').closest('tr').hide();
+            $j('#honeycombApiKey').closest('tr').hide();
+            $j('#fileHelp').closest('tr').show();
         } else {
             $j('#endpoint').closest('tr').show();
             $j('#customHeaders').closest('tr').show();
             $j('#honeycombTeam').closest('tr').hide();
             $j('#honeycombDataset').closest('tr').hide();
             $j('#honeycombApiKey').closest('tr').hide();
+            $j('#fileHelp').closest('tr').hide();
         }
     },
 
@@ -89,5 +100,45 @@ BS.ProjectConfigurationSettings = OO.extend(BS.PluginPropertiesForm, OO.extend(B
 
     reset: function () {
         return this.postBackToServer("reset");
+    },
+
+    backfillUrl: "/admin/teamcity-opentelemetry/backfill.html",
+
+    showBackfillProgress: function (status) {
+        var progress = $j('#backfillProgress');
+        if (!status || !status.state) {
+            progress.text(status && status.error ? status.error : 'Not started');
+            return;
+        }
+        var text = status.state.toLowerCase() + ': ' + (status.exported + status.skipped + status.failed + status.resumedFrom) + ' of ' + status.total + ' builds' +
+                   ' (' + status.exported + ' exported, ' + status.skipped + ' skipped, ' + status.failed + ' failed, ' + status.spans + ' spans)';
+        if (status.error) text += ' - ' + status.error;
+        progress.text(text);
+        if (status.state === 'RUNNING') {
+            setTimeout(function () { BS.ProjectConfigurationSettings.refreshBackfill(); }, 2000);
+        }
+    },
+
+    refreshBackfill: function () {
+        var form = $j('#openTelemetryBackfill');
+        if (form.length === 0) return;
+        $j.get(this.backfillUrl, { projectId: form.find("input[name='projectId']").val() })
+            .done(function (status) { BS.ProjectConfigurationSettings.showBackfillProgress(status); });
+    },
+
+    postBackfill: function (data) {
+        $j.post(this.backfillUrl, data)
+            .done(function (status) { BS.ProjectConfigurationSettings.showBackfillProgress(status); })
+            .fail(function (xhr) { BS.ProjectConfigurationSettings.showBackfillProgress(xhr.responseJSON); });
+        return false;
+    },
+
+    startBackfill: function () {
+        return this.postBackfill($j('#openTelemetryBackfill').serialize());
+    },
+
+    cancelBackfill: function () {
+        var projectId = $j('#openTelemetryBackfill').find("input[name='projectId']").val();
+        return this.postBackfill({ projectId: projectId, action: 'cancel' });
     }
 }));
@@ -44,12 +44,10 @@
                 <tr>
                     <th><label for="service">Service:&nbsp;<span class="mandatoryAsterix" title="Mandatory field">*</span></label></th>
                     <td>
-                        <%-- todo: load available service types from server side instead of hardcoding--%>
-                        <%-- todo: add options for jaeger --%>
                         <select name="service" id="service" onchange="BS.ProjectConfigurationSettings.serviceChanged(this)">
-                            <option value="honeycomb.io" <c:if test='${otelService == "honeycomb.io"}'>selected="selected"</c:if>>Honeycomb.io</option>
-                            <option value="zipkin.io" <c:if test='${otelService == "zipkin.io"}'>selected="selected"</c:if>>Zipkin</option>
-                            <option value="custom" <c:if test='${otelService == "custom"}'>selected="selected"</c:if>>Custom</option>
+                            <c:forEach items="${otelServices}" var="service">
+                                <option value="<c:out value="${service.serviceName}"/>" <c:if test='${otelService == service.serviceName}'>selected="selected"</c:if>><c:out value="${service.displayName}"/></option>
+                            </c:forEach>
                         </select>
                         <span class="error" id="error_service"></span>
                     </td>
@@ -58,6 +56,8 @@
                 <%@ include file="projectConfigurationSettingsHoneycomb.jspf" %>
                 <%@ include file="projectConfigurationSettingsZipkin.jspf" %>
                 <%@ include file="projectConfigurationSettingsCustom.jspf" %>
+                <%@ include file="projectConfigurationSettingsFile.jspf" %>
+                <%@ include file="projectConfigurationSettingsLimits.jspf" %>
             </table>
 
             <div class="saveButtonsBlock" id="saveButtons">
@@ -69,8 +69,105 @@
             </div>
         </form>
     </div>
+
+    <c:if test='${otelEnabled == "true" && not empty exporterState}'>
+        <h3>Exporter health</h3>
+        <div class="grayNote">
+            While exports to the destination keep failing, spans are dropped without being sent and builds only get their build spans, not their step and test spans. Now and then an export is let through to see whether the destination has recovered.
+        </div>
+        <table class="runnerFormTable">
+            <tr>
+                <th>State:</th>
+                <td>
+                    <c:choose>
+                        <c:when test='${exporterState == "CLOSED"}'>Healthy</c:when>
+                        <c:when test='${exporterState == "HALF_OPEN"}'>Checking whether the destination has recovered</c:when>
+                        <c:otherwise>Failing - dropping spans</c:otherwise>
+                    </c:choose>
+                    since <bs:date value="${exporterStateSince}"/>
+                </td>
+            </tr>
+            <tr>
+                <th>Failed exports in a row:</th>
+                <td><c:out value="${exporterConsecutiveFailures}"/></td>
+            </tr>
+            <tr>
+                <th>Spans dropped:</th>
+                <td><c:out value="${exporterDroppedSpanCount}"/></td>
+            </tr>
+            <c:if test='${not empty exporterLastError}'>
+                <tr>
+                    <th>Last error:</th>
+                    <td><c:out value="${exporterLastError}"/></td>
+                </tr>
+            </c:if>
+        </table>
+    </c:if>
+
+    <c:if test='${otelEnabled == "true" && not empty spanUsageCreated}'>
+        <h3>Span usage today</h3>
+        <div class="grayNote">
+            Step, test and received spans created by this project's builds since midnight (UTC), and those counted on their parent instead because of the limits above.
+        </div>
+        <table class="runnerFormTable">
+            <tr>
+                <th>Created:</th>
+                <td>
+                    <c:out value="${spanUsageCreated}"/>
+                    <c:if test='${spanUsageQuota > 0}'> of <c:out value="${spanUsageQuota}"/></c:if>
+                </td>
+            </tr>
+            <tr>
+                <th>Over the rate limit:</th>
+                <td><c:out value="${spanUsageRateLimited}"/></td>
+            </tr>
+            <tr>
+                <th>Over the daily quota:</th>
+                <td><c:out value="${spanUsageOverQuota}"/></td>
+            </tr>
+        </table>
+    </c:if>
+
+    <c:if test='${otelEnabled == "true"}'>
+        <h3>Backfill history</h3>
+        <div class="grayNote">
+            Send traces for builds in this project that finished before OpenTelemetry was enabled. Builds that were already traced are skipped, and re-running a backfill re-sends the same traces rather than duplicating them.
+        </div>
+        <div class="editSettingsPage">
+            <form id="openTelemetryBackfill" onsubmit="return BS.ProjectConfigurationSettings.startBackfill();" method="post" autocomplete="off">
+                <table class="runnerFormTable">
+                    <tr>
+                        <th><label for="backfillFrom">From:&nbsp;<span class="mandatoryAsterix" title="Mandatory field">*</span></label></th>
+                        <td><input type="date" id="backfillFrom" name="from" class="textField"/></td>
+                    </tr>
+                    <tr>
+                        <th><label for="backfillTo">To:&nbsp;<span class="mandatoryAsterix" title="Mandatory field">*</span></label></th>
+                        <td><input type="date" id="backfillTo" name="to" class="textField"/></td>
+                    </tr>
+                    <tr>
+                        <th><label for="backfillConcurrency">Concurrency:&nbsp;</label></th>
+                        <td><input type="number" id="backfillConcurrency" name="concurrency" value="4" min="1" max="16" class="textField"/></td>
+                    </tr>
+                    <tr>
+                        <th><label for="backfillMaxBuildsPerSecond">Max builds per second:&nbsp;</label></th>
+                        <td><input type="number" id="backfillMaxBuildsPerSecond" name="maxBuildsPerSecond" value="10" min="1" class="textField"/></td>
+                    </tr>
+                    <tr>
+                        <th>Progress:</th>
+                        <td><span id="backfillProgress"></span></td>
+                    </tr>
+                </table>
+                <div class="saveButtonsBlock">
+                    <forms:submit label="Start backfill"/>
+                    <forms:button onclick="return BS.ProjectConfigurationSettings.cancelBackfill();">Cancel backfill</forms:button>
+                    <input type="hidden" name="projectId" value="${currentProject.externalId}"/>
+                </div>
+            </form>
+        </div>
+    </c:if>
 <script>
     BS.ProjectConfigurationSettings.serviceChanged($j('#service'));
+    BS.ProjectConfigurationSettings.refreshBackfill();
 </script>
 </body>
 </html>
@@ -0,0 +1,186 @@
+package com.octopus.teamcity.opentelemetry.server;
+
+import com.octopus.teamcity.opentelemetry.server.backfill.BackfillJob;
+import com.octopus.teamcity.opentelemetry.server.backfill.BackfillManager;
+import com.octopus.teamcity.opentelemetry.server.endpoints.IOTELEndpointHandler;
+import com.octopus.teamcity.opentelemetry.server.endpoints.OTELEndpointFactory;
+import com.octopus.teamcity.opentelemetry.server.helpers.PluginDataFiles;
+import io.opentelemetry.sdk.trace.data.SpanData;
+import io.opentelemetry.sdk.trace.export.SimpleSpanProcessor;
+import jetbrains.buildServer.serverSide.*;
+import jetbrains.buildServer.util.EventDispatcher;
+import jetbrains.buildServer.util.ItemProcessor;
+import org.apache.commons.lang3.tuple.Pair;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import static com.octopus.teamcity.opentelemetry.common.PluginConstants.*;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class BackfillManagerTest {
+    private static final String PROJECT = "Project1";
+
+    @TempDir
+    File dataDirectory;
+
+    private final List<SpanData> exported = Collections.synchronizedList(new ArrayList<>());
+    private final SBuildServer buildServer = mock(SBuildServer.class);
+    private final SProject project = mock(SProject.class);
+    private final List<SFinishedBuild> builds = new ArrayList<>();
+    private final Map<String, List<SFinishedBuild>> history = new HashMap<>();
+    private final List<Long> read = Collections.synchronizedList(new ArrayList<>());
+    private ServerPaths serverPaths;
+    private BackfillManager manager;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        serverPaths = mock(ServerPaths.class);
+        when(serverPaths.getPluginDataDirectory()).thenReturn(dataDirectory);
+
+        var params = Map.of(
+                PROPERTY_KEY_ENABLED, "true",
+                PROPERTY_KEY_SERVICE, "custom",
+                PROPERTY_KEY_ENDPOINT, "http://collector:4317");
+        var feature = mock(SProjectFeatureDescriptor.class);
+        when(feature.getParameters()).thenReturn(params);
+        when(project.getExternalId()).thenReturn(PROJECT);
+        when(project.getAvailableFeaturesOfType(PLUGIN_NAME)).thenReturn(List.of(feature));
+
+        for (long buildId = 1; buildId <= 3; buildId++) {
+            var build = finishedBuild(buildId, buildId * 1_000);
+            builds.add(build);
+            when(buildServer.findBuildInstanceById(buildId)).thenReturn(build);
+        }
+        // one build configuration in the project and one in a subproject, their histories newest first
+        history.put("bt1", new ArrayList<>(List.of(builds.get(1), builds.get(0))));
+        history.put("bt2", new ArrayList<>(List.of(builds.get(2))));
+        doReturn(List.of(buildType("bt1"))).when(project).getOwnBuildTypes();
+        var subproject = mock(SProject.class);
+        doReturn(List.of(buildType("bt2"))).when(subproject).getOwnBuildTypes();
+        doReturn(List.of(subproject)).when(project).getProjects();
+        var buildHistory = mock(BuildHistory.class);
+        doAnswer(invocation -> {
+            ItemProcessor<SFinishedBuild> processor = invocation.getArgument(5);
+            for (var build : history.get(invocation.<String>getArgument(0))) {
+                read.add(build.getBuildId());
+                if (!processor.processItem(build)) break;
+            }
+            return null;
+        }).when(buildHistory).processEntries(anyString(), isNull(), eq(false), eq(true), eq(false), any());
+        when(buildServer.getHistory()).thenReturn(buildHistory);
+
+        var handler = mock(IOTELEndpointHandler.class);
+        when(handler.getServiceName()).thenReturn("custom");
+        when(handler.buildSpanProcessorAndMeterProvider(null, "http://collector:4317", params))
+                .thenAnswer(invocation -> Pair.of(SimpleSpanProcessor.create(new CollectingSpanExporter(exported)), null));
+
+        manager = new BackfillManager(mock(EventDispatcher.class), mock(ProjectManager.class), buildServer,
+                mock(BuildStorageManager.class), new OTELEndpointFactory(List.of(handler)), serverPaths, mock(BuildSpans.class));
+    }
+
+    @AfterEach
+    void tearDown() {
+        manager.serverShutdown();
+    }
+
+    @Test
+    void ExportsEveryBuildAndForgetsTheCheckpoint() throws Exception {
+        var job = run();
+
+        assertEquals(BackfillJob.State.COMPLETED, job.getState());
+        assertEquals(3, job.getExported());
+        assertEquals(3, exported.size());
+        assertFalse(checkpointFile().exists());
+    }
+
+    @Test
+    void TheCheckpointStopsShortOfAFailedBuild() throws Exception {
+        when(buildServer.findBuildInstanceById(2L)).thenThrow(new IllegalStateException("build 2 is unavailable"));
+
+        var job = run();
+
+        assertEquals(BackfillJob.State.COMPLETED, job.getState());
+        assertEquals(2, job.getExported());
+        assertEquals(1, job.getFailed());
+        assertEquals("1", loadCheckpoint().getProperty("buildId"));
+
+        // the build is back, so running it again retries it (and the one after it) and finishes the job off
+        doReturn(builds.get(1)).when(buildServer).findBuildInstanceById(2L);
+        var rerun = run();
+
+        assertEquals(1, rerun.getResumedFrom());
+        assertEquals(2, rerun.getExported());
+        assertEquals(0, rerun.getFailed());
+        assertFalse(checkpointFile().exists());
+    }
+
+    @Test
+    void StopsReadingAHistoryOnceItsBuildsStartedLongBeforeTheRange() throws Exception {
+        var day = TimeUnit.DAYS.toMillis(1);
+        var old = finishedBuild(4, 100);
+        var older = finishedBuild(5, 50);
+        history.get("bt1").addAll(List.of(old, older));
+        for (var build : builds) when(build.getStartDate()).thenReturn(new Date(2 * day + build.getBuildId()));
+        for (var build : builds) when(build.getFinishDate()).thenReturn(new Date(2 * day + build.getBuildId() * 1_000));
+
+        var job = run(2 * day, 3 * day);
+
+        assertEquals(3, job.getExported());
+        assertEquals(List.of(2L, 1L, 4L, 3L), read);
+    }
+
+    private BackfillJob run() throws InterruptedException {
+        return run(0, 10_000);
+    }
+
+    private BackfillJob run(long from, long to) throws InterruptedException {
+        var job = manager.start(project, from, to, 1, 1_000);
+        var deadline = System.currentTimeMillis() + 10_000;
+        while (job.getState() == BackfillJob.State.RUNNING) {
+            assertTrue(System.currentTimeMillis() < deadline, "the backfill didn't finish");
+            Thread.sleep(10);
+        }
+        return job;
+    }
+
+    private File checkpointFile() {
+        return PluginDataFiles.get(serverPaths, "backfill-" + PROJECT + ".properties");
+    }
+
+    private Properties loadCheckpoint() throws IOException {
+        var properties = new Properties();
+        try (var reader = new FileReader(checkpointFile())) {
+            properties.load(reader);
+        }
+        return properties;
+    }
+
+    private static SBuildType buildType(String buildTypeId) {
+        var buildType = mock(SBuildType.class);
+        when(buildType.getBuildTypeId()).thenReturn(buildTypeId);
+        return buildType;
+    }
+
+    private static SFinishedBuild finishedBuild(long buildId, long finishTime) {
+        var build = mock(SFinishedBuild.class, RETURNS_DEEP_STUBS);
+        when(build.getBuildId()).thenReturn(buildId);
+        when(build.getStartDate()).thenReturn(new Date(finishTime - 500));
+        when(build.getFinishDate()).thenReturn(new Date(finishTime));
+        var promotion = mock(BuildPromotion.class, RETURNS_DEEP_STUBS);
+        when(promotion.getId()).thenReturn(buildId);
+        when(promotion.findTops()).thenReturn(new BuildPromotion[] { promotion });
+        doReturn(List.of()).when(promotion).getDependedOnMe();
+        when(build.getBuildPromotion()).thenReturn(promotion);
+        return build;
+    }
+}
@@ -0,0 +1,51 @@
+package com.octopus.teamcity.opentelemetry.server;
+
+import jetbrains.buildServer.util.EventDispatcher;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.servlet.ModelAndView;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class BuildOverviewCacheTest {
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void ListensForProjectChanges() {
+        var dispatcher = mock(EventDispatcher.class);
+
+        var cache = new BuildOverviewCache(dispatcher);
+
+        verify(dispatcher).addListener(cache);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void HandsOutACopyOfWhatItWasGiven() {
+        var cache = new BuildOverviewCache(mock(EventDispatcher.class));
+        var rendered = new ModelAndView("/plugin/buildOverview.jsp", "traceId", "trace1");
+        cache.put(7, rendered);
+        rendered.getModel().put("traceId", "changed");
+
+        var cached = cache.get(7);
+        cached.getModel().put("extra", true);
+
+        assertEquals("/plugin/buildOverview.jsp", cached.getViewName());
+        assertEquals("trace1", cached.getModel().get("traceId"));
+        assertFalse(cache.get(7).getModel().containsKey("extra"));
+        assertNull(cache.get(8));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void ForgetsEverythingWhenAnyProjectChanges() {
+        var cache = new BuildOverviewCache(mock(EventDispatcher.class));
+        cache.put(7, new ModelAndView("/plugin/buildOverview.jsp"));
+        cache.put(8, new ModelAndView("/plugin/buildOverview.jsp"));
+
+        cache.projectPersisted("Child");
+
+        assertNull(cache.get(7));
+        assertNull(cache.get(8));
+    }
+}
@@ -0,0 +1,166 @@
+package com.octopus.teamcity.opentelemetry.server;
+
+import com.octopus.teamcity.opentelemetry.server.endpoints.IOTELEndpointHandler;
+import com.octopus.teamcity.opentelemetry.server.endpoints.OTELEndpointFactory;
+import jetbrains.buildServer.serverSide.*;
+import jetbrains.buildServer.util.EventDispatcher;
+import jetbrains.buildServer.web.openapi.PagePlaces;
+import jetbrains.buildServer.web.openapi.PluginDescriptor;
+import jetbrains.buildServer.web.openapi.WebControllerManager;
+import jetbrains.buildServer.web.util.WebUtil;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.MockedStatic;
+import org.springframework.web.servlet.ModelAndView;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import static com.octopus.teamcity.opentelemetry.common.PluginConstants.*;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class BuildOverviewExtensionControllerTest {
+    private static final String TRACE_ID = "0af7651916cd43dd8448eb211c80319c";
+    private static final Map<String, String> PARAMS = Map.of(
+            PROPERTY_KEY_ENABLED, "true",
+            PROPERTY_KEY_SERVICE, "custom");
+
+    private final SBuildServer sBuildServer = mock(SBuildServer.class);
+    private final BuildStorageManager buildStorageManager = mock(BuildStorageManager.class);
+    private final IOTELEndpointHandler handler = mock(IOTELEndpointHandler.class);
+    private final SBuild build = mock(SBuild.class);
+    private BuildOverviewCache cache;
+    private BuildOverviewExtensionController controller;
+    private MockedStatic<WebUtil> webUtil;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        var pluginDescriptor = mock(PluginDescriptor.class);
+        when(pluginDescriptor.getPluginResourcesPath(anyString())).thenAnswer(invocation -> "/plugin/" + invocation.getArgument(0));
+        var feature = mock(SProjectFeatureDescriptor.class);
+        when(feature.getParameters()).thenReturn(PARAMS);
+        var project = mock(SProject.class);
+        when(project.getAvailableFeaturesOfType(PLUGIN_NAME)).thenReturn(List.of(feature));
+        var projectManager = mock(ProjectManager.class);
+        when(projectManager.findProjectByExternalId("Project1")).thenReturn(project);
+        when(handler.getServiceName()).thenReturn("custom");
+        when(handler.getBuildOverviewModelAndView(build, PARAMS, TRACE_ID)).thenAnswer(invocation -> new ModelAndView("/plugin/buildOverview.jsp", "traceId", TRACE_ID));
+
+        when(build.getProjectExternalId()).thenReturn("Project1");
+        when(build.isFinished()).thenReturn(true);
+        when(build.getFinishDate()).thenReturn(new Date());
+        when(sBuildServer.findBuildInstanceById(7)).thenReturn(build);
+
+        cache = new BuildOverviewCache(mock(EventDispatcher.class));
+        controller = new BuildOverviewExtensionController(mock(PagePlaces.class, RETURNS_DEEP_STUBS), sBuildServer, projectManager,
+                pluginDescriptor, mock(WebControllerManager.class), buildStorageManager, new OTELEndpointFactory(List.of(handler)), cache);
+        // the classic UI, which says which build in the query string
+        webUtil = mockStatic(WebUtil.class);
+    }
+
+    @AfterEach
+    void tearDown() {
+        webUtil.close();
+    }
+
+    @Test
+    void RendersAFinishedBuildOnceAndThenFromTheCache() {
+        when(buildStorageManager.getTraceId(build)).thenReturn(TRACE_ID);
+
+        var first = render();
+        var second = render();
+
+        assertEquals("/plugin/buildOverview.jsp", first.modelAndView.getViewName());
+        assertEquals("/plugin/buildOverview.jsp", second.modelAndView.getViewName());
+        assertEquals(TRACE_ID, second.modelAndView.getModel().get("traceId"));
+        verify(handler, times(1)).getBuildOverviewModelAndView(any(), any(), any());
+        verify(sBuildServer, times(1)).findBuildInstanceById(7);
+        verify(second.response).setHeader("Cache-Control", "private, max-age=300");
+    }
+
+    @Test
+    void RendersAgainOnceAProjectChanges() {
+        when(buildStorageManager.getTraceId(build)).thenReturn(TRACE_ID);
+        render();
+
+        cache.projectPersisted("project1");
+        render();
+        cache.projectRestored("project1");
+        render();
+        cache.projectRemoved("project2");
+        render();
+
+        verify(handler, times(4)).getBuildOverviewModelAndView(any(), any(), any());
+    }
+
+    @Test
+    void NeverCachesARunningBuild() {
+        when(build.isFinished()).thenReturn(false);
+        when(build.getFinishDate()).thenReturn(null);
+        when(buildStorageManager.getTraceId(build)).thenReturn(TRACE_ID);
+
+        var first = render();
+        render();
+
+        assertEquals("/plugin/buildOverview.jsp", first.modelAndView.getViewName());
+        verify(handler, times(2)).getBuildOverviewModelAndView(any(), any(), any());
+        verify(first.response, never()).setHeader(eq("Cache-Control"), anyString());
+        assertNull(cache.get(7));
+    }
+
+    @Test
+    void AsksAgainLaterWhileTheTraceHasntTurnedUp() {
+        var rendered = render();
+
+        assertEquals("/plugin/buildOverviewPending.jsp", rendered.modelAndView.getViewName());
+        assertEquals(7L, rendered.modelAndView.getModel().get("buildId"));
+        verify(rendered.response).setHeader("Retry-After", "10");
+        verify(rendered.response).setHeader("Cache-Control", "no-store");
+        assertNull(cache.get(7));
+    }
+
+    @Test
+    void AsksAgainLaterForABuildThatHasntStarted() {
+        when(sBuildServer.findBuildInstanceById(7)).thenReturn(null);
+
+        var rendered = render();
+
+        assertEquals("/plugin/buildOverviewPending.jsp", rendered.modelAndView.getViewName());
+        verify(rendered.response).setHeader("Retry-After", "10");
+        verify(rendered.response).setHeader("Cache-Control", "no-store");
+    }
+
+    @Test
+    void GivesUpOnATraceThatNeverTurnedUp() {
+        when(build.getFinishDate()).thenReturn(new Date(System.currentTimeMillis() - 120_000));
+
+        var rendered = render();
+
+        assertEquals("/plugin/buildOverviewEmpty.jsp", rendered.modelAndView.getViewName());
+        verify(rendered.response, never()).setHeader(eq("Retry-After"), anyString());
+        assertNull(cache.get(7));
+    }
+
+    private Rendered render() {
+        var request = mock(HttpServletRequest.class);
+        when(request.getParameter("buildId")).thenReturn("7");
+        var response = mock(HttpServletResponse.class);
+        return new Rendered(controller.doHandle(request, response), response);
+    }
+
+    private static class Rendered {
+        final ModelAndView modelAndView;
+        final HttpServletResponse response;
+
+        Rendered(ModelAndView modelAndView, HttpServletResponse response) {
+            this.modelAndView = modelAndView;
+            this.response = response;
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package com.octopus.teamcity.opentelemetry.server;
+
+import jetbrains.buildServer.ArtifactsConstants;
+import jetbrains.buildServer.serverSide.SFinishedBuild;
+import jetbrains.buildServer.serverSide.SRunningBuild;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class BuildStorageManagerImplTest {
+
+    @TempDir
+    File artifactsDirectory;
+
+    @Test
+    void ServesTraceIdsFromMemoryOnceRead() throws IOException {
+        var storage = new BuildStorageManagerImpl(10);
+        var build = finishedBuild(1);
+        writeTraceId(1, "trace1");
+
+        assertEquals("trace1", storage.getTraceId(build));
+        Files.delete(traceIdFile(1).toPath());
+        assertEquals("trace1", storage.getTraceId(build));
+    }
+
+    @Test
+    void ForgetsTheLeastRecentlyUsedTraceIds() throws IOException {
+        var storage = new BuildStorageManagerImpl(2);
+        for (int buildId = 1; buildId <= 3; buildId++) writeTraceId(buildId, "trace" + buildId);
+        storage.getTraceId(finishedBuild(1));
+        storage.getTraceId(finishedBuild(2));
+        storage.getTraceId(finishedBuild(1));
+        storage.getTraceId(finishedBuild(3));
+        for (int buildId = 1; buildId <= 3; buildId++) Files.delete(traceIdFile(buildId).toPath());
+
+        assertEquals("trace1", storage.getTraceId(finishedBuild(1)));
+        assertNull(storage.getTraceId(finishedBuild(2)));
+        assertEquals("trace3", storage.getTraceId(finishedBuild(3)));
+    }
+
+    @Test
+    void RemembersThatAFinishedBuildHasNoTrace() throws IOException {
+        var storage = new BuildStorageManagerImpl(10);
+        assertNull(storage.getTraceId(finishedBuild(1)));
+
+        writeTraceId(1, "trace1");
+
+        assertNull(storage.getTraceId(finishedBuild(1)));
+    }
+
+    @Test
+    void KeepsLookingForTheTraceOfARunningBuild() throws IOException {
+        var storage = new BuildStorageManagerImpl(10);
+        var build = runningBuild(1);
+        assertNull(storage.getTraceId(build));
+
+        writeTraceId(1, "trace1");
+
+        assertEquals("trace1", storage.getTraceId(build));
+    }
+
+    @Test
+    void SavingATraceIdCachesItAndMovesTheVersionOn() throws IOException {
+        var storage = new BuildStorageManagerImpl(10);
+        var build = runningBuild(1);
+        Files.createDirectories(traceIdFile(1).getParentFile().toPath());
+
+        storage.saveTraceId(build, "trace1", "span1");
+
+        assertEquals(1, storage.getTraceIdVersion());
+        assertEquals("span1", storage.getSpanId(build));
+        Files.delete(traceIdFile(1).toPath());
+        assertEquals("trace1", storage.getTraceId(build));
+    }
+
+    @Test
+    void CachesNothingWhenTheSizeIsZero() throws IOException {
+        var storage = new BuildStorageManagerImpl(0);
+        writeTraceId(1, "trace1");
+        assertEquals("trace1", storage.getTraceId(finishedBuild(1)));
+
+        Files.delete(traceIdFile(1).toPath());
+
+        assertNull(storage.getTraceId(finishedBuild(1)));
+    }
+
+    private SFinishedBuild finishedBuild(long buildId) {
+        var build = mock(SFinishedBuild.class);
+        when(build.getBuildId()).thenReturn(buildId);
+        when(build.isFinished()).thenReturn(true);
+        when(build.getArtifactsDirectory()).thenReturn(new File(artifactsDirectory, String.valueOf(buildId)));
+        return build;
+    }
+
+    private SRunningBuild runningBuild(long buildId) {
+        var build = mock(SRunningBuild.class);
+        when(build.getBuildId()).thenReturn(buildId);
+        when(build.getArtifactsDirectory()).thenReturn(new File(artifactsDirectory, String.valueOf(buildId)));
+        return build;
+    }
+
+    private File traceIdFile(long buildId) {
+        return new File(new File(new File(artifactsDirectory, String.valueOf(buildId)), ArtifactsConstants.TEAMCITY_ARTIFACTS_DIR), BuildStorageManagerImpl.OTEL_TRACE_ID_FILENAME);
+    }
+
+    private void writeTraceId(long buildId, String traceId) throws IOException {
+        var file = traceIdFile(buildId);
+        Files.createDirectories(file.getParentFile().toPath());
+        Files.writeString(file.toPath(), traceId + "\nspan" + buildId);
+    }
+}
@@ -0,0 +1,41 @@
+package com.octopus.teamcity.opentelemetry.server;
+
+import io.opentelemetry.sdk.common.CompletableResultCode;
+import io.opentelemetry.sdk.trace.data.SpanData;
+import io.opentelemetry.sdk.trace.export.SpanExporter;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Collection;
+import java.util.List;
+
+// Adds every span exported to it to the given list, for tests to look at, and answers each export with the given
+// result (success unless told otherwise).
+class CollectingSpanExporter implements SpanExporter {
+    private final List<SpanData> exported;
+    private final CompletableResultCode result;
+
+    CollectingSpanExporter(@NotNull List<SpanData> exported) {
+        this(exported, CompletableResultCode.ofSuccess());
+    }
+
+    CollectingSpanExporter(@NotNull List<SpanData> exported, @NotNull CompletableResultCode result) {
+        this.exported = exported;
+        this.result = result;
+    }
+
+    @Override
+    public CompletableResultCode export(@NotNull Collection<SpanData> spans) {
+        exported.addAll(spans);
+        return result;
+    }
+
+    @Override
+    public CompletableResultCode flush() {
+        return CompletableResultCode.ofSuccess();
+    }
+
+    @Override
+    public CompletableResultCode shutdown() {
+        return CompletableResultCode.ofSuccess();
+    }
+}
@@ -0,0 +1,61 @@
+package com.octopus.teamcity.opentelemetry.server;
+
+import com.octopus.teamcity.opentelemetry.server.chain.CriticalPath;
+import com.octopus.teamcity.opentelemetry.server.chain.CriticalPath.Build;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CriticalPathTest {
+
+    @Test
+    void PathFollowsTheDependenciesTheChainWaitedOn() {
+        var builds = new HashMap<Long, Build>();
+        builds.put(1L, new Build(1, 0, 0, 10_000, new long[0]));
+        builds.put(2L, new Build(2, 0, 0, 30_000, new long[0]));
+        builds.put(3L, new Build(3, 0, 35_000, 50_000, new long[]{1, 2}));
+        builds.put(4L, new Build(4, 0, 0, 5_000, new long[0]));
+        builds.put(5L, new Build(5, 0, 50_000, 60_000, new long[]{3, 4}));
+
+        var criticalPath = CriticalPath.compute(builds, 5, Map.of(2L, "Compile", 3L, "Test", 5L, "Deploy"));
+
+        assertEquals(List.of(2L, 3L, 5L), criticalPath.getPath());
+        assertEquals("Compile > Test > Deploy", criticalPath.describe());
+        // Test waited 5s for an agent once Compile had finished
+        assertEquals(5_000, criticalPath.getQueueTimeMs());
+        assertEquals(0, criticalPath.getSlackMs(2));
+        assertEquals(20_000, criticalPath.getSlackMs(1));
+        assertEquals(45_000, criticalPath.getSlackMs(4));
+        assertFalse(criticalPath.isOnPath(1));
+        assertEquals(-1, criticalPath.getSlackMs(6));
+    }
+
+    @Test
+    void SharedDependenciesTakeTheTightestDeadline() {
+        var builds = new HashMap<Long, Build>();
+        builds.put(1L, new Build(1, 0, 0, 10_000, new long[0]));
+        builds.put(2L, new Build(2, 0, 10_000, 20_000, new long[]{1}));
+        builds.put(3L, new Build(3, 0, 10_000, 60_000, new long[]{1}));
+        builds.put(4L, new Build(4, 0, 60_000, 70_000, new long[]{2, 3}));
+
+        var criticalPath = CriticalPath.compute(builds, 4, Map.of());
+
+        assertEquals(List.of(1L, 3L, 4L), criticalPath.getPath());
+        assertEquals(0, criticalPath.getSlackMs(1));
+        assertEquals(40_000, criticalPath.getSlackMs(2));
+    }
+
+    @Test
+    void RootWithoutDependenciesIsItsOwnPath() {
+        var builds = Map.of(7L, new Build(7, 0, 1_000, 2_000, new long[0]));
+
+        var criticalPath = CriticalPath.compute(builds, 7, Map.of());
+
+        assertEquals(List.of(7L), criticalPath.getPath());
+        assertEquals(1_000, criticalPath.getQueueTimeMs());
+    }
+}
@@ -0,0 +1,111 @@
+package com.octopus.teamcity.opentelemetry.server;
+
+import com.octopus.teamcity.opentelemetry.common.PluginConstants;
+import com.octopus.teamcity.opentelemetry.server.chain.CriticalPath;
+import com.octopus.teamcity.opentelemetry.server.chain.DeferredBuildSpans;
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.sdk.trace.SdkTracerProvider;
+import io.opentelemetry.sdk.trace.data.SpanData;
+import io.opentelemetry.sdk.trace.export.SimpleSpanProcessor;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DeferredBuildSpansTest {
+    private static final long HOUR_MS = TimeUnit.HOURS.toMillis(1);
+
+    private final List<SpanData> exported = new ArrayList<>();
+    private final SdkTracerProvider tracerProvider = SdkTracerProvider.builder()
+            .addSpanProcessor(SimpleSpanProcessor.create(new CollectingSpanExporter(exported)))
+            .build();
+    private final AtomicLong now = new AtomicLong(10 * HOUR_MS);
+    private final DeferredBuildSpans deferredBuildSpans = new DeferredBuildSpans(now::get);
+
+    @AfterEach
+    void tearDown() {
+        tracerProvider.close();
+    }
+
+    @Test
+    void EndsHeldSpansWhenTheirBuildsFinishedWithTheCriticalPath() {
+        deferredBuildSpans.defer(5, "Project1", 2, span("Compile"), Instant.ofEpochMilli(30_000));
+        deferredBuildSpans.defer(5, "Project1", 4, span("Lint"), Instant.ofEpochMilli(5_000));
+        assertTrue(exported.isEmpty());
+
+        var builds = new HashMap<Long, CriticalPath.Build>();
+        builds.put(2L, new CriticalPath.Build(2, 0, 0, 30_000, new long[0]));
+        builds.put(4L, new CriticalPath.Build(4, 0, 0, 5_000, new long[0]));
+        builds.put(5L, new CriticalPath.Build(5, 0, 30_000, 40_000, new long[]{2, 4}));
+        assertTrue(deferredBuildSpans.endAll(5, CriticalPath.compute(builds, 5, Map.of())));
+
+        var compile = exported("Compile");
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(30_000), compile.getEndEpochNanos());
+        assertEquals(true, compile.getAttributes().get(AttributeKey.booleanKey(PluginConstants.ATTRIBUTE_CRITICAL_PATH_FLAG)));
+        var lint = exported("Lint");
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(5_000), lint.getEndEpochNanos());
+        assertEquals(25_000, lint.getAttributes().get(AttributeKey.longKey(PluginConstants.ATTRIBUTE_SLACK_TIME)));
+        assertFalse(deferredBuildSpans.has(5));
+        assertFalse(deferredBuildSpans.endAll(5, null));
+    }
+
+    @Test
+    void LetsGoOfChainsHeldTooLong() {
+        deferredBuildSpans.defer(5, "Project1", 2, span("Compile"), Instant.ofEpochMilli(30_000));
+        now.addAndGet(HOUR_MS);
+        deferredBuildSpans.defer(6, "Project1", 3, span("Test"), Instant.ofEpochMilli(40_000));
+        // a later build in the same chain doesn't make the chain any younger
+        deferredBuildSpans.defer(5, "Project1", 4, span("Lint"), Instant.ofEpochMilli(50_000));
+
+        now.addAndGet(23 * HOUR_MS);
+
+        assertEquals(List.of(5L), deferredBuildSpans.endHeldLongerThan(24 * HOUR_MS));
+        assertEquals(Set.of("Compile", "Lint"), names());
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(30_000), exported("Compile").getEndEpochNanos());
+        assertNull(exported("Compile").getAttributes().get(AttributeKey.booleanKey(PluginConstants.ATTRIBUTE_CRITICAL_PATH_FLAG)));
+        assertTrue(deferredBuildSpans.has(6));
+    }
+
+    @Test
+    void LetsGoOfChainsWhoseRootsProjectWasRemoved() {
+        deferredBuildSpans.defer(5, "Project1", 2, span("Compile"), Instant.ofEpochMilli(30_000));
+        deferredBuildSpans.defer(6, "Project2", 3, span("Test"), Instant.ofEpochMilli(40_000));
+        deferredBuildSpans.defer(7, null, 4, span("Lint"), Instant.ofEpochMilli(50_000));
+
+        assertEquals(List.of(5L), deferredBuildSpans.endAllInProject("Project1"));
+        assertEquals(Set.of("Compile"), names());
+        assertTrue(deferredBuildSpans.has(6));
+        assertTrue(deferredBuildSpans.has(7));
+    }
+
+    @Test
+    void EndsEveryChainAtShutdown() {
+        deferredBuildSpans.defer(5, "Project1", 2, span("Compile"), Instant.ofEpochMilli(30_000));
+        deferredBuildSpans.defer(6, "Project2", 3, span("Test"), Instant.ofEpochMilli(40_000));
+
+        deferredBuildSpans.endAll();
+
+        assertEquals(Set.of("Compile", "Test"), names());
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(40_000), exported("Test").getEndEpochNanos());
+    }
+
+    private Span span(String name) {
+        return tracerProvider.get("test").spanBuilder(name).setStartTimestamp(0, TimeUnit.MILLISECONDS).startSpan();
+    }
+
+    private SpanData exported(String name) {
+        return exported.stream().filter(span -> span.getName().equals(name)).findFirst().orElseThrow();
+    }
+
+    private Set<String> names() {
+        var names = new HashSet<String>();
+        for (var span : exported) names.add(span.getName());
+        return names;
+    }
+}
@@ -0,0 +1,67 @@
+package com.octopus.teamcity.opentelemetry.server;
+
+import com.octopus.teamcity.opentelemetry.server.helpers.ExporterCircuitBreaker;
+import com.octopus.teamcity.opentelemetry.server.helpers.ExporterCircuitBreaker.State;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ExporterCircuitBreakerTest {
+    private final AtomicLong now = new AtomicLong(1_000_000);
+    private final ExporterCircuitBreaker breaker = new ExporterCircuitBreaker("custom http://collector:4317", 3, 30_000, 60_000, now::get);
+
+    @Test
+    void OpensAfterEnoughFailuresInARow() {
+        failExports(2);
+        breaker.onExportResult(true, null);
+        failExports(2);
+        assertEquals(State.CLOSED, breaker.getState());
+        assertFalse(breaker.isShedding());
+
+        failExports(1);
+        assertEquals(State.OPEN, breaker.getState());
+        assertTrue(breaker.isShedding());
+        assertFalse(breaker.tryAcquire());
+        assertEquals("connection refused", breaker.getLastError());
+    }
+
+    @Test
+    void LetsOneProbeThroughAfterTheCoolDown() {
+        failExports(3);
+        now.addAndGet(29_999);
+        assertFalse(breaker.tryAcquire());
+        now.addAndGet(1);
+        assertTrue(breaker.tryAcquire());
+        assertEquals(State.HALF_OPEN, breaker.getState());
+        assertTrue(breaker.isShedding());
+        assertFalse(breaker.tryAcquire());
+
+        breaker.onExportResult(true, null);
+        assertEquals(State.CLOSED, breaker.getState());
+        assertEquals(0, breaker.getConsecutiveFailures());
+        assertTrue(breaker.tryAcquire());
+    }
+
+    @Test
+    void FailedProbeDoublesTheCoolDownUpToTheMaximum() {
+        failExports(3);
+        now.addAndGet(30_000);
+        failExports(1);
+        assertEquals(State.OPEN, breaker.getState());
+        now.addAndGet(59_999);
+        assertFalse(breaker.tryAcquire());
+        now.addAndGet(1);
+        failExports(1);
+        now.addAndGet(60_000);
+        assertTrue(breaker.tryAcquire());
+    }
+
+    private void failExports(int times) {
+        for (var i = 0; i < times; i++) {
+            if (breaker.tryAcquire()) breaker.onExportResult(false, new IOException("connection refused"));
+        }
+    }
+}
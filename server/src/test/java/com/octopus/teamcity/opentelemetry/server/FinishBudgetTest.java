@@ -0,0 +1,46 @@
+package com.octopus.teamcity.opentelemetry.server;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FinishBudgetTest {
+    private final AtomicLong nanos = new AtomicLong();
+
+    @Test
+    void LaterPhasesAreSkippedOnceTheBudgetIsSpent() {
+        var budget = new FinishBudget(1000, nanos::get);
+
+        assertTrue(budget.run(FinishBudget.PHASE_QUEUE, () -> advanceMs(100)));
+        assertTrue(budget.run(FinishBudget.PHASE_STEPS, () -> {
+            advanceMs(950);
+            if (budget.isExhausted()) budget.cutShort(FinishBudget.PHASE_STEPS);
+        }));
+        assertFalse(budget.run(FinishBudget.PHASE_TESTS, () -> fail("out of time")));
+        assertFalse(budget.run(FinishBudget.PHASE_ARTIFACTS, () -> fail("out of time")));
+
+        assertEquals(Map.of(FinishBudget.PHASE_QUEUE, 100L, FinishBudget.PHASE_STEPS, 950L), budget.getPhaseMs());
+        assertEquals(List.of(FinishBudget.PHASE_TESTS, FinishBudget.PHASE_ARTIFACTS), budget.getSkipped());
+        assertEquals(List.of(FinishBudget.PHASE_STEPS), budget.getCutShort());
+        assertEquals(1050, budget.getElapsedMs());
+    }
+
+    @Test
+    void NoBudgetMeansNoLimit() {
+        var budget = new FinishBudget(0, nanos::get);
+        advanceMs(TimeUnit.DAYS.toMillis(1));
+
+        assertFalse(budget.isExhausted());
+        assertTrue(budget.run(FinishBudget.PHASE_TESTS, () -> {}));
+        assertTrue(budget.getSkipped().isEmpty());
+    }
+
+    private void advanceMs(long ms) {
+        nanos.addAndGet(TimeUnit.MILLISECONDS.toNanos(ms));
+    }
+}
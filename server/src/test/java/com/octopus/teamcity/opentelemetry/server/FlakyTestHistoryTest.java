@@ -0,0 +1,138 @@
+package com.octopus.teamcity.opentelemetry.server;
+
+import com.octopus.teamcity.opentelemetry.server.helpers.PluginDataFiles;
+import com.octopus.teamcity.opentelemetry.server.metrics.PluginMetrics;
+import com.octopus.teamcity.opentelemetry.server.tests.FlakyTestHistory;
+import jetbrains.buildServer.serverSide.BuildServerListener;
+import jetbrains.buildServer.serverSide.ServerPaths;
+import jetbrains.buildServer.util.EventDispatcher;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class FlakyTestHistoryTest {
+
+    @TempDir
+    File dataDirectory;
+
+    private ServerPaths serverPaths;
+    private FlakyTestHistory history;
+
+    @BeforeEach
+    void setUp() {
+        serverPaths = mock(ServerPaths.class);
+        when(serverPaths.getPluginDataDirectory()).thenReturn(dataDirectory);
+        this.history = create();
+    }
+
+    @AfterEach
+    void tearDown() {
+        // stops the writer thread
+        history.serverShutdown();
+    }
+
+    @Test
+    void NotEnoughHistoryHasNoScore() {
+        long entry = 0;
+        for (int i = 0; i < 7; i++) entry = history.record(1, i % 2 == 0);
+        assertEquals(-1, FlakyTestHistory.getFlakyScore(entry));
+        assertFalse(FlakyTestHistory.isFlaky(entry));
+    }
+
+    @Test
+    void AlwaysPassingTestIsNotFlaky() {
+        long entry = 0;
+        for (int i = 0; i < 10; i++) entry = history.record(1, false);
+        assertEquals(0, FlakyTestHistory.getFlakyScore(entry));
+        assertFalse(FlakyTestHistory.isFlaky(entry));
+    }
+
+    @Test
+    void TestThatBrokeAndStayedBrokenIsNotFlaky() {
+        long entry = 0;
+        for (int i = 0; i < 10; i++) entry = history.record(1, false);
+        for (int i = 0; i < 5; i++) entry = history.record(1, true);
+        assertFalse(FlakyTestHistory.isFlaky(entry));
+    }
+
+    @Test
+    void TestThatBrokeAndWasFixedIsNotFlaky() {
+        long entry = 0;
+        for (int i = 0; i < 5; i++) entry = history.record(1, false);
+        for (int i = 0; i < 3; i++) entry = history.record(1, true);
+        for (int i = 0; i < 5; i++) entry = history.record(1, false);
+        assertFalse(FlakyTestHistory.isFlaky(entry));
+    }
+
+    @Test
+    void TestThatFlippedThreeTimesIsFlaky() {
+        long entry = 0;
+        for (int i = 0; i < 5; i++) entry = history.record(1, false);
+        entry = history.record(1, true);
+        entry = history.record(1, false);
+        entry = history.record(1, true);
+        assertTrue(FlakyTestHistory.isFlaky(entry));
+    }
+
+    @Test
+    void AlternatingTestIsFlaky() {
+        long entry = 0;
+        for (int i = 0; i < 10; i++) entry = history.record(1, i % 2 == 0);
+        assertEquals(1.0, FlakyTestHistory.getFlakyScore(entry));
+        assertTrue(FlakyTestHistory.isFlaky(entry));
+    }
+
+    @Test
+    void OnlyTheMostRecentOutcomesAreKept() {
+        long entry = 0;
+        for (int i = 0; i < 10; i++) entry = history.record(1, i % 2 == 0);
+        for (int i = 0; i < FlakyTestHistory.HISTORY_LENGTH; i++) entry = history.record(1, false);
+        assertEquals(0, FlakyTestHistory.getFlakyScore(entry));
+    }
+
+    @Test
+    void TestsHaveSeparateHistories() {
+        for (int i = 0; i < 10; i++) history.record(1, i % 2 == 0);
+        long entry = 0;
+        for (int i = 0; i < 10; i++) entry = history.record(2, false);
+        assertFalse(FlakyTestHistory.isFlaky(entry));
+    }
+
+    @Test
+    void KeepsHistoryAcrossARestart() {
+        for (int i = 0; i < 9; i++) history.record(1, i % 2 == 0);
+        history.serverShutdown();
+
+        history = create();
+
+        assertTrue(FlakyTestHistory.isFlaky(history.record(1, false)));
+    }
+
+    @Test
+    void IgnoresAFileWhoseCountDoesntMatchItsLength() throws IOException {
+        for (int i = 0; i < 9; i++) history.record(1, i % 2 == 0);
+        history.serverShutdown();
+        try (var output = new RandomAccessFile(PluginDataFiles.get(serverPaths, FlakyTestHistory.FILE_NAME), "rw")) {
+            // the count follows the magic, version and history length
+            output.seek(12);
+            output.writeInt(1_000_000_000);
+        }
+
+        history = create();
+
+        assertEquals(-1, FlakyTestHistory.getFlakyScore(history.record(1, false)));
+    }
+
+    @SuppressWarnings("unchecked")
+    private FlakyTestHistory create() {
+        return new FlakyTestHistory(mock(EventDispatcher.class), serverPaths, mock(PluginMetrics.class, RETURNS_DEEP_STUBS));
+    }
+}
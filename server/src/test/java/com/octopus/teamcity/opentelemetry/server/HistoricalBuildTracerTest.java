@@ -0,0 +1,186 @@
+package com.octopus.teamcity.opentelemetry.server;
+
+import com.octopus.teamcity.opentelemetry.common.PluginConstants;
+import com.octopus.teamcity.opentelemetry.server.backfill.DeterministicIdGenerator;
+import com.octopus.teamcity.opentelemetry.server.backfill.HistoricalBuildTracer;
+import com.octopus.teamcity.opentelemetry.server.helpers.ProjectSpanLimiter;
+import com.octopus.teamcity.opentelemetry.server.helpers.ProjectSpanQuotas;
+import com.octopus.teamcity.opentelemetry.server.helpers.SpanLimitSettings;
+import com.octopus.teamcity.opentelemetry.server.queue.QueueWaitTracker;
+import com.octopus.teamcity.opentelemetry.server.tests.FlakyTestHistory;
+import com.octopus.teamcity.opentelemetry.server.tests.TestDurationBaselines;
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.trace.StatusCode;
+import io.opentelemetry.sdk.trace.SdkTracerProvider;
+import io.opentelemetry.sdk.trace.data.SpanData;
+import io.opentelemetry.sdk.trace.export.SimpleSpanProcessor;
+import jetbrains.buildServer.messages.Status;
+import jetbrains.buildServer.serverSide.BuildPromotion;
+import jetbrains.buildServer.serverSide.Dependency;
+import jetbrains.buildServer.serverSide.SFinishedBuild;
+import jetbrains.buildServer.serverSide.STestRun;
+import jetbrains.buildServer.serverSide.buildLog.BlockLogMessage;
+import jetbrains.buildServer.serverSide.buildLog.LogMessage;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class HistoricalBuildTracerTest {
+    private static final long PROMOTION_ID = 42;
+    private static final Date STEP_FINISH = new Date(5_000);
+
+    private final List<SpanData> exported = new ArrayList<>();
+    private final DeterministicIdGenerator idGenerator = new DeterministicIdGenerator();
+    private final SdkTracerProvider tracerProvider = SdkTracerProvider.builder()
+            .setIdGenerator(idGenerator)
+            .addSpanProcessor(SimpleSpanProcessor.create(new CollectingSpanExporter(exported)))
+            .build();
+    private final TestDurationBaselines testDurationBaselines = mock(TestDurationBaselines.class);
+    private final FlakyTestHistory flakyTestHistory = mock(FlakyTestHistory.class);
+    private HistoricalBuildTracer tracer;
+    private SFinishedBuild build;
+
+    @BeforeEach
+    void setUp() {
+        var projectSpanQuotas = mock(ProjectSpanQuotas.class);
+        when(projectSpanQuotas.forProject(any())).thenReturn(new ProjectSpanLimiter(System::nanoTime, System::currentTimeMillis));
+        when(projectSpanQuotas.getSettings(any())).thenReturn(SpanLimitSettings.fromParams(Map.of()));
+        var buildSpans = new BuildSpans(mock(QueueWaitTracker.class), testDurationBaselines, flakyTestHistory, projectSpanQuotas);
+        tracer = new HistoricalBuildTracer(tracerProvider.get("test"), idGenerator, buildSpans);
+        build = finishedBuild();
+    }
+
+    @AfterEach
+    void tearDown() {
+        tracerProvider.close();
+    }
+
+    @Test
+    void MakesTheSameSpansAsTheListener() {
+        assertEquals(5, tracer.trace(build));
+
+        assertEquals(5, exported.size());
+        var buildSpan = span(String.valueOf(PROMOTION_ID));
+        assertEquals("7", buildSpan.getAttributes().get(AttributeKey.stringKey(PluginConstants.ATTRIBUTE_AGENT_TYPE)));
+        assertEquals("false", buildSpan.getAttributes().get(AttributeKey.stringKey(PluginConstants.ATTRIBUTE_SUCCESS_STATUS)));
+
+        var queueSpan = span("queueWaitReason:Waiting for an agent");
+        assertEquals(buildSpan.getSpanId(), queueSpan.getParentSpanId());
+
+        var stepSpan = span("Step 1 " + STEP_FINISH);
+        assertEquals(buildSpan.getSpanId(), stepSpan.getParentSpanId());
+        assertEquals("7", stepSpan.getAttributes().get(AttributeKey.stringKey(PluginConstants.ATTRIBUTE_AGENT_TYPE)));
+
+        var testsSpan = span("Tests");
+        assertEquals(buildSpan.getSpanId(), testsSpan.getParentSpanId());
+        var testSpan = span("FooTest.bar");
+        assertEquals(testsSpan.getSpanId(), testSpan.getParentSpanId());
+        assertEquals("failed", testSpan.getAttributes().get(AttributeKey.stringKey(PluginConstants.ATTRIBUTE_TEST_STATUS)));
+        assertEquals(StatusCode.ERROR, testSpan.getStatus().getStatusCode());
+        assertEquals("exception", testSpan.getEvents().get(0).getName());
+    }
+
+    @Test
+    void DerivesEveryIdFromThePromotion() {
+        tracer.trace(build);
+
+        var traceId = DeterministicIdGenerator.traceIdFor(PROMOTION_ID);
+        assertTrue(exported.stream().allMatch(span -> span.getTraceId().equals(traceId)));
+        assertEquals(DeterministicIdGenerator.spanIdFor(PROMOTION_ID, "build"), span(String.valueOf(PROMOTION_ID)).getSpanId());
+        assertEquals(DeterministicIdGenerator.spanIdFor(PROMOTION_ID, "block", "Step 1 " + STEP_FINISH, "3000"), span("Step 1 " + STEP_FINISH).getSpanId());
+        assertEquals(DeterministicIdGenerator.spanIdFor(PROMOTION_ID, "tests"), span("Tests").getSpanId());
+        assertEquals(DeterministicIdGenerator.spanIdFor(PROMOTION_ID, "test", "9"), span("FooTest.bar").getSpanId());
+
+        var firstIds = exported.stream().map(SpanData::getSpanId).toList();
+        exported.clear();
+        tracer.trace(build);
+        assertEquals(firstIds, exported.stream().map(SpanData::getSpanId).toList());
+    }
+
+    @Test
+    void ReadsTheBaselinesButLeavesTheHistoryAlone() {
+        tracer.trace(build);
+
+        verify(testDurationBaselines).getAndUpdate(123L, 100L, false);
+        verify(testDurationBaselines, never()).recordRegressedTests(any(), anyInt());
+        verifyNoInteractions(flakyTestHistory);
+    }
+
+    @Test
+    void HangsAReusedBuildUnderItsDependentsInTheTracedChain() {
+        // chain 50 -> {43, us}, 43 -> us; and 60, in another chain, reused us
+        var promotion = build.getBuildPromotion();
+        var root = promotion(50);
+        var sibling = promotion(43);
+        var otherChain = promotion(60);
+        doReturn(List.of(sibling, promotion)).when(root).getAllDependencies();
+        when(promotion.findTops()).thenReturn(new BuildPromotion[] { root, otherChain });
+        doReturn(List.of(dependedOnBy(root), dependedOnBy(sibling), dependedOnBy(otherChain))).when(promotion).getDependedOnMe();
+
+        tracer.trace(build);
+
+        var buildSpan = span(String.valueOf(PROMOTION_ID));
+        assertEquals(DeterministicIdGenerator.traceIdFor(50), buildSpan.getTraceId());
+        assertEquals(DeterministicIdGenerator.spanIdFor(43, "build"), buildSpan.getParentSpanId());
+        assertEquals(List.of(DeterministicIdGenerator.spanIdFor(50, "build")),
+                buildSpan.getLinks().stream().map(link -> link.getSpanContext().getSpanId()).toList());
+    }
+
+    private static BuildPromotion promotion(long id) {
+        var promotion = mock(BuildPromotion.class);
+        when(promotion.getId()).thenReturn(id);
+        return promotion;
+    }
+
+    private static Dependency dependedOnBy(BuildPromotion dependent) {
+        var dependency = mock(Dependency.class);
+        when(dependency.getDependent()).thenReturn(dependent);
+        return dependency;
+    }
+
+    private SpanData span(String name) {
+        return exported.stream().filter(span -> span.getName().equals(name)).findFirst().orElseThrow();
+    }
+
+    private static SFinishedBuild finishedBuild() {
+        var build = mock(SFinishedBuild.class, RETURNS_DEEP_STUBS);
+        when(build.getQueuedDate()).thenReturn(new Date(1_000));
+        when(build.getStartDate()).thenReturn(new Date(2_000));
+        when(build.getFinishDate()).thenReturn(new Date(10_000));
+        when(build.getAgent().getAgentTypeId()).thenReturn(7);
+        when(build.getBuildStatus().isSuccessful()).thenReturn(false);
+        when(build.getStatisticValues()).thenReturn(Map.of("queueWaitReason:Waiting for an agent", BigDecimal.valueOf(1_000)));
+
+        var promotion = mock(BuildPromotion.class);
+        when(promotion.getId()).thenReturn(PROMOTION_ID);
+        when(promotion.findTops()).thenReturn(new BuildPromotion[] { promotion });
+        doReturn(List.of()).when(promotion).getDependedOnMe();
+        when(build.getBuildPromotion()).thenReturn(promotion);
+
+        var step = mock(BlockLogMessage.class);
+        when(step.getBlockType()).thenReturn("teamcity-build-step-type");
+        when(step.getText()).thenReturn("Step 1");
+        when(step.getTimestamp()).thenReturn(new Date(3_000));
+        when(step.getFinishDate()).thenReturn(STEP_FINISH);
+        when(step.getStatus()).thenReturn(Status.NORMAL);
+        when(build.getBuildLog().getFilteredMessages(any())).thenReturn(new ArrayList<LogMessage>(List.of(step)));
+
+        var test = mock(STestRun.class, RETURNS_DEEP_STUBS);
+        when(test.getTest().getName().getAsString()).thenReturn("FooTest.bar");
+        when(test.getTest().getName().getNameWithoutSuite()).thenReturn("bar");
+        when(test.getTest().getTestNameId()).thenReturn(123L);
+        when(test.getTestRunId()).thenReturn(9);
+        when(test.getDuration()).thenReturn(100);
+        when(test.getStatus()).thenReturn(Status.FAILURE);
+        when(test.getFailureInfo().getStacktrace()).thenReturn("java.lang.AssertionError: expected 1\n\tat FooTest.bar(FooTest.java:10)");
+        when(test.getFailureInfo().getStacktraceMessage()).thenReturn("expected 1");
+        when(build.getBuildStatistics(any()).getAllTests()).thenReturn(List.of(test));
+        return build;
+    }
+}
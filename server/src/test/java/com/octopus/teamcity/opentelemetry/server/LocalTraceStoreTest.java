@@ -0,0 +1,169 @@
+package com.octopus.teamcity.opentelemetry.server;
+
+import com.octopus.teamcity.opentelemetry.server.tracestore.LocalTraceStore;
+import com.octopus.teamcity.opentelemetry.server.tracestore.TraceWaterfall;
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.context.Context;
+import io.opentelemetry.sdk.trace.SdkTracerProvider;
+import io.opentelemetry.sdk.trace.data.SpanData;
+import io.opentelemetry.sdk.trace.export.SimpleSpanProcessor;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LocalTraceStoreTest {
+    private final List<SpanData> ended = new ArrayList<>();
+    private final SdkTracerProvider tracerProvider = SdkTracerProvider.builder()
+            .addSpanProcessor(SimpleSpanProcessor.create(new CollectingSpanExporter(ended)))
+            .build();
+
+    @AfterEach
+    void tearDown() {
+        tracerProvider.close();
+    }
+
+    @Test
+    void KeepsTheSpansOfATrace() {
+        var store = new LocalTraceStore(10, 100, 10_000);
+        var root = span("build", null, 0, 100);
+        span("step", root, 10, 20);
+        span("step", root, 20, 30);
+        store.record(take());
+
+        var spans = store.getTrace(traceId(root));
+        assertNotNull(spans);
+        assertEquals(3, spans.size());
+        assertEquals(List.of("build", "step", "step"), spans.stream().map(LocalTraceStore.StoredSpan::getName).collect(Collectors.toList()));
+        assertEquals(0, spans.get(0).getParentSpanId());
+        assertEquals(spans.get(0).getSpanId(), spans.get(1).getParentSpanId());
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(10), spans.get(1).getStartEpochNanos());
+        assertNull(store.getTrace("0af7651916cd43dd8448eb211c80319c"));
+    }
+
+    @Test
+    void DropsTheOldestTraceOverTheMaximumNumberOfTraces() {
+        var store = new LocalTraceStore(2, 100, 10_000);
+        var first = span("first", null, 0, 10);
+        var second = span("second", null, 0, 10);
+        var third = span("third", null, 0, 10);
+        store.record(take());
+
+        assertNull(store.getTrace(traceId(first)));
+        assertNotNull(store.getTrace(traceId(second)));
+        assertNotNull(store.getTrace(traceId(third)));
+        assertEquals(2, store.getTraceCount());
+    }
+
+    @Test
+    void DropsTheOldestTraceWhenTheRingComesRoundToIt() {
+        var store = new LocalTraceStore(10, 4, 10_000);
+        var first = span("first", null, 0, 10);
+        span("child", first, 0, 5);
+        span("child", first, 5, 10);
+        store.record(take());
+        var second = span("second", null, 0, 10);
+        span("child", second, 0, 5);
+        span("child", second, 5, 10);
+        store.record(take());
+
+        // the second trace's second span needed the first trace's first row, so all of the first trace went
+        assertNull(store.getTrace(traceId(first)));
+        assertEquals(3, store.getTrace(traceId(second)).size());
+        assertEquals(3, store.getSpanCount());
+    }
+
+    @Test
+    void KeepsTheNewestSpansOfATraceBiggerThanTheStore() {
+        var store = new LocalTraceStore(10, 4, 10_000);
+        var root = span("build", null, 0, 100);
+        for (int i = 0; i < 5; i++) span("step " + i, root, i * 10, i * 10 + 10);
+        store.record(take());
+
+        // oldest first, though the ring has come round past the first of them
+        assertEquals(List.of("step 1", "step 2", "step 3", "step 4"), store.getTrace(traceId(root)).stream().map(LocalTraceStore.StoredSpan::getName).collect(Collectors.toList()));
+        assertEquals(4, store.getSpanCount());
+
+        var other = span("other", null, 0, 10);
+        store.record(take());
+        assertNull(store.getTrace(traceId(root)));
+        assertEquals(1, store.getTrace(traceId(other)).size());
+        assertEquals(1, store.getSpanCount());
+    }
+
+    @Test
+    void DropsUnusedNamesAndThenOldTracesWhenTheDictionaryIsFull() {
+        // room for about ten names
+        var store = new LocalTraceStore(10, 1000, 10 * 100);
+        var first = span("first", null, 0, 10);
+        for (int i = 0; i < 6; i++) span("first step " + i, first, 0, 10);
+        store.record(take());
+        var second = span("second", null, 0, 10);
+        for (int i = 0; i < 6; i++) span("second step " + i, second, 0, 10);
+        store.record(take());
+
+        assertNull(store.getTrace(traceId(first)));
+        var spans = store.getTrace(traceId(second));
+        assertEquals(7, spans.size());
+        assertEquals("second step 5", spans.get(6).getName());
+        assertTrue(store.getEstimatedBytes() <= 1000 * LocalTraceStore.BYTES_PER_SPAN + 10 * 100);
+    }
+
+    @Test
+    void WaterfallFollowsTheChildThatFinishedLastBack() {
+        var store = new LocalTraceStore(10, 100, 10_000);
+        var root = span("build", null, 0, 100);
+        span("checkout", root, 0, 30);
+        span("compile", root, 10, 60);
+        span("lint", root, 20, 40);
+        store.record(take());
+
+        var waterfall = TraceWaterfall.of(store.getTrace(traceId(root)), 0, 100);
+        assertNotNull(waterfall);
+        assertEquals(100, waterfall.getDurationMs());
+        assertEquals(List.of("build", "checkout", "compile", "lint"), waterfall.getRows().stream().map(TraceWaterfall.Row::getName).collect(Collectors.toList()));
+        assertEquals(List.of(true, true, true, false), waterfall.getRows().stream().map(TraceWaterfall.Row::isOnCriticalPath).collect(Collectors.toList()));
+        assertEquals(1, waterfall.getRows().get(1).getDepth());
+
+        // compile (10-60), then the build itself (60-100), then checkout up to when compile started (0-10)
+        var criticalPath = waterfall.getCriticalPath();
+        assertEquals(List.of("compile", "build", "checkout"), criticalPath.stream().map(TraceWaterfall.CriticalPathEntry::getName).collect(Collectors.toList()));
+        assertEquals(List.of(50L, 40L, 10L), criticalPath.stream().map(TraceWaterfall.CriticalPathEntry::getDurationMs).collect(Collectors.toList()));
+    }
+
+    @Test
+    void WaterfallStopsAtTheMaximumNumberOfRows() {
+        var store = new LocalTraceStore(10, 100, 10_000);
+        var root = span("build", null, 0, 100);
+        for (int i = 0; i < 10; i++) span("step", root, i * 10, i * 10 + 10);
+        store.record(take());
+
+        var waterfall = TraceWaterfall.of(store.getTrace(traceId(root)), 0, 5);
+        assertEquals(5, waterfall.getRows().size());
+        assertEquals(6, waterfall.getOmittedRowCount());
+    }
+
+    private Span span(String name, Span parent, long startMs, long endMs) {
+        var span = tracerProvider.get("test").spanBuilder(name)
+                .setParent(parent == null ? Context.root() : Context.root().with(parent))
+                .setStartTimestamp(startMs, TimeUnit.MILLISECONDS)
+                .startSpan();
+        span.end(endMs, TimeUnit.MILLISECONDS);
+        return span;
+    }
+
+    private static String traceId(Span span) {
+        return span.getSpanContext().getTraceId();
+    }
+
+    private List<SpanData> take() {
+        var spans = new ArrayList<>(ended);
+        ended.clear();
+        return spans;
+    }
+}
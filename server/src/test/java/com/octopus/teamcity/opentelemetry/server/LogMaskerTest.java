@@ -1,16 +1,24 @@
 package com.octopus.teamcity.opentelemetry.server;
 
+import com.octopus.teamcity.opentelemetry.server.helpers.SecretMatcher;
 import org.apache.commons.lang3.RandomStringUtils;
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.ValueSource;
 
+import java.util.List;
 import java.util.Locale;
 
 import static org.junit.jupiter.api.Assertions.*;
 
 class LogMaskerTest {
 
+    @AfterEach
+    void clearSecrets() {
+        LogMasker.setSecrets(SecretMatcher.EMPTY);
+    }
+
     @Test
     void LowerCaseApiKeyGetsMasked() {
         int APIKEY_LENGTH = 31;
@@ -81,4 +89,39 @@ class LogMaskerTest {
         assertFalse(LogMasker.mask(textBlock).contains(generatedApiKey));
         assertFalse(LogMasker.mask(textBlock).contains(LogMasker.API_KEY_REPLACEMENT_REGEX));
     }
-}
\ No newline at end of file
+
+    @Test
+    void ConfiguredSecretsGetMasked() {
+        LogMasker.setSecrets(SecretMatcher.of(List.of("Bearer-Token-1", "s3cr3t!", "t3st")));
+        assertEquals("auth: XXXXXXXXXXXXXXXX, other: XXXXXXXXXXXXXXXX.", LogMasker.maskSecrets("auth: Bearer-Token-1, other: s3cr3t!."));
+        assertEquals("t3XXXXXXXXXXXXXXXX", LogMasker.maskSecrets("t3s3cr3t!"));
+        assertEquals("t3XXXXXXXXXXXXXXXX", LogMasker.maskSecrets("t3s3cr3t!t3st"));
+        assertEquals("s3cr3t", LogMasker.maskSecrets("s3cr3t"));
+    }
+
+    @Test
+    void MessageIsReturnedAsIsWhenNothingMatches() {
+        LogMasker.setSecrets(SecretMatcher.of(List.of("Bearer-Token-1")));
+        String message = "Nothing to see here";
+        assertSame(message, LogMasker.mask(message));
+        assertSame(message, LogMasker.maskSecrets(message));
+    }
+
+    @Test
+    void ApiKeyShapesAreOnlyMaskedInLogMessages() {
+        String commit = RandomStringUtils.randomAlphanumeric(40).toLowerCase(Locale.ROOT);
+        assertEquals(commit, LogMasker.maskSecrets(commit));
+        assertNotEquals(commit, LogMasker.mask(commit));
+    }
+
+    @Test
+    void StackTracesAreMaskedCausesAndAll() {
+        LogMasker.setSecrets(SecretMatcher.of(List.of("s3cr3t!")));
+        var e = new RuntimeException("wrapped s3cr3t!", new IllegalStateException("token s3cr3t!"));
+        var stackTrace = LogMasker.maskStackTrace(e);
+        assertFalse(stackTrace.contains("s3cr3t!"));
+        assertTrue(stackTrace.contains("java.lang.RuntimeException: wrapped XXXXXXXXXXXXXXXX"));
+        assertTrue(stackTrace.contains("Caused by: java.lang.IllegalStateException: token XXXXXXXXXXXXXXXX"));
+        assertTrue(stackTrace.contains("LogMaskerTest"));
+    }
+}
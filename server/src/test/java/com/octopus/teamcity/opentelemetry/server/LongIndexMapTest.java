@@ -0,0 +1,42 @@
+package com.octopus.teamcity.opentelemetry.server;
+
+import com.octopus.teamcity.opentelemetry.server.helpers.LongIndexMap;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LongIndexMapTest {
+
+    @Test
+    void HandsOutIndexesInTheOrderKeysWereAdded() {
+        var map = new LongIndexMap(4);
+
+        assertEquals(0, map.getOrAdd(42));
+        assertEquals(1, map.getOrAdd(0));
+        assertEquals(2, map.getOrAdd(-1));
+        assertEquals(3, map.getOrAdd(Long.MIN_VALUE));
+        assertEquals(1, map.getOrAdd(0));
+        assertEquals(4, map.size());
+    }
+
+    @Test
+    void GetDoesntAddMissingKeys() {
+        var map = new LongIndexMap(4);
+        map.getOrAdd(42);
+
+        assertEquals(0, map.get(42));
+        assertEquals(-1, map.get(0));
+        assertEquals(-1, map.get(-1));
+        assertEquals(1, map.size());
+    }
+
+    @Test
+    void KeepsIndexesAsItGrows() {
+        var map = new LongIndexMap(1);
+        for (int i = 0; i < 10_000; i++) assertEquals(i, map.getOrAdd(i * 31L));
+
+        assertEquals(10_000, map.size());
+        for (int i = 0; i < 10_000; i++) assertEquals(i, map.get(i * 31L));
+        assertEquals(-1, map.get(10_000 * 31L));
+    }
+}
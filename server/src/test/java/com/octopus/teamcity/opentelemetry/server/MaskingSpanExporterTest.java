@@ -0,0 +1,145 @@
+package com.octopus.teamcity.opentelemetry.server;
+
+import com.google.protobuf.ByteString;
+import com.octopus.teamcity.opentelemetry.server.helpers.MaskingSpanExporter;
+import com.octopus.teamcity.opentelemetry.server.helpers.SecretMatcher;
+import com.octopus.teamcity.opentelemetry.server.receiver.OtlpSpanConverter;
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.trace.StatusCode;
+import io.opentelemetry.proto.collector.trace.v1.ExportTraceServiceRequest;
+import io.opentelemetry.proto.common.v1.AnyValue;
+import io.opentelemetry.proto.common.v1.KeyValue;
+import io.opentelemetry.proto.trace.v1.ResourceSpans;
+import io.opentelemetry.proto.trace.v1.ScopeSpans;
+import io.opentelemetry.proto.trace.v1.Span;
+import io.opentelemetry.proto.trace.v1.Status;
+import io.opentelemetry.sdk.trace.SdkTracerProvider;
+import io.opentelemetry.sdk.trace.SpanLimits;
+import io.opentelemetry.sdk.trace.data.SpanData;
+import io.opentelemetry.sdk.trace.export.SimpleSpanProcessor;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MaskingSpanExporterTest {
+    private static final String SECRET = "s3cr3t-t0k3n";
+    private static final String MASK = LogMasker.API_KEY_REPLACEMENT_REGEX;
+
+    private final List<SpanData> exported = new ArrayList<>();
+    private final MaskingSpanExporter exporter = new MaskingSpanExporter(new CollectingSpanExporter(exported));
+    private final SdkTracerProvider tracerProvider = SdkTracerProvider.builder()
+            .addSpanProcessor(SimpleSpanProcessor.create(exporter))
+            .build();
+
+    @BeforeEach
+    void setSecrets() {
+        LogMasker.setSecrets(SecretMatcher.of(List.of(SECRET)));
+    }
+
+    @AfterEach
+    void tearDown() {
+        LogMasker.setSecrets(SecretMatcher.EMPTY);
+        tracerProvider.close();
+    }
+
+    @Test
+    void MasksTheNameAndStringAttributes() {
+        tracerProvider.get("test").spanBuilder("deploy --token " + SECRET)
+                .setAttribute("command", "curl -H 'Authorization: " + SECRET + "'")
+                .startSpan()
+                .end();
+
+        var span = exported.get(0);
+        assertEquals("deploy --token " + MASK, span.getName());
+        assertEquals("curl -H 'Authorization: " + MASK + "'", span.getAttributes().get(AttributeKey.stringKey("command")));
+    }
+
+    @Test
+    void MasksStringArrayAttributes() {
+        tracerProvider.get("test").spanBuilder("step")
+                .setAttribute(AttributeKey.stringArrayKey("args"), List.of("--token", SECRET))
+                .startSpan()
+                .end();
+
+        assertEquals(List.of("--token", MASK), exported.get(0).getAttributes().get(AttributeKey.stringArrayKey("args")));
+    }
+
+    @Test
+    void MasksEventAttributes() {
+        var span = tracerProvider.get("test").spanBuilder("test").startSpan();
+        span.recordException(new IllegalStateException("login with " + SECRET + " failed"));
+        span.end();
+
+        var event = exported.get(0).getEvents().get(0);
+        assertEquals("login with " + MASK + " failed", event.getAttributes().get(AttributeKey.stringKey("exception.message")));
+        assertFalse(event.getAttributes().get(AttributeKey.stringKey("exception.stacktrace")).contains(SECRET));
+    }
+
+    @Test
+    void MasksTheStatusDescription() {
+        tracerProvider.get("test").spanBuilder("build").startSpan()
+                .setStatus(StatusCode.ERROR, "Error during build finish process: bad token " + SECRET)
+                .end();
+
+        var status = exported.get(0).getStatus();
+        assertEquals(StatusCode.ERROR, status.getStatusCode());
+        assertEquals("Error during build finish process: bad token " + MASK, status.getDescription());
+    }
+
+    @Test
+    void MasksSpansReceivedFromBuilds() {
+        var traceId = "0af7651916cd43dd8448eb211c80319c";
+        var converter = new OtlpSpanConverter(traceId, SpanLimits.getDefault());
+        converter.convert(ExportTraceServiceRequest.newBuilder()
+                .addResourceSpans(ResourceSpans.newBuilder()
+                        .addScopeSpans(ScopeSpans.newBuilder()
+                                .addSpans(Span.newBuilder()
+                                        .setTraceId(bytes(traceId))
+                                        .setSpanId(bytes("00f067aa0ba902b7"))
+                                        .setParentSpanId(bytes("b7ad6b7169203331"))
+                                        .setName("publish " + SECRET)
+                                        .setStartTimeUnixNano(1_000_000_000L)
+                                        .setEndTimeUnixNano(2_000_000_000L)
+                                        .setStatus(Status.newBuilder().setCode(Status.StatusCode.STATUS_CODE_ERROR).setMessage("rejected " + SECRET))
+                                        .addEvents(Span.Event.newBuilder()
+                                                .setName("retry")
+                                                .setTimeUnixNano(1_500_000_000L)
+                                                .addAttributes(attribute("url", "https://" + SECRET + "@example.com")))
+                                        .addAttributes(attribute("password", SECRET)))))
+                .build());
+
+        exporter.export(new ArrayList<SpanData>(converter.getAccepted()));
+
+        var span = exported.get(0);
+        assertEquals("publish " + MASK, span.getName());
+        assertEquals(MASK, span.getAttributes().get(AttributeKey.stringKey("password")));
+        assertEquals("rejected " + MASK, span.getStatus().getDescription());
+        assertEquals("https://" + MASK + "@example.com", span.getEvents().get(0).getAttributes().get(AttributeKey.stringKey("url")));
+    }
+
+    @Test
+    void PassesOnSpansWithNothingToMaskAsTheyAre() {
+        tracerProvider.get("test").spanBuilder("compile")
+                .setAttribute("task", ":compileJava")
+                .startSpan()
+                .setStatus(StatusCode.ERROR, "compilation failed")
+                .end();
+
+        assertEquals("compile", exported.get(0).getName());
+        assertFalse(exported.get(0).getClass().getName().contains("MaskingSpanExporter"));
+    }
+
+    private static ByteString bytes(String hex) {
+        return ByteString.copyFrom(HexFormat.of().parseHex(hex));
+    }
+
+    private static KeyValue attribute(String key, String value) {
+        return KeyValue.newBuilder().setKey(key).setValue(AnyValue.newBuilder().setStringValue(value)).build();
+    }
+}
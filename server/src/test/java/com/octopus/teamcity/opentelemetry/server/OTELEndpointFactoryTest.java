@@ -0,0 +1,47 @@
+package com.octopus.teamcity.opentelemetry.server;
+
+import com.octopus.teamcity.opentelemetry.server.endpoints.IOTELEndpointHandler;
+import com.octopus.teamcity.opentelemetry.server.endpoints.OTELEndpointFactory;
+import com.octopus.teamcity.opentelemetry.server.endpoints.OTELService;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class OTELEndpointFactoryTest {
+
+    @Test
+    void ReturnsTheSameHandlerEveryTime() {
+        var honeycomb = handler("honeycomb.io");
+        var zipkin = handler("zipkin.io");
+        var factory = new OTELEndpointFactory(List.of(honeycomb, zipkin));
+
+        assertSame(honeycomb, factory.getOTELEndpointHandler("honeycomb.io"));
+        assertSame(honeycomb, factory.getOTELEndpointHandler(OTELService.HONEYCOMB));
+        assertSame(zipkin, factory.getOTELEndpointHandler("zipkin.io"));
+        assertNull(factory.findOTELEndpointHandler("jaeger"));
+        assertNull(factory.findOTELEndpointHandler(null));
+        assertThrows(IllegalArgumentException.class, () -> factory.getOTELEndpointHandler("jaeger"));
+    }
+
+    @Test
+    void AddsHandlersRegisteredLater() {
+        var factory = new OTELEndpointFactory(List.of(handler("honeycomb.io"), handler("zipkin.io")));
+        var jaeger = handler("jaeger");
+
+        factory.registerHandler(jaeger);
+
+        assertSame(jaeger, factory.getOTELEndpointHandler("jaeger"));
+        assertEquals("honeycomb.io, zipkin.io or jaeger", factory.readableJoin());
+        assertThrows(IllegalArgumentException.class, () -> factory.registerHandler(handler("jaeger")));
+        assertSame(jaeger, factory.getOTELEndpointHandler("jaeger"));
+    }
+
+    private static IOTELEndpointHandler handler(String serviceName) {
+        var handler = mock(IOTELEndpointHandler.class);
+        when(handler.getServiceName()).thenReturn(serviceName);
+        return handler;
+    }
+}
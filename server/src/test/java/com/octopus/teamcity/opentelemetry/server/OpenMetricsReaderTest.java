@@ -0,0 +1,87 @@
+package com.octopus.teamcity.opentelemetry.server;
+
+import com.octopus.teamcity.opentelemetry.server.metrics.OpenMetricsReader;
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.sdk.metrics.SdkMeterProvider;
+import io.opentelemetry.sdk.resources.Resource;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OpenMetricsReaderTest {
+    private final AtomicLong millis = new AtomicLong(1_700_000_000_000L);
+    private final OpenMetricsReader reader = new OpenMetricsReader(
+            Resource.create(Attributes.of(AttributeKey.stringKey("service.name"), "TeamCity")), millis::get);
+    private final SdkMeterProvider meterProvider = SdkMeterProvider.builder()
+            .setResource(Resource.empty())
+            .registerMetricReader(reader)
+            .build();
+
+    @AfterEach
+    void tearDown() {
+        meterProvider.close();
+    }
+
+    @Test
+    void WritesCountersGaugesAndHistograms() {
+        var meter = meterProvider.get("test");
+        meter.counterBuilder("teamcity.opentelemetry.spans_omitted")
+                .setUnit("{span}")
+                .setDescription("Spans left out of a \"trace\"")
+                .build()
+                .add(3, Attributes.of(AttributeKey.stringKey("project"), "Project\\One"));
+        meter.gaugeBuilder("teamcity.queue.wait_time")
+                .ofLongs()
+                .setUnit("ms")
+                .buildWithCallback(gauge -> gauge.record(1500, Attributes.of(AttributeKey.stringKey("quantile"), "p50")));
+        var histogram = meter.histogramBuilder("teamcity.build.statistic")
+                .setExplicitBucketBoundariesAdvice(List.of(10.0, 100.0))
+                .build();
+        histogram.record(5);
+        histogram.record(50);
+        histogram.record(500);
+
+        var lines = List.of(scrape(60_000).split("\n"));
+
+        assertEquals("# TYPE target info", lines.get(0));
+        assertEquals("target_info{service_name=\"TeamCity\"} 1", lines.get(1));
+        assertTrue(lines.contains("# TYPE teamcity_opentelemetry_spans_omitted counter"));
+        assertTrue(lines.contains("# HELP teamcity_opentelemetry_spans_omitted Spans left out of a \\\"trace\\\""));
+        assertTrue(lines.contains("teamcity_opentelemetry_spans_omitted_total{project=\"Project\\\\One\"} 3"));
+        assertTrue(lines.contains("# TYPE teamcity_queue_wait_time_milliseconds gauge"));
+        assertTrue(lines.contains("# UNIT teamcity_queue_wait_time_milliseconds milliseconds"));
+        assertTrue(lines.contains("teamcity_queue_wait_time_milliseconds{quantile=\"p50\"} 1500"));
+        assertTrue(lines.contains("# TYPE teamcity_build_statistic histogram"));
+        assertTrue(lines.contains("teamcity_build_statistic_bucket{le=\"10.0\"} 1"));
+        assertTrue(lines.contains("teamcity_build_statistic_bucket{le=\"100.0\"} 2"));
+        assertTrue(lines.contains("teamcity_build_statistic_bucket{le=\"+Inf\"} 3"));
+        assertTrue(lines.contains("teamcity_build_statistic_count 3"));
+        assertTrue(lines.contains("teamcity_build_statistic_sum 555.0"));
+        assertEquals("# EOF", lines.get(lines.size() - 1));
+    }
+
+    @Test
+    void CollectsAtMostOncePerRefreshInterval() {
+        var counter = meterProvider.get("test").counterBuilder("builds").build();
+        counter.add(1);
+        var first = reader.scrape(15_000);
+
+        counter.add(1);
+        millis.addAndGet(10_000);
+        assertSame(first, reader.scrape(15_000));
+
+        millis.addAndGet(5_000);
+        var refreshed = new String(reader.scrape(15_000), StandardCharsets.UTF_8);
+        assertTrue(refreshed.contains("builds_total 2\n"));
+    }
+
+    private String scrape(long maxAgeMs) {
+        return new String(reader.scrape(maxAgeMs), StandardCharsets.UTF_8);
+    }
+}
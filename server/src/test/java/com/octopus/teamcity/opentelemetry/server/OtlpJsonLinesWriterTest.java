@@ -0,0 +1,114 @@
+package com.octopus.teamcity.opentelemetry.server;
+
+import com.octopus.teamcity.opentelemetry.server.endpoints.file.OtlpJsonLinesSpanExporter;
+import com.octopus.teamcity.opentelemetry.server.endpoints.file.OtlpJsonLinesWriter;
+import io.opentelemetry.sdk.trace.SdkTracerProvider;
+import io.opentelemetry.sdk.trace.export.SimpleSpanProcessor;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OtlpJsonLinesWriterTest {
+    @TempDir
+    Path directory;
+
+    private final AtomicLong millis = new AtomicLong(1_700_000_000_000L);
+
+    @Test
+    void AppendsLinesToOneFile() throws IOException {
+        var writer = writer(1024, 10);
+        assertTrue(writer.append(line("{\"a\":1}")).isSuccess());
+        assertTrue(writer.append(line("{\"b\":2}")).isSuccess());
+        assertTrue(writer.flush().isSuccess());
+
+        var files = files();
+        assertEquals(1, files.size());
+        assertEquals(List.of("{\"a\":1}", "{\"b\":2}"), Files.readAllLines(files.get(0)));
+    }
+
+    @Test
+    void StartsANewFileWhenTheCurrentOneIsFull() throws IOException {
+        var writer = writer(20, 10);
+        writer.append(line("0123456789"));
+        writer.append(line("0123456789"));
+        writer.append(line("0123456789"));
+
+        var files = files();
+        assertEquals(3, files.size());
+        for (var file : files) assertEquals(List.of("0123456789"), Files.readAllLines(file));
+    }
+
+    @Test
+    void StartsANewFileWhenTheCurrentOneIsOld() throws IOException {
+        var writer = writer(1024, 10);
+        writer.append(line("first"));
+        millis.addAndGet(TimeUnit.HOURS.toMillis(1));
+        writer.append(line("second"));
+
+        var files = files();
+        assertEquals(2, files.size());
+        assertEquals(List.of("first"), Files.readAllLines(files.get(0)));
+        assertEquals(List.of("second"), Files.readAllLines(files.get(1)));
+    }
+
+    @Test
+    void DeletesTheOldestFilesOverTheMaximum() throws IOException {
+        var writer = writer(1, 2);
+        for (int i = 0; i < 5; i++) {
+            writer.append(line("line " + i));
+            millis.addAndGet(1000);
+        }
+
+        var files = files();
+        assertEquals(2, files.size());
+        assertEquals(List.of("line 3"), Files.readAllLines(files.get(0)));
+        assertEquals(List.of("line 4"), Files.readAllLines(files.get(1)));
+    }
+
+    @Test
+    void FailsLinesThatDontFitInTheQueue() throws IOException {
+        var writer = writer(1024, 10);
+        assertFalse(writer.append(new byte[200]).isSuccess());
+        assertTrue(files().isEmpty());
+    }
+
+    @Test
+    void SpanExporterWritesEachBatchAsOneRequestPerLine() throws IOException {
+        var writer = new OtlpJsonLinesWriter(directory, "spans", 1024 * 1024, TimeUnit.MINUTES.toMillis(30), 10, 1024 * 1024, false, millis::get);
+        var exporter = new OtlpJsonLinesSpanExporter(writer);
+        try (var tracerProvider = SdkTracerProvider.builder().addSpanProcessor(SimpleSpanProcessor.create(exporter)).build()) {
+            tracerProvider.get("test").spanBuilder("Compile").startSpan().end();
+            tracerProvider.get("test").spanBuilder("Test").startSpan().end();
+        }
+
+        var lines = Files.readAllLines(files().get(0));
+        assertEquals(2, lines.size());
+        assertTrue(lines.get(0).startsWith("{\"resourceSpans\":["));
+        assertTrue(lines.get(0).contains("\"name\":\"Compile\""));
+        assertTrue(lines.get(1).contains("\"name\":\"Test\""));
+    }
+
+    private OtlpJsonLinesWriter writer(long maxFileBytes, int maxFiles) {
+        return new OtlpJsonLinesWriter(directory, "spans", maxFileBytes, TimeUnit.MINUTES.toMillis(30), maxFiles, 100, false, millis::get);
+    }
+
+    private static byte[] line(String json) {
+        return (json + "\n").getBytes(StandardCharsets.UTF_8);
+    }
+
+    private List<Path> files() throws IOException {
+        try (var files = Files.list(directory)) {
+            return files.sorted().collect(Collectors.toList());
+        }
+    }
+}
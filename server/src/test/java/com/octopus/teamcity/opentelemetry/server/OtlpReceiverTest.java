@@ -0,0 +1,184 @@
+package com.octopus.teamcity.opentelemetry.server;
+
+import com.google.protobuf.ByteString;
+import com.octopus.teamcity.opentelemetry.server.helpers.OTELHelper;
+import com.octopus.teamcity.opentelemetry.server.helpers.ProjectSpanLimiter;
+import com.octopus.teamcity.opentelemetry.server.helpers.ProjectSpanQuotas;
+import com.octopus.teamcity.opentelemetry.server.receiver.OtlpReceiver;
+import io.opentelemetry.proto.collector.trace.v1.ExportTraceServiceRequest;
+import io.opentelemetry.proto.collector.trace.v1.ExportTraceServiceResponse;
+import io.opentelemetry.proto.trace.v1.ResourceSpans;
+import io.opentelemetry.proto.trace.v1.ScopeSpans;
+import io.opentelemetry.proto.trace.v1.Span;
+import io.opentelemetry.sdk.trace.SpanLimits;
+import jetbrains.buildServer.serverSide.SRunningBuild;
+import jetbrains.buildServer.util.EventDispatcher;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.octopus.teamcity.opentelemetry.server.receiver.OtlpReceiver.Status.*;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class OtlpReceiverTest {
+    private static final String TRACE_ID = "0af7651916cd43dd8448eb211c80319c";
+    private static final String BUILD_SPAN_ID = "b7ad6b7169203331";
+    // the defaults: 200 spans a second with 10 seconds of burst, and 20000 spans per build
+    private static final int BURST = 2000;
+    private static final int MAX_SPANS_PER_BUILD = 20000;
+
+    private final AtomicLong nanos = new AtomicLong(1_000_000_000L);
+    private final OTELHelper otelHelper = mock(OTELHelper.class);
+    private OtlpReceiver receiver;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        when(otelHelper.getSpanLimits()).thenReturn(SpanLimits.getDefault());
+        var projectSpanQuotas = mock(ProjectSpanQuotas.class);
+        // not configured, so no limit
+        when(projectSpanQuotas.forProject("Project1")).thenReturn(new ProjectSpanLimiter(nanos::get, System::currentTimeMillis));
+        receiver = new OtlpReceiver(mock(EventDispatcher.class), projectSpanQuotas, nanos::get);
+    }
+
+    @Test
+    void OnlyTakesSpansWithTheBuildsToken() {
+        var token = receiver.register(7, "Project1", TRACE_ID, otelHelper);
+
+        assertEquals(UNAUTHORIZED, receiver.receive(null, request(1)).getStatus());
+        assertEquals(UNAUTHORIZED, receiver.receive("nonsense", request(1)).getStatus());
+        assertEquals(UNAUTHORIZED, receiver.receive(token + "x", request(1)).getStatus());
+        assertEquals(UNAUTHORIZED, receiver.receive("8" + token.substring(1), request(1)).getStatus());
+        verify(otelHelper, never()).addEndedSpan(any());
+
+        var result = receiver.receive(token, request(1));
+        assertEquals(ACCEPTED, result.getStatus());
+        assertEquals(0, response(result).getPartialSuccess().getRejectedSpans());
+        verify(otelHelper).addEndedSpan(any());
+    }
+
+    @Test
+    void RejectsWhatIsntAnExportRequest() {
+        var token = receiver.register(7, "Project1", TRACE_ID, otelHelper);
+
+        assertEquals(MALFORMED, receiver.receive(token, new byte[] { 1, 2, 3 }).getStatus());
+    }
+
+    @Test
+    void StopsTakingSpansWhenTheBuildFinishes() {
+        var build = mock(SRunningBuild.class);
+        when(build.getBuildId()).thenReturn(7L);
+        var token = receiver.register(7, "Project1", TRACE_ID, otelHelper);
+        var interruptedToken = receiver.register(8, "Project1", TRACE_ID, otelHelper);
+        var interrupted = mock(SRunningBuild.class);
+        when(interrupted.getBuildId()).thenReturn(8L);
+
+        receiver.buildFinished(build);
+        receiver.buildInterrupted(interrupted);
+
+        assertEquals(UNAUTHORIZED, receiver.receive(token, request(1)).getStatus());
+        assertEquals(UNAUTHORIZED, receiver.receive(interruptedToken, request(1)).getStatus());
+        assertNull(receiver.getToken(7));
+        assertNull(receiver.getToken(8));
+    }
+
+    @Test
+    void HandsOutTheTokenOfARunningBuildToMask() {
+        var token = receiver.register(7, "Project1", TRACE_ID, otelHelper);
+
+        assertEquals(token, receiver.getToken(7));
+        assertNull(receiver.getToken(8));
+    }
+
+    @Test
+    void ThrottlesABuildThatHasUsedUpItsBurst() {
+        var token = receiver.register(7, "Project1", TRACE_ID, otelHelper);
+
+        var result = receiver.receive(token, request(BURST + 10));
+        assertEquals(ACCEPTED, result.getStatus());
+        assertEquals(10, response(result).getPartialSuccess().getRejectedSpans());
+        assertEquals(THROTTLED, receiver.receive(token, request(1)).getStatus());
+
+        // a second later there's room for another 200
+        nanos.addAndGet(TimeUnit.SECONDS.toNanos(1));
+        result = receiver.receive(token, request(201));
+        assertEquals(ACCEPTED, result.getStatus());
+        assertEquals(1, response(result).getPartialSuccess().getRejectedSpans());
+        verify(otelHelper, times(BURST + 200)).addEndedSpan(any());
+    }
+
+    @Test
+    void RejectsSpansOnceTheBuildHasSentItsShare() {
+        var token = receiver.register(7, "Project1", TRACE_ID, otelHelper);
+        for (int sent = 0; sent < MAX_SPANS_PER_BUILD; sent += BURST) {
+            assertEquals(ACCEPTED, receiver.receive(token, request(BURST)).getStatus());
+            nanos.addAndGet(TimeUnit.SECONDS.toNanos(10));
+        }
+
+        var result = receiver.receive(token, request(5));
+        assertEquals(ACCEPTED, result.getStatus());
+        assertEquals(5, response(result).getPartialSuccess().getRejectedSpans());
+        assertEquals("the build has sent as many spans as it can", response(result).getPartialSuccess().getErrorMessage());
+        verify(otelHelper, times(MAX_SPANS_PER_BUILD)).addEndedSpan(any());
+    }
+
+    @Test
+    void TurnsRequestsAwayWhileItsHandlingAsManyAsItCan() throws Exception {
+        var handling = new CountDownLatch(4);
+        var release = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            handling.countDown();
+            release.await();
+            return null;
+        }).when(otelHelper).addEndedSpan(any());
+        var token = receiver.register(7, "Project1", TRACE_ID, otelHelper);
+
+        var executor = Executors.newFixedThreadPool(4);
+        try {
+            var pending = new ArrayList<Future<OtlpReceiver.Result>>();
+            for (int i = 0; i < 4; i++) pending.add(executor.submit(() -> receiver.receive(token, request(1))));
+            assertTrue(handling.await(10, TimeUnit.SECONDS));
+
+            assertEquals(BUSY, receiver.receive(token, request(1)).getStatus());
+
+            release.countDown();
+            for (var result : pending) assertEquals(ACCEPTED, result.get(10, TimeUnit.SECONDS).getStatus());
+            assertEquals(ACCEPTED, receiver.receive(token, request(1)).getStatus());
+        } finally {
+            release.countDown();
+            executor.shutdownNow();
+        }
+    }
+
+    private static ExportTraceServiceResponse response(OtlpReceiver.Result result) {
+        try {
+            return ExportTraceServiceResponse.parseFrom(result.getResponse());
+        } catch (Exception e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    // count spans under the build's span, each with its own id
+    private static byte[] request(int count) {
+        var scopeSpans = ScopeSpans.newBuilder();
+        for (int i = 0; i < count; i++) {
+            scopeSpans.addSpans(Span.newBuilder()
+                    .setTraceId(ByteString.copyFrom(HexFormat.of().parseHex(TRACE_ID)))
+                    .setSpanId(ByteString.copyFrom(ByteBuffer.allocate(8).putLong(i + 1).array()))
+                    .setParentSpanId(ByteString.copyFrom(HexFormat.of().parseHex(BUILD_SPAN_ID)))
+                    .setName(":task" + i)
+                    .setStartTimeUnixNano(1_000_000_000L)
+                    .setEndTimeUnixNano(2_000_000_000L));
+        }
+        return ExportTraceServiceRequest.newBuilder()
+                .addResourceSpans(ResourceSpans.newBuilder().addScopeSpans(scopeSpans))
+                .build()
+                .toByteArray();
+    }
+}
@@ -0,0 +1,132 @@
+package com.octopus.teamcity.opentelemetry.server;
+
+import com.google.protobuf.ByteString;
+import com.octopus.teamcity.opentelemetry.server.receiver.OtlpSpanConverter;
+import com.octopus.teamcity.opentelemetry.server.receiver.OtlpSpanWriter;
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.trace.StatusCode;
+import io.opentelemetry.proto.collector.trace.v1.ExportTraceServiceRequest;
+import io.opentelemetry.proto.common.v1.AnyValue;
+import io.opentelemetry.proto.common.v1.InstrumentationScope;
+import io.opentelemetry.proto.common.v1.KeyValue;
+import io.opentelemetry.proto.resource.v1.Resource;
+import io.opentelemetry.proto.trace.v1.ResourceSpans;
+import io.opentelemetry.proto.trace.v1.ScopeSpans;
+import io.opentelemetry.proto.trace.v1.Span;
+import io.opentelemetry.proto.trace.v1.Status;
+import io.opentelemetry.sdk.trace.SpanLimits;
+import org.junit.jupiter.api.Test;
+
+import java.util.HexFormat;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OtlpSpanConverterTest {
+    private static final String TRACE_ID = "0af7651916cd43dd8448eb211c80319c";
+    private static final String OTHER_TRACE_ID = "4bf92f3577b34da6a3ce929d0e0e4736";
+    private static final String BUILD_SPAN_ID = "b7ad6b7169203331";
+
+    private static ByteString bytes(String hex) {
+        return ByteString.copyFrom(HexFormat.of().parseHex(hex));
+    }
+
+    private static KeyValue attribute(String key, String value) {
+        return KeyValue.newBuilder().setKey(key).setValue(AnyValue.newBuilder().setStringValue(value)).build();
+    }
+
+    private static Span.Builder span(String traceId, String spanId, String parentSpanId) {
+        return Span.newBuilder()
+                .setTraceId(bytes(traceId))
+                .setSpanId(bytes(spanId))
+                .setParentSpanId(parentSpanId == null ? ByteString.EMPTY : bytes(parentSpanId))
+                .setName(":compileJava")
+                .setStartTimeUnixNano(1_000_000_000L)
+                .setEndTimeUnixNano(3_000_000_000L);
+    }
+
+    private static ExportTraceServiceRequest request(Span.Builder... spans) {
+        var scopeSpans = ScopeSpans.newBuilder().setScope(InstrumentationScope.newBuilder().setName("gradle").setVersion("8.12"));
+        for (var span : spans) scopeSpans.addSpans(span);
+        return ExportTraceServiceRequest.newBuilder()
+                .addResourceSpans(ResourceSpans.newBuilder()
+                        .setResource(Resource.newBuilder().addAttributes(attribute("service.name", "gradle")))
+                        .addScopeSpans(scopeSpans))
+                .build();
+    }
+
+    @Test
+    void convertsSpansInTheBuildsTrace() {
+        var converter = new OtlpSpanConverter(TRACE_ID, SpanLimits.getDefault());
+
+        converter.convert(request(span(TRACE_ID, "00f067aa0ba902b7", BUILD_SPAN_ID)
+                .setKind(Span.SpanKind.SPAN_KIND_INTERNAL)
+                .setStatus(Status.newBuilder().setCode(Status.StatusCode.STATUS_CODE_ERROR).setMessage("compilation failed"))
+                .addAttributes(attribute("task.path", ":compileJava"))));
+
+        assertEquals(0, converter.getRejected());
+        var span = converter.getAccepted().get(0);
+        assertEquals(":compileJava", span.getName());
+        assertEquals(TRACE_ID, span.getSpanContext().getTraceId());
+        assertEquals("00f067aa0ba902b7", span.getSpanContext().getSpanId());
+        assertEquals(BUILD_SPAN_ID, span.getParentSpanContext().getSpanId());
+        assertEquals(2_000_000_000L, span.getLatencyNanos());
+        assertEquals(StatusCode.ERROR, span.getStatus().getStatusCode());
+        assertEquals(":compileJava", span.getAttributes().get(AttributeKey.stringKey("task.path")));
+        assertEquals("gradle", span.getResource().getAttribute(AttributeKey.stringKey("service.name")));
+        assertEquals("gradle", span.getInstrumentationScopeInfo().getName());
+    }
+
+    @Test
+    void rejectsSpansFromOtherTracesAndSpansWithoutAParent() {
+        var converter = new OtlpSpanConverter(TRACE_ID, SpanLimits.getDefault());
+
+        converter.convert(request(
+                span(OTHER_TRACE_ID, "00f067aa0ba902b7", BUILD_SPAN_ID),
+                span(TRACE_ID, "00f067aa0ba902b8", null),
+                span(TRACE_ID, "00f067aa0ba902b9", BUILD_SPAN_ID)));
+
+        assertEquals(2, converter.getRejected());
+        assertEquals(1, converter.getAccepted().size());
+        assertEquals("00f067aa0ba902b9", converter.getAccepted().get(0).getSpanContext().getSpanId());
+    }
+
+    @Test
+    void holdsSpansToTheLimits() {
+        var limits = SpanLimits.builder().setMaxNumberOfAttributes(2).setMaxAttributeValueLength(5).build();
+        var converter = new OtlpSpanConverter(TRACE_ID, limits);
+
+        converter.convert(request(span(TRACE_ID, "00f067aa0ba902b7", BUILD_SPAN_ID)
+                .addAttributes(attribute("a", "1234567890"))
+                .addAttributes(attribute("b", "2"))
+                .addAttributes(attribute("c", "3"))));
+
+        var span = converter.getAccepted().get(0);
+        assertEquals(2, span.getAttributes().size());
+        assertEquals(3, span.getTotalAttributeCount());
+        assertEquals("12345", span.getAttributes().get(AttributeKey.stringKey("a")));
+    }
+
+    @Test
+    void spansWrittenOutReadBackTheSame() {
+        var converter = new OtlpSpanConverter(TRACE_ID, SpanLimits.getDefault());
+        converter.convert(request(span(TRACE_ID, "00f067aa0ba902b7", BUILD_SPAN_ID)
+                .setStatus(Status.newBuilder().setCode(Status.StatusCode.STATUS_CODE_ERROR).setMessage("Interrupted by server shutdown"))
+                .addAttributes(attribute("task.path", ":compileJava"))
+                .addEvents(Span.Event.newBuilder().setName("exception").setTimeUnixNano(2_000_000_000L).addAttributes(attribute("exception.message", "boom")))));
+        var original = converter.getAccepted().get(0);
+
+        var readBack = new OtlpSpanConverter(null, SpanLimits.getDefault());
+        readBack.convert(OtlpSpanWriter.toRequest(List.of(original)));
+
+        var span = readBack.getAccepted().get(0);
+        assertEquals(original.getSpanContext(), span.getSpanContext());
+        assertEquals(original.getParentSpanContext(), span.getParentSpanContext());
+        assertEquals(original.getName(), span.getName());
+        assertEquals(original.getStatus(), span.getStatus());
+        assertEquals(original.getAttributes(), span.getAttributes());
+        assertEquals(original.getEvents(), span.getEvents());
+        assertEquals(original.getResource(), span.getResource());
+        assertEquals(original.getEndEpochNanos(), span.getEndEpochNanos());
+    }
+}
@@ -0,0 +1,97 @@
+package com.octopus.teamcity.opentelemetry.server;
+
+import com.octopus.teamcity.opentelemetry.server.endpoints.IOTELEndpointHandler;
+import com.octopus.teamcity.opentelemetry.server.endpoints.OTELEndpointFactory;
+import com.octopus.teamcity.opentelemetry.server.metrics.PluginMetrics;
+import io.opentelemetry.sdk.common.CompletableResultCode;
+import io.opentelemetry.sdk.metrics.export.MetricExporter;
+import jetbrains.buildServer.serverSide.ProjectManager;
+import jetbrains.buildServer.serverSide.SProject;
+import jetbrains.buildServer.serverSide.SProjectFeatureDescriptor;
+import jetbrains.buildServer.serverSide.TeamCityNodes;
+import jetbrains.buildServer.util.EventDispatcher;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static com.octopus.teamcity.opentelemetry.common.PluginConstants.*;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class PluginMetricsTest {
+    private final SProject rootProject = mock(SProject.class);
+    private final IOTELEndpointHandler handler = mock(IOTELEndpointHandler.class);
+    private PluginMetrics pluginMetrics;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        var projectManager = mock(ProjectManager.class);
+        when(projectManager.getRootProject()).thenReturn(rootProject);
+        when(handler.getServiceName()).thenReturn("custom");
+        when(handler.buildMetricExporter(anyString(), any())).thenAnswer(invocation -> exporter());
+        var nodesService = mock(TeamCityNodes.class, RETURNS_DEEP_STUBS);
+        when(nodesService.getCurrentNode().getId()).thenReturn("main");
+        pluginMetrics = new PluginMetrics(mock(EventDispatcher.class), projectManager, new OTELEndpointFactory(List.of(handler)), nodesService);
+    }
+
+    @AfterEach
+    void tearDown() {
+        pluginMetrics.serverShutdown();
+    }
+
+    @Test
+    void IsDisabledUntilTheRootProjectSaysWhereToSendMetrics() {
+        pluginMetrics.refreshDestination();
+
+        assertFalse(pluginMetrics.isEnabled());
+        verify(handler, never()).buildMetricExporter(anyString(), any());
+    }
+
+    @Test
+    void OnlyRebuildsTheExporterWhenTheSettingsChange() {
+        configure("true", "http://collector:4317");
+
+        pluginMetrics.refreshDestination();
+        pluginMetrics.refreshDestination();
+
+        assertTrue(pluginMetrics.isEnabled());
+        verify(handler, times(1)).buildMetricExporter(eq("http://collector:4317"), any());
+
+        configure("true", "http://other:4317");
+        pluginMetrics.refreshDestination();
+
+        verify(handler).buildMetricExporter(eq("http://other:4317"), any());
+    }
+
+    @Test
+    void StopsSendingWhenTheFeatureIsDisabled() {
+        configure("true", "http://collector:4317");
+        pluginMetrics.refreshDestination();
+
+        configure("false", "http://collector:4317");
+        pluginMetrics.refreshDestination();
+
+        assertFalse(pluginMetrics.isEnabled());
+    }
+
+    private void configure(String enabled, String endpoint) {
+        var feature = mock(SProjectFeatureDescriptor.class);
+        when(feature.getParameters()).thenReturn(Map.of(
+                PROPERTY_KEY_ENABLED, enabled,
+                PROPERTY_KEY_SERVICE, "custom",
+                PROPERTY_KEY_ENDPOINT, endpoint));
+        when(rootProject.getAvailableFeaturesOfType(PLUGIN_NAME)).thenReturn(List.of(feature));
+    }
+
+    private static MetricExporter exporter() {
+        var exporter = mock(MetricExporter.class);
+        when(exporter.export(any())).thenReturn(CompletableResultCode.ofSuccess());
+        when(exporter.flush()).thenReturn(CompletableResultCode.ofSuccess());
+        when(exporter.shutdown()).thenReturn(CompletableResultCode.ofSuccess());
+        return exporter;
+    }
+}
@@ -0,0 +1,53 @@
+package com.octopus.teamcity.opentelemetry.server;
+
+import com.octopus.teamcity.opentelemetry.server.helpers.ProjectSpanLimiter;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ProjectSpanLimiterTest {
+    private final AtomicLong nanos = new AtomicLong(-5_000_000_000L);
+    private final AtomicLong millis = new AtomicLong(1_700_000_000_000L);
+    private final ProjectSpanLimiter limiter = new ProjectSpanLimiter(nanos::get, millis::get);
+
+    @Test
+    void NoLimitsAllowsEverything() {
+        for (int i = 0; i < 10_000; i++) assertTrue(limiter.tryAcquire());
+        assertEquals(10_000, limiter.getToday().getCreated());
+    }
+
+    @Test
+    void RateLimitAllowsABurstThenTheRate() {
+        limiter.configure(10, 1, 0);
+
+        var burst = 0;
+        while (limiter.tryAcquire()) burst++;
+        // a second's worth, give or take a span per shard
+        assertTrue(burst >= 10 && burst <= 18, "burst was " + burst);
+        assertEquals(1, limiter.getToday().getRateLimited());
+
+        var allowed = 0;
+        for (int i = 0; i < 10_000; i++) {
+            nanos.addAndGet(TimeUnit.MILLISECONDS.toNanos(10));
+            if (limiter.tryAcquire()) allowed++;
+        }
+        // 100 seconds at 10 a second
+        assertTrue(allowed >= 995 && allowed <= 1005, "allowed " + allowed);
+    }
+
+    @Test
+    void DailyQuotaResetsTheNextDay() {
+        limiter.configure(0, 60, 5);
+        for (int i = 0; i < 5; i++) assertTrue(limiter.tryAcquire());
+        assertFalse(limiter.tryAcquire());
+        assertEquals(1, limiter.getToday().getOverQuota());
+
+        millis.addAndGet(TimeUnit.DAYS.toMillis(1));
+        assertTrue(limiter.tryAcquire());
+        assertEquals(1, limiter.getToday().getCreated());
+        assertEquals(0, limiter.getToday().getOverQuota());
+    }
+}
@@ -0,0 +1,70 @@
+package com.octopus.teamcity.opentelemetry.server;
+
+import com.octopus.teamcity.opentelemetry.server.helpers.ProjectSpanQuotas;
+import jetbrains.buildServer.serverSide.ProjectManager;
+import jetbrains.buildServer.serverSide.ServerPaths;
+import jetbrains.buildServer.util.EventDispatcher;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class ProjectSpanQuotasTest {
+    private static final long NOON = TimeUnit.DAYS.toMillis(20000) + TimeUnit.HOURS.toMillis(12);
+
+    @TempDir
+    File dataDirectory;
+
+    private ServerPaths serverPaths;
+
+    @BeforeEach
+    void setUp() {
+        serverPaths = mock(ServerPaths.class);
+        when(serverPaths.getPluginDataDirectory()).thenReturn(dataDirectory);
+    }
+
+    @Test
+    void CarriesTheDaysUsageOverARestart() {
+        var quotas = create(NOON);
+        var limiter = quotas.forProject("Project1");
+        for (int i = 0; i < 3; i++) assertTrue(limiter.tryAcquire());
+        quotas.serverShutdown();
+
+        var restarted = create(NOON + TimeUnit.HOURS.toMillis(1));
+        try {
+            var restored = restarted.find("Project1");
+            assertNotNull(restored);
+            assertEquals(3, restored.getToday().getCreated());
+            assertTrue(restored.tryAcquire());
+            assertEquals(4, restored.getToday().getCreated());
+            assertNull(restarted.find("Project2"));
+        } finally {
+            restarted.serverShutdown();
+        }
+    }
+
+    @Test
+    void StartsAfreshTheNextDay() {
+        var quotas = create(NOON);
+        quotas.forProject("Project1").tryAcquire();
+        quotas.serverShutdown();
+
+        var restarted = create(NOON + TimeUnit.DAYS.toMillis(1));
+        try {
+            assertNull(restarted.find("Project1"));
+            assertEquals(0, restarted.forProject("Project1").getToday().getCreated());
+        } finally {
+            restarted.serverShutdown();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private ProjectSpanQuotas create(long now) {
+        return new ProjectSpanQuotas(mock(EventDispatcher.class), mock(ProjectManager.class), serverPaths, () -> now);
+    }
+}
@@ -0,0 +1,166 @@
+package com.octopus.teamcity.opentelemetry.server;
+
+import com.octopus.teamcity.opentelemetry.server.metrics.OpenMetricsReader;
+import com.octopus.teamcity.opentelemetry.server.metrics.PluginMetrics;
+import com.octopus.teamcity.opentelemetry.server.queue.QueueWaitTracker;
+import com.octopus.teamcity.opentelemetry.server.queue.QueuedBuildTimeline;
+import io.opentelemetry.sdk.metrics.SdkMeterProvider;
+import io.opentelemetry.sdk.resources.Resource;
+import jetbrains.buildServer.serverSide.SQueuedBuild;
+import jetbrains.buildServer.serverSide.SRunningBuild;
+import jetbrains.buildServer.util.EventDispatcher;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class QueueWaitTrackerTest {
+    private static final long PROMOTION_ID = 42;
+    private static final String AGENT = "Waiting for an agent";
+    private static final String DEPENDENCY = "Waiting for a dependency";
+
+    private final OpenMetricsReader metricReader = new OpenMetricsReader(Resource.empty(), System::currentTimeMillis);
+    private final SdkMeterProvider meterProvider = SdkMeterProvider.builder()
+            .setResource(Resource.empty())
+            .registerMetricReader(metricReader)
+            .build();
+    private QueueWaitTracker tracker;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        var pluginMetrics = mock(PluginMetrics.class);
+        when(pluginMetrics.getMeter()).thenReturn(meterProvider.get("test"));
+        tracker = new QueueWaitTracker(mock(EventDispatcher.class), pluginMetrics);
+    }
+
+    @AfterEach
+    void tearDown() {
+        meterProvider.close();
+    }
+
+    @Test
+    void RecordsASegmentForEachChangeOfWaitReason() {
+        var queuedBuild = queuedBuild(1_000);
+        tracker.buildTypeAddedToQueue(queuedBuild);
+        observe(queuedBuild, AGENT, 1_500);
+        observe(queuedBuild, AGENT, 2_000);
+        observe(queuedBuild, DEPENDENCY, 3_000);
+        observe(queuedBuild, AGENT, 4_000);
+        tracker.buildStarted(startedBuild(5_000));
+
+        var timeline = tracker.take(PROMOTION_ID);
+
+        assertNotNull(timeline);
+        assertEquals(List.of(
+                AGENT + " 1000-3000",
+                DEPENDENCY + " 3000-4000",
+                AGENT + " 4000-5000"), segments(timeline));
+        var metrics = new String(metricReader.scrape(0), StandardCharsets.UTF_8);
+        assertTrue(metrics.contains("teamcity_queue_wait_reason_duration_milliseconds_count{wait_reason=\"" + AGENT + "\"} 2\n"));
+        assertTrue(metrics.contains("teamcity_queue_wait_reason_duration_milliseconds_sum{wait_reason=\"" + AGENT + "\"} 3000.0\n"));
+    }
+
+    @Test
+    void WaitReasonIsUnknownWithoutEstimates() {
+        var queuedBuild = queuedBuild(1_000);
+        when(queuedBuild.getBuildEstimates()).thenReturn(null);
+        tracker.observe(queuedBuild, 1_500);
+        tracker.buildStarted(startedBuild(2_000));
+
+        assertEquals(List.of(QueueWaitTracker.UNKNOWN_WAIT_REASON + " 1000-2000"), segments(tracker.take(PROMOTION_ID)));
+    }
+
+    @Test
+    void IgnoresWaitReasonsSeenAfterTheBuildStarted() {
+        var queuedBuild = queuedBuild(1_000);
+        observe(queuedBuild, AGENT, 1_500);
+        tracker.buildStarted(startedBuild(2_000));
+        observe(queuedBuild, DEPENDENCY, 2_500);
+
+        assertEquals(List.of(AGENT + " 1000-2000"), segments(tracker.take(PROMOTION_ID)));
+    }
+
+    @Test
+    void HandsTheTimelineOverOnceTheBuildHasLeftTheQueue() {
+        var queuedBuild = queuedBuild(1_000);
+        observe(queuedBuild, AGENT, 1_500);
+
+        assertNull(tracker.take(PROMOTION_ID));
+        tracker.buildStarted(startedBuild(2_000));
+        assertNotNull(tracker.take(PROMOTION_ID));
+        assertNull(tracker.take(PROMOTION_ID));
+    }
+
+    @Test
+    void ForgetsBuildsRemovedFromTheQueue() {
+        var queuedBuild = queuedBuild(1_000);
+        tracker.buildTypeAddedToQueue(queuedBuild);
+        observe(queuedBuild, AGENT, 1_500);
+        tracker.buildRemovedFromQueue(queuedBuild, null, null);
+        tracker.buildStarted(startedBuild(2_000));
+
+        assertNull(tracker.take(PROMOTION_ID));
+    }
+
+    @Test
+    void ForgetsBuildsThatHaventBeenSeenForAWhile() {
+        var queuedBuild = queuedBuild(1_000);
+        observe(queuedBuild, AGENT, 1_500);
+
+        tracker.prune(1_500 + TimeUnit.MINUTES.toMillis(5));
+        tracker.buildStarted(startedBuild(2_000));
+        assertNotNull(tracker.take(PROMOTION_ID));
+
+        observe(queuedBuild, AGENT, 1_500);
+        tracker.prune(1_500 + TimeUnit.MINUTES.toMillis(11));
+        tracker.buildStarted(startedBuild(2_000));
+        assertNull(tracker.take(PROMOTION_ID));
+    }
+
+    @Test
+    void ForgetsTimelinesNoOneTook() {
+        var queuedBuild = queuedBuild(1_000);
+        observe(queuedBuild, AGENT, 1_500);
+        tracker.buildStarted(startedBuild(2_000));
+
+        tracker.prune(2_000 + TimeUnit.DAYS.toMillis(3));
+
+        assertNull(tracker.take(PROMOTION_ID));
+    }
+
+    private void observe(SQueuedBuild queuedBuild, String waitReason, long now) {
+        when(queuedBuild.getBuildEstimates().getWaitReason().getDescription()).thenReturn(waitReason);
+        tracker.observe(queuedBuild, now);
+    }
+
+    private List<String> segments(QueuedBuildTimeline timeline) {
+        var segments = new ArrayList<String>();
+        for (int i = 0; i < timeline.getSegmentCount(); i++) {
+            segments.add(tracker.getWaitReason(timeline.getSegmentReasonId(i)) + " " + timeline.getSegmentStart(i) + "-" + timeline.getSegmentEnd(i));
+        }
+        return segments;
+    }
+
+    private static SQueuedBuild queuedBuild(long queuedAt) {
+        var queuedBuild = mock(SQueuedBuild.class, RETURNS_DEEP_STUBS);
+        when(queuedBuild.getBuildPromotion().getId()).thenReturn(PROMOTION_ID);
+        when(queuedBuild.getWhenQueued()).thenReturn(new Date(queuedAt));
+        return queuedBuild;
+    }
+
+    private static SRunningBuild startedBuild(long startedAt) {
+        var build = mock(SRunningBuild.class, RETURNS_DEEP_STUBS);
+        when(build.getBuildPromotion().getId()).thenReturn(PROMOTION_ID);
+        when(build.getServerStartDate()).thenReturn(new Date(startedAt));
+        return build;
+    }
+}
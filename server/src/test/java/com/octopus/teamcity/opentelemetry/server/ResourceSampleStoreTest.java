@@ -0,0 +1,93 @@
+package com.octopus.teamcity.opentelemetry.server;
+
+import com.octopus.teamcity.opentelemetry.server.agent.ResourceSampleStore;
+import jetbrains.buildServer.serverSide.SRunningBuild;
+import org.junit.jupiter.api.Test;
+
+import static com.octopus.teamcity.opentelemetry.server.agent.ResourceSampleStore.AddResult.*;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class ResourceSampleStoreTest {
+    private static final String SAMPLE = "1000 10 2048 1 2 3 4\n";
+
+    private final ResourceSampleStore store = new ResourceSampleStore();
+
+    @Test
+    void OnlyTakesSamplesCarryingTheBuildsToken() {
+        var token = store.register(7);
+
+        assertEquals(UNKNOWN_BUILD, store.add(7, null, SAMPLE, null));
+        assertEquals(UNKNOWN_BUILD, store.add(7, token + "x", SAMPLE, null));
+        assertEquals(UNKNOWN_BUILD, store.add(8, token, SAMPLE, null));
+        assertEquals(ADDED, store.add(7, token, SAMPLE, null));
+
+        assertEquals(1, store.take(7).size());
+    }
+
+    @Test
+    void TheTokenStopsWorkingWhenTheBuildFinishes() {
+        var token = store.register(7);
+        store.add(7, token, SAMPLE, null);
+        assertEquals(token, store.getToken(7));
+        var build = mock(SRunningBuild.class);
+        when(build.getBuildId()).thenReturn(7L);
+
+        store.buildFinished(build);
+
+        assertNull(store.getToken(7));
+        assertEquals(UNKNOWN_BUILD, store.add(7, token, SAMPLE, null));
+        // what was sent while it ran is still there for the build's spans
+        assertEquals(1, store.take(7).size());
+    }
+
+    @Test
+    void EveryBuildGetsADifferentToken() {
+        assertNotEquals(store.register(7), store.register(8));
+    }
+
+    @Test
+    void RejectsMalformedBatches() {
+        var token = store.register(7);
+
+        assertEquals(MALFORMED, store.add(7, token, "1000 10 2048\n", null));
+        assertEquals(MALFORMED, store.add(7, token, "1000 10 2048 1 2 3 x\n", null));
+        assertNull(store.take(7));
+    }
+
+    @Test
+    void StopsTakingSamplesOnceTheBuildsAreTaken() {
+        var token = store.register(7);
+        store.add(7, token, SAMPLE, null);
+
+        assertNotNull(store.take(7));
+        assertNull(store.take(7));
+        assertEquals(UNKNOWN_BUILD, store.add(7, token, SAMPLE, null));
+    }
+
+    @Test
+    void ForgetsTheLeastRecentlyUsedBuild() {
+        var firstToken = store.register(0);
+        var secondToken = store.register(1);
+        // keep the first build in use, so the second is the one to go
+        for (long buildId = 2; buildId <= 1000; buildId++) {
+            store.register(buildId);
+            if (buildId == 500) store.add(0, firstToken, SAMPLE, null);
+        }
+
+        assertEquals(UNKNOWN_BUILD, store.add(1, secondToken, SAMPLE, null));
+        assertEquals(ADDED, store.add(0, firstToken, SAMPLE, null));
+        assertEquals(2, store.take(0).size());
+    }
+
+    @Test
+    void KeepsTheSmallestClockOffset() {
+        var token = store.register(7);
+        store.add(7, token, SAMPLE, 5_000L);
+        store.add(7, token, SAMPLE, 4_000L);
+        store.add(7, token, SAMPLE, 4_500L);
+        store.add(7, token, SAMPLE, null);
+
+        assertEquals(4_000, store.take(7).getClockOffsetMs());
+    }
+}
@@ -0,0 +1,92 @@
+package com.octopus.teamcity.opentelemetry.server;
+
+import com.octopus.teamcity.opentelemetry.common.PluginConstants;
+import com.octopus.teamcity.opentelemetry.server.agent.ResourceSamples;
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.sdk.trace.SdkTracerProvider;
+import io.opentelemetry.sdk.trace.data.SpanData;
+import io.opentelemetry.sdk.trace.export.SimpleSpanProcessor;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ResourceSamplesTest {
+    private final List<SpanData> exported = new ArrayList<>();
+    private final SdkTracerProvider tracerProvider = SdkTracerProvider.builder()
+            .addSpanProcessor(SimpleSpanProcessor.create(new CollectingSpanExporter(exported)))
+            .build();
+
+    @AfterEach
+    void tearDown() {
+        tracerProvider.close();
+    }
+
+    @Test
+    void TotalsTheSamplesTakenWhileTheStepRan() {
+        var samples = samples(1_000, 5, 1_000);
+
+        var step = attach(samples, 2_000, 4_000);
+
+        assertEquals(3, step.getEvents().size());
+        assertEquals(List.of(2_000L, 3_000L, 4_000L), step.getEvents().stream().map(event -> TimeUnit.NANOSECONDS.toMillis(event.getEpochNanos())).toList());
+        assertEquals(20 + 30 + 40, step.getAttributes().get(AttributeKey.longKey(PluginConstants.ATTRIBUTE_STEP_CPU_TIME)));
+        assertEquals(4_000 * 2, step.getAttributes().get(AttributeKey.longKey(PluginConstants.ATTRIBUTE_STEP_PEAK_RSS)));
+    }
+
+    @Test
+    void MergesEventsDownToTheLimit() {
+        var samples = samples(1_000, 130, 1_000);
+
+        var step = attach(samples, 0, 200_000);
+
+        assertEquals(44, step.getEvents().size());
+        var cpu = 0L;
+        for (int i = 1; i <= 130; i++) cpu += i * 10;
+        assertEquals(cpu, step.getAttributes().get(AttributeKey.longKey(PluginConstants.ATTRIBUTE_STEP_CPU_TIME)));
+    }
+
+    @Test
+    void AllowsForTheAgentsClockBeingBehind() {
+        var samples = samples(1_000, 5, 1_000);
+        samples.recordClockOffset(10_000);
+
+        var step = attach(samples, 12_000, 13_000);
+
+        assertEquals(List.of(12_000L, 13_000L), step.getEvents().stream().map(event -> TimeUnit.NANOSECONDS.toMillis(event.getEpochNanos())).toList());
+        assertEquals(20 + 30, step.getAttributes().get(AttributeKey.longKey(PluginConstants.ATTRIBUTE_STEP_CPU_TIME)));
+    }
+
+    @Test
+    void LeavesAStepWithoutSamplesAlone() {
+        var samples = samples(1_000, 5, 1_000);
+
+        var step = attach(samples, 10_000, 20_000);
+
+        assertTrue(step.getEvents().isEmpty());
+        assertNull(step.getAttributes().get(AttributeKey.longKey(PluginConstants.ATTRIBUTE_STEP_CPU_TIME)));
+    }
+
+    // count samples, intervalMs apart from firstMs; sample n (from 1) used 10n ms of cpu and has 2 bytes of rss per ms of its timestamp
+    private static ResourceSamples samples(long firstMs, int count, long intervalMs) {
+        var batch = new StringBuilder();
+        for (int i = 1; i <= count; i++) {
+            var timestamp = firstMs + (i - 1) * intervalMs;
+            batch.append(timestamp).append(' ').append(i * 10).append(' ').append(timestamp * 2).append(" 0 0 0 0\n");
+        }
+        var samples = new ResourceSamples();
+        assertEquals(count, samples.add(batch.toString(), 10_000));
+        return samples;
+    }
+
+    private SpanData attach(ResourceSamples samples, long startMs, long endMs) {
+        var span = tracerProvider.get("test").spanBuilder("step").setStartTimestamp(startMs, TimeUnit.MILLISECONDS).startSpan();
+        samples.attachTo(span, startMs, endMs);
+        span.end(endMs, TimeUnit.MILLISECONDS);
+        return exported.get(exported.size() - 1);
+    }
+}
@@ -0,0 +1,94 @@
+package com.octopus.teamcity.opentelemetry.server;
+
+import com.octopus.teamcity.opentelemetry.server.helpers.ShutdownRecorder;
+import io.opentelemetry.sdk.common.CompletableResultCode;
+import io.opentelemetry.sdk.trace.SdkTracerProvider;
+import io.opentelemetry.sdk.trace.SpanProcessor;
+import io.opentelemetry.sdk.trace.data.SpanData;
+import io.opentelemetry.sdk.trace.export.SimpleSpanProcessor;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ShutdownRecorderTest {
+    private final List<SpanData> exported = new ArrayList<>();
+    private final ShutdownRecorder recorder = new ShutdownRecorder("Project1");
+    private SdkTracerProvider tracerProvider;
+
+    @AfterEach
+    void tearDown() {
+        if (tracerProvider != null) tracerProvider.close();
+    }
+
+    @Test
+    void NothingIsUnsentWhenEveryExportSucceeds() {
+        exportingWith(CompletableResultCode.ofSuccess());
+        endSpan("before shutdown");
+
+        recorder.startRecording();
+        endSpan("during shutdown");
+
+        assertTrue(recorder.isAllSent());
+        assertTrue(recorder.getUnsent().isEmpty());
+        assertEquals(List.of("before shutdown", "during shutdown"), names(exported));
+        assertEquals("Project1", recorder.getProjectExternalId());
+    }
+
+    @Test
+    void KeepsTheSpansOfExportsThatFailDuringShutdown() {
+        exportingWith(CompletableResultCode.ofFailure());
+        endSpan("before shutdown");
+
+        recorder.startRecording();
+        endSpan("during shutdown");
+
+        assertFalse(recorder.isAllSent());
+        assertEquals(List.of("during shutdown"), names(recorder.getUnsent()));
+    }
+
+    @Test
+    void KeepsTheSpansOfExportsThatDontFinishInTime() {
+        var result = new CompletableResultCode();
+        exportingWith(result);
+        endSpan("queued before shutdown");
+
+        recorder.startRecording();
+        endSpan("during shutdown");
+
+        assertFalse(recorder.isAllSent());
+        assertEquals(List.of("queued before shutdown", "during shutdown"), names(recorder.getUnsent()));
+
+        result.succeed();
+
+        assertTrue(recorder.isAllSent());
+    }
+
+    @Test
+    void KeepsSpansEndedDuringShutdownThatNeverReachTheExporter() {
+        // a processor that drops everything, like a batch processor whose queue is full
+        recorder.startRecording();
+        tracerProvider = SdkTracerProvider.builder().addSpanProcessor(recorder.wrapProcessor(SpanProcessor.composite())).build();
+
+        endSpan("dropped");
+
+        assertFalse(recorder.isAllSent());
+        assertEquals(List.of("dropped"), names(recorder.getUnsent()));
+    }
+
+    private void exportingWith(CompletableResultCode result) {
+        var exporter = recorder.wrapExporter(new CollectingSpanExporter(exported, result));
+        tracerProvider = SdkTracerProvider.builder().addSpanProcessor(recorder.wrapProcessor(SimpleSpanProcessor.create(exporter))).build();
+    }
+
+    private void endSpan(String name) {
+        tracerProvider.get("test").spanBuilder(name).startSpan().end();
+    }
+
+    private static List<String> names(List<SpanData> spans) {
+        return spans.stream().map(SpanData::getName).toList();
+    }
+}
@@ -0,0 +1,51 @@
+package com.octopus.teamcity.opentelemetry.server;
+
+import com.octopus.teamcity.opentelemetry.server.metrics.StatisticAllowlist;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StatisticAllowlistTest {
+
+    @ParameterizedTest
+    @ValueSource(strings = { "", "  ", ",", " , " })
+    void BlankAllowlistMatchesNothing(String source) {
+        var allowlist = StatisticAllowlist.parse(source);
+        assertTrue(allowlist.isEmpty());
+        assertFalse(allowlist.matches("BuildDuration"));
+    }
+
+    @Test
+    void ExactNamesOnlyMatchThemselves() {
+        var allowlist = StatisticAllowlist.parse("BuildDuration, ArtifactsSize");
+        assertTrue(allowlist.matches("BuildDuration"));
+        assertTrue(allowlist.matches("ArtifactsSize"));
+        assertFalse(allowlist.matches("BuildDurationNetTime"));
+        assertFalse(allowlist.matches("TimeSpentInQueue"));
+    }
+
+    @Test
+    void GlobsMatchWildcardsAndTreatEverythingElseLiterally() {
+        var allowlist = StatisticAllowlist.parse("buildStageDuration:*,bundle.size.?");
+        assertTrue(allowlist.matches("buildStageDuration:firstStepPreparation"));
+        assertTrue(allowlist.matches("bundle.size.1"));
+        assertFalse(allowlist.matches("bundleXsize.1"));
+        assertFalse(allowlist.matches("bundle.size.12"));
+    }
+
+    @Test
+    void RegexEntriesAreUsedAsIs() {
+        var allowlist = StatisticAllowlist.parse("regex:CodeCoverage[BLM]");
+        assertTrue(allowlist.matches("CodeCoverageB"));
+        assertFalse(allowlist.matches("CodeCoverageAbsBCovered"));
+    }
+
+    @Test
+    void InvalidEntriesAreSkipped() {
+        var allowlist = StatisticAllowlist.parse("regex:(,BuildDuration");
+        assertFalse(allowlist.isEmpty());
+        assertTrue(allowlist.matches("BuildDuration"));
+    }
+}
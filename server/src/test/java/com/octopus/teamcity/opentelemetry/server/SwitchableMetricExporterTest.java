@@ -0,0 +1,105 @@
+package com.octopus.teamcity.opentelemetry.server;
+
+import com.octopus.teamcity.opentelemetry.server.metrics.SwitchableMetricExporter;
+import io.opentelemetry.sdk.common.CompletableResultCode;
+import io.opentelemetry.sdk.metrics.InstrumentType;
+import io.opentelemetry.sdk.metrics.data.AggregationTemporality;
+import io.opentelemetry.sdk.metrics.data.MetricData;
+import io.opentelemetry.sdk.metrics.export.MetricExporter;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class SwitchableMetricExporterTest {
+    private final List<MetricData> metrics = List.of(mock(MetricData.class));
+
+    @Test
+    void ExportsNothingWithoutADelegate() {
+        var exporter = new SwitchableMetricExporter();
+
+        assertFalse(exporter.hasDelegate());
+        assertTrue(exporter.export(metrics).isSuccess());
+        assertTrue(exporter.flush().isSuccess());
+        assertTrue(exporter.shutdown().isSuccess());
+    }
+
+    @Test
+    void ExportsToTheCurrentDelegate() {
+        var exporter = new SwitchableMetricExporter();
+        var delegate = delegate();
+
+        exporter.setDelegate(delegate);
+
+        assertTrue(exporter.hasDelegate());
+        assertTrue(exporter.export(metrics).isSuccess());
+        exporter.flush();
+        verify(delegate).export(metrics);
+        verify(delegate).flush();
+    }
+
+    @Test
+    void ShutsTheOldDelegateDownWhenSwitching() {
+        var exporter = new SwitchableMetricExporter();
+        var first = delegate();
+        var second = delegate();
+        exporter.setDelegate(first);
+
+        exporter.setDelegate(second);
+        exporter.export(metrics);
+
+        verify(first).shutdown();
+        verify(first, never()).export(any());
+        verify(second).export(metrics);
+        verify(second, never()).shutdown();
+    }
+
+    @Test
+    void ExportsNothingOnceTheDelegateIsRemoved() {
+        var exporter = new SwitchableMetricExporter();
+        var delegate = delegate();
+        exporter.setDelegate(delegate);
+
+        exporter.setDelegate(null);
+
+        assertFalse(exporter.hasDelegate());
+        assertTrue(exporter.export(metrics).isSuccess());
+        verify(delegate).shutdown();
+        verify(delegate, never()).export(any());
+    }
+
+    @Test
+    void ShuttingDownShutsTheDelegateDownOnce() {
+        var exporter = new SwitchableMetricExporter();
+        var delegate = delegate();
+        exporter.setDelegate(delegate);
+
+        exporter.shutdown();
+        exporter.shutdown();
+
+        assertFalse(exporter.hasDelegate());
+        verify(delegate, times(1)).shutdown();
+    }
+
+    @Test
+    void IsAlwaysCumulative() {
+        // so that switching destinations doesn't lose the running totals
+        var exporter = new SwitchableMetricExporter();
+        exporter.setDelegate(delegate());
+
+        for (var instrumentType : InstrumentType.values()) {
+            assertEquals(AggregationTemporality.CUMULATIVE, exporter.getAggregationTemporality(instrumentType));
+        }
+    }
+
+    private static MetricExporter delegate() {
+        var delegate = mock(MetricExporter.class);
+        when(delegate.export(any())).thenReturn(CompletableResultCode.ofSuccess());
+        when(delegate.flush()).thenReturn(CompletableResultCode.ofSuccess());
+        when(delegate.shutdown()).thenReturn(CompletableResultCode.ofSuccess());
+        when(delegate.getAggregationTemporality(any())).thenReturn(AggregationTemporality.CUMULATIVE);
+        return delegate;
+    }
+}
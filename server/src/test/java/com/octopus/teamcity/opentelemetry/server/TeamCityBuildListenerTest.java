@@ -1,13 +1,25 @@
 package com.octopus.teamcity.opentelemetry.server;
 
+import com.octopus.teamcity.opentelemetry.server.agent.ResourceSampleStore;
 import com.octopus.teamcity.opentelemetry.server.helpers.OTELHelper;
 import com.octopus.teamcity.opentelemetry.server.helpers.OTELHelperFactory;
 import com.octopus.teamcity.opentelemetry.server.helpers.OTELHelperImpl;
+import com.octopus.teamcity.opentelemetry.server.helpers.ProjectSpanLimiter;
+import com.octopus.teamcity.opentelemetry.server.helpers.ProjectSpanQuotas;
+import com.octopus.teamcity.opentelemetry.server.helpers.SpanLimitSettings;
+import com.octopus.teamcity.opentelemetry.server.metrics.BuildStatisticsPublisher;
+import com.octopus.teamcity.opentelemetry.server.queue.QueueWaitTracker;
+import com.octopus.teamcity.opentelemetry.server.tests.FlakyTestHistory;
+import com.octopus.teamcity.opentelemetry.server.tests.TestDurationBaselines;
 import io.opentelemetry.api.GlobalOpenTelemetry;
 import io.opentelemetry.api.trace.Span;
 import io.opentelemetry.sdk.trace.SpanProcessor;
+import io.opentelemetry.sdk.trace.data.SpanData;
+import io.opentelemetry.sdk.trace.export.SimpleSpanProcessor;
 import jetbrains.buildServer.serverSide.BuildPromotion;
 import jetbrains.buildServer.serverSide.BuildServerListener;
+import jetbrains.buildServer.serverSide.Dependency;
+import jetbrains.buildServer.serverSide.SBuild;
 import jetbrains.buildServer.serverSide.SRunningBuild;
 import jetbrains.buildServer.serverSide.impl.TeamCityNodesImpl;
 import jetbrains.buildServer.util.EventDispatcher;
@@ -17,7 +29,11 @@ import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.*;
@@ -29,6 +45,7 @@ class TeamCityBuildListenerTest {
     private TeamCityBuildListener buildListener;
     private OTELHelperFactory factory;
     private TeamCityNodesImpl teamCityNodes;
+    private BuildStorageManager buildStorageManager;
 
     @BeforeEach
     void setUp(@Mock EventDispatcher<BuildServerListener> buildServerListenerEventDispatcher) {
@@ -36,9 +53,17 @@ class TeamCityBuildListenerTest {
         this.otelHelper = new OTELHelperImpl(mock(SpanProcessor.class, RETURNS_DEEP_STUBS), null, "helper");
         this.factory = mock(OTELHelperFactory.class, RETURNS_DEEP_STUBS);
 
-        var buildStorageManager = mock(BuildStorageManager.class, RETURNS_DEEP_STUBS);
+        this.buildStorageManager = mock(BuildStorageManager.class, RETURNS_DEEP_STUBS);
         this.teamCityNodes = mock(TeamCityNodesImpl.class, RETURNS_DEEP_STUBS);
-        this.buildListener = new TeamCityBuildListener(buildServerListenerEventDispatcher, factory, buildStorageManager, teamCityNodes);
+        var queueWaitTracker = mock(QueueWaitTracker.class);
+        var buildStatisticsPublisher = mock(BuildStatisticsPublisher.class);
+        var testDurationBaselines = mock(TestDurationBaselines.class);
+        var flakyTestHistory = mock(FlakyTestHistory.class);
+        var resourceSampleStore = mock(ResourceSampleStore.class);
+        var projectSpanQuotas = mock(ProjectSpanQuotas.class);
+        lenient().when(projectSpanQuotas.forProject(any())).thenReturn(new ProjectSpanLimiter(System::nanoTime, System::currentTimeMillis));
+        lenient().when(projectSpanQuotas.getSettings(any())).thenReturn(SpanLimitSettings.fromParams(Map.of()));
+        this.buildListener = new TeamCityBuildListener(buildServerListenerEventDispatcher, factory, buildStorageManager, teamCityNodes, queueWaitTracker, buildStatisticsPublisher, resourceSampleStore, new BuildSpans(queueWaitTracker, testDurationBaselines, flakyTestHistory, projectSpanQuotas));
     }
 
     @Test
@@ -140,4 +165,72 @@ class TeamCityBuildListenerTest {
         // Assert
         verify(factory, times(1)).release(build.getBuildId());
     }
-}
\ No newline at end of file
+
+    @Test
+    void DiamondDependencyBuiltInThisChainIsNotReused() {
+        // A depends on B and C, which both depend on D; D was built for this chain, and hasn't saved a trace id
+        var exported = new ArrayList<SpanData>();
+        var recordingHelper = new OTELHelperImpl(SimpleSpanProcessor.create(new CollectingSpanExporter(exported)), null, "helper");
+        var buildD = mock(SBuild.class, RETURNS_DEEP_STUBS);
+        when(buildD.getFinishDate()).thenReturn(new Date(3_000));
+        var buildB = startingBuildInChain(recordingHelper, 1_000, buildD);
+
+        this.buildListener.buildStarted(buildB);
+
+        assertNotNull(recordingHelper.getSpan("2"));
+        assertTrue(exported.stream().noneMatch(span -> span.getName().endsWith("(reused)")));
+    }
+
+    @Test
+    void DependencyFinishedBeforeTheChainWasQueuedIsReused() {
+        var exported = new ArrayList<SpanData>();
+        var recordingHelper = new OTELHelperImpl(SimpleSpanProcessor.create(new CollectingSpanExporter(exported)), null, "helper");
+        var buildD = mock(SBuild.class, RETURNS_DEEP_STUBS);
+        when(buildD.getStartDate()).thenReturn(new Date(200));
+        when(buildD.getFinishDate()).thenReturn(new Date(500));
+        when(buildD.getBuildType().getName()).thenReturn("D");
+        var buildB = startingBuildInChain(recordingHelper, 1_000, buildD);
+        when(buildStorageManager.getTraceId(buildD)).thenReturn("0af7651916cd43dd8448eb211c80319c");
+        when(buildStorageManager.getSpanId(buildD)).thenReturn("b7ad6b7169203331");
+
+        this.buildListener.buildStarted(buildB);
+
+        assertEquals(1, exported.size());
+        var reused = exported.get(0);
+        assertEquals("D (reused)", reused.getName());
+        assertEquals(200, reused.getStartEpochNanos() / 1_000_000);
+        assertEquals(500, reused.getEndEpochNanos() / 1_000_000);
+        assertEquals("0af7651916cd43dd8448eb211c80319c", reused.getLinks().get(0).getSpanContext().getTraceId());
+    }
+
+    // Build B starting in the chain A -> {B, C} -> D, where the root A was queued at rootQueuedAtMs and buildD is
+    // D's build.
+    private SRunningBuild startingBuildInChain(OTELHelper helper, long rootQueuedAtMs, SBuild buildD) {
+        var root = mock(BuildPromotion.class, RETURNS_DEEP_STUBS);
+        var promotionB = mock(BuildPromotion.class);
+        var promotionC = mock(BuildPromotion.class);
+        var promotionD = mock(BuildPromotion.class);
+        when(root.getId()).thenReturn(1L);
+        when(promotionB.getId()).thenReturn(2L);
+        when(promotionC.getId()).thenReturn(3L);
+        when(promotionD.getId()).thenReturn(4L);
+        doReturn(List.of(promotionB, promotionC, promotionD)).when(root).getAllDependencies();
+        when(root.getAssociatedBuild()).thenReturn(null);
+        when(root.getQueuedBuild().getWhenQueued()).thenReturn(new Date(rootQueuedAtMs));
+
+        var dependedOnMe = mock(Dependency.class);
+        when(dependedOnMe.getDependent()).thenReturn(root);
+        doReturn(List.of(dependedOnMe)).when(promotionB).getDependedOnMe();
+        var dependency = mock(Dependency.class);
+        when(dependency.getDependOn()).thenReturn(promotionD);
+        doReturn(List.of(dependency)).when(promotionB).getDependencies();
+        when(promotionD.getAssociatedBuild()).thenReturn(buildD);
+
+        var build = mock(SRunningBuild.class, RETURNS_DEEP_STUBS);
+        when(build.getBuildPromotion()).thenReturn(promotionB);
+        when(promotionB.findTops()).thenReturn(new BuildPromotion[]{root});
+        when(factory.getOTELHelper(root)).thenReturn(helper);
+        when(teamCityNodes.getCurrentNode().isMainNode()).thenReturn(true);
+        return build;
+    }
+}
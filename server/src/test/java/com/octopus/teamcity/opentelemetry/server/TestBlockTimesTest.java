@@ -0,0 +1,68 @@
+package com.octopus.teamcity.opentelemetry.server;
+
+import com.octopus.teamcity.opentelemetry.server.tests.TestBlockTimes;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TestBlockTimesTest {
+
+    @Test
+    void RunsOfTheSameTestAreHandedOutInLogOrder() {
+        var times = new TestBlockTimes();
+        times.add("FooTest.bar", 100, 150);
+        times.add("FooTest.baz", 90, 200);
+        times.add("FooTest.bar", 300, 320);
+
+        assertEquals(90, times.getEarliestStartMs());
+        assertEquals(100, times.take("FooTest.bar").getStartMs());
+        assertEquals(320, times.take("FooTest.bar").getEndMs());
+        assertNull(times.take("FooTest.bar"));
+    }
+
+    @Test
+    void FallsBackToTheNextName() {
+        var times = new TestBlockTimes();
+        times.add("FooTest.bar", 100, 150);
+
+        var interval = times.take("suite: FooTest.bar", "FooTest.bar");
+        assertNotNull(interval);
+        assertEquals(150, interval.getEndMs());
+        assertNull(times.take("suite: FooTest.bar", "FooTest.bar"));
+    }
+
+    @Test
+    void TestsWithoutABlockStartWithTheTestsSpan() {
+        var times = new TestBlockTimes();
+        times.add("FooTest.bar", 100, 150);
+        var testsStartMs = times.getTestsStartMs(10);
+
+        var interval = times.timeOf(testsStartMs, 30, "FooTest.baz");
+
+        assertEquals(100, testsStartMs);
+        assertEquals(100, interval.getStartMs());
+        assertEquals(130, interval.getEndMs());
+        assertEquals(150, times.timeOf(testsStartMs, 30, "FooTest.bar").getEndMs());
+    }
+
+    @Test
+    void WithoutAnyBlocksTheTestsSpanStartsWithTheBuild() {
+        var times = new TestBlockTimes();
+        var testsStartMs = times.getTestsStartMs(10);
+
+        var interval = times.timeOf(testsStartMs, 30, "FooTest.bar");
+
+        assertEquals(10, testsStartMs);
+        assertEquals(10, interval.getStartMs());
+        assertEquals(40, interval.getEndMs());
+    }
+
+    @Test
+    void IsEmptyUntilABlockIsAdded() {
+        var times = new TestBlockTimes();
+        assertTrue(times.isEmpty());
+        assertNull(times.take("FooTest.bar"));
+        times.add("FooTest.bar", 100, 150);
+        assertFalse(times.isEmpty());
+    }
+}
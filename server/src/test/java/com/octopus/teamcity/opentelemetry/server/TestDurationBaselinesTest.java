@@ -0,0 +1,158 @@
+package com.octopus.teamcity.opentelemetry.server;
+
+import com.octopus.teamcity.opentelemetry.server.helpers.PluginDataFiles;
+import com.octopus.teamcity.opentelemetry.server.metrics.PluginMetrics;
+import com.octopus.teamcity.opentelemetry.server.tests.TestDurationBaselines;
+import jetbrains.buildServer.serverSide.ServerPaths;
+import jetbrains.buildServer.util.EventDispatcher;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class TestDurationBaselinesTest {
+    // the file is a 12 byte header ending in the count, then 20 bytes per test starting with its name id
+    private static final int COUNT_OFFSET = 8;
+    private static final int HEADER_BYTES = 12;
+    private static final int ENTRY_BYTES = 20;
+
+    @TempDir
+    File dataDirectory;
+
+    private ServerPaths serverPaths;
+    private final List<TestDurationBaselines> created = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        serverPaths = mock(ServerPaths.class);
+        when(serverPaths.getPluginDataDirectory()).thenReturn(dataDirectory);
+    }
+
+    @AfterEach
+    void tearDown() {
+        // stops each one's writer thread
+        for (var baselines : created) baselines.serverShutdown();
+    }
+
+    @Test
+    void HasNoBaselineUntilThereAreEnoughSamples() {
+        var baselines = create();
+        for (int i = 0; i < 5; i++) assertNull(baselines.getAndUpdate(1, 100, true));
+
+        var baseline = baselines.getAndUpdate(1, 100, true);
+
+        assertNotNull(baseline);
+        assertEquals(5, baseline.getSampleCount());
+        assertEquals(100, baseline.getMeanMs(), 0.001);
+        assertEquals(0, baseline.getStandardDeviationMs(), 0.001);
+    }
+
+    @Test
+    void ReturnsTheBaselineFromBeforeThisRun() {
+        var baselines = create();
+        for (int i = 0; i < 5; i++) baselines.getAndUpdate(1, 100, true);
+
+        var before = baselines.getAndUpdate(1, 1_000, true);
+        var after = baselines.getAndUpdate(1, 100, false);
+
+        assertEquals(100, before.getMeanMs(), 0.001);
+        assertTrue(before.isRegression(1_000));
+        assertEquals(280, after.getMeanMs(), 0.001);
+        assertEquals(6, after.getSampleCount());
+    }
+
+    @Test
+    void LeavesTheBaselineAloneWhenNotUpdating() {
+        var baselines = create();
+        for (int i = 0; i < 5; i++) baselines.getAndUpdate(1, 100, true);
+
+        baselines.getAndUpdate(1, 1_000, false);
+
+        assertEquals(100, baselines.getAndUpdate(1, 100, false).getMeanMs(), 0.001);
+        assertNull(baselines.getAndUpdate(2, 100, false));
+        assertNull(baselines.getAndUpdate(2, 100, false));
+    }
+
+    @Test
+    void KeepsBaselinesAcrossARestart() {
+        saveTwoTests();
+
+        var baselines = create();
+
+        assertEquals(100, baselines.getAndUpdate(1, 0, false).getMeanMs(), 0.001);
+        assertEquals(200, baselines.getAndUpdate(2, 0, false).getMeanMs(), 0.001);
+        assertEquals(5, baselines.getAndUpdate(2, 0, false).getSampleCount());
+    }
+
+    @Test
+    void IgnoresAFileWhoseCountDoesntMatchItsLength() throws IOException {
+        var file = saveTwoTests();
+        try (var output = new RandomAccessFile(file, "rw")) {
+            output.seek(COUNT_OFFSET);
+            output.writeInt(1_000_000_000);
+        }
+
+        var baselines = create();
+
+        assertNull(baselines.getAndUpdate(1, 0, false));
+        assertNull(baselines.getAndUpdate(2, 0, false));
+    }
+
+    @Test
+    void IgnoresATruncatedFile() throws IOException {
+        var file = saveTwoTests();
+        try (var output = new RandomAccessFile(file, "rw")) {
+            output.setLength(file.length() - 4);
+        }
+
+        var baselines = create();
+
+        assertNull(baselines.getAndUpdate(1, 0, false));
+        assertNull(baselines.getAndUpdate(2, 0, false));
+    }
+
+    @Test
+    void IgnoresAFileThatListsATestTwice() throws IOException {
+        var file = saveTwoTests();
+        try (var output = new RandomAccessFile(file, "rw")) {
+            output.seek(HEADER_BYTES + ENTRY_BYTES);
+            output.writeLong(1);
+        }
+
+        var baselines = create();
+
+        assertNull(baselines.getAndUpdate(1, 0, false));
+        // and carries on afterwards
+        for (int i = 0; i < 5; i++) baselines.getAndUpdate(3, 100, true);
+        assertNotNull(baselines.getAndUpdate(3, 100, false));
+    }
+
+    @SuppressWarnings("unchecked")
+    private File saveTwoTests() {
+        var baselines = new TestDurationBaselines(mock(EventDispatcher.class), serverPaths, mock(PluginMetrics.class, RETURNS_DEEP_STUBS));
+        for (int i = 0; i < 5; i++) {
+            baselines.getAndUpdate(1, 100, true);
+            baselines.getAndUpdate(2, 200, true);
+        }
+        baselines.serverShutdown();
+        var file = PluginDataFiles.get(serverPaths, TestDurationBaselines.FILE_NAME);
+        assertEquals(HEADER_BYTES + 2 * ENTRY_BYTES, file.length());
+        return file;
+    }
+
+    @SuppressWarnings("unchecked")
+    private TestDurationBaselines create() {
+        var baselines = new TestDurationBaselines(mock(EventDispatcher.class), serverPaths, mock(PluginMetrics.class, RETURNS_DEEP_STUBS));
+        created.add(baselines);
+        return baselines;
+    }
+}
@@ -0,0 +1,67 @@
+package com.octopus.teamcity.opentelemetry.server;
+
+import com.octopus.teamcity.opentelemetry.server.helpers.SpanLimitSettings;
+import com.octopus.teamcity.opentelemetry.server.tests.TestFailureDetails;
+import io.opentelemetry.sdk.trace.SdkTracerProvider;
+import io.opentelemetry.sdk.trace.data.SpanData;
+import io.opentelemetry.sdk.trace.export.SimpleSpanProcessor;
+import io.opentelemetry.semconv.ExceptionAttributes;
+import jetbrains.buildServer.serverSide.STestRun;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class TestFailureDetailsTest {
+
+    @Test
+    void ShortValuesAreReturnedAsIs() {
+        var value = "java.lang.AssertionError: expected 1 but was 2";
+        assertSame(value, TestFailureDetails.truncate(value, 1024));
+    }
+
+    @Test
+    void LongValuesAreCutToTheByteLimit() {
+        var value = "x".repeat(5000);
+        assertEquals("x".repeat(1024), TestFailureDetails.truncate(value, 1024));
+    }
+
+    @Test
+    void MultiByteCharactersAreNotSplit() {
+        // each e-acute is 2 bytes and the emoji 4, so a 7 byte limit lands part way through the emoji
+        var value = "\u00e9\u00e9\ud83d\ude00\u00e9".repeat(100);
+        var truncated = TestFailureDetails.truncate(value, 7);
+        assertEquals("\u00e9\u00e9", truncated);
+        assertTrue(truncated.getBytes(StandardCharsets.UTF_8).length <= 7);
+    }
+
+    @Test
+    void DetailsFitTheProjectsAttributeLengthLimit() {
+        var limits = new SpanLimitSettings(1000, 128, 128, 1024);
+        var exported = new ArrayList<SpanData>();
+        var tracerProvider = SdkTracerProvider.builder()
+                .setSpanLimits(limits.toSpanLimits())
+                .addSpanProcessor(SimpleSpanProcessor.create(new CollectingSpanExporter(exported)))
+                .build();
+        var test = mock(STestRun.class, RETURNS_DEEP_STUBS);
+        // two bytes of UTF-8 for each e-acute, so the SDK's own cut (by characters) would leave it over the limit
+        var stacktrace = "java.lang.AssertionError: expected 1\n" + "\tat Caf\u00e9Test.bar(Caf\u00e9Test.java:10)\n".repeat(500);
+        when(test.getFailureInfo().getStacktrace()).thenReturn(stacktrace);
+        when(test.getFailureInfo().getStacktraceMessage()).thenReturn("expected 1");
+
+        var span = tracerProvider.get("test").spanBuilder("test").startSpan();
+        TestFailureDetails.forBuild(limits.getAttributeLength()).addTo(span, test, 1_000);
+        span.end();
+
+        var attributes = exported.get(0).getEvents().get(0).getAttributes();
+        var captured = attributes.get(ExceptionAttributes.EXCEPTION_STACKTRACE);
+        assertTrue(stacktrace.startsWith(captured));
+        assertTrue(captured.getBytes(StandardCharsets.UTF_8).length <= 1000);
+        assertTrue(captured.getBytes(StandardCharsets.UTF_8).length > 990);
+        assertEquals("java.lang.AssertionError", attributes.get(ExceptionAttributes.EXCEPTION_TYPE));
+        tracerProvider.close();
+    }
+}
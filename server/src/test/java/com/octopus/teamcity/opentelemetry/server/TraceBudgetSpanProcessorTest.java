@@ -0,0 +1,118 @@
+package com.octopus.teamcity.opentelemetry.server;
+
+import com.octopus.teamcity.opentelemetry.common.PluginConstants;
+import com.octopus.teamcity.opentelemetry.server.helpers.SpanLimitSettings;
+import com.octopus.teamcity.opentelemetry.server.helpers.TraceBudgetSpanProcessor;
+import com.octopus.teamcity.opentelemetry.server.metrics.OpenMetricsReader;
+import com.octopus.teamcity.opentelemetry.server.metrics.PluginMetrics;
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.api.trace.StatusCode;
+import io.opentelemetry.context.Context;
+import io.opentelemetry.sdk.metrics.SdkMeterProvider;
+import io.opentelemetry.sdk.resources.Resource;
+import io.opentelemetry.sdk.trace.SdkTracerProvider;
+import io.opentelemetry.sdk.trace.data.SpanData;
+import io.opentelemetry.sdk.trace.export.SimpleSpanProcessor;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class TraceBudgetSpanProcessorTest {
+    // a 1KB trace budget, which six of the 162 byte spans made by child() fit in
+    private static final SpanLimitSettings LIMITS = new SpanLimitSettings(64, 128, 128, 1);
+
+    private final List<SpanData> exported = new ArrayList<>();
+    private final OpenMetricsReader metricReader = new OpenMetricsReader(Resource.empty(), System::currentTimeMillis);
+    private final SdkMeterProvider meterProvider = SdkMeterProvider.builder()
+            .setResource(Resource.empty())
+            .registerMetricReader(metricReader)
+            .build();
+    private final SdkTracerProvider tracerProvider = SdkTracerProvider.builder()
+            .setSpanLimits(LIMITS.toSpanLimits())
+            .addSpanProcessor(new TraceBudgetSpanProcessor(SimpleSpanProcessor.create(new CollectingSpanExporter(exported)), LIMITS, new TraceBudgetSpanProcessor.Counters(pluginMetrics()), "Project1"))
+            .build();
+
+    @AfterEach
+    void tearDown() {
+        tracerProvider.close();
+        meterProvider.close();
+    }
+
+    @Test
+    void SummarisesSpansOverTheBudgetOnTheirParent() {
+        var build = start("build", null);
+        for (int i = 0; i < 10; i++) child(build, i).setStatus(StatusCode.ERROR).end(20, TimeUnit.MILLISECONDS);
+        build.end();
+
+        assertEquals(List.of("test-0", "test-1", "test-2", "test-3", "test-4", "test-5", "build"), exported.stream().map(SpanData::getName).toList());
+        var attributes = exported.get(6).getAttributes();
+        assertEquals(4, attributes.get(AttributeKey.longKey(PluginConstants.ATTRIBUTE_OMITTED_SPAN_COUNT)));
+        assertEquals(4, attributes.get(AttributeKey.longKey(PluginConstants.ATTRIBUTE_OMITTED_ERROR_SPAN_COUNT)));
+        assertEquals(40, attributes.get(AttributeKey.longKey(PluginConstants.ATTRIBUTE_OMITTED_SPAN_DURATION)));
+        assertTrue(scrape().contains("teamcity_opentelemetry_spans_omitted_total{project=\"Project1\"} 4\n"));
+    }
+
+    @Test
+    void AlwaysSendsTheParentsOfSpansItSent() {
+        var build = start("build", null);
+        var step = start("step", build).setAttribute("detail", "x".repeat(50));
+        start("compile", step).end();
+        for (int i = 0; i < 10; i++) child(build, i).end(20, TimeUnit.MILLISECONDS);
+        // by now the step is over the budget too
+        step.end();
+        build.end();
+
+        var names = exported.stream().map(SpanData::getName).toList();
+        assertTrue(names.contains("compile"));
+        assertTrue(names.contains("step"));
+        assertFalse(names.contains("test-9"));
+    }
+
+    @Test
+    void TruncatesSpanNamesToTheAttributeLengthLimit() {
+        start("x".repeat(100), null).end();
+
+        assertEquals("x".repeat(64), exported.get(0).getName());
+    }
+
+    @Test
+    void CountsValuesAtTheLengthLimitAsPossiblyTruncated() {
+        start("build", null)
+                .setAttribute("long", "a".repeat(100))
+                .setAttribute("short", "b".repeat(10))
+                .end();
+
+        assertEquals("a".repeat(64), exported.get(0).getAttributes().get(AttributeKey.stringKey("long")));
+        assertTrue(scrape().contains("teamcity_opentelemetry_span_attributes_possibly_truncated_total{project=\"Project1\"} 1\n"));
+    }
+
+    private Span start(String name, Span parent) {
+        var builder = tracerProvider.get("test").spanBuilder(name).setStartTimestamp(10, TimeUnit.MILLISECONDS);
+        if (parent == null) builder.setNoParent();
+        else builder.setParent(Context.root().with(parent));
+        return builder.startSpan();
+    }
+
+    private Span child(Span parent, int index) {
+        return start("test-" + index, parent).setAttribute("detail", "x".repeat(50));
+    }
+
+    private PluginMetrics pluginMetrics() {
+        var pluginMetrics = mock(PluginMetrics.class);
+        when(pluginMetrics.isEnabled()).thenReturn(true);
+        when(pluginMetrics.getMeter()).thenReturn(meterProvider.get("test"));
+        return pluginMetrics;
+    }
+
+    private String scrape() {
+        return new String(metricReader.scrape(0), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,44 @@
+package com.octopus.teamcity.opentelemetry.server;
+
+import com.octopus.teamcity.opentelemetry.common.PluginConstants;
+import io.opentelemetry.api.trace.SpanContext;
+import io.opentelemetry.api.trace.TraceFlags;
+import io.opentelemetry.api.trace.TraceState;
+import jetbrains.buildServer.serverSide.BuildStartContext;
+import jetbrains.buildServer.serverSide.SRunningBuild;
+import org.junit.jupiter.api.Test;
+
+import static org.mockito.Mockito.*;
+
+class TraceContextStartContextTest {
+
+    @Test
+    void passesTheBuildSpansTraceparentToTheBuild() {
+        var build = mock(SRunningBuild.class);
+        var context = mock(BuildStartContext.class);
+        when(context.getBuild()).thenReturn(build);
+        var buildListener = mock(TeamCityBuildListener.class);
+        when(buildListener.getBuildSpanContext(build)).thenReturn(SpanContext.create(
+                "0af7651916cd43dd8448eb211c80319c", "b7ad6b7169203331", TraceFlags.getSampled(), TraceState.getDefault()));
+
+        new TraceContextStartContext(buildListener).updateParameters(context);
+
+        var traceparent = "00-0af7651916cd43dd8448eb211c80319c-b7ad6b7169203331-01";
+        verify(context).addSharedParameter(PluginConstants.PARAMETER_TRACEPARENT, traceparent);
+        verify(context).addSharedParameter(PluginConstants.ENV_TRACEPARENT, traceparent);
+        verify(context, never()).addSharedParameter(eq(PluginConstants.ENV_TRACESTATE), anyString());
+    }
+
+    @Test
+    void passesNothingWhenTheBuildIsNotTraced() {
+        var build = mock(SRunningBuild.class);
+        var context = mock(BuildStartContext.class);
+        when(context.getBuild()).thenReturn(build);
+        var buildListener = mock(TeamCityBuildListener.class);
+        when(buildListener.getBuildSpanContext(build)).thenReturn(null);
+
+        new TraceContextStartContext(buildListener).updateParameters(context);
+
+        verify(context, never()).addSharedParameter(anyString(), anyString());
+    }
+}
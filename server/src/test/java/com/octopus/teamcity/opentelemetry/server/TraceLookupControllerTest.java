@@ -0,0 +1,184 @@
+package com.octopus.teamcity.opentelemetry.server;
+
+import com.octopus.teamcity.opentelemetry.server.endpoints.OTELEndpointFactory;
+import jetbrains.buildServer.serverSide.*;
+import jetbrains.buildServer.serverSide.auth.Permission;
+import jetbrains.buildServer.users.SUser;
+import jetbrains.buildServer.util.EventDispatcher;
+import jetbrains.buildServer.web.openapi.WebControllerManager;
+import jetbrains.buildServer.web.util.SessionUser;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.MockedStatic;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class TraceLookupControllerTest {
+    private static final String TRACE_ID = "0af7651916cd43dd8448eb211c80319c";
+
+    private final SBuildServer sBuildServer = mock(SBuildServer.class);
+    private final BuildStorageManager buildStorageManager = mock(BuildStorageManager.class);
+    private final SUser user = mock(SUser.class);
+    private BuildServerListener listener;
+    private TraceLookupController controller;
+    private MockedStatic<SessionUser> sessionUser;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        var dispatcher = mock(EventDispatcher.class);
+        controller = new TraceLookupController(sBuildServer, mock(ProjectManager.class), mock(WebControllerManager.class),
+                buildStorageManager, new OTELEndpointFactory(List.of()), dispatcher);
+        var listenerCaptor = ArgumentCaptor.forClass(BuildServerListener.class);
+        verify(dispatcher).addListener(listenerCaptor.capture());
+        listener = listenerCaptor.getValue();
+
+        when(user.getId()).thenReturn(1L);
+        when(user.isPermissionGrantedForProject("project1", Permission.VIEW_PROJECT)).thenReturn(true);
+        sessionUser = mockStatic(SessionUser.class);
+        sessionUser.when(() -> SessionUser.getUser(any(HttpServletRequest.class))).thenReturn(user);
+
+        var build = mock(SBuild.class);
+        when(build.getBuildId()).thenReturn(7L);
+        when(build.getProjectId()).thenReturn("project1");
+        when(sBuildServer.findBuildInstanceById(7)).thenReturn(build);
+        when(buildStorageManager.getTraceId(build)).thenReturn(TRACE_ID);
+        var hidden = mock(SBuild.class);
+        when(hidden.getProjectId()).thenReturn("project2");
+        when(sBuildServer.findBuildInstanceById(9)).thenReturn(hidden);
+    }
+
+    @AfterEach
+    void tearDown() {
+        sessionUser.close();
+    }
+
+    @Test
+    void LooksUpEveryBuildAskedFor() throws IOException {
+        var response = new Response();
+
+        controller.doHandle(get(null, "7,8", "9"), response.mock);
+
+        assertEquals(HttpServletResponse.SC_OK, response.status());
+        assertEquals("{\"builds\":["
+                + "{\"buildId\":7,\"found\":true,\"traceId\":\"" + TRACE_ID + "\",\"url\":null},"
+                + "{\"buildId\":8,\"found\":false},"
+                + "{\"buildId\":9,\"found\":false}]}", response.body());
+    }
+
+    @Test
+    void RejectsWhatIsntABuildId() throws IOException {
+        var response = new Response();
+
+        controller.doHandle(get(null, "7,abc"), response.mock);
+
+        assertEquals(HttpServletResponse.SC_BAD_REQUEST, response.status());
+        verifyNoInteractions(sBuildServer);
+    }
+
+    @Test
+    void NeedsAUser() throws IOException {
+        sessionUser.when(() -> SessionUser.getUser(any(HttpServletRequest.class))).thenReturn(null);
+        var response = new Response();
+
+        controller.doHandle(get(null, "7"), response.mock);
+
+        assertEquals(HttpServletResponse.SC_FORBIDDEN, response.status());
+    }
+
+    @Test
+    void AnswersARepeatedPollWithoutLookingAnythingUp() throws IOException {
+        var etag = poll(null).etag();
+
+        var response = poll(etag);
+
+        assertEquals(HttpServletResponse.SC_NOT_MODIFIED, response.status());
+        assertEquals(etag, response.etag());
+        verify(sBuildServer, times(1)).findBuildInstanceById(7);
+        verify(buildStorageManager, times(1)).getTraceId(any());
+    }
+
+    @Test
+    void SavingATraceIdChangesTheETag() throws IOException {
+        var etag = poll(null).etag();
+
+        when(buildStorageManager.getTraceIdVersion()).thenReturn(1L);
+
+        assertEquals(HttpServletResponse.SC_OK, poll(etag).status());
+    }
+
+    @Test
+    void SavingAProjectChangesTheETag() throws IOException {
+        var etag = poll(null).etag();
+
+        listener.projectPersisted("project1");
+
+        assertEquals(HttpServletResponse.SC_OK, poll(etag).status());
+    }
+
+    @Test
+    void EachUserAndSetOfBuildsHasItsOwnETag() throws IOException {
+        var etag = poll(null).etag();
+
+        var otherBuilds = new Response();
+        controller.doHandle(get(etag, "7,8"), otherBuilds.mock);
+        when(user.getId()).thenReturn(2L);
+        var otherUser = poll(etag);
+
+        assertEquals(HttpServletResponse.SC_OK, otherBuilds.status());
+        assertEquals(HttpServletResponse.SC_OK, otherUser.status());
+    }
+
+    private Response poll(String ifNoneMatch) throws IOException {
+        var response = new Response();
+        controller.doHandle(get(ifNoneMatch, "7"), response.mock);
+        return response;
+    }
+
+    private static HttpServletRequest get(String ifNoneMatch, String... buildIds) {
+        var request = mock(HttpServletRequest.class);
+        when(request.getMethod()).thenReturn("GET");
+        when(request.getParameterValues("buildIds")).thenReturn(buildIds);
+        when(request.getHeader("If-None-Match")).thenReturn(ifNoneMatch);
+        return request;
+    }
+
+    private static class Response {
+        final HttpServletResponse mock = mock(HttpServletResponse.class);
+        final StringWriter body = new StringWriter();
+
+        Response() {
+            try {
+                when(mock.getWriter()).thenReturn(new PrintWriter(body));
+            } catch (IOException e) {
+                throw new AssertionError(e);
+            }
+        }
+
+        int status() {
+            var status = ArgumentCaptor.forClass(Integer.class);
+            verify(mock).setStatus(status.capture());
+            return status.getValue();
+        }
+
+        String etag() {
+            var etag = ArgumentCaptor.forClass(String.class);
+            verify(mock).setHeader(eq("ETag"), etag.capture());
+            return etag.getValue();
+        }
+
+        String body() {
+            return body.toString();
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package com.octopus.teamcity.opentelemetry.server;
+
+import com.octopus.teamcity.opentelemetry.server.endpoints.IOTELEndpointHandler;
+import com.octopus.teamcity.opentelemetry.server.endpoints.OTELEndpointFactory;
+import com.octopus.teamcity.opentelemetry.server.helpers.CircuitBreakingSpanExporter;
+import com.octopus.teamcity.opentelemetry.server.helpers.ExporterCircuitBreaker;
+import com.octopus.teamcity.opentelemetry.server.helpers.UnsentSpanStore;
+import io.opentelemetry.sdk.common.CompletableResultCode;
+import io.opentelemetry.sdk.trace.SdkTracerProvider;
+import io.opentelemetry.sdk.trace.data.SpanData;
+import io.opentelemetry.sdk.trace.export.SimpleSpanProcessor;
+import io.opentelemetry.sdk.trace.export.SpanExporter;
+import jetbrains.buildServer.serverSide.ProjectManager;
+import jetbrains.buildServer.serverSide.SProject;
+import jetbrains.buildServer.serverSide.SProjectFeatureDescriptor;
+import jetbrains.buildServer.serverSide.ServerPaths;
+import jetbrains.buildServer.util.EventDispatcher;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static com.octopus.teamcity.opentelemetry.common.PluginConstants.*;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class UnsentSpanStoreTest {
+    private static final String PROJECT = "Project1";
+
+    @TempDir
+    File dataDirectory;
+
+    private final List<SpanData> exported = new ArrayList<>();
+    private final ProjectManager projectManager = mock(ProjectManager.class);
+    private final IOTELEndpointHandler handler = mock(IOTELEndpointHandler.class);
+    private final Map<String, String> params = Map.of(
+            PROPERTY_KEY_ENABLED, "true",
+            PROPERTY_KEY_SERVICE, "custom",
+            PROPERTY_KEY_ENDPOINT, "http://collector:4317");
+    private UnsentSpanStore store;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        var serverPaths = mock(ServerPaths.class);
+        when(serverPaths.getPluginDataDirectory()).thenReturn(dataDirectory);
+        when(handler.getServiceName()).thenReturn("custom");
+        var feature = mock(SProjectFeatureDescriptor.class);
+        when(feature.getParameters()).thenReturn(params);
+        var project = mock(SProject.class);
+        when(project.getAvailableFeaturesOfType(PLUGIN_NAME)).thenReturn(List.of(feature));
+        when(projectManager.findProjectByExternalId(PROJECT)).thenReturn(project);
+
+        store = new UnsentSpanStore(mock(EventDispatcher.class), projectManager, new OTELEndpointFactory(List.of(handler)), serverPaths);
+    }
+
+    @Test
+    void SendsTheSavedSpansAndDeletesTheFile() {
+        when(handler.buildSpanExporter("http://collector:4317", params)).thenReturn(exporter(CompletableResultCode.ofSuccess()));
+        store.save(PROJECT, spans("compile", "test"));
+
+        store.sendSaved();
+
+        assertEquals(List.of("compile", "test"), exported.stream().map(SpanData::getName).sorted().toList());
+        assertEquals(0, savedFiles().length);
+    }
+
+    @Test
+    void KeepsTheFileWhenTheExportFails() {
+        when(handler.buildSpanExporter("http://collector:4317", params)).thenReturn(exporter(CompletableResultCode.ofFailure()));
+        store.save(PROJECT, spans("compile"));
+
+        store.sendSaved();
+
+        assertEquals(1, exported.size());
+        assertEquals(1, savedFiles().length);
+    }
+
+    @Test
+    void KeepsTheFileWhenTheCircuitBreakerIsOpen() {
+        var breaker = new ExporterCircuitBreaker("custom http://collector:4317", 1, 30_000, 60_000, () -> 1_000_000);
+        breaker.onExportResult(false, new IOException("connection refused"));
+        when(handler.buildSpanExporter("http://collector:4317", params))
+                .thenReturn(new CircuitBreakingSpanExporter(exporter(CompletableResultCode.ofSuccess()), breaker));
+        store.save(PROJECT, spans("compile"));
+
+        store.sendSaved();
+
+        assertTrue(exported.isEmpty());
+        assertEquals(1, savedFiles().length);
+    }
+
+    @Test
+    void DiscardsTheSpansOfProjectsThatNoLongerExist() {
+        store.save("DeletedProject", spans("compile"));
+
+        store.sendSaved();
+
+        verify(handler, never()).buildSpanExporter(any(), any());
+        assertEquals(0, savedFiles().length);
+    }
+
+    private File[] savedFiles() {
+        var files = new File(dataDirectory, PLUGIN_NAME + File.separator + "unsent-spans").listFiles((dir, name) -> name.endsWith(".otlp"));
+        return files == null ? new File[0] : files;
+    }
+
+    private SpanExporter exporter(CompletableResultCode result) {
+        return new CollectingSpanExporter(exported, result);
+    }
+
+    private static List<SpanData> spans(String... names) {
+        var spans = new ArrayList<SpanData>();
+        try (var tracerProvider = SdkTracerProvider.builder()
+                .addSpanProcessor(SimpleSpanProcessor.create(new CollectingSpanExporter(spans)))
+                .build()) {
+            for (var name : names) tracerProvider.get("test").spanBuilder(name).startSpan().end();
+        }
+        return spans;
+    }
+}
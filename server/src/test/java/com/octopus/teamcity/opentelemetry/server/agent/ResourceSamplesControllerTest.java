@@ -0,0 +1,111 @@
+package com.octopus.teamcity.opentelemetry.server.agent;
+
+import jetbrains.buildServer.controllers.AuthorizationInterceptor;
+import jetbrains.buildServer.web.openapi.WebControllerManager;
+import org.junit.jupiter.api.Test;
+
+import javax.servlet.ReadListener;
+import javax.servlet.ServletInputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static com.octopus.teamcity.opentelemetry.common.PluginConstants.*;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+// In the controller's package, as doHandle is protected.
+class ResourceSamplesControllerTest {
+    private static final String SAMPLES = "1000 10 2048 1 2 3 4\n2000 20 4096 5 6 7 8\n";
+
+    private final ResourceSampleStore store = new ResourceSampleStore();
+    private final ResourceSamplesController controller = new ResourceSamplesController(
+            mock(WebControllerManager.class), mock(AuthorizationInterceptor.class), store);
+    private final HttpServletResponse response = mock(HttpServletResponse.class);
+
+    @Test
+    void AddsSamplesCarryingTheBuildsToken() throws IOException {
+        var token = store.register(7);
+
+        controller.doHandle(post("7", token, null, SAMPLES), response);
+
+        verify(response).setStatus(HttpServletResponse.SC_NO_CONTENT);
+        assertEquals(2, store.take(7).size());
+    }
+
+    @Test
+    void RejectsTheWrongToken() throws IOException {
+        store.register(7);
+
+        controller.doHandle(post("7", "not-the-token", null, SAMPLES), response);
+
+        verify(response).sendError(HttpServletResponse.SC_FORBIDDEN);
+        assertNull(store.take(7));
+    }
+
+    @Test
+    void RejectsMalformedSamples() throws IOException {
+        var token = store.register(7);
+
+        controller.doHandle(post("7", token, null, "1000 10\n"), response);
+
+        verify(response).sendError(eq(HttpServletResponse.SC_BAD_REQUEST), anyString());
+    }
+
+    @Test
+    void NeedsABuildId() throws IOException {
+        controller.doHandle(post(null, "token", null, SAMPLES), response);
+
+        verify(response).sendError(eq(HttpServletResponse.SC_BAD_REQUEST), anyString());
+    }
+
+    @Test
+    void RecordsHowFarBehindTheAgentsClockIs() throws IOException {
+        var token = store.register(7);
+
+        controller.doHandle(post("7", token, String.valueOf(System.currentTimeMillis() - 60_000), SAMPLES), response);
+
+        var offset = store.take(7).getClockOffsetMs();
+        assertTrue(offset >= 60_000 && offset < 70_000, "offset was " + offset);
+    }
+
+    @Test
+    void TakesSamplesFromAgentsThatDontSayWhenTheySentThem() throws IOException {
+        var token = store.register(7);
+
+        controller.doHandle(post("7", token, null, SAMPLES), response);
+
+        assertEquals(0, store.take(7).getClockOffsetMs());
+    }
+
+    private static HttpServletRequest post(String buildId, String token, String sentAt, String body) throws IOException {
+        var bytes = body.getBytes(StandardCharsets.UTF_8);
+        var input = new ByteArrayInputStream(bytes);
+        var request = mock(HttpServletRequest.class);
+        when(request.getMethod()).thenReturn("POST");
+        when(request.getParameter("buildId")).thenReturn(buildId);
+        when(request.getHeader(RESOURCE_SAMPLES_TOKEN_HEADER)).thenReturn(token);
+        when(request.getHeader(RESOURCE_SAMPLES_SENT_AT_HEADER)).thenReturn(sentAt);
+        when(request.getContentLength()).thenReturn(bytes.length);
+        when(request.getInputStream()).thenReturn(new ServletInputStream() {
+            @Override
+            public int read() {
+                return input.read();
+            }
+
+            public boolean isFinished() {
+                return input.available() == 0;
+            }
+
+            public boolean isReady() {
+                return true;
+            }
+
+            public void setReadListener(ReadListener readListener) {
+            }
+        });
+        return request;
+    }
+}